@@ -25,6 +25,8 @@ import com.google.cloud.bigquery.JobId;
 import com.google.cloud.bigquery.JobInfo.SchemaUpdateOption;
 import com.google.cloud.bigquery.JobInfo.WriteDisposition;
 import com.google.cloud.bigquery.JobStatistics.LoadStatistics;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.Table;
 import com.google.cloud.bigquery.TableDataWriteChannel;
 import com.google.cloud.bigquery.TableId;
 import com.google.cloud.bigquery.TableInfo;
@@ -48,39 +50,8 @@ public class BigQueryApis {
       String fhirStoreName, String projectId, String datasetId) throws Exception {
 
     logger.entry("begin BigQueryApis.exportFhirStoreDataToBigQuery()");
-    // Execute the request and process the results.
-    Operation store;
     try {
-
-      // Initialize the client, which will be used to interact with the service.
-      CloudHealthcare client = ConsentManagementAPIs.createClient();
-      GoogleCloudHealthcareV1FhirBigQueryDestination bigqueryDestination =
-          new GoogleCloudHealthcareV1FhirBigQueryDestination();
-
-      SchemaConfig schemaConfig = new SchemaConfig();
-      ExportResourcesRequest exportResourcesRequest = new ExportResourcesRequest();
-      long recursiveStructureDepth = 5;
-      exportResourcesRequest.setBigqueryDestination(
-          bigqueryDestination
-              .setDatasetUri("bq://" + projectId + "." + datasetId)
-              .setForce(true)
-              .setWriteDisposition("WRITE_TRUNCATE")
-              .setSchemaConfig(
-                  schemaConfig
-                      .setSchemaType("ANALYTICS")
-                      .setRecursiveStructureDepth(recursiveStructureDepth)));
-
-      // Create request and configure any parameters.
-      FhirStores.Export request =
-          client
-              .projects()
-              .locations()
-              .datasets()
-              .fhirStores()
-              .export(fhirStoreName, exportResourcesRequest);
-
-      store = request.execute();
-      logger.debug("FHIR store exported to BigQuery: " + store.toPrettyString());
+      startFhirStoreExport(fhirStoreName, projectId, datasetId);
     } catch (IOException e) {
       logger.error("BigQueryApis.exportFhirStoreDataToBigQuery() - error ", e);
     }
@@ -88,6 +59,65 @@ public class BigQueryApis {
     logger.exit("BigQueryApis.exportFhirStoreDataToBigQuery() - Ends ");
   }
 
+  /**
+   * Starts the export of a FHIR store to BigQuery. The export replaces the tables.
+   *
+   * @return the long-running export operation
+   */
+  public Operation startFhirStoreExport(String fhirStoreName, String projectId, String datasetId)
+      throws IOException {
+    return startFhirStoreExport(fhirStoreName, projectId, datasetId, null);
+  }
+
+  /**
+   * Starts the export of a FHIR store to BigQuery. With {@code since}, only the resources updated
+   * after it are exported and appended to the tables, and the views read the latest version of
+   * each resource; otherwise the export replaces the tables.
+   *
+   * @param since instant in RFC 3339 format, or null to export every resource
+   * @return the long-running export operation
+   */
+  public Operation startFhirStoreExport(
+      String fhirStoreName, String projectId, String datasetId, String since) throws IOException {
+
+    logger.entry("begin BigQueryApis.startFhirStoreExport()");
+    // Initialize the client, which will be used to interact with the service.
+    CloudHealthcare client = ConsentManagementAPIs.createClient();
+    GoogleCloudHealthcareV1FhirBigQueryDestination bigqueryDestination =
+        new GoogleCloudHealthcareV1FhirBigQueryDestination();
+
+    SchemaConfig schemaConfig = new SchemaConfig();
+    ExportResourcesRequest exportResourcesRequest = new ExportResourcesRequest();
+    long recursiveStructureDepth = 5;
+    exportResourcesRequest.setBigqueryDestination(
+        bigqueryDestination
+            .setDatasetUri("bq://" + projectId + "." + datasetId)
+            .setForce(true)
+            .setWriteDisposition(since == null ? "WRITE_TRUNCATE" : "WRITE_APPEND")
+            .setSchemaConfig(
+                schemaConfig
+                    .setSchemaType("ANALYTICS")
+                    .setRecursiveStructureDepth(recursiveStructureDepth)));
+    if (since != null) {
+      // This revision of the client library has no accessor for the _since field of the request
+      exportResourcesRequest.set("_since", since);
+    }
+
+    // Create request and configure any parameters.
+    FhirStores.Export request =
+        client
+            .projects()
+            .locations()
+            .datasets()
+            .fhirStores()
+            .export(fhirStoreName, exportResourcesRequest);
+
+    Operation store = request.execute();
+    logger.debug("FHIR store exported to BigQuery: " + store.toPrettyString());
+    logger.exit("BigQueryApis.startFhirStoreExport() - Ends ");
+    return store;
+  }
+
   public void ingestDataToBigQueryTable(
       String bqProjectId,
       String bqLocation,
@@ -98,65 +128,110 @@ public class BigQueryApis {
       throws IOException, InterruptedException, TimeoutException {
 
     logger.entry("begin BigQueryApis.ingestDataToBigQueryTable()");
-    LoadStatistics stats = null;
-    TableDataWriteChannel writer = null;
-    StringBuilder formattedData = new StringBuilder();
-    WriteChannelConfiguration writeChannelConfiguration;
     try {
-
-      BigQuery bigQuery = BigQueryOptions.getDefaultInstance().getService();
-      // [START bigquery_load_from_file]
-      TableId tableId = TableId.of(bqProjectId, bqDatasetName, tableName);
-
-      if (writeDisposition.equalsIgnoreCase("WRITE_TRUNCATE")) {
-        writeChannelConfiguration =
-            WriteChannelConfiguration.newBuilder(tableId)
-                .setFormatOptions(FormatOptions.json())
-                .setAutodetect(true)
-                .setWriteDisposition(WriteDisposition.WRITE_TRUNCATE)
-                .build();
-      } else {
-        writeChannelConfiguration =
-            WriteChannelConfiguration.newBuilder(tableId)
-                .setFormatOptions(FormatOptions.json())
-                .setAutodetect(true)
-                .setWriteDisposition(WriteDisposition.WRITE_APPEND)
-                .setSchemaUpdateOptions(ImmutableList.of(SchemaUpdateOption.ALLOW_FIELD_ADDITION))
-                .build();
+      BigQueryTableWriter writer =
+          openTableWriter(bqProjectId, bqLocation, bqDatasetName, tableName, writeDisposition);
+      for (Object jsonData : dataList) {
+        writer.writeRow(jsonData.toString().replaceAll("\\s", ""));
       }
-      // The location must be specified; other fields can be auto-detected.
-      JobId jobId = JobId.newBuilder().setLocation(bqLocation).build();
-      writer = bigQuery.writer(jobId, writeChannelConfiguration);
+      writer.finish();
+    } catch (Exception e) {
+      logger.error("%s BigQueryApis.ingestDataToBigQueryTable() - error " + e);
+    }
 
-      for (Object jsonData : dataList) {
+    logger.exit("BigQueryApis.ingestDataToBigQueryTable() - Ends ");
+  }
 
-        String jso = jsonData.toString();
-        jso = jso.replaceAll("\\s", "");
-        formattedData.append(jso).append(System.getProperty("line.separator"));
-      }
+  /**
+   * Opens a load job into the table. Rows written to the returned writer are uploaded in chunks as
+   * they are written, and the job loads them once {@link BigQueryTableWriter#finish()} is called.
+   */
+  public BigQueryTableWriter openTableWriter(
+      String bqProjectId,
+      String bqLocation,
+      String bqDatasetName,
+      String tableName,
+      String writeDisposition) {
+    BigQuery bigQuery = BigQueryOptions.getDefaultInstance().getService();
+    // [START bigquery_load_from_file]
+    TableId tableId = TableId.of(bqProjectId, bqDatasetName, tableName);
 
-      try {
-        writer.write(ByteBuffer.wrap((formattedData.toString()).getBytes(Charsets.UTF_8)));
-      } finally {
-        writer.close();
-      }
+    WriteChannelConfiguration writeChannelConfiguration;
+    if (writeDisposition.equalsIgnoreCase("WRITE_TRUNCATE")) {
+      writeChannelConfiguration =
+          WriteChannelConfiguration.newBuilder(tableId)
+              .setFormatOptions(FormatOptions.json())
+              .setAutodetect(true)
+              .setWriteDisposition(WriteDisposition.WRITE_TRUNCATE)
+              .build();
+    } else {
+      writeChannelConfiguration =
+          WriteChannelConfiguration.newBuilder(tableId)
+              .setFormatOptions(FormatOptions.json())
+              .setAutodetect(true)
+              .setWriteDisposition(WriteDisposition.WRITE_APPEND)
+              .setSchemaUpdateOptions(ImmutableList.of(SchemaUpdateOption.ALLOW_FIELD_ADDITION))
+              .build();
+    }
+    // The location must be specified; other fields can be auto-detected.
+    JobId jobId = JobId.newBuilder().setLocation(bqLocation).build();
+    return new BigQueryTableWriter(bigQuery.writer(jobId, writeChannelConfiguration));
+  }
 
+  /** Deletes every row of the table, if it exists, and keeps the table so views on it resolve. */
+  public void truncateTable(
+      String bqProjectId, String bqLocation, String bqDatasetName, String tableName)
+      throws InterruptedException {
+    BigQuery bigQuery = BigQueryOptions.getDefaultInstance().getService();
+    if (bigQuery.getTable(TableId.of(bqProjectId, bqDatasetName, tableName)) == null) {
+      return;
+    }
+    QueryJobConfiguration truncate =
+        QueryJobConfiguration.newBuilder(
+                "TRUNCATE TABLE `" + bqProjectId + "." + bqDatasetName + "." + tableName + "`")
+            .setUseLegacySql(false)
+            .build();
+    bigQuery.query(truncate, JobId.newBuilder().setLocation(bqLocation).build());
+  }
+
+  /** Newline delimited JSON upload into a BigQuery load job. */
+  public static class BigQueryTableWriter {
+    private final TableDataWriteChannel writer;
+    private long rowCount;
+
+    private BigQueryTableWriter(TableDataWriteChannel writer) {
+      this.writer = writer;
+    }
+
+    public void writeRow(String jsonRow) throws IOException {
+      writer.write(
+          ByteBuffer.wrap(
+              (jsonRow + System.getProperty("line.separator")).getBytes(Charsets.UTF_8)));
+      rowCount++;
+    }
+
+    public long getRowCount() {
+      return rowCount;
+    }
+
+    /**
+     * Completes the upload and waits for the load job. A writer that is never finished loads
+     * nothing, so a failed export leaves the table as it was.
+     */
+    public Job finish() throws IOException, InterruptedException, TimeoutException {
+      writer.close();
       // Get load job
       Job job = writer.getJob();
       job =
           job.waitFor(
               RetryOption.initialRetryDelay(Duration.ofSeconds(1)),
               RetryOption.totalTimeout(Duration.ofMinutes(3)));
-      stats = job.getStatistics();
+      LoadStatistics stats = job.getStatistics();
       logger.info("BigQuery ingest State: " + job.getStatus().getState());
       logger.info("BigQuery number of rows updated: " + stats.getOutputRows());
-
       // [END bigquery_load_from_file]
-    } catch (Exception e) {
-      logger.error("%s BigQueryApis.ingestDataToBigQueryTable() - error " + e);
+      return job;
     }
-
-    logger.exit("BigQueryApis.ingestDataToBigQueryTable() - Ends ");
   }
 
   public void createViewsInBigQuery(String projectId, String datasetName) throws Exception {
@@ -230,13 +305,9 @@ public class BigQueryApis {
                 + "  answerOptions2.value.string AS answerOptions_value2\r\n"
                 + "\r\n"
                 + "FROM\r\n"
-                + "  `"
-                + projectId
-                + "."
-                + datasetName
-                + "."
-                + questionnaireTable
-                + "` AS questionnaire\r\n"
+                + "  "
+                + latestResources(projectId, datasetName, questionnaireTable)
+                + " AS questionnaire\r\n"
                 + "  CROSS JOIN UNNEST(questionnaire.identifier) AS identifier\r\n"
                 + "  CROSS JOIN UNNEST(questionnaire.item) AS items\r\n"
                 + "  LEFT JOIN UNNEST(items.answerOption) AS answerOptions\r\n"
@@ -314,13 +385,9 @@ public class BigQueryApis {
                 + "  itemAns3.value.time AS ActiveTaskAnswerTime\r\n"
                 + "\r\n"
                 + "FROM\r\n"
-                + "  `"
-                + projectId
-                + "."
-                + datasetName
-                + "."
-                + questionnaireResponseTable
-                + "` AS questionnaireResponse\r\n"
+                + "  "
+                + latestResources(projectId, datasetName, questionnaireResponseTable)
+                + " AS questionnaireResponse\r\n"
                 + "  LEFT JOIN UNNEST(questionnaireResponse.item) AS item1\r\n"
                 + "  LEFT JOIN UNNEST(item1.answer) AS itemAns1\r\n"
                 + "  LEFT JOIN UNNEST(item1.item) AS item2\r\n"
@@ -328,13 +395,9 @@ public class BigQueryApis {
                 + "  LEFT JOIN UNNEST(itemAns1.item) AS item3  \r\n"
                 + "  LEFT JOIN UNNEST(item3.answer) AS itemAns3 \r\n"
                 + "LEFT OUTER JOIN\r\n"
-                + "  `"
-                + projectId
-                + "."
-                + datasetName
-                + "."
-                + patientTable
-                + "` AS patient\r\n"
+                + "  "
+                + latestResources(projectId, datasetName, patientTable)
+                + " AS patient\r\n"
                 + "ON\r\n"
                 + "  SPLIT(source.patientId, '/')[safe_ORDINAL(1)] = patient.id\r\n"
                 + "  CROSS JOIN UNNEST(patient.identifier) AS participantId\r\n"
@@ -417,13 +480,9 @@ public class BigQueryApis {
                 + "  itemAns3.value.time AS ActiveTaskAnswerTime\r\n"
                 + "\r\n"
                 + "FROM\r\n"
-                + "  `"
-                + projectId
-                + "."
-                + datasetName
-                + "."
-                + questionnaireResponseTable
-                + "` AS questionnaireResponse\r\n"
+                + "  "
+                + latestResources(projectId, datasetName, questionnaireResponseTable)
+                + " AS questionnaireResponse\r\n"
                 + "  LEFT JOIN UNNEST(questionnaireResponse.item) AS item1\r\n"
                 + "  LEFT JOIN UNNEST(item1.answer) AS itemAns1\r\n"
                 + "  LEFT JOIN UNNEST(item1.item) AS item2\r\n"
@@ -431,13 +490,9 @@ public class BigQueryApis {
                 + "  LEFT JOIN UNNEST(itemAns1.item) AS item3  \r\n"
                 + "  LEFT JOIN UNNEST(item3.answer) AS itemAns3 \r\n"
                 + "LEFT OUTER JOIN\r\n"
-                + "  `"
-                + projectId
-                + "."
-                + datasetName
-                + "."
-                + patientTable
-                + "` AS patient\r\n"
+                + "  "
+                + latestResources(projectId, datasetName, patientTable)
+                + " AS patient\r\n"
                 + "ON\r\n"
                 + "  SPLIT(source.patientId, '/')[safe_ORDINAL(1)] = patient.id\r\n"
                 + "  CROSS JOIN UNNEST(patient.identifier) AS participantId\r\n"
@@ -523,13 +578,9 @@ public class BigQueryApis {
                 + "  itemAns3.value.time AS ActiveTaskAnswerTime\r\n"
                 + "\r\n"
                 + "FROM\r\n"
-                + "  `"
-                + projectId
-                + "."
-                + datasetName
-                + "."
-                + questionnaireResponseTable
-                + "` AS questionnaireResponse\r\n"
+                + "  "
+                + latestResources(projectId, datasetName, questionnaireResponseTable)
+                + " AS questionnaireResponse\r\n"
                 + "  LEFT JOIN UNNEST(questionnaireResponse.item) AS item1\r\n"
                 + "  LEFT JOIN UNNEST(item1.answer) AS itemAns1\r\n"
                 + "  LEFT JOIN UNNEST(item1.item) AS item2\r\n"
@@ -537,13 +588,9 @@ public class BigQueryApis {
                 + "  LEFT JOIN UNNEST(itemAns1.item) AS item3  \r\n"
                 + "  LEFT JOIN UNNEST(item3.answer) AS itemAns3 \r\n"
                 + "LEFT OUTER JOIN\r\n"
-                + "  `"
-                + projectId
-                + "."
-                + datasetName
-                + "."
-                + patientTable
-                + "` AS patient\r\n"
+                + "  "
+                + latestResources(projectId, datasetName, patientTable)
+                + " AS patient\r\n"
                 + "ON\r\n"
                 + "  SPLIT(source.patientId, '/')[safe_ORDINAL(1)] = patient.id\r\n"
                 + "  CROSS JOIN UNNEST(patient.identifier) AS participantId\r\n"
@@ -571,6 +618,22 @@ public class BigQueryApis {
     logger.exit("GoogleBigQuery.createViewsInBigQuery() Ends ");
   }
 
+  /**
+   * Reads the latest version of each resource of a FHIR table, as incremental exports append the
+   * resources updated since the last export to the versions exported before.
+   */
+  private static String latestResources(String projectId, String datasetName, String table) {
+    return "(SELECT * FROM `"
+        + projectId
+        + "."
+        + datasetName
+        + "."
+        + table
+        + "` WHERE TRUE\r\n"
+        + "    QUALIFY ROW_NUMBER() OVER (PARTITION BY id ORDER BY meta.lastUpdated DESC) = 1)";
+  }
+
+  /** Creates the view, or replaces it when it exists with another query. */
   public static void createViewInBigQuery(
       String bqProjectId, String datasetName, String viewName, String query) {
     try {
@@ -583,8 +646,16 @@ public class BigQueryApis {
       ViewDefinition viewDefinition =
           ViewDefinition.newBuilder(query).setUseLegacySql(false).build();
 
-      bigquery.create(TableInfo.of(tableId, viewDefinition));
-      logger.debug("View created successfully");
+      Table view = bigquery.getTable(tableId);
+      if (view == null) {
+        bigquery.create(TableInfo.of(tableId, viewDefinition));
+        logger.debug("View created successfully");
+      } else if (!(view.getDefinition() instanceof ViewDefinition)
+          || !query.equals(((ViewDefinition) view.getDefinition()).getQuery())) {
+        // views created by an earlier release read the tables without dropping older versions
+        bigquery.update(TableInfo.of(tableId, viewDefinition));
+        logger.debug("View replaced successfully");
+      }
     } catch (BigQueryException e) {
       logger.error("View was not created. \n" + e.toString());
     }
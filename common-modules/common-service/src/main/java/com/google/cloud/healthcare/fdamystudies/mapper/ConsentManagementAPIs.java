@@ -216,6 +216,27 @@ public class ConsentManagementAPIs {
     return (null != store ? store.getConsents() : null);
   }
 
+  /**
+   * Fetches one page of consents, so callers can process a large consent store page by page.
+   *
+   * @param pageToken token returned with the previous page, or null for the first page
+   */
+  public ListConsentsResponse getConsentsPage(
+      String filter, String parentName, int pageSize, String pageToken) throws IOException {
+    logger.entry("Begin getConsentsPage()");
+    return createClient()
+        .projects()
+        .locations()
+        .datasets()
+        .consentStores()
+        .consents()
+        .list(parentName)
+        .setFilter(filter)
+        .setPageSize(pageSize)
+        .setPageToken(pageToken)
+        .execute();
+  }
+
   public List<ConsentStore> getListOfConsentStores(String parentName) {
     logger.entry("Begin getListOfConsentStores()");
     try {
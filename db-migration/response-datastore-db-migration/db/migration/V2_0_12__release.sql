@@ -0,0 +1,105 @@
+
+-- queue of activity responses accepted for asynchronous processing
+CREATE TABLE `activity_response_queue` (
+  `id` varchar(255) NOT NULL,
+  `study_id` varchar(32) NOT NULL,
+  `participant_id` varchar(64) NOT NULL,
+  `activity_id` varchar(64) NOT NULL,
+  `activity_version` varchar(32) NOT NULL,
+  `activity_run_id` varchar(32) DEFAULT NULL,
+  `user_id` varchar(64) DEFAULT NULL,
+  `locale` varchar(32) DEFAULT NULL,
+  `payload` longtext NOT NULL,
+  `audit_request` longtext DEFAULT NULL,
+  `status` varchar(32) NOT NULL,
+  `attempts` int(11) NOT NULL,
+  `next_attempt_time` datetime NOT NULL,
+  `claimed_time` datetime DEFAULT NULL,
+  `claim_token` varchar(64) DEFAULT NULL,
+  `receipt_claim_token` varchar(64) DEFAULT NULL,
+  `completed_stage` varchar(32) DEFAULT NULL,
+  `last_error` varchar(255) DEFAULT NULL,
+  `created_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `activity_response_queue_status_next_attempt_idx` (`status`,`next_attempt_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- one activity state row per study, participant and activity, so activity state changes can be
+-- upserted; of the duplicates left by concurrent updates, the most recently created row is kept,
+-- and of rows created at the same time the one with the greatest id; the ids are read through a
+-- materialized derived table, as MySQL does not let a DELETE select from its own table directly
+DELETE FROM `participant_activities`
+ WHERE `id` IN (
+   SELECT DISTINCT `id` FROM (
+     SELECT duplicate.`id`
+       FROM `participant_activities` duplicate
+       JOIN `participant_activities` kept
+         ON kept.`study_id` = duplicate.`study_id`
+        AND kept.`participant_id` = duplicate.`participant_id`
+        AND kept.`activity_id` = duplicate.`activity_id`
+      WHERE COALESCE(kept.`created_time`, '1970-01-01 00:00:00')
+              > COALESCE(duplicate.`created_time`, '1970-01-01 00:00:00')
+         OR (COALESCE(kept.`created_time`, '1970-01-01 00:00:00')
+              = COALESCE(duplicate.`created_time`, '1970-01-01 00:00:00')
+             AND kept.`id` > duplicate.`id`)
+   ) AS duplicates
+ );
+
+ALTER TABLE `participant_activities`
+  ADD UNIQUE KEY `participant_activities_study_participant_activity_uidx`
+    (`study_id`,`participant_id`,`activity_id`);
+
+-- receipt of each submitted activity run, so replayed submissions are not processed again
+CREATE TABLE `activity_response_receipt` (
+  `id` varchar(255) NOT NULL,
+  `study_id` varchar(32) NOT NULL,
+  `participant_id` varchar(64) NOT NULL,
+  `activity_id` varchar(64) NOT NULL,
+  `activity_version` varchar(32) NOT NULL,
+  `activity_run_id` varchar(32) NOT NULL,
+  `status` varchar(32) NOT NULL,
+  `claimed_time` datetime NOT NULL,
+  `claim_token` varchar(64) DEFAULT NULL,
+  `created_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `activity_response_receipt_run_uidx`
+    (`study_id`,`participant_id`,`activity_id`,`activity_version`,`activity_run_id`),
+  KEY `activity_response_receipt_status_claimed_idx` (`status`,`claimed_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- version of the activity state of each participant, replaced with every activity state change
+-- so that a cached activity state can be validated without reading the activities
+CREATE TABLE `participant_activity_state_version` (
+  `id` varchar(255) NOT NULL,
+  `study_id` varchar(32) NOT NULL,
+  `participant_id` varchar(64) NOT NULL,
+  `version` varchar(32) NOT NULL,
+  `updated_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `participant_activity_state_version_uidx` (`study_id`,`participant_id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+-- claim of a response or withdrawn patient re-submitted for de-identification, so that only one
+-- instance re-submits it
+ALTER TABLE `fhir_history`
+  ADD COLUMN `claimed_time` datetime DEFAULT NULL,
+  ADD COLUMN `claim_token` varchar(64) DEFAULT NULL;
+
+-- background jobs withdrawing many participants, so any instance can report the state of a job
+-- and unfinished jobs of an instance that stopped are resumed by another one
+CREATE TABLE `participant_withdrawal_job` (
+  `id` varchar(255) NOT NULL,
+  `study_id` varchar(32) NOT NULL,
+  `participant_count` int(11) NOT NULL,
+  `participant_ids` longtext NOT NULL,
+  `audit_request` longtext DEFAULT NULL,
+  `status` varchar(32) NOT NULL,
+  `app_error_code` int(11) DEFAULT NULL,
+  `error_message` varchar(255) DEFAULT NULL,
+  `claimed_time` datetime NOT NULL,
+  `claim_token` varchar(64) DEFAULT NULL,
+  `updated_time` datetime DEFAULT NULL,
+  `created_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  KEY `participant_withdrawal_job_status_claimed_idx` (`status`,`claimed_time`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.benchmark;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads and writes {@link ActivityResponseBean} with Jackson, as the controllers and the response
+ * queue do, and with Gson, as the responses are stored.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseSerializationBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int steps;
+
+  private final Gson gson = new Gson();
+
+  private final ObjectMapper objectMapper =
+      new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private ActivityResponseBean response;
+
+  private String responseJson;
+
+  @Setup
+  public void setUp() throws IOException {
+    response = SyntheticActivity.response("benchParticipant", "1", steps);
+    responseJson = objectMapper.writeValueAsString(response);
+  }
+
+  @Benchmark
+  public String jacksonWrite() throws IOException {
+    return objectMapper.writeValueAsString(response);
+  }
+
+  @Benchmark
+  public ActivityResponseBean jacksonRead() throws IOException {
+    return objectMapper.readValue(responseJson, ActivityResponseBean.class);
+  }
+
+  @Benchmark
+  public String gsonWrite() {
+    return gson.toJson(response);
+  }
+
+  @Benchmark
+  public ActivityResponseBean gsonRead() {
+    return gson.fromJson(responseJson, ActivityResponseBean.class);
+  }
+}
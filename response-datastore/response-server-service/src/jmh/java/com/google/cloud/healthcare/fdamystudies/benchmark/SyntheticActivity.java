@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.benchmark;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic questionnaire for the benchmarks. Steps cycle through scale, numeric, text choice, text
+ * and grouped (form) questions, and responses are built the way the mobile apps submit them, with
+ * the answers of a form as a list of maps.
+ */
+public final class SyntheticActivity {
+
+  public static final String STUDY_ID = "BENCHSTUDY01";
+  public static final String SITE_ID = "BenchSite";
+  public static final String ACTIVITY_ID = "BenchActivity";
+  public static final String ACTIVITY_VERSION = "1.0";
+
+  private static final String[] RESULT_TYPES = {
+    "scale", "numeric", "textChoice", "text", AppConstants.GROUPED_FIELD_KEY
+  };
+
+  private static final int FORM_STEPS = 3;
+
+  private SyntheticActivity() {}
+
+  /** @return the activity metadata steps, as fetched from the study datastore */
+  public static List<QuestionnaireActivityStepsBean> metadataSteps(int stepCount) {
+    List<QuestionnaireActivityStepsBean> steps = new ArrayList<>();
+    for (int i = 0; i < stepCount; i++) {
+      QuestionnaireActivityStepsBean step = metadataStep(stepKey(i), resultType(i));
+      if (isGrouped(i)) {
+        step.setType("form");
+        for (int j = 0; j < FORM_STEPS; j++) {
+          step.getSteps().add(metadataStep(formStepKey(i, j), "text"));
+        }
+      } else if ("numeric".equals(step.getResultType())) {
+        step.getFormat().put("style", "Integer");
+      }
+      steps.add(step);
+    }
+    return steps;
+  }
+
+  /** @return a new response to the activity, safe to be modified by the code under test */
+  public static ActivityResponseBean response(
+      String participantId, String activityRunId, int stepCount) {
+    ActivityResponseBean response = new ActivityResponseBean();
+    response.setApplicationId("BENCHAPP");
+    response.setParticipantId(participantId);
+    response.setSiteId(SITE_ID);
+    response.setType("questionnaire");
+    response.getMetadata().setStudyId(STUDY_ID);
+    response.getMetadata().setStudyVersion("1.0");
+    response.getMetadata().setActivityId(ACTIVITY_ID);
+    response.getMetadata().setVersion(ACTIVITY_VERSION);
+    response.getMetadata().setActivityRunId(activityRunId);
+    response.getMetadata().setName("Benchmark activity");
+    response.getData().setResultType("questionnaire");
+    response.getData().setSubmittedTime("2021-03-01T10:15:30.000+0000");
+    for (int i = 0; i < stepCount; i++) {
+      QuestionnaireActivityStepsBean step = new QuestionnaireActivityStepsBean();
+      step.setType("question");
+      step.setKey(stepKey(i));
+      step.setResultType(resultType(i));
+      step.setSkipped(false);
+      step.setStartTime("2021-03-01T10:10:00.000+0000");
+      step.setEndTime("2021-03-01T10:10:05.000+0000");
+      step.setValue(answer(i));
+      response.getData().getResults().add(step);
+    }
+    return response;
+  }
+
+  private static QuestionnaireActivityStepsBean metadataStep(String key, String resultType) {
+    QuestionnaireActivityStepsBean step = new QuestionnaireActivityStepsBean();
+    step.setType("question");
+    step.setKey(key);
+    step.setResultType(resultType);
+    step.setTitle("Question " + key);
+    step.setText("Text of question " + key);
+    step.setSkippable(true);
+    return step;
+  }
+
+  private static Object answer(int index) {
+    switch (resultType(index)) {
+      case "scale":
+        return (double) (index % 10);
+      case "numeric":
+        return (double) index;
+      case "textChoice":
+        return new ArrayList<>(Arrays.asList("choice" + (index % 4), "choice" + (index % 3)));
+      case "text":
+        return "Answer " + index;
+      default:
+        List<Object> formAnswers = new ArrayList<>();
+        for (int j = 0; j < FORM_STEPS; j++) {
+          Map<String, Object> formAnswer = new HashMap<>();
+          formAnswer.put("key", formStepKey(index, j));
+          formAnswer.put("resultType", "text");
+          formAnswer.put("skipped", false);
+          formAnswer.put("value", "Answer " + index + "." + j);
+          formAnswers.add(formAnswer);
+        }
+        List<Object> repetitions = new ArrayList<>();
+        repetitions.add(formAnswers);
+        return repetitions;
+    }
+  }
+
+  private static String resultType(int index) {
+    return RESULT_TYPES[index % RESULT_TYPES.length];
+  }
+
+  private static boolean isGrouped(int index) {
+    return AppConstants.GROUPED_FIELD_KEY.equals(resultType(index));
+  }
+
+  private static String stepKey(int index) {
+    return "question" + index;
+  }
+
+  private static String formStepKey(int index, int formIndex) {
+    return "question" + index + "_" + formIndex;
+  }
+}
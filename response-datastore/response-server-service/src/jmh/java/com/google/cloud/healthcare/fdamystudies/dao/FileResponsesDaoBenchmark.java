@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.dao;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
+import com.google.cloud.healthcare.fdamystudies.benchmark.SyntheticActivity;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import com.google.cloud.healthcare.fdamystudies.utils.ResponseBeanCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Appends responses to and reads a page of responses from the file based response store. The store
+ * is kept in a temporary directory that is deleted after the trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileResponsesDaoBenchmark {
+
+  private static final String WRITER_PARTICIPANT_ID = "benchWriter";
+
+  private static final String READER_PARTICIPANT_ID = "benchReader";
+
+  private static final int STORED_RUNS = 50;
+
+  private static final int PAGE_SIZE = 20;
+
+  @Param({"10", "100", "1000"})
+  public int steps;
+
+  private final AtomicLong activityRunIds = new AtomicLong();
+
+  private final String studyCollectionName =
+      AppUtil.makeStudyCollectionName(SyntheticActivity.STUDY_ID);
+
+  private Path dataDir;
+
+  private FileResponsesDaoImpl responsesDao;
+
+  @Setup
+  public void setUp() throws IOException, ProcessResponseException {
+    dataDir = Files.createTempDirectory("response-benchmark");
+    ApplicationConfiguration appConfig = new ApplicationConfiguration();
+    appConfig.setResponseDataFilePath(dataDir + File.separator);
+    appConfig.setResponseFileSegmentMaxBytes(268435456L);
+    appConfig.setResponseFileSyncWrites(false);
+    appConfig.setResponseFileCompactionDeadRatio(0.5);
+    appConfig.setLastResponseOnly("false");
+    appConfig.setSupportStringResponse("false");
+    appConfig.setResponseSupportedQTypeDouble("numeric,scale,continuousScale,timeInterval,height");
+    appConfig.setResponseSupportedQTypeDate("date");
+    appConfig.setResponseSupportedQTypeString("textchoice,text,boolean");
+
+    StoredResponseConverter storedResponseConverter = new StoredResponseConverter(appConfig);
+    responsesDao =
+        new FileResponsesDaoImpl(appConfig, storedResponseConverter, new SimpleMeterRegistry());
+    responsesDao.initCompactionExecutor();
+
+    for (int i = 0; i < STORED_RUNS; i++) {
+      saveResponse(READER_PARTICIPANT_ID);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException, InterruptedException {
+    responsesDao.closeStudyStores();
+    FileSystemUtils.deleteRecursively(dataDir);
+  }
+
+  @Benchmark
+  public Map<String, Object> saveActivityResponseData() throws ProcessResponseException {
+    return saveResponse(WRITER_PARTICIPANT_ID);
+  }
+
+  @Benchmark
+  public StoredResponseBean getActivityResponseDataPageForParticipant()
+      throws ProcessResponseException {
+    return responsesDao.getActivityResponseDataPageForParticipant(
+        studyCollectionName,
+        SyntheticActivity.STUDY_ID,
+        SyntheticActivity.SITE_ID,
+        READER_PARTICIPANT_ID,
+        SyntheticActivity.ACTIVITY_ID,
+        null,
+        PAGE_SIZE,
+        null);
+  }
+
+  /** Stores a response to a new activity run, flattened as the response processor does. */
+  private Map<String, Object> saveResponse(String participantId) throws ProcessResponseException {
+    ActivityResponseBean response =
+        SyntheticActivity.response(
+            participantId, String.valueOf(activityRunIds.incrementAndGet()), steps);
+    Map<String, Object> dataToStore = ResponseBeanCodec.toStoredMap(response.getMetadata());
+    List<Map<String, Object>> stepsList = new ArrayList<>();
+    for (QuestionnaireActivityStepsBean step : response.getData().getResults()) {
+      stepsList.add(ResponseBeanCodec.toStoredMap(step));
+    }
+    dataToStore.put(AppConstants.RESULTS_FIELD_KEY, stepsList);
+    dataToStore.put(AppConstants.PARTICIPANT_ID_KEY, participantId);
+    dataToStore.put(AppConstants.SITE_ID_KEY, SyntheticActivity.SITE_ID);
+    dataToStore.put(AppConstants.CREATED_TS_KEY, String.valueOf(System.currentTimeMillis()));
+    responsesDao.saveActivityResponseData(
+        SyntheticActivity.STUDY_ID,
+        studyCollectionName,
+        AppConstants.ACTIVITIES_COLLECTION_NAME,
+        dataToStore);
+    return dataToStore;
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.benchmark.SyntheticActivity;
+import com.google.cloud.healthcare.fdamystudies.utils.ResponseBeanCodec;
+import com.google.gson.stream.JsonWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conjoins responses with their activity metadata ({@code processActivityResponses}) and writes
+ * conjoined responses as FHIR QuestionnaireResponse items ({@code
+ * writeQuestionnaireResponseItems}), without the Firestore and FHIR store calls around them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActivityResponseProcessorBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int steps;
+
+  private final ActivityResponseProcessorServiceImpl processor =
+      new ActivityResponseProcessorServiceImpl();
+
+  private ActivityStepIndex stepIndex;
+
+  /** Response conjoined with the metadata once, as input of the FHIR mapping. */
+  private ActivityResponseBean conjoinedResponse;
+
+  @Setup(Level.Trial)
+  public void setUpActivity() {
+    stepIndex = ActivityStepIndex.compile(SyntheticActivity.metadataSteps(steps));
+    conjoinedResponse = SyntheticActivity.response("benchParticipant", "1", steps);
+    processor.processActivityResponses(conjoinedResponse.getData().getResults(), stepIndex);
+  }
+
+  @Benchmark
+  public List<QuestionnaireActivityStepsBean> processActivityResponses(ResponseSteps response) {
+    processor.processActivityResponses(response.steps, stepIndex);
+    return response.steps;
+  }
+
+  @Benchmark
+  public String writeQuestionnaireResponseItems() throws Exception {
+    StringWriter json = new StringWriter();
+    try (JsonWriter out = ResponseBeanCodec.newJsonWriter(json)) {
+      ResponseBeanCodec.writeQuestionnaireResponseItems(out, conjoinedResponse);
+    }
+    return json.toString();
+  }
+
+  /** Fresh response steps for every call, as conjoining modifies them. */
+  @State(Scope.Thread)
+  public static class ResponseSteps {
+    private List<QuestionnaireActivityStepsBean> steps;
+
+    @Setup(Level.Invocation)
+    public void setUp(ActivityResponseProcessorBenchmark benchmark) {
+      steps =
+          SyntheticActivity.response("benchParticipant", "1", benchmark.steps)
+              .getData()
+              .getResults();
+    }
+  }
+}
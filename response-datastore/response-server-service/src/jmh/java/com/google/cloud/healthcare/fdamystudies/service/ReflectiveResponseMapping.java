@@ -0,0 +1,449 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static com.google.cloud.healthcare.fdamystudies.utils.AppConstants.DATE_FORMAT_RESPONSE_FHIR;
+import static com.google.cloud.healthcare.fdamystudies.utils.AppConstants.DATE_FORMAT_RESPONSE_MOBILE;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityMetadataBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityValueGroupBean;
+import com.google.cloud.healthcare.fdamystudies.bean.Answer;
+import com.google.cloud.healthcare.fdamystudies.bean.ItemsQuestionnaireResponse;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.beans.BeanInfo;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.collections4.map.HashedMap;
+import org.apache.commons.lang3.ObjectUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+/**
+ * The {@link Introspector} based mapping of the response beans that {@link
+ * com.google.cloud.healthcare.fdamystudies.utils.ResponseBeanCodec} replaced, kept as the
+ * reference the codec is measured against.
+ */
+class ReflectiveResponseMapping {
+
+  private static final XLogger logger =
+      XLoggerFactory.getXLogger(ReflectiveResponseMapping.class.getName());
+
+  private static final String QUESTIONNAIRE_TYPE = "questionnaire_type";
+
+  private static final String QUESTION_KEY = "question_key";
+
+  private static final String SKIPPED = "skipped";
+
+  private static final String WCP_RESULT_TYPE = "wcp_result_type";
+
+  private static final String RESPONSE_RESULT_TYPE = "response_result_type";
+
+  List<ItemsQuestionnaireResponse> toFHIRQuestionnaireResponseItems(
+      ActivityResponseBean questionnaireActivityResponseBean) throws Exception {
+    List<ItemsQuestionnaireResponse> listOfItems = new LinkedList<>();
+    for (QuestionnaireActivityStepsBean tmpBean :
+        questionnaireActivityResponseBean.getData().getResults()) {
+
+      ItemsQuestionnaireResponse items = new ItemsQuestionnaireResponse();
+      List<Answer> answerList = new LinkedList<>();
+      Map<String, Object> map = new HashedMap<>();
+      map.put(RESPONSE_RESULT_TYPE, tmpBean.getResultType());
+      map.put(WCP_RESULT_TYPE, tmpBean.getWcpResultType());
+      map.put(SKIPPED, tmpBean.getSkipped());
+      map.put(QUESTIONNAIRE_TYPE, questionnaireActivityResponseBean.getData().getResultType());
+      map.put(QUESTION_KEY, tmpBean.getKey());
+
+      toFHIRFormatQuestionnaireResponse(
+          tmpBean, false, items, map, answerList, questionnaireActivityResponseBean.getType());
+
+      items.setLinkId(tmpBean.getKey());
+
+      if (questionnaireActivityResponseBean.getType().equals("questionnaire")) {
+        items.setText(
+            tmpBean.getResultType().equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)
+                ? tmpBean.getKey()
+                : tmpBean.getTitle());
+      } else {
+        items.setText(questionnaireActivityResponseBean.getMetadata().getName());
+      }
+
+      items.setDefinition(tmpBean.getResultType());
+      listOfItems.add(items);
+    }
+    return listOfItems;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void toFHIRFormatQuestionnaireResponse(
+      Object bean,
+      boolean value,
+      ItemsQuestionnaireResponse items,
+      Map<String, Object> map,
+      List<Answer> answerList,
+      String type)
+      throws Exception {
+    logger.entry("begin toFHIRFormatQuestionnaireResponse()");
+
+    String responseResultType = (String) map.get(RESPONSE_RESULT_TYPE);
+    boolean skipped = (boolean) map.get(SKIPPED);
+
+    BeanInfo beanInfo;
+    beanInfo = Introspector.getBeanInfo(bean.getClass());
+    PropertyDescriptor[] propDescriptor = beanInfo.getPropertyDescriptors();
+    Answer ans = new Answer();
+    ActivityValueGroupBean acitivtyValueGroup = null;
+    logger.debug("bean" + bean.toString());
+    for (PropertyDescriptor pd : propDescriptor) {
+      String propertyName = pd.getName();
+      Method getterMethod = pd.getReadMethod();
+      Object propertyValue = getterMethod.invoke(bean);
+      logger.debug("propertyValue22" + propertyValue);
+      logger.debug("propertyValue23" + propertyName);
+      logger.debug("propertyValue24" + getterMethod);
+      if (!propertyName.equals(AppConstants.PROPERTY_NAME_CLASS)) {
+        logger.debug("propertyValue25" + propertyValue);
+        logger.debug("propertyValue26" + propertyName);
+        logger.debug("propertyValue27" + getterMethod);
+        logger.debug("propertyValue28" + propertyName.toString());
+        if (propertyName.equals("actvityValueGroup")) {
+          acitivtyValueGroup = (ActivityValueGroupBean) propertyValue;
+          logger.debug("propertyValue27" + acitivtyValueGroup);
+        }
+
+        if (value
+            || propertyName.equals("value")
+            || (acitivtyValueGroup != null && !acitivtyValueGroup.getValueGroup().isEmpty())) {
+          if (!(propertyValue instanceof String)) {
+            if (propertyValue instanceof ActivityValueGroupBean) {
+              logger.debug("propertyValue29" + propertyValue);
+              toFHIRFormatQuestionnaireResponse(propertyValue, true, items, map, answerList, type);
+            } else if (propertyValue instanceof List) {
+              logger.debug("propertyValue30" + propertyValue);
+              ArrayList<Object> pvalueList = (ArrayList<Object>) propertyValue;
+              List<ItemsQuestionnaireResponse> listOfItems1 = new LinkedList<>();
+              List<Answer> answer = new LinkedList<>();
+              for (Object valueObj : pvalueList) {
+                logger.debug("propertyValue31" + valueObj);
+                if (valueObj instanceof QuestionnaireActivityStepsBean) {
+                  logger.debug("propertyValue32" + valueObj);
+                  ItemsQuestionnaireResponse nestedItem = new ItemsQuestionnaireResponse();
+                  nestedItem.setLinkId(((QuestionnaireActivityStepsBean) valueObj).getKey());
+                  nestedItem.setText(
+                      ((QuestionnaireActivityStepsBean) valueObj)
+                              .getResultType()
+                              .equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)
+                          ? ((QuestionnaireActivityStepsBean) valueObj).getKey()
+                          : ((QuestionnaireActivityStepsBean) valueObj).getTitle());
+
+                  nestedItem.setDefinition(
+                      ((QuestionnaireActivityStepsBean) valueObj).getResultType());
+
+                  map.put(
+                      RESPONSE_RESULT_TYPE,
+                      ((QuestionnaireActivityStepsBean) valueObj).getResultType());
+                  map.put(
+                      WCP_RESULT_TYPE,
+                      ((QuestionnaireActivityStepsBean) valueObj).getWcpResultType());
+                  map.put(SKIPPED, ((QuestionnaireActivityStepsBean) valueObj).getSkipped());
+                  map.put(QUESTION_KEY, ((QuestionnaireActivityStepsBean) valueObj).getKey());
+                  toFHIRFormatQuestionnaireResponse(valueObj, false, nestedItem, map, answer, type);
+
+                  listOfItems1.add(nestedItem);
+
+                } else {
+                  if (valueObj instanceof String
+                      && StringUtils.isNotBlank((String) valueObj)
+                      && !skipped) {
+                    ans = new Answer();
+                    logger.debug("valueObj" + valueObj.toString());
+                    ans = fhirAnswerValue(map, valueObj, ans);
+                    answer.add(ans);
+                    items.setAnswer(answer);
+                    logger.debug("items1: " + items.toString());
+                  } else {
+                    if (valueObj != null || ObjectUtils.isNotEmpty(valueObj)) {
+
+                      List<Answer> a1 = new LinkedList<>();
+                      logger.debug("othervalueObj" + valueObj);
+                      a1 = fhirAnswerValueForOther(map, valueObj, a1);
+
+                      for (int i = 0; i < a1.size(); i++) {
+                        answer.add(a1.get(i));
+                      }
+
+                      items.setAnswer(answer);
+                      logger.debug("items2: " + items.toString());
+                    }
+                  }
+                }
+
+                if (type.equals("task")) {
+                  Answer ansList = new Answer();
+                  ansList.setItem(listOfItems1);
+                  List<Answer> a1 = new LinkedList<>();
+                  a1.add(ansList);
+                  items.setAnswer(a1);
+                } else {
+                  items.setItem(listOfItems1);
+                }
+              }
+            } else {
+              if (!responseResultType.equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)
+                  && !skipped) {
+                logger.debug("valueObj1" + propertyValue.toString());
+                ans = fhirAnswerValue(map, propertyValue, ans);
+                answerList = new LinkedList<>();
+                answerList.add(ans);
+                items.setAnswer(answerList);
+              }
+            }
+          } else {
+            if (!responseResultType.equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)
+                && !skipped
+                && StringUtils.isNotBlank((String) propertyValue)) {
+              if (map.get(QUESTION_KEY).equals("duration")) {
+                map.put(WCP_RESULT_TYPE, "Integer");
+                propertyValue = Double.parseDouble((String) propertyValue);
+              }
+              logger.debug("valueObj2" + propertyValue.toString());
+              ans = fhirAnswerValue(map, propertyValue, ans);
+              answerList = new LinkedList<>();
+              answerList.add(ans);
+              items.setAnswer(answerList);
+            }
+          }
+        }
+      }
+    }
+    logger.exit("toFHIRFormatQuestionnaireResponse() - ends ");
+  }
+
+  private List<Answer> fhirAnswerValueForOther(
+      Map<String, Object> map, Object propertyValue, List<Answer> a1) throws Exception {
+    logger.debug("begin fhirAnswerValue()");
+    String responseResultType = (String) map.get(RESPONSE_RESULT_TYPE);
+    if (responseResultType.equals("textChoice")) {
+      logger.debug("fhirAnswerValue()textChoice1" + propertyValue);
+      try {
+
+        ObjectMapper Obj = new ObjectMapper();
+
+        // Converting the Java object into a JSON string
+        String jsonStr = Obj.writeValueAsString(propertyValue);
+
+        logger.debug("fhirAnswerValue()otherChoice3" + jsonStr);
+        JSONObject jsonObject = new JSONObject(String.valueOf(jsonStr));
+        logger.debug("fhirAnswerValue()otherChoice4" + jsonObject);
+        if (jsonObject.has("other")) {
+          String otheroptionvalue = String.valueOf(jsonObject.get("other"));
+          logger.debug("fhirAnswerValue()otherChoice5" + otheroptionvalue);
+          Answer otherAns = new Answer();
+          otherAns.setValueString(otheroptionvalue);
+          logger.debug("fhirAnswerValue()otherChoice6" + otherAns.toString());
+          a1.add(otherAns);
+        }
+
+        if (jsonObject.has("text")) {
+          String otheroptiontext = String.valueOf(jsonObject.get("text"));
+          logger.debug("fhirAnswerValue()otherChoice7" + otheroptiontext);
+          if (!otheroptiontext.equalsIgnoreCase("null")) {
+            Answer textAns = new Answer();
+            textAns.setValueString(otheroptiontext);
+            logger.debug("fhirAnswerValue()otherChoice8" + textAns.toString());
+            a1.add(textAns);
+          }
+        }
+
+      } catch (JSONException e) {
+        logger.error("fhirAnswerValue() method: Unable to getvalue of otheroption object", e);
+      }
+    }
+    logger.exit("fhirAnswerValue() - ends ");
+    return a1;
+  }
+
+  @SuppressWarnings("deprecation")
+  private Answer fhirAnswerValue(Map<String, Object> map, Object propertyValue, Answer answerMap)
+      throws Exception {
+    logger.entry("begin fhirAnswerValue()");
+    logger.debug("fhirAnswerValue()" + propertyValue.toString());
+    String responseResultType = (String) map.get(RESPONSE_RESULT_TYPE);
+    String wcpResultType = (String) map.get(WCP_RESULT_TYPE);
+
+    if (responseResultType.equals("continuousScale")
+        || responseResultType.equals("timeInterval")
+        || responseResultType.equals("height")) {
+
+      if (propertyValue instanceof Double) {
+        answerMap.setValueDecimal((Double) propertyValue);
+      } else if (propertyValue instanceof Integer) {
+        answerMap.setValueDecimal(new Double((Integer) propertyValue));
+      }
+
+    } else if (responseResultType.equals("numeric")) {
+
+      if (wcpResultType.equals("Integer")) {
+        if (propertyValue instanceof Double) {
+          answerMap.setValueInteger(new Double((Double) propertyValue).intValue());
+        } else if (propertyValue instanceof Integer) {
+          answerMap.setValueInteger((Integer) propertyValue);
+        }
+      } else {
+        if (propertyValue instanceof Double) {
+          answerMap.setValueDecimal((Double) propertyValue);
+        } else if (propertyValue instanceof Integer) {
+          answerMap.setValueDecimal(new Double((Integer) propertyValue));
+        }
+      }
+
+    } else if (responseResultType.equals("scale")) {
+
+      if (propertyValue instanceof Double) {
+        answerMap.setValueInteger(new Double((Double) propertyValue).intValue());
+      } else if (propertyValue instanceof Integer) {
+        answerMap.setValueInteger((Integer) propertyValue);
+      }
+
+    } else if (responseResultType.equals("boolean")) {
+      answerMap.setValueBoolean((Boolean) propertyValue);
+    } else if (responseResultType.equals("timeOfDay")) {
+      answerMap.setValueTime((String) propertyValue);
+    } else if (responseResultType.equals("date")) {
+
+      if (StringUtils.isNotBlank((String) propertyValue)) {
+        answerMap.setValueDateTime(
+            AppUtil.convertDateToOtherFormat1(
+                (String) propertyValue, DATE_FORMAT_RESPONSE_MOBILE, DATE_FORMAT_RESPONSE_FHIR));
+      }
+    } /* else if (responseResultType.equals("textChoice")) {
+        logger.debug("fhirAnswerValue()textChoice1" + propertyValue);
+        if (propertyValue instanceof String) {
+          answerMap.setValueString((String) propertyValue);
+          logger.debug("fhirAnswerValue()textChoice2" + answerMap.toString());
+        } else {
+          try {
+            logger.debug("fhirAnswerValue()otherChoice3" + propertyValue);
+            JSONObject jsonObject = new JSONObject(propertyValue.toString());
+            logger.debug("fhirAnswerValue()otherChoice4" + jsonObject);
+            String otheroptionvalue = jsonObject.get("other").toString();
+            logger.debug("fhirAnswerValue()otherChoice5" + otheroptionvalue);
+            answerMap.setValueString(otheroptionvalue);
+            logger.debug("fhirAnswerValue()otherChoice6" + answerMap.toString());
+            if (jsonObject.has("text")) {
+              String otheroptiontext = jsonObject.get("text").toString();
+              logger.debug("fhirAnswerValue()otherChoice7" + otheroptiontext);
+              answerMap.setValueString(otheroptiontext);
+              logger.debug("fhirAnswerValue()otherChoice8" + answerMap.toString());
+            }
+
+          } catch (JSONException e) {
+            logger.error(
+                "fhirAnswerValue() method: Unable to getvalue of otheroption object"
+                    + e.getMessage());
+          }
+        }
+      }*/ else if (propertyValue instanceof String) {
+      answerMap.setValueString((String) propertyValue);
+    }
+    logger.exit("fhirAnswerValue() - ends ");
+    return answerMap;
+  }
+
+  @SuppressWarnings("unchecked")
+  Map<String, Object> getHashMapForBean(Object bean) throws Exception {
+    BeanInfo beanInfo;
+    beanInfo = Introspector.getBeanInfo(bean.getClass());
+    PropertyDescriptor[] propDescriptor = beanInfo.getPropertyDescriptors();
+    Map<String, Object> dataToStore = new HashMap<>();
+    GsonBuilder gsonBuilder = new GsonBuilder();
+    Gson gson = gsonBuilder.create();
+    List<Map<String, Object>> stepsList = new ArrayList<Map<String, Object>>();
+    for (PropertyDescriptor pd : propDescriptor) {
+      String propertyName = pd.getName();
+      if (!propertyName.equals(AppConstants.PROPERTY_NAME_CLASS)) {
+        Method getterMethod = pd.getReadMethod();
+        Object propertyValue = getterMethod.invoke(bean);
+        if (!(propertyValue instanceof String)) {
+          if (propertyValue instanceof ActivityValueGroupBean
+              || propertyValue instanceof ActivityMetadataBean) {
+            dataToStore.put(propertyName, getHashMapForBean(propertyValue));
+          } else if (propertyValue instanceof List) {
+            try {
+              ArrayList<Object> pvalueList = (ArrayList<Object>) propertyValue;
+              for (Object valueObj : pvalueList) {
+                if (valueObj instanceof QuestionnaireActivityStepsBean) {
+                  Map<String, Object> tempMap = getHashMapForBean(valueObj);
+                  stepsList.add(tempMap);
+                } else if (valueObj instanceof String) {
+                  if (valueObj != null) {
+                    Object tmpPropertyValue = dataToStore.get(propertyName);
+                    if (tmpPropertyValue != null) {
+                      String tmpPropertyValueStr = (String) tmpPropertyValue.toString();
+                      if (!StringUtils.isBlank(tmpPropertyValueStr)) {
+                        valueObj = tmpPropertyValueStr + AppConstants.COMMA_STR + valueObj;
+                      }
+                    }
+                    dataToStore.put(propertyName, valueObj);
+                  }
+                } else {
+                  if (valueObj != null) {
+                    propertyValue = gson.toJson(valueObj);
+                    Object tmpPropertyValue = dataToStore.get(propertyName);
+                    if (tmpPropertyValue != null) {
+                      String tmpPropertyValueStr = (String) tmpPropertyValue.toString();
+                      if (!StringUtils.isBlank(tmpPropertyValueStr)) {
+                        propertyValue =
+                            tmpPropertyValueStr + AppConstants.COMMA_STR + propertyValue;
+                      }
+                    }
+                    dataToStore.put(propertyName, propertyValue);
+                  }
+                }
+                if (stepsList != null && !stepsList.isEmpty()) {
+                  dataToStore.put(AppConstants.RESULTS_FIELD_KEY, stepsList);
+                }
+              }
+            } catch (ClassCastException ce) {
+              propertyValue = gson.toJson(propertyValue);
+              dataToStore.put(propertyName, getHashMapForBean(propertyValue));
+            }
+          } else {
+            propertyValue = gson.toJson(propertyValue);
+            dataToStore.put(propertyName, propertyValue);
+          }
+        } else {
+          if (propertyValue != null) {
+            dataToStore.put(propertyName, propertyValue);
+          }
+        }
+        logger.debug(
+            "getHashMapForBean() : \n Property Name: "
+                + propertyName
+                + "\t Property Value : "
+                + propertyValue);
+      }
+    }
+    return dataToStore;
+  }
+}
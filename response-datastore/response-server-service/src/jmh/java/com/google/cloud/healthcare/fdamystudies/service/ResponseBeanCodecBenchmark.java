@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.benchmark.SyntheticActivity;
+import com.google.cloud.healthcare.fdamystudies.utils.ResponseBeanCodec;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Maps a conjoined response to the maps that are stored and to the JSON of its FHIR
+ * QuestionnaireResponse items, with the codecs of {@link ResponseBeanCodec} and with the {@link
+ * ReflectiveResponseMapping} they replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseBeanCodecBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int steps;
+
+  private final ReflectiveResponseMapping reflectiveMapping = new ReflectiveResponseMapping();
+
+  private ActivityResponseBean response;
+
+  @Setup
+  public void setUp() {
+    response = SyntheticActivity.response("benchParticipant", "1", steps);
+    // conjoined with the metadata, so grouped steps carry their value group
+    new ActivityResponseProcessorServiceImpl()
+        .processActivityResponses(
+            response.getData().getResults(),
+            ActivityStepIndex.compile(SyntheticActivity.metadataSteps(steps)));
+  }
+
+  @Benchmark
+  public List<Map<String, Object>> codecStoredMaps() {
+    List<Map<String, Object>> stepsList = new ArrayList<>();
+    for (QuestionnaireActivityStepsBean step : response.getData().getResults()) {
+      stepsList.add(ResponseBeanCodec.toStoredMap(step));
+    }
+    return stepsList;
+  }
+
+  @Benchmark
+  public List<Map<String, Object>> reflectiveStoredMaps() throws Exception {
+    List<Map<String, Object>> stepsList = new ArrayList<>();
+    for (QuestionnaireActivityStepsBean step : response.getData().getResults()) {
+      stepsList.add(reflectiveMapping.getHashMapForBean(step));
+    }
+    return stepsList;
+  }
+
+  @Benchmark
+  public String codecFhirItems() throws Exception {
+    StringWriter json = new StringWriter();
+    try (JsonWriter out = ResponseBeanCodec.newJsonWriter(json)) {
+      ResponseBeanCodec.writeQuestionnaireResponseItems(out, response);
+    }
+    return json.toString();
+  }
+
+  @Benchmark
+  public String reflectiveFhirItems() throws Exception {
+    return new Gson().toJson(reflectiveMapping.toFHIRQuestionnaireResponseItems(response));
+  }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.loadtest;
+
+import com.google.cloud.healthcare.fdamystudies.service.AuditEventService;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+
+/** Drops the audit events of the load test instead of sending them to Cloud Logging. */
+@Profile("loadtest")
+@Configuration
+public class LoadTestConfig {
+
+  @Bean
+  @Primary
+  public AuditEventService auditService() {
+    return auditRequest -> {};
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.cloud.healthcare.fdamystudies.FdaMystudiesResponseServerApplication;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.EnrollmentTokenIdentifierBean;
+import com.google.cloud.healthcare.fdamystudies.benchmark.SyntheticActivity;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Load test of response ingestion that runs on a single machine without network access. It starts
+ * the {@link LoadTestStubs}, runs the response datastore with the {@code loadtest} profile against
+ * them, enrolls participants and then submits activity responses from a pool of workers, each
+ * sending its next response as soon as the previous one is answered. Responses are drawn from a
+ * weighted mix of activity sizes, and a share of them replays an earlier submission the way the
+ * mobile apps retry. Throughput, status codes and latency percentiles of the submissions made after
+ * the warm-up are printed and written as JSON.
+ *
+ * <p>Settings are system properties:
+ *
+ * <ul>
+ *   <li>{@code loadtest.threads} workers submitting responses, default 16
+ *   <li>{@code loadtest.participants} participants enrolled before the test, default 200
+ *   <li>{@code loadtest.warmup.seconds} and {@code loadtest.duration.seconds}, default 15 and 60
+ *   <li>{@code loadtest.mix} step counts of the activities and their weights, default {@code
+ *       10:70,100:25,1000:5}
+ *   <li>{@code loadtest.replay.ratio} share of submissions that are replays, default 0.05
+ *   <li>{@code loadtest.server.port} and {@code loadtest.stub.port}, default 8090 and a free port
+ *   <li>{@code loadtest.result.file} where the JSON report is written
+ *   <li>{@code loadtest.latency.<group>.*} latencies of the stand-ins, see {@link LoadTestStubs}
+ * </ul>
+ */
+public class LoadTestDriver {
+
+  private static final String CONTEXT_PATH = "/response-datastore";
+
+  private static final String ACCESS_TOKEN = "Bearer loadtest-access-token";
+
+  private static final String REPLAY = "replay";
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final String serverUrl;
+
+  private final CloseableHttpClient httpClient;
+
+  private final int threads = Integer.getInteger("loadtest.threads", 16);
+
+  private final double replayRatio =
+      Double.parseDouble(System.getProperty("loadtest.replay.ratio", "0.05"));
+
+  private final Map<Integer, Integer> mix =
+      parseMix(System.getProperty("loadtest.mix", "10:70,100:25,1000:5"));
+
+  private final List<Participant> participants = new ArrayList<>();
+
+  // run ids are short counters like the ones of the apps, the run id columns hold 32 characters
+  private final AtomicLong activityRunIds = new AtomicLong();
+
+  public LoadTestDriver(String serverUrl) {
+    this.serverUrl = serverUrl;
+    this.httpClient =
+        HttpClients.custom().setMaxConnTotal(threads).setMaxConnPerRoute(threads).build();
+  }
+
+  public static void main(String[] args) throws Exception {
+    LoadTestDriver driver =
+        new LoadTestDriver(
+            "http://localhost:" + Integer.getInteger("loadtest.server.port", 8090) + CONTEXT_PATH);
+    LoadTestStubs stubs =
+        new LoadTestStubs(Integer.getInteger("loadtest.stub.port", 0), driver.threads * 2);
+    stubs.start(driver.mix.keySet());
+
+    // devtools decides whether to restart the application before its environment is prepared
+    System.setProperty("spring.devtools.restart.enabled", "false");
+    // passed as arguments, as default properties would not override application.properties
+    List<String> serverArgs = new ArrayList<>(Arrays.asList(args));
+    serverArgs.add("--server.port=" + Integer.getInteger("loadtest.server.port", 8090));
+    serverArgs.add("--loadtest.stub.url=" + stubs.baseUrl());
+    ConfigurableApplicationContext server =
+        new SpringApplicationBuilder(FdaMystudiesResponseServerApplication.class)
+            .profiles("loadtest")
+            .run(serverArgs.toArray(new String[0]));
+    try {
+      ObjectNode report =
+          driver.run(
+              Integer.getInteger("loadtest.participants", 200),
+              Integer.getInteger("loadtest.warmup.seconds", 15),
+              Integer.getInteger("loadtest.duration.seconds", 60));
+      String json = driver.objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(report);
+      System.out.println(json);
+      File resultFile =
+          new File(System.getProperty("loadtest.result.file", "target/loadtest-result.json"));
+      resultFile.getAbsoluteFile().getParentFile().mkdirs();
+      driver.objectMapper.writerWithDefaultPrettyPrinter().writeValue(resultFile, report);
+    } finally {
+      driver.httpClient.close();
+      server.close();
+      stubs.stop();
+    }
+  }
+
+  public ObjectNode run(int participantCount, int warmupSeconds, int durationSeconds)
+      throws Exception {
+    enrollParticipants(participantCount);
+
+    long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+    long end = warmupEnd + TimeUnit.SECONDS.toNanos(durationSeconds);
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    List<Future<LoadTestResults>> workerResults = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      workerResults.add(workers.submit(() -> submitResponses(warmupEnd, end)));
+    }
+    LoadTestResults results = new LoadTestResults();
+    for (Future<LoadTestResults> workerResult : workerResults) {
+      results.add(workerResult.get());
+    }
+    double elapsedSeconds = (System.nanoTime() - warmupEnd) / (double) TimeUnit.SECONDS.toNanos(1);
+    workers.shutdown();
+
+    ObjectNode report = results.toJson(elapsedSeconds);
+    report.put("threads", threads);
+    report.put("participants", participantCount);
+    report.put("replayRatio", replayRatio);
+    ObjectNode mixReport = report.putObject("mix");
+    mix.forEach((stepCount, weight) -> mixReport.put(String.valueOf(stepCount), weight));
+    return report;
+  }
+
+  private void enrollParticipants(int participantCount) throws IOException {
+    for (int i = 0; i < participantCount; i++) {
+      EnrollmentTokenIdentifierBean enrollment = new EnrollmentTokenIdentifierBean();
+      enrollment.setTokenIdentifier("loadtest-token-" + i);
+      enrollment.setCustomStudyId(SyntheticActivity.STUDY_ID);
+      enrollment.setStudyVersion("1.0");
+      HttpPost request = post("/participant/add", objectMapper.writeValueAsString(enrollment));
+      request.setHeader("appId", "BENCHAPP");
+      String participantId =
+          httpClient.execute(
+              request,
+              response -> {
+                String body = EntityUtils.toString(response.getEntity());
+                if (response.getStatusLine().getStatusCode() != 200) {
+                  throw new IOException("Enrollment failed: " + response.getStatusLine() + body);
+                }
+                return body;
+              });
+      participants.add(new Participant(participantId, enrollment.getTokenIdentifier()));
+    }
+  }
+
+  private LoadTestResults submitResponses(long warmupEnd, long end) throws IOException {
+    LoadTestResults results = new LoadTestResults();
+    Random random = ThreadLocalRandom.current();
+    String lastSubmission = null;
+    while (System.nanoTime() < end) {
+      String kind;
+      String submission;
+      if (lastSubmission != null && random.nextDouble() < replayRatio) {
+        kind = REPLAY;
+        submission = lastSubmission;
+      } else {
+        int stepCount = nextStepCount(random);
+        Participant participant = participants.get(random.nextInt(participants.size()));
+        ActivityResponseBean response =
+            SyntheticActivity.response(
+                participant.participantId,
+                String.valueOf(activityRunIds.incrementAndGet()),
+                stepCount);
+        response.getMetadata().setActivityId(LoadTestStubs.activityId(stepCount));
+        response.setTokenIdentifier(participant.tokenIdentifier);
+        kind = stepCount + "_steps";
+        submission = objectMapper.writeValueAsString(response);
+        lastSubmission = submission;
+      }
+
+      HttpPost request = post("/participant/process-response", submission);
+      request.setHeader("userId", "loadtest-user");
+      long start = System.nanoTime();
+      String status;
+      try {
+        status =
+            httpClient.execute(
+                request,
+                response -> {
+                  EntityUtils.consume(response.getEntity());
+                  return String.valueOf(response.getStatusLine().getStatusCode());
+                });
+      } catch (IOException e) {
+        status = e.getClass().getSimpleName();
+      }
+      long latency = System.nanoTime() - start;
+      if (start >= warmupEnd) {
+        results.record(kind, status, latency);
+      }
+    }
+    return results;
+  }
+
+  private HttpPost post(String path, String json) {
+    HttpPost request = new HttpPost(serverUrl + path);
+    request.setHeader("Authorization", ACCESS_TOKEN);
+    request.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+    return request;
+  }
+
+  private int nextStepCount(Random random) {
+    int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+    int pick = random.nextInt(totalWeight);
+    for (Map.Entry<Integer, Integer> entry : mix.entrySet()) {
+      pick -= entry.getValue();
+      if (pick < 0) {
+        return entry.getKey();
+      }
+    }
+    throw new IllegalStateException("Empty mix");
+  }
+
+  private static Map<Integer, Integer> parseMix(String mix) {
+    Map<Integer, Integer> weights = new LinkedHashMap<>();
+    for (String entry : mix.split(",")) {
+      String[] stepsAndWeight = entry.trim().split(":");
+      weights.put(
+          Integer.parseInt(stepsAndWeight[0]),
+          stepsAndWeight.length > 1 ? Integer.parseInt(stepsAndWeight[1]) : 1);
+    }
+    return weights;
+  }
+
+  private static class Participant {
+    private final String participantId;
+    private final String tokenIdentifier;
+
+    private Participant(String participantId, String tokenIdentifier) {
+      this.participantId = participantId;
+      this.tokenIdentifier = tokenIdentifier;
+    }
+  }
+}
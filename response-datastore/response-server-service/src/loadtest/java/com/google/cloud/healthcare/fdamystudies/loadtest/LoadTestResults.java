@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.loadtest;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latencies and status codes of the submissions of one worker, or of all workers once merged.
+ * Latencies are recorded in microseconds per submission kind, e.g. the number of steps or a replay.
+ */
+public class LoadTestResults {
+
+  private static final long MAX_LATENCY_US = TimeUnit.MINUTES.toMicros(5);
+
+  private static final String ALL = "all";
+
+  private final Map<String, Histogram> latencies = new TreeMap<>();
+
+  private final Map<String, Long> statuses = new TreeMap<>();
+
+  public void record(String kind, String status, long latencyNanos) {
+    long latencyUs = Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), MAX_LATENCY_US);
+    histogram(kind).recordValue(latencyUs);
+    histogram(ALL).recordValue(latencyUs);
+    statuses.merge(status, 1L, Long::sum);
+  }
+
+  public void add(LoadTestResults other) {
+    for (Map.Entry<String, Histogram> latency : other.latencies.entrySet()) {
+      histogram(latency.getKey()).add(latency.getValue());
+    }
+    for (Map.Entry<String, Long> status : other.statuses.entrySet()) {
+      statuses.merge(status.getKey(), status.getValue(), Long::sum);
+    }
+  }
+
+  public long count() {
+    return histogram(ALL).getTotalCount();
+  }
+
+  /** @return throughput, status counts and latency percentiles in milliseconds, per kind */
+  public ObjectNode toJson(double elapsedSeconds) {
+    ObjectNode report = JsonNodeFactory.instance.objectNode();
+    report.put("requests", count());
+    report.put("elapsedSeconds", elapsedSeconds);
+    report.put("throughputPerSecond", count() / elapsedSeconds);
+    ObjectNode statusCounts = report.putObject("statuses");
+    statuses.forEach(statusCounts::put);
+    ObjectNode latencyReport = report.putObject("latencyMs");
+    for (Map.Entry<String, Histogram> latency : latencies.entrySet()) {
+      Histogram histogram = latency.getValue();
+      ObjectNode percentiles = latencyReport.putObject(latency.getKey());
+      percentiles.put("count", histogram.getTotalCount());
+      percentiles.put("mean", histogram.getMean() / 1000);
+      percentiles.put("p50", percentileMs(histogram, 50));
+      percentiles.put("p90", percentileMs(histogram, 90));
+      percentiles.put("p99", percentileMs(histogram, 99));
+      percentiles.put("p99.9", percentileMs(histogram, 99.9));
+      percentiles.put("max", histogram.getMaxValue() / 1000.0);
+    }
+    return report;
+  }
+
+  private static double percentileMs(Histogram histogram, double percentile) {
+    return histogram.getValueAtPercentile(percentile) / 1000.0;
+  }
+
+  private Histogram histogram(String kind) {
+    return latencies.computeIfAbsent(kind, name -> new Histogram(MAX_LATENCY_US, 3));
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.loadtest;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.any;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.google.cloud.healthcare.fdamystudies.benchmark.SyntheticActivity;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityMetaDataBean;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import java.util.Collection;
+
+/**
+ * Local stand-ins for the services the response datastore calls while ingesting a response: the
+ * OAuth server, the study datastore (WCP), the participant datastore and the Cloud Healthcare API.
+ * Each group of stubs answers after a log-normal delay, configured with the system properties
+ * {@code loadtest.latency.<group>.median.ms} and {@code loadtest.latency.<group>.sigma} (a sigma of
+ * 0 gives a fixed delay), so the service sees latencies close to the ones of a real deployment.
+ */
+public class LoadTestStubs {
+
+  public static final String HEALTHCARE_PATH = "/healthcare";
+
+  static final String AUTH = "auth";
+  static final String WCP = "wcp";
+  static final String ENROLL = "enroll";
+  static final String HEALTHCARE = "healthcare";
+
+  private static final String HEALTHCARE_FHIR = HEALTHCARE_PATH + "/v1/.+/fhir/";
+
+  private static final String PATIENT_ID = "loadtest-patient";
+
+  private static final String QUESTIONNAIRE_ID = "loadtest-questionnaire";
+
+  // Jetty keeps threads for its acceptors and selectors besides the ones serving requests
+  private static final int MIN_CONTAINER_THREADS = 10;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final WireMockServer server;
+
+  public LoadTestStubs(int port, int threads) {
+    server =
+        new WireMockServer(
+            options()
+                .port(port)
+                .containerThreads(Math.max(threads, MIN_CONTAINER_THREADS))
+                .asynchronousResponseEnabled(true)
+                .asynchronousResponseThreads(threads));
+  }
+
+  /** Starts the stubs, answering metadata requests for an activity of each of the step counts. */
+  public void start(Collection<Integer> stepCounts) throws JsonProcessingException {
+    server.start();
+    stubAuthServer();
+    for (int stepCount : stepCounts) {
+      stubActivityMetadata(stepCount);
+    }
+    stubParticipantInfo();
+    stubHealthcareApi();
+  }
+
+  public void stop() {
+    server.stop();
+  }
+
+  public String baseUrl() {
+    return server.baseUrl();
+  }
+
+  /** @return the id of the activity that has the number of steps */
+  public static String activityId(int stepCount) {
+    return SyntheticActivity.ACTIVITY_ID + stepCount;
+  }
+
+  private void stubAuthServer() {
+    ObjectNode introspection = objectMapper.createObjectNode();
+    introspection.put("active", true);
+    introspection.put("client_id", "loadtest-client-id");
+    introspection.put("token_type", "access_token");
+    server.stubFor(
+        post(urlPathEqualTo("/auth-server/oauth2/introspect"))
+            .willReturn(json(AUTH, 200, introspection)));
+
+    ObjectNode token = objectMapper.createObjectNode();
+    token.put("access_token", "loadtest-access-token");
+    token.put("token_type", "bearer");
+    token.put("expires_in", 3600);
+    server.stubFor(
+        post(urlPathEqualTo("/auth-server/oauth2/token")).willReturn(json(AUTH, 200, token)));
+  }
+
+  private void stubActivityMetadata(int stepCount) throws JsonProcessingException {
+    QuestionnaireActivityMetaDataBean metadata = new QuestionnaireActivityMetaDataBean();
+    metadata.setMessage(AppConstants.SUCCESS_MSG);
+    metadata.getActivity().setType("questionnaire");
+    metadata.getActivity().getMetadata().setStudyId(SyntheticActivity.STUDY_ID);
+    metadata.getActivity().getMetadata().setActivityId(activityId(stepCount));
+    metadata.getActivity().getMetadata().setVersion(SyntheticActivity.ACTIVITY_VERSION);
+    metadata.getActivity().getMetadata().setName("Load test activity " + stepCount);
+    metadata.getActivity().setSteps(SyntheticActivity.metadataSteps(stepCount));
+    server.stubFor(
+        get(urlPathEqualTo("/study-datastore/activity"))
+            .withQueryParam(AppConstants.ACTIVITY_ID_KEY, equalTo(activityId(stepCount)))
+            .willReturn(
+                delayed(WCP, aResponse().withStatus(200))
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(objectMapper.writeValueAsString(metadata))));
+  }
+
+  private void stubParticipantInfo() {
+    ObjectNode participantInfo = objectMapper.createObjectNode();
+    participantInfo.put("sharing", "true");
+    participantInfo.put("enrollment", "true");
+    participantInfo.put("withdrawal", "");
+    participantInfo.put("message", "Success");
+    server.stubFor(
+        get(urlPathEqualTo("/participant-enroll-datastore/participantInfo"))
+            .willReturn(json(ENROLL, 200, participantInfo)));
+  }
+
+  private void stubHealthcareApi() {
+    // questionnaire of every activity, with one active version
+    ObjectNode questionnaire = resource("Questionnaire", QUESTIONNAIRE_ID);
+    server.stubFor(
+        post(urlPathMatching(HEALTHCARE_FHIR + "Questionnaire/_search"))
+            .willReturn(json(HEALTHCARE, 200, bundle(questionnaire))));
+    ObjectNode questionnaireVersion = resource("Questionnaire", QUESTIONNAIRE_ID);
+    questionnaireVersion.put("version", SyntheticActivity.ACTIVITY_VERSION);
+    questionnaireVersion.put("status", "active");
+    questionnaireVersion.putObject("meta").put("versionId", "1");
+    server.stubFor(
+        get(urlPathMatching(HEALTHCARE_FHIR + "Questionnaire/[^/]+/_history"))
+            .willReturn(json(HEALTHCARE, 200, bundle(questionnaireVersion))));
+
+    // every participant is a known patient, and no response was submitted before
+    server.stubFor(
+        post(urlPathMatching(HEALTHCARE_FHIR + "Patient/_search"))
+            .willReturn(json(HEALTHCARE, 200, bundle(resource("Patient", PATIENT_ID)))));
+    server.stubFor(
+        post(urlPathMatching(HEALTHCARE_FHIR + "QuestionnaireResponse/_search"))
+            .willReturn(json(HEALTHCARE, 200, bundle())));
+    ObjectNode questionnaireResponse = resource("QuestionnaireResponse", "loadtest-response");
+    questionnaireResponse.putObject("source").put("reference", "Patient/" + PATIENT_ID);
+    server.stubFor(
+        post(urlPathMatching(HEALTHCARE_FHIR + "QuestionnaireResponse"))
+            .willReturn(json(HEALTHCARE, 201, questionnaireResponse)));
+    server.stubFor(
+        post(urlPathMatching(HEALTHCARE_FHIR + "Patient"))
+            .willReturn(json(HEALTHCARE, 201, resource("Patient", PATIENT_ID))));
+
+    // de-identification operations are done by the time they are first polled
+    String operationName =
+        "projects/loadtest-project/locations/us-central1/datasets/loadtest/operations/loadtest";
+    ObjectNode operation = objectMapper.createObjectNode();
+    operation.put("name", operationName);
+    server.stubFor(
+        post(urlPathMatching(HEALTHCARE_PATH + "/v1/.+:deidentify"))
+            .willReturn(json(HEALTHCARE, 200, operation)));
+    ObjectNode doneOperation = operation.deepCopy();
+    doneOperation.put("done", true);
+    server.stubFor(
+        get(urlPathMatching(HEALTHCARE_PATH + "/v1/.+/operations/.+"))
+            .willReturn(json(HEALTHCARE, 200, doneOperation)));
+
+    // patches, deletes and FHIR store lookups
+    server.stubFor(
+        any(urlPathMatching(HEALTHCARE_PATH + "/.*"))
+            .atPriority(10)
+            .willReturn(json(HEALTHCARE, 200, objectMapper.createObjectNode())));
+  }
+
+  private ObjectNode resource(String resourceType, String id) {
+    ObjectNode resource = objectMapper.createObjectNode();
+    resource.put("resourceType", resourceType);
+    resource.put("id", id);
+    return resource;
+  }
+
+  private ObjectNode bundle(ObjectNode... resources) {
+    ObjectNode bundle = objectMapper.createObjectNode();
+    bundle.put("resourceType", "Bundle");
+    bundle.put("type", "searchset");
+    bundle.put("total", resources.length);
+    ArrayNode entries = bundle.putArray("entry");
+    for (ObjectNode resource : resources) {
+      entries.addObject().set("resource", resource);
+    }
+    return bundle;
+  }
+
+  private ResponseDefinitionBuilder json(String group, int status, ObjectNode body) {
+    return delayed(group, aResponse().withStatus(status))
+        .withHeader("Content-Type", "application/json")
+        .withBody(body.toString());
+  }
+
+  private static ResponseDefinitionBuilder delayed(
+      String group, ResponseDefinitionBuilder response) {
+    double medianMs =
+        Double.parseDouble(
+            System.getProperty(
+                "loadtest.latency." + group + ".median.ms", defaultMedianMs(group)));
+    double sigma =
+        Double.parseDouble(System.getProperty("loadtest.latency." + group + ".sigma", "0.25"));
+    if (medianMs <= 0) {
+      return response;
+    }
+    return sigma > 0
+        ? response.withLogNormalRandomDelay(medianMs, sigma)
+        : response.withFixedDelay((int) medianMs);
+  }
+
+  private static String defaultMedianMs(String group) {
+    switch (group) {
+      case AUTH:
+        return "5";
+      case WCP:
+        return "40";
+      case ENROLL:
+        return "20";
+      default:
+        return "80";
+    }
+  }
+}
@@ -8,6 +8,7 @@
 
 package com.google.cloud.healthcare.fdamystudies.bean;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.util.ArrayList;
 import java.util.List;
 import lombok.Getter;
@@ -20,4 +21,7 @@ import lombok.ToString;
 public class ActivitiesBean {
   List<ParticipantActivityBean> activities = new ArrayList<>();
   private String message = null;
+
+  /** Entity tag of the activity state, sent in the ETag header rather than in the body. */
+  @JsonIgnore private String etag;
 }
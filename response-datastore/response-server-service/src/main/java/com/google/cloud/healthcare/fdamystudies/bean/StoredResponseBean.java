@@ -8,6 +8,7 @@
 
 package com.google.cloud.healthcare.fdamystudies.bean;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.ArrayList;
 import java.util.List;
 import lombok.Getter;
@@ -30,4 +31,8 @@ public class StoredResponseBean {
   private String queryName;
   private List<ResponseRows> rows;
   private int rowCount;
+
+  /** Token of the next page, set only on paged reads that have more rows. */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private String nextPageToken;
 }
@@ -8,18 +8,29 @@ import com.google.cloud.healthcare.fdamystudies.dao.CommonDao;
 import com.google.cloud.healthcare.fdamystudies.mapper.ConsentManagementAPIs;
 import com.google.cloud.healthcare.fdamystudies.response.model.FHIRresponseEntity;
 import com.google.cloud.healthcare.fdamystudies.service.ActivityResponseProcessorServiceImpl;
+import com.google.cloud.healthcare.fdamystudies.utils.DeIdentificationScheduler;
 import com.google.cloud.healthcare.fdamystudies.utils.DeIdentifyHealthcareApis;
 import com.google.cloud.healthcare.fdamystudies.utils.FhirHealthcareApis;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
 import com.google.gson.Gson;
+import java.io.IOException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 /**
- * For Update old DID or FHIR
+ * For Update old DID or FHIR. Re-submits the responses and withdrawn patients recorded in {@code
+ * fhir_history} that are still not de-identified, e.g. because a restart lost the batch they were
+ * queued in or their operation failed.
  *
  * @author
  */
@@ -30,6 +41,7 @@ public class DIDForFHIROldResponses {
   @Autowired private ApplicationConfiguration appConfig;
   @Autowired private ActivityResponseProcessorServiceImpl activityResponseProcessorServiceImpl;
   @Autowired private DeIdentifyHealthcareApis deIdentifyHealthcareApis;
+  @Autowired private DeIdentificationScheduler deIdentificationScheduler;
   @Autowired private CommonDao commonDao;
   @Autowired private FhirHealthcareApis fhirHealthcareAPIs;
   @Autowired private ConsentManagementAPIs consentManagementAPIs;
@@ -37,80 +49,115 @@ public class DIDForFHIROldResponses {
   private static final String DATASET_PATH = "projects/%s/locations/%s/datasets/%s";
   private static final String FHIR_STORES = "/fhirStores/";
 
-  /** @throws Exception */
-  @PostConstruct
-  public void didFHIRUpdate() throws Exception {
+  /**
+   * Runs at startup and then every {@code did.recovery.check.ms}. Rows younger than {@code
+   * did.recovery.min.age.ms} are left alone, as their batch may still be queued on another
+   * instance, and so are rows this instance still has queued. Every instance runs this, so a row
+   * is only re-submitted by the instance that claims it; the claim expires after {@code
+   * did.recovery.claim.expiry.ms}, when the row is re-submitted again if still not de-identified.
+   */
+  @Scheduled(fixedDelayString = "${did.recovery.check.ms}")
+  public void didFHIRUpdate() {
     logger.entry("didFHIRUpdate() begins");
 
     if (appConfig.getEnableFhirApi().equalsIgnoreCase("fhir&did")) {
-
-      List<FHIRresponseEntity> fhirList = commonDao.getFhirDetails(false);
-      if (!fhirList.isEmpty()) {
+      long now = System.currentTimeMillis();
+      Timestamp createdBefore = new Timestamp(now - appConfig.getDidRecoveryMinAgeMs());
+      Timestamp claimedBefore = new Timestamp(now - appConfig.getDidRecoveryClaimExpiryMs());
+      String claimToken = UUID.randomUUID().toString();
+      List<FHIRresponseEntity> fhirList = commonDao.getFhirDetails(false, createdBefore);
+      if (fhirList != null && !fhirList.isEmpty()) {
+        Map<String, Boolean> preparedStudies = new HashMap<>();
         for (FHIRresponseEntity fhiRresponseEntity : fhirList) {
-
-          // Create request and configure any parameters.
-          String parentName =
-              String.format(
-                  "projects/%s/locations/%s", appConfig.getProjectId(), appConfig.getRegionId());
-
-          consentManagementAPIs.createDatasetInHealthcareAPI(
-              fhiRresponseEntity.getStudyId(), parentName);
-
+          if (deIdentificationScheduler.isPending(
+              fhiRresponseEntity.getQuestionnaireReference())) {
+            continue;
+          }
+          String studyId = fhiRresponseEntity.getStudyId();
           String datasetPath =
               String.format(
-                  DATASET_PATH,
-                  appConfig.getProjectId(),
-                  appConfig.getRegionId(),
-                  fhiRresponseEntity.getStudyId());
+                  DATASET_PATH, appConfig.getProjectId(), appConfig.getRegionId(), studyId);
+          if (!preparedStudies.computeIfAbsent(studyId, id -> prepareStores(id, datasetPath))
+              || !commonDao.claimFhirDetails(
+                  fhiRresponseEntity.getId(), claimToken, claimedBefore)) {
+            continue;
+          }
 
-          activityResponseProcessorServiceImpl.createFhirStore(
-              datasetPath, "DID_" + fhiRresponseEntity.getStudyId());
-          List<String> resourceIds = new ArrayList<>();
+          Set<String> resourceIds = new LinkedHashSet<>();
           resourceIds.add(fhiRresponseEntity.getQuestionnaireReference());
           resourceIds.add(fhiRresponseEntity.getPatientReference());
-          deIdentifyHealthcareApis.deIdentification(
-              datasetPath + FHIR_STORES + "FHIR_" + fhiRresponseEntity.getStudyId(),
-              datasetPath + FHIR_STORES + "DID_" + fhiRresponseEntity.getStudyId(),
-              resourceIds);
-          commonDao.updateDidStatus(fhiRresponseEntity.getQuestionnaireReference());
+          deIdentificationScheduler
+              .submit(
+                  datasetPath + FHIR_STORES + "FHIR_" + studyId,
+                  datasetPath + FHIR_STORES + "DID_" + studyId,
+                  new ArrayList<>(resourceIds))
+              .whenComplete(
+                  (result, error) -> {
+                    if (error != null) {
+                      logger.error("didFHIRUpdate() - de-identification failed", error);
+                    } else {
+                      completeOldResponse(fhiRresponseEntity, datasetPath);
+                    }
+                  });
+        }
+      }
+    }
+    logger.exit("didFHIRUpdate() ends");
+  }
 
-          // for updating location values in DID
-          String fhirJson =
-              fhirHealthcareAPIs.fhirResourceGet(
-                  datasetPath
-                      + FHIR_STORES
-                      + "DID_"
-                      + fhiRresponseEntity.getStudyId()
-                      + "/fhir/"
-                      + fhiRresponseEntity.getQuestionnaireReference());
+  /** Creates the dataset and DID store of the study when missing; false when that failed. */
+  private boolean prepareStores(String studyId, String datasetPath) {
+    try {
+      // Create request and configure any parameters.
+      String parentName =
+          String.format(
+              "projects/%s/locations/%s", appConfig.getProjectId(), appConfig.getRegionId());
+      consentManagementAPIs.createDatasetInHealthcareAPI(studyId, parentName);
+      activityResponseProcessorServiceImpl.createFhirStore(datasetPath, "DID_" + studyId);
+      return true;
+    } catch (IOException | ProcessResponseException e) {
+      logger.error("prepareStores() - stores of " + studyId + " unavailable", e);
+      return false;
+    }
+  }
 
-          FHIRQuestionnaireResponseBean fhirQuestionnaireResponseBean =
-              new Gson().fromJson(fhirJson, FHIRQuestionnaireResponseBean.class);
-          deIdentifyHealthcareApis.updateDIDResponseLocation(
-              datasetPath, fhiRresponseEntity.getStudyId(), fhirQuestionnaireResponseBean);
+  private void completeOldResponse(FHIRresponseEntity fhiRresponseEntity, String datasetPath) {
+    try {
+      commonDao.updateDidStatus(fhiRresponseEntity.getQuestionnaireReference());
+      if (!fhiRresponseEntity
+          .getQuestionnaireReference()
+          .startsWith(QUESTIONNAIRE_RESPONSE_TYPE + "/")) {
+        // a withdrawn patient, which has no answers to mask
+        return;
+      }
 
-          if (appConfig.getDiscardFhirAfterDid().equalsIgnoreCase("true")) {
-            String resourceName =
-                datasetPath
-                    + FHIR_STORES
-                    + "FHIR_"
-                    + fhiRresponseEntity.getStudyId()
-                    + "/fhir/"
-                    + QUESTIONNAIRE_RESPONSE_TYPE
-                    + "/"
-                    + fhiRresponseEntity.getQuestionnaireReference();
-            fhirHealthcareAPIs.fhirResourceDelete(resourceName);
-            /*String resourceNameForPatient =
-                datasetPathforFHIR
-                    + FHIR_STORES
-                    + fhiRresponseEntity.getStudyId()
-                    + "/fhir/"
-                    + fhiRresponseEntity.getPatientReference();
-            fhirHealthcareAPIs.fhirResourceDelete(resourceNameForPatient);*/
-          }
-        }
+      // for updating location values in DID
+      String fhirJson =
+          fhirHealthcareAPIs.fhirResourceGet(
+              datasetPath
+                  + FHIR_STORES
+                  + "DID_"
+                  + fhiRresponseEntity.getStudyId()
+                  + "/fhir/"
+                  + fhiRresponseEntity.getQuestionnaireReference());
+
+      FHIRQuestionnaireResponseBean fhirQuestionnaireResponseBean =
+          new Gson().fromJson(fhirJson, FHIRQuestionnaireResponseBean.class);
+      deIdentifyHealthcareApis.updateDIDResponseLocation(
+          datasetPath, fhiRresponseEntity.getStudyId(), fhirQuestionnaireResponseBean);
+
+      if (appConfig.getDiscardFhirAfterDid().equalsIgnoreCase("true")) {
+        String resourceName =
+            datasetPath
+                + FHIR_STORES
+                + "FHIR_"
+                + fhiRresponseEntity.getStudyId()
+                + "/fhir/"
+                + fhiRresponseEntity.getQuestionnaireReference();
+        fhirHealthcareAPIs.fhirResourceDelete(resourceName);
       }
-      logger.exit("didFHIRUpdate() ends");
+    } catch (Exception e) {
+      logger.error("completeOldResponse() - " + e.getMessage(), e);
     }
   }
 }
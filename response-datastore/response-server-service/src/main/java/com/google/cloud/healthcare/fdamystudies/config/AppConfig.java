@@ -8,6 +8,8 @@
 
 package com.google.cloud.healthcare.fdamystudies.config;
 
+import com.google.cloud.healthcare.fdamystudies.dao.ResponsesDao;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
@@ -19,4 +21,15 @@ public class AppConfig extends CommonModuleConfiguration {
   public BCryptPasswordEncoder passwordEncoder() {
     return new BCryptPasswordEncoder();
   }
+
+  /** The response data store selected by {@code response.storage.type}. */
+  @Bean
+  public ResponsesDao responsesDao(
+      ApplicationConfiguration appConfig,
+      @Qualifier("cloudFirestoreResponsesDaoImpl") ResponsesDao cloudFirestoreResponsesDao,
+      @Qualifier("fileResponsesDaoImpl") ResponsesDao fileResponsesDao) {
+    return "file".equalsIgnoreCase(appConfig.getResponseStorageType())
+        ? fileResponsesDao
+        : cloudFirestoreResponsesDao;
+  }
 }
@@ -24,9 +24,63 @@ public class ApplicationConfiguration {
   @Value("${studydatastore.study.activity.metadata.url}")
   private String wcpStudyActivityMetadataUrl;
 
+  @Value("${studydatastore.activity.metadata.cache.max.size}")
+  private long activityMetadataCacheMaxSize;
+
+  @Value("${studydatastore.activity.metadata.cache.expire.minutes}")
+  private long activityMetadataCacheExpireMinutes;
+
+  @Value("${participant.activity.state.cache.max.size}")
+  private long activityStateCacheMaxSize;
+
+  @Value("${participant.activity.state.cache.expire.seconds}")
+  private long activityStateCacheExpireSeconds;
+
+  @Value("${participant.study.info.cache.max.size}")
+  private long participantStudyInfoCacheMaxSize;
+
+  @Value("${participant.study.info.cache.expire.seconds}")
+  private long participantStudyInfoCacheExpireSeconds;
+
+  @Value("${participant.study.info.cache.negative.expire.seconds}")
+  private long participantStudyInfoCacheNegativeExpireSeconds;
+
+  @Value("${response.storage.type}")
+  private String responseStorageType;
+
   @Value("${response.data.file.path}")
   private String responseDataFilePath;
 
+  @Value("${response.file.segment.max.bytes}")
+  private long responseFileSegmentMaxBytes;
+
+  @Value("${response.file.sync.writes}")
+  private boolean responseFileSyncWrites;
+
+  @Value("${response.file.compaction.dead.ratio}")
+  private double responseFileCompactionDeadRatio;
+
+  @Value("${response.query.page.size}")
+  private int responseQueryPageSize;
+
+  @Value("${response.query.page.size.max}")
+  private int responseQueryPageSizeMax;
+
+  @Value("${response.bulk.mutation.max.in.flight}")
+  private int responseBulkMutationMaxInFlight;
+
+  @Value("${response.withdrawal.job.threads}")
+  private int responseWithdrawalJobThreads;
+
+  @Value("${response.withdrawal.job.max.queued}")
+  private int responseWithdrawalJobMaxQueued;
+
+  @Value("${response.withdrawal.job.retention.minutes}")
+  private long responseWithdrawalJobRetentionMinutes;
+
+  @Value("${response.withdrawal.job.claim.expiry.ms}")
+  private long responseWithdrawalJobClaimExpiryMs;
+
   @Value("${last.response.only}")
   private String lastResponseOnly;
 
@@ -77,4 +131,118 @@ public class ApplicationConfiguration {
 
   @Value("${discardFhirAfterDid}")
   private String discardFhirAfterDid;
+
+  @Value("${ingest.bigQuery.export.threads}")
+  private int bigQueryExportThreads;
+
+  @Value("${ingest.bigQuery.full.export.interval.ms}")
+  private long bigQueryFullExportIntervalMs;
+
+  @Value("${ingest.bigQuery.consent.page.size}")
+  private int bigQueryConsentPageSize;
+
+  @Value("${response.ingestion.async.enabled}")
+  private boolean responseIngestionAsyncEnabled;
+
+  @Value("${response.ingestion.worker.count}")
+  private int responseIngestionWorkerCount;
+
+  @Value("${response.ingestion.max.pending}")
+  private long responseIngestionMaxPending;
+
+  @Value("${response.ingestion.max.attempts}")
+  private int responseIngestionMaxAttempts;
+
+  @Value("${response.ingestion.retry.backoff.ms}")
+  private long responseIngestionRetryBackoffMs;
+
+  @Value("${response.ingestion.claim.timeout.ms}")
+  private long responseIngestionClaimTimeoutMs;
+
+  @Value("${response.ingestion.claim.heartbeat.ms}")
+  private long responseIngestionClaimHeartbeatMs;
+
+  @Value("${response.ingestion.failed.retention.ms}")
+  private long responseIngestionFailedRetentionMs;
+
+  @Value("${response.receipt.claim.timeout.ms}")
+  private long responseReceiptClaimTimeoutMs;
+
+  @Value("${response.receipt.completed.retention.ms}")
+  private long responseReceiptCompletedRetentionMs;
+
+  @Value("${fhir.bundle.enabled}")
+  private boolean fhirBundleEnabled;
+
+  @Value("${fhir.bundle.type}")
+  private String fhirBundleType;
+
+  @Value("${fhir.bundle.max.entries}")
+  private int fhirBundleMaxEntries;
+
+  @Value("${fhir.bundle.max.age.ms}")
+  private long fhirBundleMaxAgeMs;
+
+  @Value("${fhir.bundle.flush.check.ms}")
+  private long fhirBundleFlushCheckMs;
+
+  @Value("${fhir.bundle.flush.threads}")
+  private int fhirBundleFlushThreads;
+
+  @Value("${fhir.questionnaire.index.expire.minutes}")
+  private long fhirQuestionnaireIndexExpireMinutes;
+
+  @Value("${fhir.questionnaire.index.miss.refresh.seconds}")
+  private long fhirQuestionnaireIndexMissRefreshSeconds;
+
+  @Value("${healthcare.api.http.max.total}")
+  private int healthcareApiHttpMaxTotal;
+
+  @Value("${healthcare.api.http.max.per.route}")
+  private int healthcareApiHttpMaxPerRoute;
+
+  @Value("${healthcare.api.http.keep.alive.ms}")
+  private long healthcareApiHttpKeepAliveMs;
+
+  @Value("${healthcare.api.http.timeout.ms}")
+  private int healthcareApiHttpTimeoutMs;
+
+  @Value("${healthcare.api.max.concurrent.requests}")
+  private int healthcareApiMaxConcurrentRequests;
+
+  @Value("${healthcare.api.root.url}")
+  private String healthcareApiRootUrl;
+
+  @Value("${healthcare.api.static.access.token:}")
+  private String healthcareApiStaticAccessToken;
+
+  @Value("${did.batch.window.ms}")
+  private long didBatchWindowMs;
+
+  @Value("${did.batch.max.resources}")
+  private int didBatchMaxResources;
+
+  @Value("${did.batch.flush.check.ms}")
+  private long didBatchFlushCheckMs;
+
+  @Value("${did.operation.poll.initial.ms}")
+  private long didOperationPollInitialMs;
+
+  @Value("${did.operation.poll.max.ms}")
+  private long didOperationPollMaxMs;
+
+  @Value("${did.operation.poll.check.ms}")
+  private long didOperationPollCheckMs;
+
+  @Value("${did.operation.threads}")
+  private int didOperationThreads;
+
+  @Value("${did.callback.threads}")
+  private int didCallbackThreads;
+
+  @Value("${did.recovery.min.age.ms}")
+  private long didRecoveryMinAgeMs;
+
+  @Value("${did.recovery.claim.expiry.ms}")
+  private long didRecoveryClaimExpiryMs;
 }
@@ -14,53 +14,47 @@ import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.AC
 import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.RUN_ID;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_DATA_DELETION_FAILED;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_RESPONSE_DATA_PROCESSING_FAILED;
-import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_RESPONSE_NOT_SAVED;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_RESPONSE_RECEIPT_FAILED;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_RESPONSE_RECEIVED;
-import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_RESPONSE_SAVED;
-import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_STATE_SAVED_OR_UPDATED_AFTER_RESPONSE_SUBMISSION;
-import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVTY_METADATA_RETRIEVAL_FAILED;
-import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVTY_METADATA_RETRIEVED;
-import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.DATA_SHARING_CONSENT_VALUE_CONJOINED_WITH_ACTIVITY_RESPONSE_DATA;
-import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.DATA_SHARING_CONSENT_VALUE_RETRIEVAL_FAILED;
-import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.DATA_SHARING_CONSENT_VALUE_RETRIEVED;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.PARTICIPANT_ACTIVITY_DATA_DELETED;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.PARTICIPANT_ID_INVALID;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.PARTICIPANT_WITHDRAWAL_INTIMATION_FROM_PARTICIPANT_DATASTORE;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.READ_OPERATION_FOR_RESPONSE_DATA_FAILED;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.READ_OPERATION_FOR_RESPONSE_DATA_SUCCEEDED;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.WITHDRAWAL_INFORMATION_RETREIVAL_FAILED;
-import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.WITHDRAWAL_INFORMATION_RETRIEVED;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.WITHDRAWAL_INFORMATION_UPDATED;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.WITHDRAWAL_INFORMATION_UPDATE_FAILED;
 import static com.google.cloud.healthcare.fdamystudies.utils.AppConstants.QUESTIONNAIRE_RESPONSE_TYPE;
 
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
-import com.google.cloud.healthcare.fdamystudies.bean.ActivityRunBean;
-import com.google.cloud.healthcare.fdamystudies.bean.ActivityStateRequestBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ErrorBean;
-import com.google.cloud.healthcare.fdamystudies.bean.ParticipantActivityBean;
-import com.google.cloud.healthcare.fdamystudies.bean.ParticipantStudyInformation;
-import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStructureBean;
 import com.google.cloud.healthcare.fdamystudies.bean.SearchQuestionnaireResponseFhirBean;
 import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
-import com.google.cloud.healthcare.fdamystudies.bean.StudyActivityMetadataRequestBean;
 import com.google.cloud.healthcare.fdamystudies.bean.SuccessResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.WithdrawParticipantsBean;
+import com.google.cloud.healthcare.fdamystudies.bean.WithdrawParticipantsJobBean;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.common.ResponseServerAuditLogHelper;
 import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.exception.InvalidPageTokenException;
 import com.google.cloud.healthcare.fdamystudies.mapper.AuditEventMapper;
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantInfoEntity;
+import com.google.cloud.healthcare.fdamystudies.service.ActivityResponseIngestionService;
+import com.google.cloud.healthcare.fdamystudies.service.ActivityResponseIngestionService.IngestionOutcome;
 import com.google.cloud.healthcare.fdamystudies.service.ActivityResponseProcessorService;
+import com.google.cloud.healthcare.fdamystudies.service.ActivityResponseReceiptService;
+import com.google.cloud.healthcare.fdamystudies.service.ActivityResponseQueueService;
 import com.google.cloud.healthcare.fdamystudies.service.ParticipantActivityStateResponseService;
 import com.google.cloud.healthcare.fdamystudies.service.ParticipantService;
 import com.google.cloud.healthcare.fdamystudies.service.ParticipantStudyInfoService;
-import com.google.cloud.healthcare.fdamystudies.service.StudyMetadataService;
+import com.google.cloud.healthcare.fdamystudies.service.ParticipantWithdrawalJobService;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
 import com.google.cloud.healthcare.fdamystudies.utils.ErrorCode;
 import com.google.cloud.healthcare.fdamystudies.utils.FhirHealthcareApis;
 import com.google.cloud.healthcare.fdamystudies.utils.GetResponsefhirApi;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import com.google.cloud.healthcare.fdamystudies.utils.ResponseIngestionMetrics;
 import com.google.gson.Gson;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
@@ -80,6 +74,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
@@ -90,7 +85,6 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class ProcessActivityResponseController {
   @Autowired private ParticipantService participantService;
-  @Autowired private StudyMetadataService studyMetadataService;
   @Autowired private ParticipantStudyInfoService partStudyInfoService;
 
   @Autowired private ActivityResponseProcessorService activityResponseProcessorService;
@@ -103,6 +97,11 @@ public class ProcessActivityResponseController {
   @Autowired private ApplicationConfiguration appConfig;
   @Autowired private GetResponsefhirApi getresponsefhirApi;
   @Autowired private FhirHealthcareApis fhirhealthcareApis;
+  @Autowired private ActivityResponseQueueService activityResponseQueueService;
+  @Autowired private ActivityResponseReceiptService activityResponseReceiptService;
+  @Autowired private ActivityResponseIngestionService activityResponseIngestionService;
+  @Autowired private ResponseIngestionMetrics ingestionMetrics;
+  @Autowired private ParticipantWithdrawalJobService participantWithdrawalJobService;
 
   private static final String BEGIN_REQUEST_LOG = "%s request";
 
@@ -130,6 +129,8 @@ public class ProcessActivityResponseController {
     String participantId = null;
     String secureEnrollmentToken = null;
     boolean savedResponseData = false;
+    boolean savedActivityState = false;
+    String receiptClaimToken = null;
     try {
       applicationId = questionnaireActivityResponseBean.getApplicationId();
       studyId = questionnaireActivityResponseBean.getMetadata().getStudyId();
@@ -184,27 +185,32 @@ public class ProcessActivityResponseController {
       participantBo.setTokenId(secureEnrollmentToken);
       participantBo.setParticipantId(participantId);
 
-      if (participantService.isValidParticipant(participantBo)) {
+      if (ingestionMetrics.record(
+          ResponseIngestionMetrics.PARTICIPANT_VALIDATION,
+          () -> participantService.isValidParticipant(participantBo))) {
 
-        // Get ActivityMetadata from the WCP - we map the metadata information to the activity
-        // response information to come up with a consolidated response object
-        StudyActivityMetadataRequestBean studyActivityMetadataRequestBean =
-            new StudyActivityMetadataRequestBean();
-        studyActivityMetadataRequestBean.setStudyId(studyId);
-        studyActivityMetadataRequestBean.setActivityId(activityId);
-        studyActivityMetadataRequestBean.setActivityVersion(activityVersion);
-        QuestionnaireActivityStructureBean activityMetadatFromWcp =
-            studyMetadataService.getStudyActivityMetadata(
-                applicationId, studyActivityMetadataRequestBean, auditRequest);
-        if (activityMetadatFromWcp == null) {
-          logger.error(
-              "Input values are :\n Study Id: "
-                  + studyId
-                  + "\n Activity Id: "
-                  + activityId
-                  + "\n Activity Version: "
-                  + activityVersion);
+        // A retried submission of an activity run is answered from its receipt
+        receiptClaimToken =
+            activityResponseReceiptService.claimReceipt(questionnaireActivityResponseBean);
+        if (receiptClaimToken == null) {
+          return replayedActivityResponse(questionnaireActivityResponseBean);
+        }
+
+        if (appConfig.isResponseIngestionAsyncEnabled()) {
+          ResponseEntity<?> queuedResponse =
+              enqueueActivityResponse(
+                  questionnaireActivityResponseBean, auditRequest, locale, receiptClaimToken);
+          if (queuedResponse.getStatusCode() == HttpStatus.ACCEPTED) {
+            // the queue worker completes the receipt once the response is saved
+            receiptClaimToken = null;
+          }
+          return queuedResponse;
+        }
 
+        IngestionOutcome outcome =
+            activityResponseIngestionService.saveActivityResponse(
+                questionnaireActivityResponseBean, auditRequest, locale);
+        if (outcome == IngestionOutcome.METADATA_NOT_FOUND) {
           Map<String, String> receiptMap = new HashedMap<>();
           receiptMap.put(
               "questionnaire_or_active_task", questionnaireActivityResponseBean.getType());
@@ -219,8 +225,6 @@ public class ProcessActivityResponseController {
           map.put(ACTIVITY_TYPE, questionnaireActivityResponseBean.getType());
           map.put(ACTIVITY_ID, activityId);
           map.put(ACTIVITY_VERSION, activityVersion);
-          responseServerAuditLogHelper.logEvent(
-              ACTIVTY_METADATA_RETRIEVAL_FAILED, auditRequest, map);
           map.put(RUN_ID, questionnaireActivityResponseBean.getMetadata().getActivityRunId());
           responseServerAuditLogHelper.logEvent(
               ACTIVITY_RESPONSE_DATA_PROCESSING_FAILED, auditRequest, map);
@@ -232,26 +236,7 @@ public class ProcessActivityResponseController {
                   AppConstants.ERROR_STR,
                   ErrorCode.EC_705.errorMessage());
           return new ResponseEntity<>(errorBean, HttpStatus.BAD_REQUEST);
-        }
-        Map<String, String> map = new HashedMap<>();
-        map.put(ACTIVITY_TYPE, questionnaireActivityResponseBean.getType());
-        map.put(ACTIVITY_ID, activityId);
-        map.put(ACTIVITY_VERSION, activityVersion);
-        responseServerAuditLogHelper.logEvent(ACTIVTY_METADATA_RETRIEVED, auditRequest, map);
-
-        // Get ParticipantStudyInfo from Registration Server
-        String flag = appConfig.getEnableConsentManagementAPI();
-        ParticipantStudyInformation partStudyInfo =
-            !StringUtils.isEmpty(flag) && Boolean.valueOf(flag)
-                ? partStudyInfoService.getParticipantStudyInfoFromConsent(
-                    studyId, participantId, auditRequest)
-                : partStudyInfoService.getParticipantStudyInfo(
-                    studyId, participantId, auditRequest);
-        if (partStudyInfo == null) {
-          logger.error("GetParticipantStudyInfo() - ParticipantInfo is null. Study Id: " + studyId);
-          responseServerAuditLogHelper.logEvent(
-              DATA_SHARING_CONSENT_VALUE_RETRIEVAL_FAILED, auditRequest);
-
+        } else if (outcome == IngestionOutcome.PARTICIPANT_STUDY_INFO_NOT_FOUND) {
           responseServerAuditLogHelper.logEvent(
               WITHDRAWAL_INFORMATION_RETREIVAL_FAILED, auditRequest);
           ErrorBean errorBean =
@@ -261,83 +246,7 @@ public class ProcessActivityResponseController {
                   AppConstants.ERROR_STR,
                   ErrorCode.EC_715.errorMessage());
           return new ResponseEntity<>(errorBean, HttpStatus.BAD_REQUEST);
-        }
-        String sharingConsent = partStudyInfo.getSharing();
-        Map<String, String> consentMap = new HashedMap<>();
-        consentMap.put("datasharing_consent_value", sharingConsent);
-        responseServerAuditLogHelper.logEvent(
-            DATA_SHARING_CONSENT_VALUE_RETRIEVED, auditRequest, consentMap);
-
-        questionnaireActivityResponseBean.setSharingConsent(sharingConsent);
-        Map<String, String> sharingMap = new HashedMap<>();
-        sharingMap.put(ACTIVITY_TYPE, questionnaireActivityResponseBean.getType());
-        sharingMap.put(ACTIVITY_ID, activityId);
-        sharingMap.put(ACTIVITY_VERSION, activityVersion);
-        sharingMap.put(RUN_ID, questionnaireActivityResponseBean.getMetadata().getActivityRunId());
-        responseServerAuditLogHelper.logEvent(
-            DATA_SHARING_CONSENT_VALUE_CONJOINED_WITH_ACTIVITY_RESPONSE_DATA,
-            auditRequest,
-            sharingMap);
-        boolean withdrawalStatus = !StringUtils.isBlank(partStudyInfo.getWithdrawal());
-
-        Map<String, String> withdrawMap = new HashedMap<>();
-        withdrawMap.put("withdrawn_status", String.valueOf(withdrawalStatus));
-        responseServerAuditLogHelper.logEvent(
-            WITHDRAWAL_INFORMATION_RETRIEVED, auditRequest, withdrawMap);
-
-        if (!withdrawalStatus) {
-
-          activityResponseProcessorService.saveActivityResponseDataForParticipant(
-              activityMetadatFromWcp, questionnaireActivityResponseBean, auditRequest, locale);
-          savedResponseData = true;
-
-          // Update Participant Activity State
-          ActivityStateRequestBean activityStateRequestBean = new ActivityStateRequestBean();
-          activityStateRequestBean.setParticipantId(participantId);
-          activityStateRequestBean.setStudyId(studyId);
-
-          ParticipantActivityBean participantActivityBean = new ParticipantActivityBean();
-          participantActivityBean.setActivityId(activityId);
-          participantActivityBean.setActivityVersion(activityVersion);
-          participantActivityBean.setActivityState(AppConstants.COMPLETED);
-
-          if (questionnaireActivityResponseBean.getActivityRun() != null) {
-            ActivityRunBean activityRun = new ActivityRunBean();
-            activityRun.setCompleted(
-                questionnaireActivityResponseBean.getActivityRun().getCompleted());
-            activityRun.setMissed(questionnaireActivityResponseBean.getActivityRun().getMissed());
-            activityRun.setTotal(questionnaireActivityResponseBean.getActivityRun().getTotal());
-            participantActivityBean.setActivityRun(activityRun);
-          }
-
-          List<ParticipantActivityBean> activity = new ArrayList<>();
-          activity.add(participantActivityBean);
-          activityStateRequestBean.setActivity(activity);
-          participantActivityStateResponseService.saveParticipantActivities(
-              activityStateRequestBean);
-          Map<String, String> activityStateMap = new HashedMap<>();
-          activityStateMap.put("activity_state", participantActivityBean.getActivityState());
-          activityStateMap.put(ACTIVITY_ID, activityId);
-          activityStateMap.put(ACTIVITY_VERSION, activityVersion);
-          activityStateMap.put(
-              RUN_ID, questionnaireActivityResponseBean.getMetadata().getActivityRunId());
-          responseServerAuditLogHelper.logEvent(
-              ACTIVITY_STATE_SAVED_OR_UPDATED_AFTER_RESPONSE_SUBMISSION,
-              auditRequest,
-              activityStateMap);
-          SuccessResponseBean srBean = new SuccessResponseBean();
-          srBean.setMessage(AppConstants.SUCCESS_MSG);
-
-          Map<String, String> activityResponseMap = new HashedMap<>();
-          activityResponseMap.put(ACTIVITY_TYPE, questionnaireActivityResponseBean.getType());
-          activityResponseMap.put(ACTIVITY_ID, activityId);
-          activityResponseMap.put(ACTIVITY_VERSION, activityVersion);
-          activityResponseMap.put(
-              RUN_ID, questionnaireActivityResponseBean.getMetadata().getActivityRunId());
-          responseServerAuditLogHelper.logEvent(
-              ACTIVITY_RESPONSE_SAVED, auditRequest, activityResponseMap);
-          return new ResponseEntity<>(srBean, HttpStatus.OK);
-        } else {
+        } else if (outcome == IngestionOutcome.PARTICIPANT_WITHDRAWN) {
           ErrorBean errorBean =
               AppUtil.dynamicResponse(
                   ErrorCode.EC_716.code(),
@@ -351,23 +260,17 @@ public class ProcessActivityResponseController {
                       + activityVersion
                       + "\n Particpant Id: "
                       + participantId);
-          Map<String, String> notSaveMap = new HashedMap<>();
-          notSaveMap.put(ACTIVITY_TYPE, questionnaireActivityResponseBean.getType());
-          notSaveMap.put(ACTIVITY_ID, activityId);
-          notSaveMap.put(ACTIVITY_VERSION, activityVersion);
-          notSaveMap.put(
-              "submission_timestamp", questionnaireActivityResponseBean.getCreatedTimestamp());
-          responseServerAuditLogHelper.logEvent(
-              ACTIVITY_RESPONSE_NOT_SAVED, auditRequest, notSaveMap);
-          logger.error(
-              "Could not save response for withdrawn participant.\n Study Id: "
-                  + studyId
-                  + "\n Activity Id: "
-                  + activityId
-                  + "\n Activity Version: "
-                  + activityVersion);
           return new ResponseEntity<>(errorBean, HttpStatus.BAD_REQUEST);
         }
+        savedResponseData = true;
+
+        activityResponseIngestionService.saveActivityState(
+            questionnaireActivityResponseBean, auditRequest);
+        // the run is only complete, and later submissions skipped, once its activity state is saved
+        savedActivityState = true;
+        SuccessResponseBean srBean = new SuccessResponseBean();
+        srBean.setMessage(AppConstants.SUCCESS_MSG);
+        return new ResponseEntity<>(srBean, HttpStatus.OK);
       } else {
         ErrorBean errorBean =
             AppUtil.dynamicResponse(
@@ -427,6 +330,14 @@ public class ProcessActivityResponseController {
                 + activityVersion);
         return new ResponseEntity<>(errorBean, HttpStatus.BAD_REQUEST);
       }
+    } finally {
+      if (receiptClaimToken != null && savedActivityState) {
+        activityResponseReceiptService.completeReceipt(
+            questionnaireActivityResponseBean, receiptClaimToken);
+      } else if (receiptClaimToken != null) {
+        activityResponseReceiptService.releaseReceipt(
+            questionnaireActivityResponseBean, receiptClaimToken);
+      }
     }
   }
 
@@ -441,6 +352,8 @@ public class ProcessActivityResponseController {
       @RequestParam("activityId") String activityId,
       @RequestParam("activityRunId") String activityRunId,
       @RequestParam("questionKey") String questionKey,
+      @RequestParam(value = "pageSize", required = false) Integer pageSize,
+      @RequestParam(value = "pageToken", required = false) String pageToken,
       @RequestHeader String userId,
       HttpServletRequest request) {
     logger.entry(String.format(BEGIN_REQUEST_LOG, request.getRequestURI()));
@@ -459,7 +372,9 @@ public class ProcessActivityResponseController {
           || StringUtils.isBlank(siteId)
           || StringUtils.isBlank(participantId)
           || StringUtils.isBlank(activityId)
-          || StringUtils.isBlank(tokenIdentifier)) {
+          || StringUtils.isBlank(tokenIdentifier)
+          || (pageSize != null
+              && (pageSize < 1 || pageSize > appConfig.getResponseQueryPageSizeMax()))) {
         ErrorBean errorBean =
             AppUtil.dynamicResponse(
                 ErrorCode.EC_701.code(),
@@ -655,9 +570,22 @@ public class ProcessActivityResponseController {
 
         } else {
 
-          StoredResponseBean storedResponseBean =
-              activityResponseProcessorService.getActivityResponseDataForParticipant(
-                  studyId, siteId, participantId, activityId, questionKey);
+          StoredResponseBean storedResponseBean;
+          if (pageSize == null && StringUtils.isBlank(pageToken)) {
+            storedResponseBean =
+                activityResponseProcessorService.getActivityResponseDataForParticipant(
+                    studyId, siteId, participantId, activityId, questionKey);
+          } else {
+            storedResponseBean =
+                activityResponseProcessorService.getActivityResponseDataPageForParticipant(
+                    studyId,
+                    siteId,
+                    participantId,
+                    activityId,
+                    questionKey,
+                    pageSize != null ? pageSize : appConfig.getResponseQueryPageSize(),
+                    pageToken);
+          }
           responseServerAuditLogHelper.logEvent(
               READ_OPERATION_FOR_RESPONSE_DATA_SUCCEEDED, auditRequest);
           logger.debug("getresponse()storedResponseBean5", storedResponseBean.toString());
@@ -689,6 +617,15 @@ public class ProcessActivityResponseController {
             READ_OPERATION_FOR_RESPONSE_DATA_FAILED, auditRequest);
         return new ResponseEntity<>(errorBean, HttpStatus.BAD_REQUEST);
       }
+    } catch (InvalidPageTokenException e) {
+      ErrorBean errorBean =
+          AppUtil.dynamicResponse(
+              ErrorCode.EC_701.code(),
+              ErrorCode.EC_701.errorMessage(),
+              AppConstants.ERROR_STR,
+              e.getMessage());
+      logger.warn("getActivityResponseData() - " + e.getMessage());
+      return new ResponseEntity<>(errorBean, HttpStatus.BAD_REQUEST);
     } catch (Exception e) {
       ErrorBean errorBean =
           AppUtil.dynamicResponse(
@@ -738,6 +675,7 @@ public class ProcessActivityResponseController {
         map.put("withdrawal_timetamp", Timestamp.from(Instant.now()).toString());
         responseServerAuditLogHelper.logEvent(
             PARTICIPANT_WITHDRAWAL_INTIMATION_FROM_PARTICIPANT_DATASTORE, auditRequest, map);
+        partStudyInfoService.evictParticipantStudyInfo(studyId, participantId);
 
         activityResponseProcessorService.updateWithdrawalStatusForParticipant(
             studyId, participantId);
@@ -788,4 +726,123 @@ public class ProcessActivityResponseController {
       }
     }
   }
+
+  @ApiOperation(value = "Withdraw participants from study from response datastore")
+  @PostMapping("/participants/withdraw")
+  public ResponseEntity<?> withdrawParticipantsFromStudy(
+      @RequestHeader String appId,
+      @RequestBody WithdrawParticipantsBean withdrawParticipantsBean,
+      HttpServletRequest request) {
+    AuditLogEventRequest auditRequest = AuditEventMapper.fromHttpServletRequest(request);
+    logger.entry(String.format(BEGIN_REQUEST_LOG, request.getRequestURI()));
+    String studyId = withdrawParticipantsBean.getStudyId();
+    List<String> participantIds = withdrawParticipantsBean.getParticipantIds();
+    if (StringUtils.isBlank(studyId)
+        || participantIds == null
+        || participantIds.isEmpty()
+        || participantIds.stream().anyMatch(StringUtils::isBlank)) {
+      logger.debug("withdrawParticipantsFromStudy() - studyId or participantIds is blank ");
+      ErrorBean errorBean =
+          AppUtil.dynamicResponse(
+              ErrorCode.EC_701.code(),
+              ErrorCode.EC_701.errorMessage(),
+              AppConstants.ERROR_STR,
+              ErrorCode.EC_701.errorMessage());
+      return new ResponseEntity<>(errorBean, HttpStatus.BAD_REQUEST);
+    }
+
+    auditRequest.setStudyId(studyId);
+    auditRequest.setStudyVersion(withdrawParticipantsBean.getStudyVersion());
+    auditRequest.setAppId(appId);
+    try {
+      WithdrawParticipantsJobBean job =
+          participantWithdrawalJobService.submitWithdrawal(studyId, participantIds, auditRequest);
+      logger.exit("withdrawParticipantsFromStudy() - queued withdrawal job " + job.getJobId());
+      return new ResponseEntity<>(job, HttpStatus.ACCEPTED);
+    } catch (ProcessResponseException e) {
+      logger.error(
+          "Could not queue withdrawal of "
+              + participantIds.size()
+              + " participants.\n Study Id: "
+              + studyId,
+          e);
+      ErrorBean errorBean =
+          AppUtil.dynamicResponse(
+              ErrorCode.EC_712.code(),
+              ErrorCode.EC_712.errorMessage(),
+              AppConstants.ERROR_STR,
+              e.getMessage());
+      return new ResponseEntity<>(errorBean, HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+  }
+
+  @ApiOperation(value = "Get the state of a job withdrawing participants from study")
+  @GetMapping("/participants/withdraw/{jobId}")
+  public ResponseEntity<?> getParticipantsWithdrawal(
+      @PathVariable String jobId, HttpServletRequest request) {
+    logger.entry(String.format(BEGIN_REQUEST_LOG, request.getRequestURI()));
+    WithdrawParticipantsJobBean job = participantWithdrawalJobService.getWithdrawal(jobId);
+    if (job == null) {
+      logger.debug("getParticipantsWithdrawal() - no withdrawal job " + jobId);
+      ErrorBean errorBean =
+          AppUtil.dynamicResponse(
+              ErrorCode.EC_711.code(),
+              ErrorCode.EC_711.errorMessage(),
+              AppConstants.ERROR_STR,
+              "No withdrawal job " + jobId);
+      return new ResponseEntity<>(errorBean, HttpStatus.NOT_FOUND);
+    }
+    return new ResponseEntity<>(job, HttpStatus.OK);
+  }
+
+  private ResponseEntity<?> enqueueActivityResponse(
+      ActivityResponseBean questionnaireActivityResponseBean,
+      AuditLogEventRequest auditRequest,
+      Locale locale,
+      String receiptClaimToken)
+      throws ProcessResponseException {
+    if (activityResponseQueueService.isQueueFull()) {
+      ErrorBean errorBean =
+          AppUtil.dynamicResponse(
+              ErrorCode.EC_720.code(),
+              ErrorCode.EC_720.errorMessage(),
+              AppConstants.ERROR_STR,
+              ErrorCode.EC_720.errorMessage());
+      logger.warn("enqueueActivityResponse() : response queue is full");
+      return new ResponseEntity<>(errorBean, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+    String queueId =
+        activityResponseQueueService.enqueueActivityResponse(
+            questionnaireActivityResponseBean, auditRequest, locale, receiptClaimToken);
+    logger.debug("enqueueActivityResponse() : response queued with id " + queueId);
+    SuccessResponseBean srBean = new SuccessResponseBean();
+    srBean.setMessage(AppConstants.SUCCESS_MSG);
+    return new ResponseEntity<>(srBean, HttpStatus.ACCEPTED);
+  }
+
+  private ResponseEntity<?> replayedActivityResponse(
+      ActivityResponseBean questionnaireActivityResponseBean) {
+    String activityRunId = questionnaireActivityResponseBean.getMetadata().getActivityRunId();
+    String activityId = questionnaireActivityResponseBean.getMetadata().getActivityId();
+    if (activityResponseReceiptService.isReceiptCompleted(questionnaireActivityResponseBean)) {
+      logger.info(
+          String.format(
+              "replayedActivityResponse() : run %s of activity Id %s was already saved",
+              activityRunId, activityId));
+      SuccessResponseBean srBean = new SuccessResponseBean();
+      srBean.setMessage(AppConstants.SUCCESS_MSG);
+      return new ResponseEntity<>(srBean, HttpStatus.OK);
+    }
+    logger.warn(
+        String.format(
+            "replayedActivityResponse() : run %s of activity Id %s is still being processed",
+            activityRunId, activityId));
+    ErrorBean errorBean =
+        AppUtil.dynamicResponse(
+            ErrorCode.EC_721.code(),
+            ErrorCode.EC_721.errorMessage(),
+            AppConstants.ERROR_STR,
+            ErrorCode.EC_721.errorMessage());
+    return new ResponseEntity<>(errorBean, HttpStatus.CONFLICT);
+  }
 }
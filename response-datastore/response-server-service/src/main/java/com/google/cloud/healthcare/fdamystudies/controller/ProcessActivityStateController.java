@@ -42,6 +42,7 @@ import org.apache.logging.log4j.util.Strings;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -73,6 +74,7 @@ public class ProcessActivityStateController {
   public ResponseEntity<?> getActivityState(
       @RequestParam(name = "studyId") String studyId,
       @RequestParam("participantId") String participantId,
+      @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
       HttpServletRequest request)
       throws ProcessActivityStateException {
     logger.entry(String.format(BEGIN_REQUEST_LOG, request.getRequestURI()));
@@ -99,8 +101,28 @@ public class ProcessActivityStateController {
       auditRequest.setParticipantId(participantId);
       responseServerAuditLogHelper.logEvent(
           READ_OPERATION_FOR_ACTIVITY_STATE_INFO_SUCCEEDED, auditRequest);
-      return new ResponseEntity<>(activitiesBean, HttpStatus.OK);
+      String etag = activitiesBean.getEtag();
+      if (StringUtils.isBlank(etag)) {
+        return new ResponseEntity<>(activitiesBean, HttpStatus.OK);
+      }
+      if (etagMatches(ifNoneMatch, etag)) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+      }
+      return ResponseEntity.ok().eTag(etag).body(activitiesBean);
+    }
+  }
+
+  private boolean etagMatches(String ifNoneMatch, String etag) {
+    if (StringUtils.isBlank(ifNoneMatch)) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = StringUtils.removeStart(candidate.trim(), "W/");
+      if ("*".equals(tag) || etag.equals(tag)) {
+        return true;
+      }
     }
+    return false;
   }
 
   @ApiOperation(value = "Update activity state")
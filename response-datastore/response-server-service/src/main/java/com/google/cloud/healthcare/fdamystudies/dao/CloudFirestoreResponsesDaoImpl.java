@@ -9,6 +9,9 @@
 package com.google.cloud.healthcare.fdamystudies.dao;
 
 import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.FieldPath;
 import com.google.cloud.firestore.Firestore;
 import com.google.cloud.firestore.FirestoreOptions;
 import com.google.cloud.firestore.Query;
@@ -16,22 +19,22 @@ import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.QuerySnapshot;
 import com.google.cloud.firestore.WriteBatch;
 import com.google.cloud.firestore.WriteResult;
-import com.google.cloud.healthcare.fdamystudies.bean.ResponseRows;
-import com.google.cloud.healthcare.fdamystudies.bean.SavedActivityResponse;
 import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
 import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.exception.InvalidPageTokenException;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
-import com.google.gson.Gson;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
@@ -45,7 +48,12 @@ import org.springframework.stereotype.Repository;
 @Qualifier("cloudFirestoreResponsesDaoImpl")
 public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
   @Autowired private ApplicationConfiguration appConfig;
+  @Autowired private StoredResponseConverter storedResponseConverter;
+
+  /** Built from firestore.project.id on first use unless the context provides a client. */
+  @Autowired(required = false)
   private Firestore responsesDb;
+
   private XLogger logger =
       XLoggerFactory.getXLogger(CloudFirestoreResponsesDaoImpl.class.getName());
 
@@ -146,39 +154,27 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
       initializeFirestore();
       // Firestore does not allow compound queries without creating an index. Indexes can be created
       // only through the console or CLI, not programmatically. So this method will not depend on
-      // the index to sort the data, based on timestamp in firestore. It will do the sort on the
-      // query result object
+      // the index to sort the data, based on timestamp in firestore. The documents are read page
+      // by page and, when only the last response is returned, only the latest one is kept
       //
       final Query activitiesQuery =
-          this.responsesDb
-              .collection(studyCollectionName)
-              .document(studyId)
-              .collection(AppConstants.ACTIVITIES_COLLECTION_NAME)
-              .whereEqualTo(AppConstants.PARTICIPANT_ID_KEY, participantId)
-              .whereEqualTo(AppConstants.SITE_ID_KEY, siteId)
-              .whereEqualTo(AppConstants.ACTIVITY_ID_KEY, activityId);
-      if (!StringUtils.isBlank(questionKey)) {
-        activitiesQuery.whereEqualTo("results." + AppConstants.QUESTION_ID_KEY, questionKey);
-      }
-      final ApiFuture<QuerySnapshot> querySnapshotActivities = activitiesQuery.get();
-      List<QueryDocumentSnapshot> documentsActivities =
-          querySnapshotActivities.get().getDocuments();
+          participantActivityQuery(studyCollectionName, studyId, siteId, participantId, activityId);
+      boolean lastResponseOnly = isLastResponseOnly();
       List<Map<String, Object>> activityResponseMapList = new ArrayList<>();
-      for (QueryDocumentSnapshot documentActivity : documentsActivities) {
-        Map<String, Object> mapObj = documentActivity.getData();
-        activityResponseMapList.add(mapObj);
-      }
+      forEachResponse(
+          activitiesQuery,
+          activityResponseMap -> {
+            if (!lastResponseOnly || activityResponseMapList.isEmpty()) {
+              activityResponseMapList.add(activityResponseMap);
+            } else if (createdTimestamp(activityResponseMap)
+                > createdTimestamp(activityResponseMapList.get(0))) {
+              activityResponseMapList.set(0, activityResponseMap);
+            }
+          });
 
       if (!activityResponseMapList.isEmpty()) {
-        String lastResponseOnly = appConfig.getLastResponseOnly();
-        if (!StringUtils.isBlank(lastResponseOnly)
-            && lastResponseOnly.equalsIgnoreCase(AppConstants.TRUE_STR)) {
-          activityResponseMapList = filterResponseListByTimestamp(activityResponseMapList);
-        }
-        StoredResponseBean storedResponseBean = initStoredResponseBean();
-        storedResponseBean =
-            convertResponseDataToBean(participantId, activityResponseMapList, storedResponseBean);
-        return storedResponseBean;
+        return storedResponseConverter.toStoredResponseBean(
+            participantId, activityResponseMapList);
       }
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
@@ -188,88 +184,181 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
   }
 
   @Override
-  public void deleteActivityResponseDataForParticipant(
+  public StoredResponseBean getActivityResponseDataPageForParticipant(
       String studyCollectionName,
       String studyId,
-      String activitiesCollectionName,
-      String participantId)
+      String siteId,
+      String participantId,
+      String activityId,
+      String questionKey,
+      int pageSize,
+      String pageToken)
       throws ProcessResponseException {
+    if (isLastResponseOnly()) {
+      // a single row, there is nothing to page through
+      return getActivityResponseDataForParticipant(
+          studyCollectionName, studyId, siteId, participantId, activityId, questionKey);
+    }
     try {
-      logger.entry("begin deleteActivityResponseDataForParticipant()");
+      logger.entry("begin getActivityResponseDataPageForParticipant()");
       initializeFirestore();
-      final Query activitiesQueryByParticipantId =
-          this.responsesDb
-              .collection(studyCollectionName)
-              .document(studyId)
-              .collection(AppConstants.ACTIVITIES_COLLECTION_NAME)
-              .whereEqualTo(AppConstants.PARTICIPANT_ID_KEY, participantId);
-
-      final ApiFuture<QuerySnapshot> querySnapshot = activitiesQueryByParticipantId.get();
-      List<QueryDocumentSnapshot> documents;
-
-      documents = querySnapshot.get().getDocuments();
-
-      WriteBatch deleteBatch = this.responsesDb.batch();
-      int batchCount = 0;
-      for (QueryDocumentSnapshot document : documents) {
-        deleteBatch.delete(document.getReference());
-        batchCount++;
-        // Firestore - Each transaction or batch of writes can write to a maximum of 500 documents.
-        if (batchCount == AppConstants.FS_BATCH_COMMIT_LIMIT) {
-          deleteBatch.commit();
-          // Reset the batch, once it has been committed, so it is available again
-          deleteBatch = this.responsesDb.batch();
-          batchCount = 0;
+      Query pageQuery =
+          participantActivityQuery(studyCollectionName, studyId, siteId, participantId, activityId)
+              .orderBy(FieldPath.documentId())
+              .limit(pageSize);
+      if (StringUtils.isNotBlank(pageToken)) {
+        String lastDocumentId = AppUtil.decodePageToken(pageToken);
+        if (StringUtils.isBlank(lastDocumentId) || lastDocumentId.contains("/")) {
+          throw new InvalidPageTokenException("Invalid page token");
         }
+        pageQuery = pageQuery.startAfter(lastDocumentId);
       }
-      deleteBatch.commit();
-
+      List<QueryDocumentSnapshot> documents = pageQuery.get().get().getDocuments();
+      List<Map<String, Object>> activityResponseMapList = new ArrayList<>();
+      for (QueryDocumentSnapshot document : documents) {
+        activityResponseMapList.add(document.getData());
+      }
+      StoredResponseBean storedResponseBean =
+          storedResponseConverter.toStoredResponseBean(participantId, activityResponseMapList);
+      if (documents.size() == pageSize) {
+        storedResponseBean.setNextPageToken(
+            AppUtil.encodePageToken(documents.get(documents.size() - 1).getId()));
+      }
+      return storedResponseBean;
+    } catch (ProcessResponseException e) {
+      throw e;
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
       throw new ProcessResponseException(e.getMessage());
     }
   }
 
+  @Override
+  public void deleteActivityResponseDataForParticipant(
+      String studyCollectionName,
+      String studyId,
+      String activitiesCollectionName,
+      String participantId)
+      throws ProcessResponseException {
+    deleteActivityResponseDataForParticipants(
+        studyCollectionName,
+        studyId,
+        activitiesCollectionName,
+        Collections.singletonList(participantId));
+  }
+
+  @Override
+  public void deleteActivityResponseDataForParticipants(
+      String studyCollectionName,
+      String studyId,
+      String activitiesCollectionName,
+      List<String> participantIds)
+      throws ProcessResponseException {
+    logger.entry("begin deleteActivityResponseDataForParticipants()");
+    mutateParticipantDocuments(
+        studyCollectionName,
+        studyId,
+        participantIds,
+        (batch, document) -> batch.delete(document));
+  }
+
   @Override
   public void updateWithdrawalStatusForParticipant(
       String studyCollectionName, String studyId, String participantId)
       throws ProcessResponseException {
-    logger.entry("begin updateWithdrawalStatusForParticipant()");
-    try {
-      initializeFirestore();
-      final Query activitiesQueryByParticipantId =
-          this.responsesDb
-              .collection(studyCollectionName)
-              .document(studyId)
-              .collection(AppConstants.ACTIVITIES_COLLECTION_NAME)
-              .whereEqualTo(AppConstants.PARTICIPANT_ID_KEY, participantId);
-
-      final ApiFuture<QuerySnapshot> querySnapshot = activitiesQueryByParticipantId.get();
-      List<QueryDocumentSnapshot> documents;
+    updateWithdrawalStatusForParticipants(
+        studyCollectionName, studyId, Collections.singletonList(participantId));
+  }
 
-      documents = querySnapshot.get().getDocuments();
+  @Override
+  public void updateWithdrawalStatusForParticipants(
+      String studyCollectionName, String studyId, List<String> participantIds)
+      throws ProcessResponseException {
+    logger.entry("begin updateWithdrawalStatusForParticipants()");
+    mutateParticipantDocuments(
+        studyCollectionName,
+        studyId,
+        participantIds,
+        (batch, document) -> batch.update(document, AppConstants.WITHDRAWAL_STATUS_KEY, true));
+  }
 
-      WriteBatch updateBatch = this.responsesDb.batch();
+  /**
+   * Applies the mutation to every response document of the given participants. Document references
+   * are read a page at a time, and each page goes into a write batch of at most {@link
+   * AppConstants#FS_BATCH_COMMIT_LIMIT} writes. Up to {@code response.bulk.mutation.max.in.flight}
+   * batches are committed concurrently.
+   */
+  private void mutateParticipantDocuments(
+      String studyCollectionName,
+      String studyId,
+      List<String> participantIds,
+      BiConsumer<WriteBatch, DocumentReference> mutation)
+      throws ProcessResponseException {
+    Semaphore inFlight = new Semaphore(appConfig.getResponseBulkMutationMaxInFlight());
+    List<ApiFuture<List<WriteResult>>> commits = new ArrayList<>();
+    try {
+      initializeFirestore();
+      WriteBatch batch = this.responsesDb.batch();
       int batchCount = 0;
-      for (QueryDocumentSnapshot document : documents) {
-
-        updateBatch.update(document.getReference(), AppConstants.WITHDRAWAL_STATUS_KEY, true);
-        batchCount++;
-        // Firestore - Each transaction or batch of writes can write to a maximum of 500 documents.
-        if (batchCount == AppConstants.FS_BATCH_COMMIT_LIMIT) {
-          updateBatch.commit();
-          // Reset the batch, once it has been committed, so it is available again
-          updateBatch = this.responsesDb.batch();
-          batchCount = 0;
+      for (String participantId : participantIds) {
+        final Query documentsQuery =
+            this.responsesDb
+                .collection(studyCollectionName)
+                .document(studyId)
+                .collection(AppConstants.ACTIVITIES_COLLECTION_NAME)
+                .whereEqualTo(AppConstants.PARTICIPANT_ID_KEY, participantId)
+                .select(FieldPath.documentId())
+                .orderBy(FieldPath.documentId());
+        Query pageQuery = documentsQuery.limit(AppConstants.FS_BATCH_COMMIT_LIMIT);
+        while (true) {
+          List<QueryDocumentSnapshot> documents = pageQuery.get().get().getDocuments();
+          for (QueryDocumentSnapshot document : documents) {
+            mutation.accept(batch, document.getReference());
+            batchCount++;
+            // Firestore - Each transaction or batch of writes can write to a maximum of 500
+            // documents.
+            if (batchCount == AppConstants.FS_BATCH_COMMIT_LIMIT) {
+              commits.add(commit(batch, inFlight));
+              batch = this.responsesDb.batch();
+              batchCount = 0;
+            }
+          }
+          if (documents.size() < AppConstants.FS_BATCH_COMMIT_LIMIT) {
+            break;
+          }
+          pageQuery =
+              documentsQuery
+                  .startAfter(documents.get(documents.size() - 1))
+                  .limit(AppConstants.FS_BATCH_COMMIT_LIMIT);
         }
       }
-      updateBatch.commit();
+      if (batchCount > 0) {
+        commits.add(commit(batch, inFlight));
+      }
+      ApiFutures.allAsList(commits).get();
+      logger.debug(
+          "mutateParticipantDocuments() : "
+              + commits.size()
+              + " batches committed for "
+              + participantIds.size()
+              + " participants");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessResponseException(e.getMessage());
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
       throw new ProcessResponseException(e.getMessage());
     }
   }
 
+  private ApiFuture<List<WriteResult>> commit(WriteBatch batch, Semaphore inFlight)
+      throws InterruptedException {
+    inFlight.acquire();
+    ApiFuture<List<WriteResult>> commit = batch.commit();
+    commit.addListener(inFlight::release, MoreExecutors.directExecutor());
+    return commit;
+  }
+
   public void getResponseDataScenarios(
       String studyCollectionName,
       String studyId,
@@ -292,8 +381,11 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
               .collection(AppConstants.ACTIVITIES_COLLECTION_NAME)
               .whereEqualTo(AppConstants.ACTIVITY_ID_KEY, activityId);
       ;
-      List<Map<String, Object>> responseList = this.getResponseForQuery(queryByActivity);
-      // Do something with the response
+      forEachResponse(
+          queryByActivity,
+          response -> {
+            // Do something with the response
+          });
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
       throw new ProcessResponseException(e.getMessage());
@@ -306,8 +398,11 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
               .document(studyId)
               .collection(AppConstants.ACTIVITIES_COLLECTION_NAME)
               .whereEqualTo(AppConstants.PARTICIPANT_ID_KEY, participantId);
-      List<Map<String, Object>> responseList = this.getResponseForQuery(queryParticipant);
-      // Do something with the response
+      forEachResponse(
+          queryParticipant,
+          response -> {
+            // Do something with the response
+          });
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
       throw new ProcessResponseException(e.getMessage());
@@ -321,8 +416,11 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
               .document(studyId)
               .collection(AppConstants.ACTIVITIES_COLLECTION_NAME)
               .whereEqualTo(AppConstants.SITE_ID_KEY, siteId);
-      List<Map<String, Object>> responseList = this.getResponseForQuery(querySite);
-      // Do something with the response
+      forEachResponse(
+          querySite,
+          response -> {
+            // Do something with the response
+          });
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
       throw new ProcessResponseException(e.getMessage());
@@ -336,23 +434,71 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
               .collection(AppConstants.ACTIVITIES_COLLECTION_NAME)
               .whereEqualTo(AppConstants.SITE_ID_KEY, siteId)
               .whereEqualTo(AppConstants.ACTIVITY_ID_KEY, activityId);
-      List<Map<String, Object>> responseList = this.getResponseForQuery(activitiesQueryById);
-      // Do something with the response
+      forEachResponse(
+          activitiesQueryById,
+          response -> {
+            // Do something with the response
+          });
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
       throw new ProcessResponseException(e.getMessage());
     }
   }
 
-  private List<Map<String, Object>> getResponseForQuery(final Query query)
+  /**
+   * Passes every document matching the query to the consumer, reading {@code
+   * response.query.page.size} documents at a time with a document id cursor, so the result set is
+   * never held in memory at once.
+   */
+  private void forEachResponse(final Query query, Consumer<Map<String, Object>> consumer)
       throws InterruptedException, ExecutionException {
-    final ApiFuture<QuerySnapshot> querySnapshot = query.get();
-    List<QueryDocumentSnapshot> documents = querySnapshot.get().getDocuments();
-    List<Map<String, Object>> responseListRet = new ArrayList<>();
-    for (QueryDocumentSnapshot document : documents) {
-      responseListRet.add(document.getData());
+    int pageSize = appConfig.getResponseQueryPageSize();
+    Query pageQuery = query.orderBy(FieldPath.documentId()).limit(pageSize);
+    while (true) {
+      List<QueryDocumentSnapshot> documents = pageQuery.get().get().getDocuments();
+      for (QueryDocumentSnapshot document : documents) {
+        consumer.accept(document.getData());
+      }
+      if (documents.size() < pageSize) {
+        return;
+      }
+      pageQuery =
+          query
+              .orderBy(FieldPath.documentId())
+              .startAfter(documents.get(documents.size() - 1))
+              .limit(pageSize);
+    }
+  }
+
+  /** Responses of a participant to an activity, projected to the fields of a response row. */
+  private Query participantActivityQuery(
+      String studyCollectionName,
+      String studyId,
+      String siteId,
+      String participantId,
+      String activityId) {
+    return this.responsesDb
+        .collection(studyCollectionName)
+        .document(studyId)
+        .collection(AppConstants.ACTIVITIES_COLLECTION_NAME)
+        .whereEqualTo(AppConstants.PARTICIPANT_ID_KEY, participantId)
+        .whereEqualTo(AppConstants.SITE_ID_KEY, siteId)
+        .whereEqualTo(AppConstants.ACTIVITY_ID_KEY, activityId)
+        .select(AppConstants.CREATED_TS_KEY, AppConstants.RESULTS_FIELD_KEY);
+  }
+
+  private boolean isLastResponseOnly() {
+    String lastResponseOnly = appConfig.getLastResponseOnly();
+    return !StringUtils.isBlank(lastResponseOnly)
+        && lastResponseOnly.equalsIgnoreCase(AppConstants.TRUE_STR);
+  }
+
+  private static long createdTimestamp(Map<String, Object> activityResponseMap) {
+    try {
+      return Long.parseLong((String) activityResponseMap.get(AppConstants.CREATED_TS_KEY));
+    } catch (NumberFormatException | ClassCastException e) {
+      return Long.MIN_VALUE;
     }
-    return responseListRet;
   }
 
   private void initializeFirestore() {
@@ -369,137 +515,6 @@ public class CloudFirestoreResponsesDaoImpl implements ResponsesDao {
     }
   }
 
-  private StoredResponseBean convertResponseDataToBean(
-      String participantId,
-      List<Map<String, Object>> activityResponseMapList,
-      StoredResponseBean storedResponseBean) {
-    logger.entry("begin convertResponseDataToBean()");
-    List<ResponseRows> responsesList = new ArrayList<>();
-    for (Map<String, Object> activityResponseMap : activityResponseMapList) {
-      ResponseRows responsesRow = new ResponseRows();
-      // Add participant Id
-      Map<Object, Object> mapPartId = new HashMap<>();
-      Map<Object, Object> mapPartIdValue = new HashMap<>();
-      mapPartIdValue.put(AppConstants.VALUE_KEY_STR, participantId);
-      mapPartId.put(AppConstants.PARTICIPANT_ID_RESPONSE, mapPartIdValue);
-      responsesRow.getData().add(mapPartId);
-
-      // Add Created Timestamp
-      Map<Object, Object> mapTS = new HashMap<>();
-      Map<Object, Object> mapTsValue = new HashMap<>();
-
-      // Format timestamp to date
-      long timestampFromResponse = 0;
-      try {
-        timestampFromResponse =
-            Long.parseLong((String) activityResponseMap.get(AppConstants.CREATED_TS_KEY));
-
-        DateFormat simpleDateFormat = new SimpleDateFormat(AppConstants.ISO_DATE_FORMAT_RESPONSE);
-        String formattedDate = simpleDateFormat.format(timestampFromResponse);
-        mapTsValue.put(AppConstants.VALUE_KEY_STR, formattedDate);
-
-      } catch (NumberFormatException ne) {
-        logger.error(
-            "Could not format createdTimestamp field to long. createdTimestamp value is: "
-                + timestampFromResponse);
-        mapTsValue.put(AppConstants.VALUE_KEY_STR, String.valueOf(timestampFromResponse));
-      }
-
-      mapTS.put(AppConstants.CREATED_RESPONSE, mapTsValue);
-      responsesRow.getData().add(mapTS);
-      SavedActivityResponse savedActivityResponse =
-          new Gson().fromJson(new Gson().toJson(activityResponseMap), SavedActivityResponse.class);
-      List<Object> results = savedActivityResponse.getResults();
-      this.addResponsesToMap(responsesRow, results);
-      responsesList.add(responsesRow);
-      storedResponseBean.setRows(responsesList);
-    }
-    if (storedResponseBean.getRows() != null) {
-      storedResponseBean.setRowCount(storedResponseBean.getRows().size());
-    }
-    return storedResponseBean;
-  }
-
-  private void addResponsesToMap(ResponseRows responsesRow, List<Object> results) {
-    logger.entry("begin addResponsesToMap()");
-    if (results != null) {
-      for (Object result : results) {
-        if (result instanceof Map) {
-          Map<String, Object> mapResult = (Map<String, Object>) result;
-          String questionResultType = (String) mapResult.get(AppConstants.RESULT_TYPE_KEY);
-          String questionIdKey = null;
-          String questionValue = null;
-          Map<Object, Object> tempMapForQuestions = new HashMap<>();
-          Map<Object, Object> tempMapQuestionsValue = new HashMap<>();
-
-          if (!StringUtils.isBlank(questionResultType)) {
-            if (questionResultType.equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)) {
-              Map<String, Object> resultsForm =
-                  (Map<String, Object>) mapResult.get("actvityValueGroup");
-              List<Object> obj = (List<Object>) resultsForm.get("results");
-              this.addResponsesToMap(responsesRow, obj);
-
-            } else {
-              questionIdKey = (String) mapResult.get(AppConstants.QUESTION_ID_KEY);
-              questionValue = (String) mapResult.get(AppConstants.VALUE_KEY_STR);
-              if (StringUtils.containsIgnoreCase(
-                      appConfig.getResponseSupportedQTypeDouble(), questionResultType)
-                  && !StringUtils.isBlank(questionValue)) {
-                Double questionValueDouble = null;
-                try {
-                  questionValueDouble = Double.parseDouble(questionValue);
-                  tempMapQuestionsValue.put(AppConstants.VALUE_KEY_STR, questionValueDouble);
-                  tempMapForQuestions.put(questionIdKey, tempMapQuestionsValue);
-                  responsesRow.getData().add(tempMapForQuestions);
-                } catch (NumberFormatException e) {
-                  logger.error(
-                      "Could not format value to Double. Value input string is: " + questionValue);
-                }
-              } else if (StringUtils.containsIgnoreCase(
-                      appConfig.getResponseSupportedQTypeDate(), questionResultType)
-                  && !StringUtils.isBlank(questionValue)) {
-                tempMapQuestionsValue.put(AppConstants.VALUE_KEY_STR, questionValue);
-                tempMapForQuestions.put(questionIdKey, tempMapQuestionsValue);
-                responsesRow.getData().add(tempMapForQuestions);
-              } else {
-                if (appConfig.getSupportStringResponse().equalsIgnoreCase(AppConstants.TRUE_STR)
-                    && StringUtils.containsIgnoreCase(
-                        appConfig.getResponseSupportedQTypeString(), questionResultType)
-                    && !StringUtils.isBlank(questionValue)) {
-                  tempMapQuestionsValue.put(AppConstants.VALUE_KEY_STR, questionValue);
-                  tempMapForQuestions.put(questionIdKey, tempMapQuestionsValue);
-                  responsesRow.getData().add(tempMapForQuestions);
-                }
-              }
-            }
-          }
-        }
-      }
-    }
-  }
-
-  private List<Map<String, Object>> filterResponseListByTimestamp(
-      List<Map<String, Object>> activityResponseMapList) {
-
-    activityResponseMapList.sort(
-        Comparator.nullsLast(
-            Comparator.comparing(
-                m -> Long.parseLong((String) m.get(AppConstants.CREATED_TS_KEY)),
-                Comparator.nullsLast(Comparator.reverseOrder()))));
-    // Get the latest response for activityId, bases on ordering by timestamp value
-    activityResponseMapList = Arrays.asList(activityResponseMapList.get(0));
-
-    return activityResponseMapList;
-  }
-
-  private StoredResponseBean initStoredResponseBean() {
-    StoredResponseBean retStoredResponseBean = new StoredResponseBean();
-    List<String> schemaNameList = Arrays.asList(AppConstants.RESPONSE_DATA_SCHEMA_NAME_LEGACY);
-    retStoredResponseBean.setSchemaName(schemaNameList);
-    retStoredResponseBean.setQueryName(AppConstants.RESPONSE_DATA_QUERY_NAME_LEGACY);
-    return retStoredResponseBean;
-  }
-
   private boolean isResponseExists(
       String studyCollectionName,
       String studyId,
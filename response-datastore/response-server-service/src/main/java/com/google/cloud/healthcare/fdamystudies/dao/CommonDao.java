@@ -11,6 +11,7 @@ package com.google.cloud.healthcare.fdamystudies.dao;
 import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
 import com.google.cloud.healthcare.fdamystudies.response.model.FHIRresponseEntity;
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantInfoEntity;
+import java.sql.Timestamp;
 import java.util.List;
 
 public interface CommonDao {
@@ -20,7 +21,19 @@ public interface CommonDao {
 
   public void saveToFHIREntity(String getFhirJson, String studyId);
 
+  public void savePatientToFHIREntity(String patientReference, String studyId);
+
   public void updateDidStatus(String questionnaireReference);
 
   public List<FHIRresponseEntity> getFhirDetails(Boolean didStatus);
+
+  public List<FHIRresponseEntity> getFhirDetails(Boolean didStatus, Timestamp createdBefore);
+
+  /**
+   * Claims a row that is not de-identified yet for re-submission, unless another claim of it is
+   * newer than {@code claimedBefore}.
+   *
+   * @return true when the row was claimed with the token
+   */
+  public boolean claimFhirDetails(String id, String claimToken, Timestamp claimedBefore);
 }
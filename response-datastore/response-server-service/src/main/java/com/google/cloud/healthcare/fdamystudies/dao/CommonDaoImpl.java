@@ -13,6 +13,8 @@ import com.google.cloud.healthcare.fdamystudies.model.StudyEntity;
 import com.google.cloud.healthcare.fdamystudies.response.model.FHIRresponseEntity;
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantInfoEntity;
 import com.google.gson.Gson;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.List;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -174,15 +176,52 @@ public class CommonDaoImpl implements CommonDao {
     }
   }
 
+  @Override
+  public void savePatientToFHIREntity(String patientReference, String studyId) {
+    logger.entry("begin savePatientToFHIREntity()");
+
+    Transaction transaction = null;
+    Session session = null;
+
+    try {
+      session = entityManagerFactory.unwrap(SessionFactory.class).openSession();
+      transaction = session.beginTransaction();
+      // a withdrawn patient is de-identified on its own, so it is its own questionnaire reference
+      FHIRresponseEntity fhiRresponseEntity = new FHIRresponseEntity();
+      fhiRresponseEntity.setPatientReference(patientReference);
+      fhiRresponseEntity.setQuestionnaireReference(patientReference);
+      fhiRresponseEntity.setStudyId(studyId);
+
+      session.saveOrUpdate(fhiRresponseEntity);
+      transaction.commit();
+      transaction = null;
+    } catch (Exception e) {
+      logger.error("CommonDaoImpl savePatientToFHIREntity() - error ", e);
+    } finally {
+      if (transaction != null) {
+        transaction.rollback();
+      }
+      if (session != null) {
+        session.close();
+      }
+      logger.exit("savePatientToFHIREntity() - Ends ");
+    }
+  }
+
   @Override
   public List<FHIRresponseEntity> getFhirDetails(Boolean didStatus) {
+    return getFhirDetails(didStatus, null);
+  }
+
+  @Override
+  public List<FHIRresponseEntity> getFhirDetails(Boolean didStatus, Timestamp createdBefore) {
     logger.entry("Begin getFhirDetails()");
     List<FHIRresponseEntity> fhirList = null;
 
     CriteriaBuilder criteriaBuilder = null;
     CriteriaQuery<FHIRresponseEntity> criteriaQuery = null;
     Root<FHIRresponseEntity> root = null;
-    Predicate[] predicates = new Predicate[1];
+    List<Predicate> predicates = new ArrayList<>();
     Session session = null;
 
     try {
@@ -190,8 +229,15 @@ public class CommonDaoImpl implements CommonDao {
       criteriaBuilder = session.getCriteriaBuilder();
       criteriaQuery = criteriaBuilder.createQuery(FHIRresponseEntity.class);
       root = criteriaQuery.from(FHIRresponseEntity.class);
-      predicates[0] = criteriaBuilder.equal(root.get("didStatus"), didStatus);
-      criteriaQuery.select(root).where(predicates);
+      predicates.add(criteriaBuilder.equal(root.get("didStatus"), didStatus));
+      if (createdBefore != null) {
+        // rows written before the timestamp column was added have none
+        predicates.add(
+            criteriaBuilder.or(
+                criteriaBuilder.isNull(root.get("timestamp")),
+                criteriaBuilder.lessThan(root.<Timestamp>get("timestamp"), createdBefore)));
+      }
+      criteriaQuery.select(root).where(predicates.toArray(new Predicate[0]));
       fhirList = session.createQuery(criteriaQuery).getResultList();
     } catch (Exception e) {
       logger.error("CommonDaoImpl getFhirDetails() - error ", e);
@@ -203,4 +249,41 @@ public class CommonDaoImpl implements CommonDao {
     }
     return fhirList;
   }
+
+  @Override
+  public boolean claimFhirDetails(String id, String claimToken, Timestamp claimedBefore) {
+    logger.entry("begin claimFhirDetails()");
+    Transaction transaction = null;
+    Session session = null;
+    int claimed = 0;
+    try {
+      session = entityManagerFactory.unwrap(SessionFactory.class).openSession();
+      transaction = session.beginTransaction();
+      claimed =
+          session
+              .createQuery(
+                  "update FHIRresponseEntity set claimToken = :claimToken, claimedTime = :now "
+                      + "where id = :id and didStatus = :didStatus "
+                      + "and (claimedTime is null or claimedTime < :claimedBefore)")
+              .setParameter("claimToken", claimToken)
+              .setParameter("now", new Timestamp(System.currentTimeMillis()))
+              .setParameter("id", id)
+              .setParameter("didStatus", Boolean.FALSE)
+              .setParameter("claimedBefore", claimedBefore)
+              .executeUpdate();
+      transaction.commit();
+      transaction = null;
+    } catch (Exception e) {
+      logger.error("CommonDaoImpl claimFhirDetails() - error ", e);
+    } finally {
+      if (transaction != null) {
+        transaction.rollback();
+      }
+      if (session != null) {
+        session.close();
+      }
+      logger.exit("claimFhirDetails() - Ends ");
+    }
+    return claimed > 0;
+  }
 }
@@ -10,28 +10,81 @@ package com.google.cloud.healthcare.fdamystudies.dao;
 
 import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
 import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.exception.InvalidPageTokenException;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Repository;
 
+/**
+ * Stores responses on the local file system, for deployments without Cloud Firestore. Responses of
+ * each study are kept in an append-only {@link ResponseSegmentStore} under {@code
+ * response.data.file.path}/&lt;studyId&gt;/responses.
+ */
 @Repository
 @Qualifier("fileResponsesDaoImpl")
 public class FileResponsesDaoImpl implements ResponsesDao {
-  @Autowired private ApplicationConfiguration appConfig;
+  private static final String SEGMENTS_DIR_NAME = "responses";
+
+  private static final Type RESPONSE_MAP_TYPE = new TypeToken<Map<String, Object>>() {}.getType();
+
+  private final ApplicationConfiguration appConfig;
+
+  private final StoredResponseConverter storedResponseConverter;
+
+  private final MeterRegistry meterRegistry;
+
+  private final Gson gson = new Gson();
+
+  /** Segment stores of the studies accessed so far, keyed by study id. */
+  private final Map<String, ResponseSegmentStore> studyStores = new ConcurrentHashMap<>();
+
+  /** Studies with a compaction queued or running. */
+  private final Set<String> compactingStudies = ConcurrentHashMap.newKeySet();
+
+  private ExecutorService compactionExecutor;
 
   private XLogger logger = XLoggerFactory.getXLogger(FileResponsesDaoImpl.class.getName());
 
+  @Autowired
+  public FileResponsesDaoImpl(
+      ApplicationConfiguration appConfig,
+      StoredResponseConverter storedResponseConverter,
+      MeterRegistry meterRegistry) {
+    this.appConfig = appConfig;
+    this.storedResponseConverter = storedResponseConverter;
+    this.meterRegistry = meterRegistry;
+  }
+
   @Override
   public void saveStudyMetadata(
       String studyCollectionName, String studyId, Map<String, Object> dataToStore)
@@ -73,8 +126,7 @@ public class FileResponsesDaoImpl implements ResponsesDao {
         logger.error(e.getMessage(), e);
         throw new ProcessResponseException(e.getMessage());
       }
-    }
-    {
+    } else {
       throw new ProcessResponseException(
           "FileResponsesDaoImpl.saveStudyMetadata() - "
               + "Study Collection is null or dataToStore is null");
@@ -90,54 +142,82 @@ public class FileResponsesDaoImpl implements ResponsesDao {
       String activityId,
       String questionKey)
       throws ProcessResponseException {
-    // Unimplemeted method. A reference implementation has been provided for Cloud Firestore
-    throw new ProcessResponseException(
-        "Unimplemented method. Needs to be implemented with a datastore");
+    logger.entry("begin getActivityResponseDataForParticipant()");
+    try {
+      ResponseSegmentStore store = getStudyStore(studyId);
+      List<Map<String, Object>> activityResponseMapList = new ArrayList<>();
+      for (byte[] json : store.read(participantId, siteId, activityId)) {
+        activityResponseMapList.add(
+            gson.fromJson(new String(json, StandardCharsets.UTF_8), RESPONSE_MAP_TYPE));
+      }
+      if (!activityResponseMapList.isEmpty()) {
+        return storedResponseConverter.toStoredResponseBean(
+            participantId, activityResponseMapList);
+      }
+    } catch (Exception e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+    return null;
   }
 
   @Override
-  public void saveActivityResponseData(
+  public StoredResponseBean getActivityResponseDataPageForParticipant(
       String studyCollectionName,
       String studyId,
+      String siteId,
+      String participantId,
+      String activityId,
+      String questionKey,
+      int pageSize,
+      String pageToken)
+      throws ProcessResponseException {
+    logger.entry("begin getActivityResponseDataPageForParticipant()");
+    int from = StringUtils.isBlank(pageToken) ? 0 : decodeOffset(pageToken);
+    try {
+      ResponseSegmentStore store = getStudyStore(studyId);
+      List<byte[]> responses = store.read(participantId, siteId, activityId);
+      int to = Math.min(from + pageSize, responses.size());
+      List<Map<String, Object>> activityResponseMapList = new ArrayList<>();
+      for (int i = from; i < to; i++) {
+        activityResponseMapList.add(
+            gson.fromJson(
+                new String(responses.get(i), StandardCharsets.UTF_8), RESPONSE_MAP_TYPE));
+      }
+      StoredResponseBean storedResponseBean =
+          storedResponseConverter.toStoredResponseBean(participantId, activityResponseMapList);
+      if (to < responses.size()) {
+        storedResponseBean.setNextPageToken(AppUtil.encodePageToken(String.valueOf(to)));
+      }
+      return storedResponseBean;
+    } catch (Exception e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
+
+  @Override
+  public void saveActivityResponseData(
+      String studyId,
+      String studyCollectionName,
       String activitiesCollectionName,
       Map<String, Object> dataToStoreActivityResults)
       throws ProcessResponseException {
-    // The conversion of the response data to a file is provided as sample implementation.
-    // Implementors should use the file representation of the response object or the
-    // JSON representation of the response object to store the responses in a suitable data store
-    if (studyCollectionName != null && dataToStoreActivityResults != null) {
+    if (studyId != null && dataToStoreActivityResults != null) {
       try {
-        logger.info(
-            "saveActivityResponseData() : \n Study Collection Name: " + studyCollectionName);
-        Gson gson = new Gson();
-        StringBuilder studyResponseDataJsonStr = new StringBuilder();
-        studyResponseDataJsonStr.append(gson.toJson(dataToStoreActivityResults));
-
-        String studyDirName = appConfig.getResponseDataFilePath() + studyId;
-        Path studyDirPath = Paths.get(studyDirName);
-        if (!Files.exists(studyDirPath)) {
-          Files.createDirectories(studyDirPath);
+        logger.info("saveActivityResponseData() : \n Study ID: " + studyId);
+        byte[] json = gson.toJson(dataToStoreActivityResults).getBytes(StandardCharsets.UTF_8);
+        boolean saved =
+            getStudyStore(studyId)
+                .append(
+                    valueOf(dataToStoreActivityResults, AppConstants.PARTICIPANT_ID_KEY),
+                    valueOf(dataToStoreActivityResults, AppConstants.SITE_ID_KEY),
+                    valueOf(dataToStoreActivityResults, AppConstants.ACTIVITY_ID_KEY),
+                    valueOf(dataToStoreActivityResults, AppConstants.ACTIVITY_RUN_ID_KEY),
+                    json);
+        if (!saved) {
+          logger.info("Response exists. Returning without saving. Study ID " + studyId);
         }
-        Files.write(
-            Paths.get(
-                studyDirPath
-                    + AppConstants.FILE_SEPARATOR
-                    + studyCollectionName
-                    + AppConstants.HYPHEN
-                    + System.currentTimeMillis()
-                    + AppConstants.JSON_FILE_EXTENSION),
-            studyResponseDataJsonStr.toString().getBytes(),
-            StandardOpenOption.CREATE);
-        logger.debug(
-            "saveActivityResponseData() : \n Document in study collection: "
-                + studyCollectionName
-                + " with document ID. Path to StudyMetadata file: \n"
-                + studyDirPath
-                + AppConstants.FILE_SEPARATOR
-                + studyCollectionName
-                + AppConstants.HYPHEN
-                + System.currentTimeMillis()
-                + AppConstants.JSON_FILE_EXTENSION);
       } catch (Exception e) {
         logger.error(e.getMessage(), e);
         throw new ProcessResponseException(
@@ -148,7 +228,7 @@ public class FileResponsesDaoImpl implements ResponsesDao {
     } else {
       throw new ProcessResponseException(
           "FileResponsesDaoImpl.saveActivityResponseData() - "
-              + "Study Collection is null or dataToStoreResults is null");
+              + "Study ID is null or dataToStoreResults is null");
     }
   }
 
@@ -159,18 +239,139 @@ public class FileResponsesDaoImpl implements ResponsesDao {
       String activitiesCollectionName,
       String participantId)
       throws ProcessResponseException {
-    // Unimplemeted method. A reference implementation has been provided for Cloud Firestore
-    // Implementation of the query to return response data, goes here
-    throw new ProcessResponseException(
-        "Unimplemented method. Needs to be implemented with a datastore");
+    deleteActivityResponseDataForParticipants(
+        studyCollectionName,
+        studyId,
+        activitiesCollectionName,
+        Collections.singletonList(participantId));
+  }
+
+  @Override
+  public void deleteActivityResponseDataForParticipants(
+      String studyCollectionName,
+      String studyId,
+      String activitiesCollectionName,
+      List<String> participantIds)
+      throws ProcessResponseException {
+    logger.entry("begin deleteActivityResponseDataForParticipants()");
+    try {
+      ResponseSegmentStore store = getStudyStore(studyId);
+      for (String participantId : participantIds) {
+        store.delete(participantId);
+      }
+      if (store.deadRatio() > appConfig.getResponseFileCompactionDeadRatio()) {
+        scheduleCompaction(studyId, store);
+      }
+    } catch (Exception e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
   }
 
   @Override
   public void updateWithdrawalStatusForParticipant(
       String studyCollectionName, String studyId, String participantId)
       throws ProcessResponseException {
-    // Unimplemeted method. A reference implementation has been provided for Cloud Firestore
-    throw new ProcessResponseException(
-        "Unimplemented method. Needs to be implemented with a datastore");
+    updateWithdrawalStatusForParticipants(
+        studyCollectionName, studyId, Collections.singletonList(participantId));
+  }
+
+  @Override
+  public void updateWithdrawalStatusForParticipants(
+      String studyCollectionName, String studyId, List<String> participantIds)
+      throws ProcessResponseException {
+    logger.entry("begin updateWithdrawalStatusForParticipants()");
+    try {
+      ResponseSegmentStore store = getStudyStore(studyId);
+      for (String participantId : participantIds) {
+        store.withdraw(participantId);
+      }
+    } catch (Exception e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
+
+  @PostConstruct
+  public void initCompactionExecutor() {
+    // a fixed pool of one thread, as the delegate of newSingleThreadExecutor cannot be monitored
+    compactionExecutor = Executors.newFixedThreadPool(1);
+    new ExecutorServiceMetrics(
+            compactionExecutor, "responseFileCompaction", Collections.emptyList())
+        .bindTo(meterRegistry);
+  }
+
+  @PreDestroy
+  public void closeStudyStores() throws InterruptedException {
+    compactionExecutor.shutdown();
+    compactionExecutor.awaitTermination(60, TimeUnit.SECONDS);
+    for (ResponseSegmentStore store : studyStores.values()) {
+      try {
+        store.close();
+      } catch (IOException e) {
+        logger.error(e.getMessage(), e);
+      }
+    }
+  }
+
+  private ResponseSegmentStore getStudyStore(String studyId) throws IOException {
+    ResponseSegmentStore store = studyStores.get(studyId);
+    if (store == null) {
+      synchronized (studyStores) {
+        store = studyStores.get(studyId);
+        if (store == null) {
+          store =
+              ResponseSegmentStore.open(
+                  Paths.get(appConfig.getResponseDataFilePath(), studyId, SEGMENTS_DIR_NAME),
+                  appConfig.getResponseFileSegmentMaxBytes(),
+                  appConfig.isResponseFileSyncWrites());
+          studyStores.put(studyId, store);
+        }
+      }
+    }
+    return store;
+  }
+
+  /**
+   * Compacts the study in the background, so the delete request does not wait for the rewrite. A
+   * study is queued at most once at a time.
+   */
+  private void scheduleCompaction(String studyId, ResponseSegmentStore store) {
+    if (!compactingStudies.add(studyId)) {
+      return;
+    }
+    try {
+      compactionExecutor.execute(
+          () -> {
+            try {
+              store.compact();
+            } catch (Exception e) {
+              logger.error("Compaction of the responses of study " + studyId + " failed", e);
+            } finally {
+              compactingStudies.remove(studyId);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      compactingStudies.remove(studyId);
+      logger.warn("Compaction of the responses of study " + studyId + " not scheduled", e);
+    }
+  }
+
+  /** Offset of the first response of the page, encoded by the previous page. */
+  private static int decodeOffset(String pageToken) throws InvalidPageTokenException {
+    try {
+      int offset = Integer.parseInt(AppUtil.decodePageToken(pageToken));
+      if (offset >= 0) {
+        return offset;
+      }
+    } catch (NumberFormatException e) {
+      // rejected below
+    }
+    throw new InvalidPageTokenException("Invalid page token");
+  }
+
+  private static String valueOf(Map<String, Object> data, String key) {
+    Object value = data.get(key);
+    return value != null ? value.toString() : "";
   }
 }
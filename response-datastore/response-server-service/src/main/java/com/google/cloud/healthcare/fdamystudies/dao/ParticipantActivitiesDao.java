@@ -17,9 +17,30 @@ public interface ParticipantActivitiesDao {
   void saveParticipantActivities(List<ParticipantActivitiesEntity> participantActivitiesList)
       throws ProcessActivityStateException;
 
+  /**
+   * Merges the changed activities into the stored activity state of the participant. Activities
+   * are matched by activity id ignoring case; a blank run id and null run counts keep the stored
+   * values, and activities that are not given are left as they are.
+   */
+  void upsertParticipantActivities(
+      String studyId, String participantId, List<ParticipantActivitiesEntity> changedActivities)
+      throws ProcessActivityStateException;
+
   List<ParticipantActivitiesEntity> getParticipantActivities(String studyId, String participantId)
       throws ProcessActivityStateException;
 
+  /**
+   * Reads the version of the activity state of the participant, which every upsert replaces in
+   * the transaction of its changes.
+   *
+   * @return the version, or null when the participant has no stored activity state
+   */
+  String getActivityStateVersion(String studyId, String participantId)
+      throws ProcessActivityStateException;
+
   void deleteParticipantActivites(String studyId, String participantId)
       throws ProcessActivityStateException;
+
+  void deleteParticipantActivites(String studyId, List<String> participantIds)
+      throws ProcessActivityStateException;
 }
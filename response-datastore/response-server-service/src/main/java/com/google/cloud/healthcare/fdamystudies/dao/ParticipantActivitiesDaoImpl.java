@@ -10,8 +10,23 @@ package com.google.cloud.healthcare.fdamystudies.dao;
 
 import com.google.cloud.healthcare.fdamystudies.exception.ProcessActivityStateException;
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantActivitiesEntity;
+import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantActivityStateVersionEntity;
+import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
+import com.google.common.annotations.VisibleForTesting;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import javax.persistence.EntityManagerFactory;
+import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
@@ -24,8 +39,42 @@ import org.springframework.stereotype.Repository;
 @Repository
 public class ParticipantActivitiesDaoImpl implements ParticipantActivitiesDao {
 
+  private static final int DELETE_CHUNK_SIZE = 500;
+
+  private static final int UPSERT_CHUNK_SIZE = 500;
+
+  private static final String UPSERT_INSERT =
+      "INSERT INTO participant_activities (id, study_id, participant_id, activity_id,"
+          + " activity_version, activity_state, activity_run_id, bookmark, total_count,"
+          + " completed_count, missed_count, created_time) VALUES ";
+
+  private static final String UPSERT_ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  // same merge rules as mergeActivity()
+  private static final String UPSERT_ON_DUPLICATE_KEY =
+      " ON DUPLICATE KEY UPDATE activity_version = VALUES(activity_version),"
+          + " activity_state = VALUES(activity_state),"
+          + " activity_run_id = COALESCE(NULLIF(VALUES(activity_run_id), ''), activity_run_id),"
+          + " bookmark = VALUES(bookmark),"
+          + " total_count = COALESCE(VALUES(total_count), total_count),"
+          + " completed_count = COALESCE(VALUES(completed_count), completed_count),"
+          + " missed_count = COALESCE(VALUES(missed_count), missed_count)";
+
+  private static final String UPSERT_VERSION =
+      "INSERT INTO participant_activity_state_version (id, study_id, participant_id, version,"
+          + " updated_time) VALUES (?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE"
+          + " version = VALUES(version), updated_time = VALUES(updated_time)";
+
+  /** Whether the database supports INSERT ... ON DUPLICATE KEY UPDATE, resolved on first use. */
+  private volatile Boolean onDuplicateKeySupported;
+
   private XLogger logger = XLoggerFactory.getXLogger(ParticipantActivitiesDaoImpl.class.getName());
-  @Autowired private EntityManagerFactory entityManagerFactory;
+  private final EntityManagerFactory entityManagerFactory;
+
+  @Autowired
+  public ParticipantActivitiesDaoImpl(EntityManagerFactory entityManagerFactory) {
+    this.entityManagerFactory = entityManagerFactory;
+  }
 
   @Override
   @SuppressWarnings("unchecked")
@@ -65,6 +114,34 @@ public class ParticipantActivitiesDaoImpl implements ParticipantActivitiesDao {
     }
   }
 
+  @Override
+  public String getActivityStateVersion(String studyId, String participantId)
+      throws ProcessActivityStateException {
+    if (studyId == null || participantId == null) {
+      throw new ProcessActivityStateException("Required input parameter is null");
+    }
+    Session session = null;
+    try {
+      session = entityManagerFactory.unwrap(SessionFactory.class).openSession();
+      return session
+          .createQuery(
+              "select version from ParticipantActivityStateVersionEntity "
+                  + "where studyId = :studyId and participantId = :participantId",
+              String.class)
+          .setParameter("studyId", studyId)
+          .setParameter("participantId", participantId)
+          .uniqueResult();
+    } catch (Exception e) {
+      logger.error("getActivityStateVersion: (ERROR) ", e);
+      throw new ProcessActivityStateException(
+          "Exception getting activity state version" + e.getMessage());
+    } finally {
+      if (session != null) {
+        session.close();
+      }
+    }
+  }
+
   @Override
   public void saveParticipantActivities(List<ParticipantActivitiesEntity> participantActivitiesList)
       throws ProcessActivityStateException {
@@ -97,6 +174,200 @@ public class ParticipantActivitiesDaoImpl implements ParticipantActivitiesDao {
     }
   }
 
+  @Override
+  public void upsertParticipantActivities(
+      String studyId, String participantId, List<ParticipantActivitiesEntity> changedActivities)
+      throws ProcessActivityStateException {
+    logger.entry("begin upsertParticipantActivities()");
+    if (studyId == null || participantId == null || changedActivities == null) {
+      throw new ProcessActivityStateException("Required input parameter is null");
+    }
+    Map<String, ParticipantActivitiesEntity> changes = new LinkedHashMap<>();
+    for (ParticipantActivitiesEntity changedActivity : changedActivities) {
+      if (changedActivity.getActivityId() == null) {
+        throw new ProcessActivityStateException("Required input parameter is null");
+      }
+      ParticipantActivitiesEntity previousChange =
+          changes.putIfAbsent(
+              AppUtil.foldKeyCase(changedActivity.getActivityId()), changedActivity);
+      if (previousChange != null) {
+        mergeActivity(previousChange, changedActivity);
+      }
+    }
+    if (changes.isEmpty()) {
+      logger.exit("upsertParticipantActivities() - nothing to save");
+      return;
+    }
+
+    Transaction transaction = null;
+    Session session = null;
+    try {
+      session = entityManagerFactory.unwrap(SessionFactory.class).openSession();
+      transaction = session.beginTransaction();
+      if (isOnDuplicateKeySupported(session)) {
+        List<ParticipantActivitiesEntity> rows = new ArrayList<>(changes.values());
+        session.doWork(
+            connection -> {
+              upsertRows(connection, rows);
+              upsertVersion(connection, studyId, participantId);
+            });
+      } else {
+        mergeAndSave(session, studyId, participantId, changes);
+        saveVersion(session, studyId, participantId);
+      }
+      transaction.commit();
+      transaction = null;
+    } catch (Exception e) {
+      logger.error("upsertParticipantActivities - error ", e);
+      throw new ProcessActivityStateException(
+          "Exception save activity state data" + e.getMessage());
+    } finally {
+      if (transaction != null) {
+        transaction.rollback();
+      }
+      if (session != null) {
+        session.close();
+      }
+      logger.exit("upsertParticipantActivities() - Ends ");
+    }
+  }
+
+  private boolean isOnDuplicateKeySupported(Session session) {
+    if (onDuplicateKeySupported == null) {
+      String productName =
+          session.doReturningWork(connection -> connection.getMetaData().getDatabaseProductName());
+      onDuplicateKeySupported = "MySQL".equalsIgnoreCase(productName);
+    }
+    return onDuplicateKeySupported;
+  }
+
+  /** Writes each chunk of rows with a single multi-row INSERT ... ON DUPLICATE KEY UPDATE. */
+  private void upsertRows(Connection connection, List<ParticipantActivitiesEntity> rows)
+      throws SQLException {
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    for (int from = 0; from < rows.size(); from += UPSERT_CHUNK_SIZE) {
+      List<ParticipantActivitiesEntity> chunk =
+          rows.subList(from, Math.min(from + UPSERT_CHUNK_SIZE, rows.size()));
+      String sql =
+          UPSERT_INSERT
+              + String.join(", ", Collections.nCopies(chunk.size(), UPSERT_ROW))
+              + UPSERT_ON_DUPLICATE_KEY;
+      try (PreparedStatement statement = connection.prepareStatement(sql)) {
+        int index = 1;
+        for (ParticipantActivitiesEntity row : chunk) {
+          statement.setString(index++, newId());
+          statement.setString(index++, row.getStudyId());
+          statement.setString(index++, row.getParticipantId());
+          statement.setString(index++, row.getActivityId());
+          statement.setString(index++, row.getActivityVersion());
+          statement.setString(index++, row.getActivityState());
+          statement.setString(index++, row.getActivityRunId());
+          setNullable(statement, index++, row.getBookmark(), Types.BOOLEAN);
+          setNullable(statement, index++, row.getTotalCount(), Types.INTEGER);
+          setNullable(statement, index++, row.getCompletedCount(), Types.INTEGER);
+          setNullable(statement, index++, row.getMissedCount(), Types.INTEGER);
+          statement.setTimestamp(index++, now);
+        }
+        statement.executeUpdate();
+      }
+    }
+  }
+
+  private void upsertVersion(Connection connection, String studyId, String participantId)
+      throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement(UPSERT_VERSION)) {
+      statement.setString(1, newId());
+      statement.setString(2, studyId);
+      statement.setString(3, participantId);
+      statement.setString(4, newId());
+      statement.setTimestamp(5, new Timestamp(System.currentTimeMillis()));
+      statement.executeUpdate();
+    }
+  }
+
+  /** Fallback of {@link #upsertVersion}; the unique key fails one of two concurrent inserts. */
+  private void saveVersion(Session session, String studyId, String participantId) {
+    ParticipantActivityStateVersionEntity version =
+        session
+            .createQuery(
+                "from ParticipantActivityStateVersionEntity "
+                    + "where studyId = :studyId and participantId = :participantId",
+                ParticipantActivityStateVersionEntity.class)
+            .setParameter("studyId", studyId)
+            .setParameter("participantId", participantId)
+            .uniqueResult();
+    if (version == null) {
+      version = new ParticipantActivityStateVersionEntity();
+      version.setStudyId(studyId);
+      version.setParticipantId(participantId);
+    }
+    version.setVersion(newId());
+    version.setUpdated(new Timestamp(System.currentTimeMillis()));
+    session.saveOrUpdate(version);
+  }
+
+  private static String newId() {
+    return UUID.randomUUID().toString().replace("-", "");
+  }
+
+  /** Fallback for databases without ON DUPLICATE KEY UPDATE, such as the test database. */
+  @SuppressWarnings("unchecked")
+  private void mergeAndSave(
+      Session session,
+      String studyId,
+      String participantId,
+      Map<String, ParticipantActivitiesEntity> changes) {
+    Query<ParticipantActivitiesEntity> query =
+        session.createQuery(
+            "from ParticipantActivitiesEntity "
+                + "where studyId = :studyId and participantId =:participantId");
+    query.setParameter("studyId", studyId);
+    query.setParameter("participantId", participantId);
+    Map<String, ParticipantActivitiesEntity> storedActivities = new HashMap<>();
+    for (ParticipantActivitiesEntity storedActivity : query.getResultList()) {
+      storedActivities.putIfAbsent(
+          AppUtil.foldKeyCase(storedActivity.getActivityId()), storedActivity);
+    }
+    for (Map.Entry<String, ParticipantActivitiesEntity> change : changes.entrySet()) {
+      ParticipantActivitiesEntity storedActivity = storedActivities.get(change.getKey());
+      if (storedActivity != null) {
+        mergeActivity(storedActivity, change.getValue());
+        session.saveOrUpdate(storedActivity);
+      } else {
+        session.saveOrUpdate(change.getValue());
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static void mergeActivity(
+      ParticipantActivitiesEntity target, ParticipantActivitiesEntity change) {
+    target.setActivityVersion(change.getActivityVersion());
+    target.setActivityState(change.getActivityState());
+    if (StringUtils.isNotBlank(change.getActivityRunId())) {
+      target.setActivityRunId(change.getActivityRunId());
+    }
+    target.setBookmark(change.getBookmark());
+    if (change.getTotalCount() != null) {
+      target.setTotalCount(change.getTotalCount());
+    }
+    if (change.getCompletedCount() != null) {
+      target.setCompletedCount(change.getCompletedCount());
+    }
+    if (change.getMissedCount() != null) {
+      target.setMissedCount(change.getMissedCount());
+    }
+  }
+
+  private static void setNullable(PreparedStatement statement, int index, Object value, int sqlType)
+      throws SQLException {
+    if (value == null) {
+      statement.setNull(index, sqlType);
+    } else {
+      statement.setObject(index, value, sqlType);
+    }
+  }
+
   @Override
   public void deleteParticipantActivites(String studyId, String participantId)
       throws ProcessActivityStateException {
@@ -115,6 +386,13 @@ public class ParticipantActivitiesDaoImpl implements ParticipantActivitiesDao {
             .setParameter("participantId", participantId)
             .setParameter("studyId", studyId)
             .executeUpdate();
+        session
+            .createQuery(
+                "delete from ParticipantActivityStateVersionEntity "
+                    + "where participantId = :participantId and studyId = :studyId")
+            .setParameter("participantId", participantId)
+            .setParameter("studyId", studyId)
+            .executeUpdate();
         logger.exit("deleteParticipantActivites()...end ");
       } catch (Exception e) {
         logger.error("deleteParticipantActivites: (ERROR) ", e);
@@ -133,4 +411,53 @@ public class ParticipantActivitiesDaoImpl implements ParticipantActivitiesDao {
       throw new ProcessActivityStateException("Required input parameter is null");
     }
   }
+
+  @Override
+  public void deleteParticipantActivites(String studyId, List<String> participantIds)
+      throws ProcessActivityStateException {
+    logger.entry("begin deleteParticipantActivites() for participants");
+    if (studyId == null || participantIds == null) {
+      throw new ProcessActivityStateException("Required input parameter is null");
+    }
+    Transaction transaction = null;
+    Session session = null;
+    try {
+      session = entityManagerFactory.unwrap(SessionFactory.class).openSession();
+      transaction = session.beginTransaction();
+      // keep the IN list well below the bind parameter limits of the database
+      for (int from = 0; from < participantIds.size(); from += DELETE_CHUNK_SIZE) {
+        List<String> chunk =
+            participantIds.subList(
+                from, Math.min(from + DELETE_CHUNK_SIZE, participantIds.size()));
+        session
+            .createQuery(
+                "delete from ParticipantActivitiesEntity "
+                    + "where participantId in (:participantIds) and studyId = :studyId")
+            .setParameterList("participantIds", chunk)
+            .setParameter("studyId", studyId)
+            .executeUpdate();
+        session
+            .createQuery(
+                "delete from ParticipantActivityStateVersionEntity "
+                    + "where participantId in (:participantIds) and studyId = :studyId")
+            .setParameterList("participantIds", chunk)
+            .setParameter("studyId", studyId)
+            .executeUpdate();
+      }
+      transaction.commit();
+      transaction = null;
+    } catch (Exception e) {
+      logger.error("deleteParticipantActivites: (ERROR) ", e);
+      throw new ProcessActivityStateException(
+          "Exception deleting activity state data" + e.getMessage());
+    } finally {
+      if (transaction != null) {
+        transaction.rollback();
+      }
+      if (session != null) {
+        session.close();
+      }
+      logger.exit("deleteParticipantActivites() - Ends ");
+    }
+  }
 }
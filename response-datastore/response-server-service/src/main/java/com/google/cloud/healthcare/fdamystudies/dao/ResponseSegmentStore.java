@@ -0,0 +1,737 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.dao;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+/**
+ * Append-only response store of a single study. Records are appended to numbered segment files; a
+ * segment is sealed once it reaches the configured size and a new one is started. Each record is
+ * laid out as
+ *
+ * <pre>
+ * int   length of the rest of the record
+ * byte  record type
+ * str   participant id, site id, activity id, activity run id (unsigned short length + UTF-8)
+ * bytes response JSON (response records only)
+ * </pre>
+ *
+ * <p>A MANIFEST file lists the segments in the order they are replayed. An in-memory index keeps,
+ * per participant, the segment position of every live response, and is rebuilt from the record
+ * headers when the store is opened. Response JSON of sealed segments is read through memory
+ * mappings. Deletion and withdrawal are appended as tombstone records; {@link #compact()} rewrites
+ * the live records and drops the space held by deleted ones.
+ */
+public class ResponseSegmentStore implements Closeable {
+
+  private static final XLogger logger =
+      XLoggerFactory.getXLogger(ResponseSegmentStore.class.getName());
+
+  private static final byte RECORD_RESPONSE = 1;
+  private static final byte RECORD_DELETE = 2;
+  private static final byte RECORD_WITHDRAW = 3;
+
+  private static final String SEGMENT_FILE_FORMAT = "segment-%010d.log";
+  private static final Pattern SEGMENT_FILE_PATTERN = Pattern.compile("segment-(\\d{10})\\.log");
+  private static final String COMPACTION_SUFFIX = ".compacting";
+  private static final String MANIFEST_FILE_NAME = "MANIFEST";
+  private static final String MANIFEST_TMP_SUFFIX = ".tmp";
+
+  private final Path studyDir;
+  private final long maxSegmentBytes;
+  private final boolean syncWrites;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Object compactionLock = new Object();
+
+  /** Segments in manifest order. */
+  private final LinkedHashMap<Integer, Segment> segments = new LinkedHashMap<>();
+
+  private final AtomicInteger nextSegmentId = new AtomicInteger();
+  private Segment activeSegment;
+  private Map<String, ParticipantEntries> participants = new HashMap<>();
+  private long totalBytes;
+  private long liveBytes;
+  private boolean closed;
+
+  private ResponseSegmentStore(Path studyDir, long maxSegmentBytes, boolean syncWrites) {
+    this.studyDir = studyDir;
+    this.maxSegmentBytes = maxSegmentBytes;
+    this.syncWrites = syncWrites;
+  }
+
+  /** Opens the store in the given directory, creating it if needed, and rebuilds the index. */
+  public static ResponseSegmentStore open(Path studyDir, long maxSegmentBytes, boolean syncWrites)
+      throws IOException {
+    Files.createDirectories(studyDir);
+    ResponseSegmentStore store = new ResponseSegmentStore(studyDir, maxSegmentBytes, syncWrites);
+    store.load();
+    return store;
+  }
+
+  /**
+   * Appends a response unless the participant already has a response for the same activity run.
+   *
+   * @return false when the response already exists
+   */
+  public boolean append(
+      String participantId, String siteId, String activityId, String activityRunId, byte[] json)
+      throws IOException {
+    lock.writeLock().lock();
+    try {
+      ParticipantEntries entries = participants.get(participantId);
+      if (entries != null && entries.hasRun(activityId, activityRunId)) {
+        return false;
+      }
+      ResponseEntry entry =
+          writeRecord(RECORD_RESPONSE, participantId, siteId, activityId, activityRunId, json);
+      participants.computeIfAbsent(participantId, id -> new ParticipantEntries()).add(entry);
+      liveBytes += entry.recordLength;
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Returns the JSON of the participant's responses to the activity at the given site. */
+  public List<byte[]> read(String participantId, String siteId, String activityId)
+      throws IOException {
+    lock.readLock().lock();
+    try {
+      List<byte[]> responses = new ArrayList<>();
+      ParticipantEntries entries = participants.get(participantId);
+      if (entries == null) {
+        return responses;
+      }
+      for (ResponseEntry entry : entries.responses) {
+        if (entry.activityId.equals(activityId) && entry.siteId.equals(siteId)) {
+          responses.add(segments.get(entry.segmentId).read(entry.jsonOffset, entry.jsonLength));
+        }
+      }
+      return responses;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public boolean isWithdrawn(String participantId) {
+    lock.readLock().lock();
+    try {
+      ParticipantEntries entries = participants.get(participantId);
+      return entries != null && entries.withdrawn;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Appends a tombstone that removes all responses of the participant. */
+  public void delete(String participantId) throws IOException {
+    lock.writeLock().lock();
+    try {
+      writeRecord(RECORD_DELETE, participantId, "", "", "", new byte[0]);
+      ParticipantEntries removed = participants.remove(participantId);
+      if (removed != null) {
+        liveBytes -= removed.liveBytes();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Appends a tombstone that marks all responses of the participant as withdrawn. */
+  public void withdraw(String participantId) throws IOException {
+    lock.writeLock().lock();
+    try {
+      ParticipantEntries entries = participants.get(participantId);
+      if (entries == null || entries.withdrawn) {
+        return;
+      }
+      ResponseEntry marker = writeRecord(RECORD_WITHDRAW, participantId, "", "", "", new byte[0]);
+      entries.withdrawn = true;
+      entries.withdrawalRecordLength = marker.recordLength;
+      liveBytes += marker.recordLength;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Fraction of the bytes on disk that belong to deleted responses or obsolete tombstones. */
+  public double deadRatio() {
+    lock.readLock().lock();
+    try {
+      return totalBytes == 0 ? 0 : (double) (totalBytes - liveBytes) / totalBytes;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Rewrites the live records into new segments and swaps them in for the old ones. Only sealing
+   * the active segment and swapping the index take the write lock; the live records are copied
+   * while appends go on to a new segment. The swap replaces the manifest in one atomic rename, so
+   * a store reopened after a failure sees either the old segments or the compacted ones.
+   */
+  public void compact() throws IOException {
+    synchronized (compactionLock) {
+      logger.entry("begin compact() " + studyDir);
+      List<Segment> sealedSegments;
+      Map<String, ParticipantEntries> snapshot = new HashMap<>();
+      lock.writeLock().lock();
+      try {
+        if (closed || segments.isEmpty()) {
+          return;
+        }
+        // later appends go to a new segment, so the segments being compacted no longer change
+        sealActiveSegment();
+        sealedSegments = new ArrayList<>(segments.values());
+        for (Map.Entry<String, ParticipantEntries> participant : participants.entrySet()) {
+          snapshot.put(participant.getKey(), participant.getValue().copy());
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+
+      List<Segment> compactedSegments = new ArrayList<>();
+      Map<ResponseEntry, ResponseEntry> copies = new IdentityHashMap<>();
+      try {
+        copyLiveRecords(sealedSegments, snapshot, compactedSegments, copies);
+      } catch (IOException e) {
+        discard(compactedSegments);
+        throw e;
+      }
+
+      lock.writeLock().lock();
+      try {
+        if (closed) {
+          discard(compactedSegments);
+          return;
+        }
+        LinkedHashMap<Integer, Segment> swapped = new LinkedHashMap<>();
+        long compactedBytes = 0;
+        for (Segment segment : compactedSegments) {
+          swapped.put(segment.id, segment);
+          compactedBytes += segment.size;
+        }
+        long sealedBytes = 0;
+        for (Segment segment : segments.values()) {
+          if (sealedSegments.contains(segment)) {
+            sealedBytes += segment.size;
+          } else {
+            swapped.put(segment.id, segment);
+          }
+        }
+        try {
+          writeManifest(swapped.values());
+        } catch (IOException e) {
+          discard(compactedSegments);
+          throw e;
+        }
+        for (ParticipantEntries entries : participants.values()) {
+          entries.relocate(copies);
+        }
+        segments.clear();
+        segments.putAll(swapped);
+        totalBytes += compactedBytes - sealedBytes;
+      } finally {
+        lock.writeLock().unlock();
+      }
+
+      for (Segment segment : sealedSegments) {
+        segment.close();
+        try {
+          Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+          // not in the manifest any more, so it is removed when the store is reopened
+          logger.warn("compact() - could not delete " + segment.path, e);
+        }
+      }
+      logger.exit("compact() - ends " + studyDir);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    lock.writeLock().lock();
+    try {
+      closed = true;
+      for (Segment segment : segments.values()) {
+        segment.close();
+      }
+      segments.clear();
+      activeSegment = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void load() throws IOException {
+    TreeMap<Integer, Path> segmentFiles = new TreeMap<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(studyDir)) {
+      for (Path file : files) {
+        String fileName = file.getFileName().toString();
+        Matcher matcher = SEGMENT_FILE_PATTERN.matcher(fileName);
+        if (matcher.matches()) {
+          segmentFiles.put(Integer.parseInt(matcher.group(1)), file);
+        } else if (fileName.endsWith(COMPACTION_SUFFIX) || fileName.endsWith(MANIFEST_TMP_SUFFIX)) {
+          // left behind by an interrupted compaction or manifest update
+          Files.delete(file);
+        }
+      }
+    }
+    Path manifest = studyDir.resolve(MANIFEST_FILE_NAME);
+    boolean hasManifest = Files.exists(manifest);
+    List<Integer> segmentIds = new ArrayList<>();
+    if (hasManifest) {
+      for (String fileName : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+        Matcher matcher = SEGMENT_FILE_PATTERN.matcher(fileName);
+        if (!matcher.matches() || !segmentFiles.containsKey(Integer.parseInt(matcher.group(1)))) {
+          throw new IOException("Missing response segment " + fileName + " in " + studyDir);
+        }
+        segmentIds.add(Integer.parseInt(matcher.group(1)));
+      }
+    } else {
+      // a store written before the manifest was introduced replays its segments in id order
+      segmentIds.addAll(segmentFiles.keySet());
+    }
+    for (Map.Entry<Integer, Path> file : segmentFiles.entrySet()) {
+      if (!segmentIds.contains(file.getKey())) {
+        // written by a compaction that did not swap in, or replaced by one that did
+        Files.delete(file.getValue());
+      }
+    }
+    nextSegmentId.set(segmentFiles.isEmpty() ? 0 : segmentFiles.lastKey() + 1);
+
+    for (Integer id : segmentIds) {
+      segments.put(id, Segment.open(id, segmentFiles.get(id)));
+    }
+    int replayed = 0;
+    for (Segment segment : segments.values()) {
+      boolean lastSegment = ++replayed == segments.size();
+      replay(segment, lastSegment);
+      if (lastSegment) {
+        activeSegment = segment;
+      } else {
+        segment.seal();
+      }
+    }
+    if (!hasManifest && !segments.isEmpty()) {
+      writeManifest(segments.values());
+    }
+  }
+
+  private void replay(Segment segment, boolean lastSegment) throws IOException {
+    ByteBuffer buffer = segment.mapForReplay();
+    int position = 0;
+    while (position + Integer.BYTES <= segment.size) {
+      buffer.position(position);
+      int length = buffer.getInt();
+      int recordEnd = position + Integer.BYTES + length;
+      if (length <= 0 || recordEnd > segment.size) {
+        break;
+      }
+      byte type = buffer.get();
+      String participantId = readString(buffer);
+      String siteId = readString(buffer);
+      String activityId = readString(buffer);
+      String activityRunId = readString(buffer);
+      int jsonOffset = buffer.position();
+      int recordLength = recordEnd - position;
+      totalBytes += recordLength;
+
+      ParticipantEntries entries = participants.get(participantId);
+      if (type == RECORD_RESPONSE) {
+        if (entries == null || !entries.hasRun(activityId, activityRunId)) {
+          participants
+              .computeIfAbsent(participantId, id -> new ParticipantEntries())
+              .add(
+                  new ResponseEntry(
+                      segment.id,
+                      siteId,
+                      activityId,
+                      activityRunId,
+                      jsonOffset,
+                      recordEnd - jsonOffset,
+                      recordLength));
+          liveBytes += recordLength;
+        }
+      } else if (type == RECORD_DELETE) {
+        if (entries != null) {
+          liveBytes -= entries.liveBytes();
+          participants.remove(participantId);
+        }
+      } else if (type == RECORD_WITHDRAW && entries != null && !entries.withdrawn) {
+        entries.withdrawn = true;
+        entries.withdrawalRecordLength = recordLength;
+        liveBytes += recordLength;
+      }
+      position = recordEnd;
+    }
+    if (position < segment.size) {
+      if (!lastSegment) {
+        throw new IOException("Corrupt response segment " + segment.path + " at " + position);
+      }
+      // a torn write at the end of the active segment
+      logger.warn("replay() - truncating " + segment.path + " at " + position);
+      segment.truncate(position);
+    }
+  }
+
+  private ResponseEntry writeRecord(
+      byte type,
+      String participantId,
+      String siteId,
+      String activityId,
+      String activityRunId,
+      byte[] json)
+      throws IOException {
+    ByteBuffer record = encode(type, participantId, siteId, activityId, activityRunId, json);
+    if (activeSegment == null || activeSegment.size + record.remaining() > maxSegmentBytes) {
+      sealActiveSegment();
+      int id = nextSegmentId.getAndIncrement();
+      Segment segment = Segment.open(id, segmentPath(id));
+      segments.put(id, segment);
+      try {
+        writeManifest(segments.values());
+      } catch (IOException e) {
+        segments.remove(id);
+        discard(Collections.singletonList(segment));
+        throw e;
+      }
+      activeSegment = segment;
+    }
+    ResponseEntry entry =
+        activeSegment.append(record, json.length, siteId, activityId, activityRunId, syncWrites);
+    totalBytes += entry.recordLength;
+    return entry;
+  }
+
+  private void sealActiveSegment() {
+    if (activeSegment != null) {
+      activeSegment.seal();
+      activeSegment = null;
+    }
+  }
+
+  /** Copies the responses and withdrawals of the snapshot into new, synced segments. */
+  private void copyLiveRecords(
+      List<Segment> sealedSegments,
+      Map<String, ParticipantEntries> snapshot,
+      List<Segment> compactedSegments,
+      Map<ResponseEntry, ResponseEntry> copies)
+      throws IOException {
+    Map<Integer, Segment> sealedById = new HashMap<>();
+    for (Segment segment : sealedSegments) {
+      sealedById.put(segment.id, segment);
+    }
+    for (Map.Entry<String, ParticipantEntries> participant : snapshot.entrySet()) {
+      for (ResponseEntry entry : participant.getValue().responses) {
+        byte[] json = sealedById.get(entry.segmentId).read(entry.jsonOffset, entry.jsonLength);
+        ByteBuffer record =
+            encode(
+                RECORD_RESPONSE,
+                participant.getKey(),
+                entry.siteId,
+                entry.activityId,
+                entry.activityRunId,
+                json);
+        Segment segment = compactedSegment(compactedSegments, record.remaining());
+        copies.put(
+            entry,
+            segment.append(
+                record, json.length, entry.siteId, entry.activityId, entry.activityRunId, false));
+      }
+      if (participant.getValue().withdrawn) {
+        ByteBuffer record = encode(RECORD_WITHDRAW, participant.getKey(), "", "", "", new byte[0]);
+        compactedSegment(compactedSegments, record.remaining())
+            .append(record, 0, "", "", "", false);
+      }
+    }
+    for (Segment segment : compactedSegments) {
+      segment.channel.force(true);
+      segment.seal();
+    }
+  }
+
+  private Segment compactedSegment(List<Segment> compactedSegments, int recordLength)
+      throws IOException {
+    Segment segment =
+        compactedSegments.isEmpty() ? null : compactedSegments.get(compactedSegments.size() - 1);
+    if (segment == null || segment.size + recordLength > maxSegmentBytes) {
+      int id = nextSegmentId.getAndIncrement();
+      segment = Segment.open(id, segmentPath(id));
+      compactedSegments.add(segment);
+    }
+    return segment;
+  }
+
+  /** Closes and removes segments that never made it into the manifest. */
+  private static void discard(List<Segment> unlistedSegments) throws IOException {
+    for (Segment segment : unlistedSegments) {
+      segment.close();
+      Files.deleteIfExists(segment.path);
+    }
+  }
+
+  /** Lists the segments in replay order, replacing the previous manifest in one rename. */
+  private void writeManifest(Collection<Segment> manifestSegments) throws IOException {
+    StringBuilder manifest = new StringBuilder();
+    for (Segment segment : manifestSegments) {
+      manifest.append(segment.path.getFileName()).append('\n');
+    }
+    Path manifestTmp = studyDir.resolve(MANIFEST_FILE_NAME + MANIFEST_TMP_SUFFIX);
+    try (FileChannel channel =
+        FileChannel.open(
+            manifestTmp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer bytes = ByteBuffer.wrap(manifest.toString().getBytes(StandardCharsets.UTF_8));
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+      channel.force(true);
+    }
+    Files.move(
+        manifestTmp, studyDir.resolve(MANIFEST_FILE_NAME), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private Path segmentPath(int id) {
+    return studyDir.resolve(String.format(SEGMENT_FILE_FORMAT, id));
+  }
+
+  private static ByteBuffer encode(
+      byte type,
+      String participantId,
+      String siteId,
+      String activityId,
+      String activityRunId,
+      byte[] json) {
+    byte[][] header = {
+      participantId.getBytes(StandardCharsets.UTF_8),
+      siteId.getBytes(StandardCharsets.UTF_8),
+      activityId.getBytes(StandardCharsets.UTF_8),
+      activityRunId.getBytes(StandardCharsets.UTF_8)
+    };
+    int length = 1 + json.length;
+    for (byte[] value : header) {
+      length += Short.BYTES + value.length;
+    }
+    ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + length);
+    record.putInt(length);
+    record.put(type);
+    for (byte[] value : header) {
+      record.putShort((short) value.length);
+      record.put(value);
+    }
+    record.put(json);
+    record.flip();
+    return record;
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] value = new byte[Short.toUnsignedInt(buffer.getShort())];
+    buffer.get(value);
+    return new String(value, StandardCharsets.UTF_8);
+  }
+
+  private static class Segment {
+    private final int id;
+    private final Path path;
+    private final FileChannel channel;
+    private long size;
+    private boolean sealed;
+    private MappedByteBuffer mapped;
+
+    private Segment(int id, Path path, FileChannel channel) throws IOException {
+      this.id = id;
+      this.path = path;
+      this.channel = channel;
+      this.size = channel.size();
+    }
+
+    private static Segment open(int id, Path path) throws IOException {
+      return new Segment(
+          id,
+          path,
+          FileChannel.open(
+              path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+
+    private ResponseEntry append(
+        ByteBuffer record,
+        int jsonLength,
+        String siteId,
+        String activityId,
+        String activityRunId,
+        boolean sync)
+        throws IOException {
+      long position = size;
+      int recordLength = record.remaining();
+      while (record.hasRemaining()) {
+        channel.write(record, position + recordLength - record.remaining());
+      }
+      if (sync) {
+        channel.force(false);
+      }
+      size += recordLength;
+      return new ResponseEntry(
+          id,
+          siteId,
+          activityId,
+          activityRunId,
+          (int) (position + recordLength - jsonLength),
+          jsonLength,
+          recordLength);
+    }
+
+    /** Marks the segment as complete; it is only read from now on. */
+    private void seal() {
+      sealed = true;
+    }
+
+    /**
+     * Reads bytes of a sealed segment through a single mapping of the whole file. The active
+     * segment still grows, so it is read with a positional read instead of being remapped.
+     */
+    private byte[] read(int offset, int length) throws IOException {
+      byte[] value = new byte[length];
+      if (sealed) {
+        ByteBuffer view = mapping().duplicate();
+        view.position(offset);
+        view.get(value);
+        return value;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(value);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, (long) offset + buffer.position()) < 0) {
+          throw new EOFException("Response beyond the end of " + path);
+        }
+      }
+      return value;
+    }
+
+    private synchronized MappedByteBuffer mapping() throws IOException {
+      if (mapped == null) {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      return mapped;
+    }
+
+    private MappedByteBuffer mapForReplay() throws IOException {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    private void truncate(long newSize) throws IOException {
+      channel.truncate(newSize);
+      size = newSize;
+    }
+
+    private void close() throws IOException {
+      mapped = null;
+      channel.close();
+    }
+  }
+
+  private static class ResponseEntry {
+    private final int segmentId;
+    private final String siteId;
+    private final String activityId;
+    private final String activityRunId;
+    private final int jsonOffset;
+    private final int jsonLength;
+    private final int recordLength;
+
+    private ResponseEntry(
+        int segmentId,
+        String siteId,
+        String activityId,
+        String activityRunId,
+        int jsonOffset,
+        int jsonLength,
+        int recordLength) {
+      this.segmentId = segmentId;
+      this.siteId = siteId;
+      this.activityId = activityId;
+      this.activityRunId = activityRunId;
+      this.jsonOffset = jsonOffset;
+      this.jsonLength = jsonLength;
+      this.recordLength = recordLength;
+    }
+  }
+
+  private static class ParticipantEntries {
+    private List<ResponseEntry> responses = new ArrayList<>();
+    private final Set<String> runs = new HashSet<>();
+    private boolean withdrawn;
+    private int withdrawalRecordLength;
+
+    private void add(ResponseEntry entry) {
+      responses.add(entry);
+      runs.add(entry.activityId + "@" + entry.activityRunId);
+    }
+
+    private boolean hasRun(String activityId, String activityRunId) {
+      return runs.contains(activityId + "@" + activityRunId);
+    }
+
+    private ParticipantEntries copy() {
+      ParticipantEntries copy = new ParticipantEntries();
+      copy.responses.addAll(responses);
+      copy.withdrawn = withdrawn;
+      return copy;
+    }
+
+    /** Points the responses that were compacted at their copies. */
+    private void relocate(Map<ResponseEntry, ResponseEntry> copies) {
+      List<ResponseEntry> relocated = new ArrayList<>(responses.size());
+      for (ResponseEntry entry : responses) {
+        ResponseEntry copy = copies.get(entry);
+        relocated.add(copy != null ? copy : entry);
+      }
+      responses = relocated;
+    }
+
+    private long liveBytes() {
+      long bytes = withdrawalRecordLength;
+      for (ResponseEntry entry : responses) {
+        bytes += entry.recordLength;
+      }
+      return bytes;
+    }
+  }
+}
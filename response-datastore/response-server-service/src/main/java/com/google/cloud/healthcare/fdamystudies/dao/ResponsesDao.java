@@ -10,6 +10,7 @@ package com.google.cloud.healthcare.fdamystudies.dao;
 
 import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import java.util.List;
 import java.util.Map;
 
 public interface ResponsesDao {
@@ -26,6 +27,24 @@ public interface ResponsesDao {
       String questionKey)
       throws ProcessResponseException;
 
+  /**
+   * Returns one page of the participant's responses to the activity.
+   *
+   * @param pageSize maximum number of rows in the page
+   * @param pageToken {@link StoredResponseBean#getNextPageToken()} of the previous page, or null
+   *     for the first page
+   */
+  StoredResponseBean getActivityResponseDataPageForParticipant(
+      String studyCollectionName,
+      String studyId,
+      String siteId,
+      String participantId,
+      String activityId,
+      String questionKey,
+      int pageSize,
+      String pageToken)
+      throws ProcessResponseException;
+
   void saveActivityResponseData(
       String studyId,
       String studyCollectionName,
@@ -40,7 +59,18 @@ public interface ResponsesDao {
       String participantId)
       throws ProcessResponseException;
 
+  void deleteActivityResponseDataForParticipants(
+      String studyCollectionName,
+      String studyId,
+      String activitiesCollectionName,
+      List<String> participantIds)
+      throws ProcessResponseException;
+
   void updateWithdrawalStatusForParticipant(
       String studyCollectionName, String studyId, String participantId)
       throws ProcessResponseException;
+
+  void updateWithdrawalStatusForParticipants(
+      String studyCollectionName, String studyId, List<String> participantIds)
+      throws ProcessResponseException;
 }
@@ -0,0 +1,24 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.exception;
+
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+
+/**
+ * A bundle the FHIR store rejected as a whole, such as a transaction rolled back because one of its
+ * entries failed. Sending the bundle or its entries again fails the same way.
+ */
+public class FhirBundleRejectedException extends ProcessResponseException {
+
+  private static final long serialVersionUID = -3260851497728311754L;
+
+  public FhirBundleRejectedException(String message) {
+    super(message);
+  }
+}
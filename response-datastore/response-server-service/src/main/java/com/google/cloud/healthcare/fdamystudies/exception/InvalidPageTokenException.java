@@ -0,0 +1,21 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.exception;
+
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+
+/** A page token that was not issued by the response store it is passed to. */
+public class InvalidPageTokenException extends ProcessResponseException {
+
+  private static final long serialVersionUID = 4719842165360227151L;
+
+  public InvalidPageTokenException(String message) {
+    super(message);
+  }
+}
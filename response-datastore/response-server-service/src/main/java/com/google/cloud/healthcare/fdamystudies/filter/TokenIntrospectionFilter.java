@@ -40,6 +40,12 @@ public class TokenIntrospectionFilter extends BaseTokenIntrospectionFilter {
     uriTemplateAndMethods.put(
         String.format("%s/participant/withdraw", context.getContextPath()),
         new String[] {HttpMethod.POST.name()});
+    uriTemplateAndMethods.put(
+        String.format("%s/participants/withdraw", context.getContextPath()),
+        new String[] {HttpMethod.POST.name()});
+    uriTemplateAndMethods.put(
+        String.format("%s/participants/withdraw/{jobId}", context.getContextPath()),
+        new String[] {HttpMethod.GET.name()});
     uriTemplateAndMethods.put(
         String.format("%s/participant/get-activity-state", context.getContextPath()),
         new String[] {HttpMethod.GET.name()});
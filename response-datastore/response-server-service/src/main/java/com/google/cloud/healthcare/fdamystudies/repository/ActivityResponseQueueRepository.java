@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020-2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.repository;
+
+import com.google.cloud.healthcare.fdamystudies.response.model.ActivityResponseQueueEntity;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface ActivityResponseQueueRepository
+    extends JpaRepository<ActivityResponseQueueEntity, String> {
+
+  @Query(
+      "select q.id from ActivityResponseQueueEntity q where q.status = :status"
+          + " and q.nextAttemptTime <= :now order by q.nextAttemptTime")
+  List<String> findIdsReadyForProcessing(
+      @Param("status") String status, @Param("now") Timestamp now, Pageable pageable);
+
+  long countByStatus(String status);
+
+  /**
+   * Marks a pending entry as in progress under a new claim token. Returns 0 when another worker or
+   * instance has already claimed the entry.
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "update ActivityResponseQueueEntity q set q.status = :inProgress, q.claimedTime = :now,"
+          + " q.claimToken = :claimToken where q.id = :id and q.status = :pending")
+  int claim(
+      @Param("id") String id,
+      @Param("pending") String pending,
+      @Param("inProgress") String inProgress,
+      @Param("now") Timestamp now,
+      @Param("claimToken") String claimToken);
+
+  /** Heartbeat of the entries still being processed, so their claims do not expire. */
+  @Transactional
+  @Modifying
+  @Query(
+      "update ActivityResponseQueueEntity q set q.claimedTime = :now"
+          + " where q.status = :inProgress and q.claimToken in :claimTokens")
+  int renewClaims(
+      @Param("inProgress") String inProgress,
+      @Param("claimTokens") Collection<String> claimTokens,
+      @Param("now") Timestamp now);
+
+  /** Returns entries whose worker died before finishing back to the pending state. */
+  @Transactional
+  @Modifying
+  @Query(
+      "update ActivityResponseQueueEntity q set q.status = :pending, q.claimToken = null"
+          + " where q.status = :inProgress and q.claimedTime < :claimedBefore")
+  int releaseExpiredClaims(
+      @Param("pending") String pending,
+      @Param("inProgress") String inProgress,
+      @Param("claimedBefore") Timestamp claimedBefore);
+
+  /**
+   * Deletes a processed entry. Returns 0 when the claim expired and the entry was claimed again, so
+   * the result of the stale claim is not recorded.
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "delete from ActivityResponseQueueEntity q"
+          + " where q.id = :id and q.claimToken = :claimToken")
+  int deleteClaimed(@Param("id") String id, @Param("claimToken") String claimToken);
+
+  /**
+   * Records the last stage completed for an entry. Returns 0 when the claim expired and the entry
+   * was claimed again.
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "update ActivityResponseQueueEntity q set q.completedStage = :completedStage"
+          + " where q.id = :id and q.claimToken = :claimToken")
+  int updateCompletedStage(
+      @Param("id") String id,
+      @Param("claimToken") String claimToken,
+      @Param("completedStage") String completedStage);
+
+  /** Records a failed attempt. Returns 0 when the claim expired and the entry was claimed again. */
+  @Transactional
+  @Modifying
+  @Query(
+      "update ActivityResponseQueueEntity q set q.status = :status, q.attempts = :attempts,"
+          + " q.nextAttemptTime = :nextAttemptTime, q.lastError = :lastError,"
+          + " q.claimToken = null where q.id = :id and q.claimToken = :claimToken")
+  int updateClaimed(
+      @Param("id") String id,
+      @Param("claimToken") String claimToken,
+      @Param("status") String status,
+      @Param("attempts") int attempts,
+      @Param("nextAttemptTime") Timestamp nextAttemptTime,
+      @Param("lastError") String lastError);
+
+  @Transactional
+  @Modifying
+  @Query(
+      "delete from ActivityResponseQueueEntity q"
+          + " where q.status = :status and q.created < :createdBefore")
+  int deleteByStatusCreatedBefore(
+      @Param("status") String status, @Param("createdBefore") Timestamp createdBefore);
+}
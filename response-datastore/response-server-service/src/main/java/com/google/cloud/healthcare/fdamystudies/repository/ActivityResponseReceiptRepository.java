@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.repository;
+
+import com.google.cloud.healthcare.fdamystudies.response.model.ActivityResponseReceiptEntity;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface ActivityResponseReceiptRepository
+    extends JpaRepository<ActivityResponseReceiptEntity, String> {
+
+  @Query(
+      "select r.status from ActivityResponseReceiptEntity r where r.studyId = :studyId"
+          + " and r.participantId = :participantId and r.activityId = :activityId"
+          + " and r.activityVersion = :activityVersion and r.activityRunId = :activityRunId")
+  Optional<String> findStatus(
+      @Param("studyId") String studyId,
+      @Param("participantId") String participantId,
+      @Param("activityId") String activityId,
+      @Param("activityVersion") String activityVersion,
+      @Param("activityRunId") String activityRunId);
+
+  /**
+   * Takes over a receipt whose submission was not completed or released in time, under a new claim
+   * token. Returns 0 when the receipt is completed or still claimed by another request.
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "update ActivityResponseReceiptEntity r set r.claimedTime = :now, r.claimToken = :claimToken"
+          + " where r.studyId = :studyId and r.participantId = :participantId"
+          + " and r.activityId = :activityId and r.activityVersion = :activityVersion"
+          + " and r.activityRunId = :activityRunId and r.status = :inProgress"
+          + " and r.claimedTime < :claimedBefore")
+  int reclaimExpired(
+      @Param("studyId") String studyId,
+      @Param("participantId") String participantId,
+      @Param("activityId") String activityId,
+      @Param("activityVersion") String activityVersion,
+      @Param("activityRunId") String activityRunId,
+      @Param("inProgress") String inProgress,
+      @Param("now") Timestamp now,
+      @Param("claimedBefore") Timestamp claimedBefore,
+      @Param("claimToken") String claimToken);
+
+  /**
+   * Marks a claimed receipt completed. Returns 0 when the claim expired and the receipt was claimed
+   * again, so the stale claim does not complete the submission of another request.
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "update ActivityResponseReceiptEntity r set r.status = :completed where r.studyId = :studyId"
+          + " and r.participantId = :participantId and r.activityId = :activityId"
+          + " and r.activityVersion = :activityVersion and r.activityRunId = :activityRunId"
+          + " and r.status = :inProgress and r.claimToken = :claimToken")
+  int completeClaimed(
+      @Param("studyId") String studyId,
+      @Param("participantId") String participantId,
+      @Param("activityId") String activityId,
+      @Param("activityVersion") String activityVersion,
+      @Param("activityRunId") String activityRunId,
+      @Param("inProgress") String inProgress,
+      @Param("completed") String completed,
+      @Param("claimToken") String claimToken);
+
+  /**
+   * Deletes a receipt in progress under its claim. Returns 0 when the claim expired and the receipt
+   * was claimed again, or when the receipt is completed.
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "delete from ActivityResponseReceiptEntity r where r.studyId = :studyId"
+          + " and r.participantId = :participantId and r.activityId = :activityId"
+          + " and r.activityVersion = :activityVersion and r.activityRunId = :activityRunId"
+          + " and r.status = :inProgress and r.claimToken = :claimToken")
+  int deleteClaimed(
+      @Param("studyId") String studyId,
+      @Param("participantId") String participantId,
+      @Param("activityId") String activityId,
+      @Param("activityVersion") String activityVersion,
+      @Param("activityRunId") String activityRunId,
+      @Param("inProgress") String inProgress,
+      @Param("claimToken") String claimToken);
+
+  /**
+   * Heartbeat of the receipts of queued responses, so their claims do not expire while the
+   * responses wait in the queue.
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "update ActivityResponseReceiptEntity r set r.claimedTime = :now"
+          + " where r.status = :inProgress and r.claimToken in (select q.receiptClaimToken"
+          + " from ActivityResponseQueueEntity q where q.status in :queueStatuses)")
+  int renewQueuedClaims(
+      @Param("inProgress") String inProgress,
+      @Param("queueStatuses") Collection<String> queueStatuses,
+      @Param("now") Timestamp now);
+
+  @Transactional
+  @Modifying
+  @Query(
+      "delete from ActivityResponseReceiptEntity r"
+          + " where r.status = :status and r.claimedTime < :claimedBefore")
+  int deleteByStatusClaimedBefore(
+      @Param("status") String status, @Param("claimedBefore") Timestamp claimedBefore);
+}
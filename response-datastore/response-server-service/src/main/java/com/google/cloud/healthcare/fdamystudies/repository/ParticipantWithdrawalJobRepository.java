@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.repository;
+
+import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantWithdrawalJobEntity;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+public interface ParticipantWithdrawalJobRepository
+    extends JpaRepository<ParticipantWithdrawalJobEntity, String> {
+
+  @Query(
+      "select j.id from ParticipantWithdrawalJobEntity j"
+          + " where j.status in :statuses and j.claimedTime < :claimedBefore")
+  List<String> findIdsByStatusClaimedBefore(
+      @Param("statuses") Collection<String> statuses,
+      @Param("claimedBefore") Timestamp claimedBefore);
+
+  /**
+   * Takes over an unfinished job whose claim was not renewed in time, under a new claim token.
+   * Returns 0 when the job finished or was claimed again by another instance.
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "update ParticipantWithdrawalJobEntity j set j.claimedTime = :now, j.claimToken = :claimToken"
+          + " where j.id = :id and j.status in :statuses and j.claimedTime < :claimedBefore")
+  int reclaimExpired(
+      @Param("id") String id,
+      @Param("statuses") Collection<String> statuses,
+      @Param("now") Timestamp now,
+      @Param("claimedBefore") Timestamp claimedBefore,
+      @Param("claimToken") String claimToken);
+
+  /**
+   * Records the state of a claimed job and renews the claim. Returns 0 when the claim expired and
+   * the job was claimed again, so the stale worker does not overwrite the state of the new one.
+   */
+  @Transactional
+  @Modifying
+  @Query(
+      "update ParticipantWithdrawalJobEntity j set j.status = :status,"
+          + " j.appErrorCode = :appErrorCode, j.errorMessage = :errorMessage,"
+          + " j.claimedTime = :now, j.updatedTime = :now"
+          + " where j.id = :id and j.claimToken = :claimToken")
+  int updateClaimed(
+      @Param("id") String id,
+      @Param("claimToken") String claimToken,
+      @Param("status") String status,
+      @Param("appErrorCode") Integer appErrorCode,
+      @Param("errorMessage") String errorMessage,
+      @Param("now") Timestamp now);
+
+  @Transactional
+  @Modifying
+  @Query(
+      "delete from ParticipantWithdrawalJobEntity j"
+          + " where j.status in :statuses and j.updatedTime < :updatedBefore")
+  int deleteByStatusUpdatedBefore(
+      @Param("statuses") Collection<String> statuses,
+      @Param("updatedBefore") Timestamp updatedBefore);
+}
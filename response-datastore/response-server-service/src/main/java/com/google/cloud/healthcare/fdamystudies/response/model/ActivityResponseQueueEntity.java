@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020-2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.response.model;
+
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.LARGE_LENGTH;
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.SMALL_LENGTH;
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.XS_LENGTH;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.GenericGenerator;
+
+/** Activity response accepted by the response server and waiting to be processed. */
+@Setter
+@Getter
+@Entity
+@Table(
+    name = "activity_response_queue",
+    indexes = {
+      @Index(
+          name = "activity_response_queue_status_next_attempt_idx",
+          columnList = "status,next_attempt_time")
+    })
+public class ActivityResponseQueueEntity implements Serializable {
+
+  private static final long serialVersionUID = 2370950618361453728L;
+
+  @Id
+  @GeneratedValue(generator = "system-uuid")
+  @GenericGenerator(name = "system-uuid", strategy = "uuid")
+  @Column(name = "id", updatable = false, nullable = false)
+  private String id;
+
+  @Column(name = "study_id", nullable = false, length = XS_LENGTH)
+  private String studyId;
+
+  @Column(name = "participant_id", nullable = false, length = SMALL_LENGTH)
+  private String participantId;
+
+  @Column(name = "activity_id", nullable = false, length = SMALL_LENGTH)
+  private String activityId;
+
+  @Column(name = "activity_version", nullable = false, length = XS_LENGTH)
+  private String activityVersion;
+
+  @Column(name = "activity_run_id", length = XS_LENGTH)
+  private String activityRunId;
+
+  @Column(name = "user_id", length = SMALL_LENGTH)
+  private String userId;
+
+  @Column(name = "locale", length = XS_LENGTH)
+  private String locale;
+
+  /** Activity response as received from the mobile app, serialized as JSON. */
+  @Lob
+  @Column(name = "payload", nullable = false)
+  private String payload;
+
+  /** Audit log context of the original request, serialized as JSON. */
+  @Lob
+  @Column(name = "audit_request")
+  private String auditRequest;
+
+  @Column(name = "status", nullable = false, length = XS_LENGTH)
+  private String status;
+
+  @Column(name = "attempts", nullable = false)
+  private Integer attempts = 0;
+
+  @Column(name = "next_attempt_time", nullable = false)
+  private Timestamp nextAttemptTime;
+
+  @Column(name = "claimed_time")
+  private Timestamp claimedTime;
+
+  /** Token of the current claim; results are only recorded by the worker that holds it. */
+  @Column(name = "claim_token", length = SMALL_LENGTH)
+  private String claimToken;
+
+  /** Token of the claim of the activity run receipt, released when processing is given up. */
+  @Column(name = "receipt_claim_token", length = SMALL_LENGTH)
+  private String receiptClaimToken;
+
+  /** Last stage completed by an earlier attempt, which a retry does not repeat. */
+  @Column(name = "completed_stage", length = XS_LENGTH)
+  private String completedStage;
+
+  @Column(name = "last_error", length = LARGE_LENGTH)
+  private String lastError;
+
+  @Column(name = "created_time")
+  @CreationTimestamp
+  private Timestamp created;
+}
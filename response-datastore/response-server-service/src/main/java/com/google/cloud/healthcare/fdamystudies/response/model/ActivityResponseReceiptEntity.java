@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.response.model;
+
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.SMALL_LENGTH;
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.XS_LENGTH;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.GenericGenerator;
+
+/** Receipt of an activity run submitted by a participant, used to detect replayed submissions. */
+@Setter
+@Getter
+@Entity
+@Table(
+    name = "activity_response_receipt",
+    uniqueConstraints = {
+      @UniqueConstraint(
+          name = "activity_response_receipt_run_uidx",
+          columnNames = {
+            "study_id",
+            "participant_id",
+            "activity_id",
+            "activity_version",
+            "activity_run_id"
+          })
+    })
+public class ActivityResponseReceiptEntity implements Serializable {
+
+  private static final long serialVersionUID = -4710533935431086823L;
+
+  @Id
+  @GeneratedValue(generator = "system-uuid")
+  @GenericGenerator(name = "system-uuid", strategy = "uuid")
+  @Column(name = "id", updatable = false, nullable = false)
+  private String id;
+
+  @Column(name = "study_id", nullable = false, length = XS_LENGTH)
+  private String studyId;
+
+  @Column(name = "participant_id", nullable = false, length = SMALL_LENGTH)
+  private String participantId;
+
+  @Column(name = "activity_id", nullable = false, length = SMALL_LENGTH)
+  private String activityId;
+
+  @Column(name = "activity_version", nullable = false, length = XS_LENGTH)
+  private String activityVersion;
+
+  @Column(name = "activity_run_id", nullable = false, length = XS_LENGTH)
+  private String activityRunId;
+
+  @Column(name = "status", nullable = false, length = XS_LENGTH)
+  private String status;
+
+  @Column(name = "claimed_time", nullable = false)
+  private Timestamp claimedTime;
+
+  /** Token of the current claim; only the request that holds it completes or drops the receipt. */
+  @Column(name = "claim_token", length = SMALL_LENGTH)
+  private String claimToken;
+
+  @Column(name = "created_time")
+  @CreationTimestamp
+  private Timestamp created;
+}
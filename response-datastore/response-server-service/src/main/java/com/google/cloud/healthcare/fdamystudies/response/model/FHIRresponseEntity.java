@@ -9,6 +9,7 @@
 package com.google.cloud.healthcare.fdamystudies.response.model;
 
 import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.LARGE_LENGTH;
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.SMALL_LENGTH;
 
 import java.io.Serializable;
 import java.sql.Timestamp;
@@ -53,4 +54,12 @@ public class FHIRresponseEntity implements Serializable {
   @Column(name = "did_status")
   @Type(type = "yes_no")
   private Boolean didStatus = false;
+
+  /** When the row was last claimed for re-submission to de-identification. */
+  @Column(name = "claimed_time")
+  private Timestamp claimedTime;
+
+  /** Token of the instance that last claimed the row for re-submission. */
+  @Column(name = "claim_token", length = SMALL_LENGTH)
+  private String claimToken;
 }
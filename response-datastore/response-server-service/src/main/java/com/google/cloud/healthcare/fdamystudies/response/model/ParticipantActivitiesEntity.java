@@ -20,6 +20,7 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.Index;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 import lombok.Getter;
 import lombok.Setter;
 import org.hibernate.annotations.CreationTimestamp;
@@ -33,6 +34,11 @@ import org.hibernate.annotations.GenericGenerator;
     indexes = {
       @Index(name = "participant_activities_participant_id_idx", columnList = "participant_id"),
       @Index(name = "participant_activities_study_id_idx", columnList = "study_id")
+    },
+    uniqueConstraints = {
+      @UniqueConstraint(
+          name = "participant_activities_study_participant_activity_uidx",
+          columnNames = {"study_id", "participant_id", "activity_id"})
     })
 public class ParticipantActivitiesEntity implements Serializable {
 
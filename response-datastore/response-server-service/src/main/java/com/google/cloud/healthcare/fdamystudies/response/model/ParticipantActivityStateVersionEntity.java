@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.response.model;
+
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.SMALL_LENGTH;
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.XS_LENGTH;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.annotations.GenericGenerator;
+
+/**
+ * Version of the activity state of a participant, replaced by a new random value with every
+ * change of the state, so that cached activity state can be checked with a single row lookup.
+ * The row is deleted with the activity state; a version is never reused.
+ */
+@Setter
+@Getter
+@Entity
+@Table(
+    name = "participant_activity_state_version",
+    uniqueConstraints = {
+      @UniqueConstraint(
+          name = "participant_activity_state_version_uidx",
+          columnNames = {"study_id", "participant_id"})
+    })
+public class ParticipantActivityStateVersionEntity implements Serializable {
+
+  private static final long serialVersionUID = 6245310378930412958L;
+
+  @Id
+  @GeneratedValue(generator = "system-uuid")
+  @GenericGenerator(name = "system-uuid", strategy = "uuid")
+  @Column(name = "id", updatable = false, nullable = false)
+  private String id;
+
+  @Column(name = "study_id", nullable = false, length = XS_LENGTH)
+  private String studyId;
+
+  @Column(name = "participant_id", nullable = false, length = SMALL_LENGTH)
+  private String participantId;
+
+  @Column(name = "version", nullable = false, length = XS_LENGTH)
+  private String version;
+
+  @Column(name = "updated_time")
+  private Timestamp updated;
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.response.model;
+
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.LARGE_LENGTH;
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.SMALL_LENGTH;
+import static com.google.cloud.healthcare.fdamystudies.common.ColumnConstraints.XS_LENGTH;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.GenericGenerator;
+
+/** Background job withdrawing many participants of a study. */
+@Setter
+@Getter
+@Entity
+@Table(
+    name = "participant_withdrawal_job",
+    indexes = {
+      @Index(
+          name = "participant_withdrawal_job_status_claimed_idx",
+          columnList = "status,claimed_time")
+    })
+public class ParticipantWithdrawalJobEntity implements Serializable {
+
+  private static final long serialVersionUID = -2618503468794521057L;
+
+  @Id
+  @GeneratedValue(generator = "system-uuid")
+  @GenericGenerator(name = "system-uuid", strategy = "uuid")
+  @Column(name = "id", updatable = false, nullable = false)
+  private String id;
+
+  @Column(name = "study_id", nullable = false, length = XS_LENGTH)
+  private String studyId;
+
+  @Column(name = "participant_count", nullable = false)
+  private int participantCount;
+
+  /** Distinct participant ids to withdraw, serialized as JSON. */
+  @Lob
+  @Column(name = "participant_ids", nullable = false)
+  private String participantIds;
+
+  /** Audit log context of the original request, serialized as JSON. */
+  @Lob
+  @Column(name = "audit_request")
+  private String auditRequest;
+
+  @Column(name = "status", nullable = false, length = XS_LENGTH)
+  private String status;
+
+  @Column(name = "app_error_code")
+  private Integer appErrorCode;
+
+  @Column(name = "error_message", length = LARGE_LENGTH)
+  private String errorMessage;
+
+  /** When the job was last claimed or its state last changed under the claim. */
+  @Column(name = "claimed_time", nullable = false)
+  private Timestamp claimedTime;
+
+  /** Token of the current claim; only the worker that holds it records the state of the job. */
+  @Column(name = "claim_token", length = SMALL_LENGTH)
+  private String claimToken;
+
+  @Column(name = "updated_time")
+  private Timestamp updatedTime;
+
+  @Column(name = "created_time")
+  @CreationTimestamp
+  private Timestamp created;
+}
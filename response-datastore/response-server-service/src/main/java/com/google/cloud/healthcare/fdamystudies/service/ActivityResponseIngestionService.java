@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import java.util.Locale;
+
+/**
+ * Ingests the activity response of a valid participant, both when it is processed on submission
+ * and when it is processed from the response queue. Ingestion is split in two steps, so that a
+ * retry can skip the response once it is stored.
+ */
+public interface ActivityResponseIngestionService {
+
+  enum IngestionOutcome {
+    SAVED,
+    METADATA_NOT_FOUND,
+    PARTICIPANT_STUDY_INFO_NOT_FOUND,
+    PARTICIPANT_WITHDRAWN
+  }
+
+  /**
+   * Conjoins the response with the activity metadata and the data sharing consent of the
+   * participant and stores it, unless the participant has withdrawn.
+   */
+  IngestionOutcome saveActivityResponse(
+      ActivityResponseBean activityResponseBean, AuditLogEventRequest auditRequest, Locale locale)
+      throws Exception;
+
+  /** Marks the activity of a stored response completed. */
+  void saveActivityState(
+      ActivityResponseBean activityResponseBean, AuditLogEventRequest auditRequest)
+      throws Exception;
+}
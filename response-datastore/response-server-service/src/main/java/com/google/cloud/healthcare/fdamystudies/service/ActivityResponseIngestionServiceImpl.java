@@ -0,0 +1,220 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.ACTIVITY_ID;
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.ACTIVITY_TYPE;
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.ACTIVITY_VERSION;
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.RUN_ID;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_RESPONSE_NOT_SAVED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_RESPONSE_SAVED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_STATE_SAVED_OR_UPDATED_AFTER_RESPONSE_SUBMISSION;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVTY_METADATA_RETRIEVAL_FAILED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVTY_METADATA_RETRIEVED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.DATA_SHARING_CONSENT_VALUE_CONJOINED_WITH_ACTIVITY_RESPONSE_DATA;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.DATA_SHARING_CONSENT_VALUE_RETRIEVAL_FAILED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.DATA_SHARING_CONSENT_VALUE_RETRIEVED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.WITHDRAWAL_INFORMATION_RETRIEVED;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityRunBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityStateRequestBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ParticipantActivityBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ParticipantStudyInformation;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStructureBean;
+import com.google.cloud.healthcare.fdamystudies.bean.StudyActivityMetadataRequestBean;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.common.ResponseServerAuditLogHelper;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import com.google.cloud.healthcare.fdamystudies.utils.ResponseIngestionMetrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.commons.collections4.map.HashedMap;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+@Service
+public class ActivityResponseIngestionServiceImpl implements ActivityResponseIngestionService {
+
+  @Autowired private StudyMetadataService studyMetadataService;
+
+  @Autowired private ParticipantStudyInfoService partStudyInfoService;
+
+  @Autowired private ActivityResponseProcessorService activityResponseProcessorService;
+
+  @Autowired
+  private ParticipantActivityStateResponseService participantActivityStateResponseService;
+
+  @Autowired private ResponseServerAuditLogHelper responseServerAuditLogHelper;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Autowired private ResponseIngestionMetrics ingestionMetrics;
+
+  private XLogger logger =
+      XLoggerFactory.getXLogger(ActivityResponseIngestionServiceImpl.class.getName());
+
+  @Override
+  public IngestionOutcome saveActivityResponse(
+      ActivityResponseBean activityResponseBean, AuditLogEventRequest auditRequest, Locale locale)
+      throws Exception {
+    logger.entry("begin saveActivityResponse()");
+    String studyId = activityResponseBean.getMetadata().getStudyId();
+    String activityId = activityResponseBean.getMetadata().getActivityId();
+    String activityVersion = activityResponseBean.getMetadata().getVersion();
+    String participantId = activityResponseBean.getParticipantId();
+
+    // Get ActivityMetadata from the WCP - we map the metadata information to the activity
+    // response information to come up with a consolidated response object
+    StudyActivityMetadataRequestBean studyActivityMetadataRequestBean =
+        new StudyActivityMetadataRequestBean();
+    studyActivityMetadataRequestBean.setStudyId(studyId);
+    studyActivityMetadataRequestBean.setActivityId(activityId);
+    studyActivityMetadataRequestBean.setActivityVersion(activityVersion);
+    QuestionnaireActivityStructureBean activityMetadatFromWcp =
+        ingestionMetrics.record(
+            ResponseIngestionMetrics.METADATA_FETCH,
+            () ->
+                studyMetadataService.getStudyActivityMetadata(
+                    activityResponseBean.getApplicationId(),
+                    studyActivityMetadataRequestBean,
+                    auditRequest));
+
+    Map<String, String> map = new HashedMap<>();
+    map.put(ACTIVITY_TYPE, activityResponseBean.getType());
+    map.put(ACTIVITY_ID, activityId);
+    map.put(ACTIVITY_VERSION, activityVersion);
+    if (activityMetadatFromWcp == null) {
+      logger.error(
+          "Input values are :\n Study Id: "
+              + studyId
+              + "\n Activity Id: "
+              + activityId
+              + "\n Activity Version: "
+              + activityVersion);
+      responseServerAuditLogHelper.logEvent(ACTIVTY_METADATA_RETRIEVAL_FAILED, auditRequest, map);
+      return IngestionOutcome.METADATA_NOT_FOUND;
+    }
+    responseServerAuditLogHelper.logEvent(ACTIVTY_METADATA_RETRIEVED, auditRequest, map);
+
+    // Get ParticipantStudyInfo from Registration Server
+    String flag = appConfig.getEnableConsentManagementAPI();
+    ParticipantStudyInformation partStudyInfo =
+        ingestionMetrics.record(
+            ResponseIngestionMetrics.PARTICIPANT_STUDY_INFO,
+            () ->
+                !StringUtils.isEmpty(flag) && Boolean.valueOf(flag)
+                    ? partStudyInfoService.getParticipantStudyInfoFromConsent(
+                        studyId, participantId, auditRequest)
+                    : partStudyInfoService.getParticipantStudyInfo(
+                        studyId, participantId, auditRequest));
+    if (partStudyInfo == null) {
+      logger.error("GetParticipantStudyInfo() - ParticipantInfo is null. Study Id: " + studyId);
+      responseServerAuditLogHelper.logEvent(
+          DATA_SHARING_CONSENT_VALUE_RETRIEVAL_FAILED, auditRequest);
+      return IngestionOutcome.PARTICIPANT_STUDY_INFO_NOT_FOUND;
+    }
+    String sharingConsent = partStudyInfo.getSharing();
+    Map<String, String> consentMap = new HashedMap<>();
+    consentMap.put("datasharing_consent_value", sharingConsent);
+    responseServerAuditLogHelper.logEvent(
+        DATA_SHARING_CONSENT_VALUE_RETRIEVED, auditRequest, consentMap);
+    activityResponseBean.setSharingConsent(sharingConsent);
+
+    map.put(RUN_ID, activityResponseBean.getMetadata().getActivityRunId());
+    responseServerAuditLogHelper.logEvent(
+        DATA_SHARING_CONSENT_VALUE_CONJOINED_WITH_ACTIVITY_RESPONSE_DATA, auditRequest, map);
+
+    boolean withdrawalStatus = !StringUtils.isBlank(partStudyInfo.getWithdrawal());
+    Map<String, String> withdrawMap = new HashedMap<>();
+    withdrawMap.put("withdrawn_status", String.valueOf(withdrawalStatus));
+    responseServerAuditLogHelper.logEvent(
+        WITHDRAWAL_INFORMATION_RETRIEVED, auditRequest, withdrawMap);
+    if (withdrawalStatus) {
+      Map<String, String> notSaveMap = new HashedMap<>();
+      notSaveMap.put(ACTIVITY_TYPE, activityResponseBean.getType());
+      notSaveMap.put(ACTIVITY_ID, activityId);
+      notSaveMap.put(ACTIVITY_VERSION, activityVersion);
+      notSaveMap.put("submission_timestamp", activityResponseBean.getCreatedTimestamp());
+      responseServerAuditLogHelper.logEvent(ACTIVITY_RESPONSE_NOT_SAVED, auditRequest, notSaveMap);
+      logger.error(
+          "Could not save response for withdrawn participant.\n Study Id: "
+              + studyId
+              + "\n Activity Id: "
+              + activityId
+              + "\n Activity Version: "
+              + activityVersion);
+      return IngestionOutcome.PARTICIPANT_WITHDRAWN;
+    }
+
+    activityResponseProcessorService.saveActivityResponseDataForParticipant(
+        activityMetadatFromWcp, activityResponseBean, auditRequest, locale);
+    logger.exit("saveActivityResponse() - ends ");
+    return IngestionOutcome.SAVED;
+  }
+
+  @Override
+  public void saveActivityState(
+      ActivityResponseBean activityResponseBean, AuditLogEventRequest auditRequest)
+      throws Exception {
+    logger.entry("begin saveActivityState()");
+    String activityId = activityResponseBean.getMetadata().getActivityId();
+    String activityVersion = activityResponseBean.getMetadata().getVersion();
+    String activityRunId = activityResponseBean.getMetadata().getActivityRunId();
+
+    // Update Participant Activity State
+    ActivityStateRequestBean activityStateRequestBean = new ActivityStateRequestBean();
+    activityStateRequestBean.setParticipantId(activityResponseBean.getParticipantId());
+    activityStateRequestBean.setStudyId(activityResponseBean.getMetadata().getStudyId());
+
+    ParticipantActivityBean participantActivityBean = new ParticipantActivityBean();
+    participantActivityBean.setActivityId(activityId);
+    participantActivityBean.setActivityVersion(activityVersion);
+    participantActivityBean.setActivityState(AppConstants.COMPLETED);
+    if (activityResponseBean.getActivityRun() != null) {
+      ActivityRunBean activityRun = new ActivityRunBean();
+      activityRun.setCompleted(activityResponseBean.getActivityRun().getCompleted());
+      activityRun.setMissed(activityResponseBean.getActivityRun().getMissed());
+      activityRun.setTotal(activityResponseBean.getActivityRun().getTotal());
+      participantActivityBean.setActivityRun(activityRun);
+    }
+
+    List<ParticipantActivityBean> activity = new ArrayList<>();
+    activity.add(participantActivityBean);
+    activityStateRequestBean.setActivity(activity);
+    ingestionMetrics.run(
+        ResponseIngestionMetrics.ACTIVITY_STATE_SAVE,
+        () ->
+            participantActivityStateResponseService.saveParticipantActivities(
+                activityStateRequestBean));
+
+    Map<String, String> activityStateMap = new HashedMap<>();
+    activityStateMap.put("activity_state", participantActivityBean.getActivityState());
+    activityStateMap.put(ACTIVITY_ID, activityId);
+    activityStateMap.put(ACTIVITY_VERSION, activityVersion);
+    activityStateMap.put(RUN_ID, activityRunId);
+    responseServerAuditLogHelper.logEvent(
+        ACTIVITY_STATE_SAVED_OR_UPDATED_AFTER_RESPONSE_SUBMISSION, auditRequest, activityStateMap);
+
+    Map<String, String> activityResponseMap = new HashedMap<>();
+    activityResponseMap.put(ACTIVITY_TYPE, activityResponseBean.getType());
+    activityResponseMap.put(ACTIVITY_ID, activityId);
+    activityResponseMap.put(ACTIVITY_VERSION, activityVersion);
+    activityResponseMap.put(RUN_ID, activityRunId);
+    responseServerAuditLogHelper.logEvent(
+        ACTIVITY_RESPONSE_SAVED, auditRequest, activityResponseMap);
+    logger.exit("saveActivityState() - ends ");
+  }
+}
@@ -13,6 +13,7 @@ import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStruct
 import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import java.util.List;
 import java.util.Locale;
 
 public interface ActivityResponseProcessorService {
@@ -28,6 +29,19 @@ public interface ActivityResponseProcessorService {
       String studyId, String siteId, String participantId, String activityId, String questionKey)
       throws ProcessResponseException;
 
+  StoredResponseBean getActivityResponseDataPageForParticipant(
+      String studyId,
+      String siteId,
+      String participantId,
+      String activityId,
+      String questionKey,
+      int pageSize,
+      String pageToken)
+      throws ProcessResponseException;
+
   void updateWithdrawalStatusForParticipant(String studyId, String participantId)
       throws ProcessResponseException;
+
+  void updateWithdrawalStatusForParticipants(String studyId, List<String> participantIds)
+      throws ProcessResponseException;
 }
@@ -14,28 +14,21 @@ import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.AC
 import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.RUN_ID;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_METADATA_CONJOINED_WITH_RESPONSE_DATA;
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_METADATA_CONJOINING_WITH_RESPONSE_DATA_FAILED;
-import static com.google.cloud.healthcare.fdamystudies.utils.AppConstants.DATE_FORMAT_RESPONSE_FHIR;
-import static com.google.cloud.healthcare.fdamystudies.utils.AppConstants.DATE_FORMAT_RESPONSE_MOBILE;
 import static com.google.cloud.healthcare.fdamystudies.utils.AppConstants.PATIENT_TYPE;
 import static com.google.cloud.healthcare.fdamystudies.utils.AppConstants.QUESTIONNAIRE_RESPONSE_TYPE;
 import static com.google.cloud.healthcare.fdamystudies.utils.AppConstants.QUESTIONNAIRE_TYPE_FHIR;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityMetadataBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityValueGroupBean;
-import com.google.cloud.healthcare.fdamystudies.bean.Answer;
 import com.google.cloud.healthcare.fdamystudies.bean.FHIRPatientBean;
 import com.google.cloud.healthcare.fdamystudies.bean.FHIRQuestionnaireResponseBean;
 import com.google.cloud.healthcare.fdamystudies.bean.Identifier;
-import com.google.cloud.healthcare.fdamystudies.bean.ItemsQuestionnaireResponse;
 import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
 import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStructureBean;
-import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireEntry;
 import com.google.cloud.healthcare.fdamystudies.bean.Reference;
 import com.google.cloud.healthcare.fdamystudies.bean.SearchPatientFhirResponseBean;
-import com.google.cloud.healthcare.fdamystudies.bean.SearchQuestionnaireFhirBean;
 import com.google.cloud.healthcare.fdamystudies.bean.SearchQuestionnaireResponseFhirBean;
 import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
@@ -45,29 +38,32 @@ import com.google.cloud.healthcare.fdamystudies.dao.CommonDao;
 import com.google.cloud.healthcare.fdamystudies.dao.ResponsesDao;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
+import com.google.cloud.healthcare.fdamystudies.utils.DeIdentificationScheduler;
 import com.google.cloud.healthcare.fdamystudies.utils.DeIdentifyHealthcareApis;
+import com.google.cloud.healthcare.fdamystudies.utils.FhirBundleWriter;
 import com.google.cloud.healthcare.fdamystudies.utils.FhirHealthcareApis;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import com.google.cloud.healthcare.fdamystudies.utils.ResponseBeanCodec;
+import com.google.cloud.healthcare.fdamystudies.utils.ResponseIngestionMetrics;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
-import java.beans.BeanInfo;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.Method;
+import com.google.gson.stream.JsonWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.map.HashedMap;
-import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -81,18 +77,11 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
 
   private static final String DATASET_PATH = "projects/%s/locations/%s/datasets/%s";
 
-  private static final String QUESTIONNAIRE_TYPE = "questionnaire_type";
-
-  private static final String QUESTION_KEY = "question_key";
-
-  private static final String SKIPPED = "skipped";
-
-  private static final String WCP_RESULT_TYPE = "wcp_result_type";
-
-  private static final String RESPONSE_RESULT_TYPE = "response_result_type";
+  // shorter than the timeout of the app request, so the app gets the error and retries it
+  private static final long FHIR_BUNDLE_WAIT_SECONDS = 20;
 
   @Autowired
-  @Qualifier("cloudFirestoreResponsesDaoImpl")
+  @Qualifier("responsesDao")
   private ResponsesDao responsesDao;
 
   @Autowired private ApplicationConfiguration appConfig;
@@ -101,10 +90,25 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
 
   @Autowired private FhirHealthcareApis fhirHealthcareAPIs;
 
+  @Autowired private FhirBundleWriter fhirBundleWriter;
+
+  @Autowired private FhirQuestionnaireIndex fhirQuestionnaireIndex;
+
   @Autowired private DeIdentifyHealthcareApis deIdentifyHealthcareApis;
 
+  @Autowired private DeIdentificationScheduler deIdentificationScheduler;
+
   @Autowired private CommonDao commonDao;
 
+  @Autowired private ResponseIngestionMetrics ingestionMetrics;
+
+  /**
+   * Step indexes of the activity metadata, keyed by the identity of the cached metadata bean and
+   * dropped together with it.
+   */
+  private final Cache<QuestionnaireActivityStructureBean, ActivityStepIndex> activityStepIndexes =
+      CacheBuilder.newBuilder().weakKeys().build();
+
   private XLogger logger =
       XLoggerFactory.getXLogger(ActivityResponseProcessorServiceImpl.class.getName());
 
@@ -144,7 +148,15 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     if (activityMetadataResponse
         .getActivityId()
         .equalsIgnoreCase(activityMetadataBeanFromWcp.getMetadata().getActivityId())) {
-      processActivityResponses(questionnaireResponses, questionnaireMetadata);
+      ingestionMetrics.run(
+          ResponseIngestionMetrics.CONJOINING,
+          () -> {
+            ActivityStepIndex stepIndex =
+                activityStepIndexes.get(
+                    activityMetadataBeanFromWcp,
+                    () -> ActivityStepIndex.compile(questionnaireMetadata));
+            processActivityResponses(questionnaireResponses, stepIndex);
+          });
       Map<String, String> map = new HashedMap<>();
       map.put(ACTIVITY_TYPE, questionnaireActivityResponseBean.getType());
       map.put(ACTIVITY_ID, activityMetadataBeanFromWcp.getMetadata().getActivityId());
@@ -205,6 +217,33 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
         studyCollectionName, studyId, siteId, participantId, activityId, questionKey);
   }
 
+  @Override
+  public StoredResponseBean getActivityResponseDataPageForParticipant(
+      String studyId,
+      String siteId,
+      String participantId,
+      String activityId,
+      String questionKey,
+      int pageSize,
+      String pageToken)
+      throws ProcessResponseException {
+    if (StringUtils.isBlank(studyId)) {
+      throw new ProcessResponseException(
+          "getActivityResponseDataPageForParticipant() method: "
+              + "Study Id argument is null or empty.");
+    }
+    String studyCollectionName = AppUtil.makeStudyCollectionName(studyId);
+    return responsesDao.getActivityResponseDataPageForParticipant(
+        studyCollectionName,
+        studyId,
+        siteId,
+        participantId,
+        activityId,
+        questionKey,
+        pageSize,
+        pageToken);
+  }
+
   @Override
   public void updateWithdrawalStatusForParticipant(String studyId, String participantId)
       throws ProcessResponseException {
@@ -237,16 +276,28 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
       String datasetPathforDID =
           String.format(DATASET_PATH, appConfig.getProjectId(), appConfig.getRegionId(), studyId);
 
-      List<String> resourceIds = new ArrayList<String>();
-      resourceIds.add(
+      String patientReference =
           searchPatientFhirResponseBean.getEntry().get(0).getResource().getResourceType()
               + "/"
-              + searchPatientFhirResponseBean.getEntry().get(0).getResource().getId());
-
-      deIdentifyHealthcareApis.deIdentification(
-          srcDatasetPathforFHIR + FHIR_STORES + "FHIR_" + studyId,
-          datasetPathforDID + FHIR_STORES + "DID_" + studyId,
-          resourceIds);
+              + searchPatientFhirResponseBean.getEntry().get(0).getResource().getId();
+      List<String> resourceIds = new ArrayList<String>();
+      resourceIds.add(patientReference);
+
+      // recorded first, so the withdrawal is re-submitted if its batch is lost
+      commonDao.savePatientToFHIREntity(patientReference, studyId);
+      CompletableFuture<Void> deIdentified =
+          deIdentificationScheduler.submit(
+              srcDatasetPathforFHIR + FHIR_STORES + "FHIR_" + studyId,
+              datasetPathforDID + FHIR_STORES + "DID_" + studyId,
+              resourceIds);
+      deIdentified.whenComplete(
+          (result, error) -> {
+            if (error != null) {
+              logger.error("updateStatusOfPatientInDID() - de-identification failed", error);
+            } else {
+              commonDao.updateDidStatus(patientReference);
+            }
+          });
       if (appConfig.getDiscardFhirAfterDid().equalsIgnoreCase("true")) {
         String resourceNameOfPatient =
             srcDatasetPathforFHIR
@@ -257,7 +308,33 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
                 + searchPatientFhirResponseBean.getEntry().get(0).getResource().getResourceType()
                 + "/"
                 + searchPatientFhirResponseBean.getEntry().get(0).getResource().getId();
-        fhirHealthcareAPIs.fhirResourceDelete(resourceNameOfPatient);
+        // the identified patient is only discarded once the DID store has its copy
+        deIdentified.thenRun(
+            () -> {
+              try {
+                fhirHealthcareAPIs.fhirResourceDelete(resourceNameOfPatient);
+              } catch (ProcessResponseException e) {
+                logger.error("updateStatusOfPatientInDID() - " + e.getMessage(), e);
+              }
+            });
+      }
+    }
+  }
+
+  @Override
+  public void updateWithdrawalStatusForParticipants(String studyId, List<String> participantIds)
+      throws ProcessResponseException {
+    if (StringUtils.isBlank(studyId) || CollectionUtils.isEmpty(participantIds)) {
+      throw new ProcessResponseException(
+          "updateWithdrawalStatusForParticipants() method: "
+              + "Study Id argument or Participant Ids argument is null or empty.");
+    }
+    if (!appConfig.getEnableFhirApi().contains("fhir")) {
+      responsesDao.updateWithdrawalStatusForParticipants(
+          AppUtil.makeStudyCollectionName(studyId), studyId, participantIds);
+    } else {
+      for (String participantId : participantIds) {
+        updateWithdrawalStatusForParticipant(studyId, participantId);
       }
     }
   }
@@ -343,23 +420,22 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     return searchPatientFhirResponseBean;
   }
 
-  private void processActivityResponses(
-      List<QuestionnaireActivityStepsBean> questionnaireResponses,
-      List<QuestionnaireActivityStepsBean> activityMetadataBeanFromWcp) {
+  @VisibleForTesting
+  void processActivityResponses(
+      List<QuestionnaireActivityStepsBean> questionnaireResponses, ActivityStepIndex stepIndex) {
     QuestionnaireActivityStepsBean scoreSumResponseBean = null;
     for (QuestionnaireActivityStepsBean responseBean : questionnaireResponses) {
       if (responseBean.getKey().equals(AppConstants.DUMMY_SUM_QUESTION_KEY)) {
         scoreSumResponseBean = responseBean;
       }
       if (responseBean.getResultType().equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)) {
-        ActivityValueGroupBean valueGroupResponse =
-            getValueGroupResponses(activityMetadataBeanFromWcp, responseBean);
+        ActivityValueGroupBean valueGroupResponse = getValueGroupResponses(stepIndex, responseBean);
         responseBean.setActvityValueGroup(valueGroupResponse);
         // Remove the value object, as we have plugged in the metadata and added to the
         // ActivityValueGroupBean
         responseBean.setValue(AppConstants.EMPTY_STR);
       } else {
-        plugInMetadataToResponses(activityMetadataBeanFromWcp, responseBean, false);
+        plugInMetadataToResponses(stepIndex, responseBean, false);
       }
     }
     // We might want to hide the dummy sum question from users with conditional branching,
@@ -367,7 +443,7 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     // to be absent.
     if (scoreSumResponseBean == null) {
       // Try to create a response for the dummy sum question by copying from metadata.
-      scoreSumResponseBean = maybeCreateDummySumResponseFromMetadata(activityMetadataBeanFromWcp);
+      scoreSumResponseBean = maybeCreateDummySumResponseFromMetadata(stepIndex);
       if (scoreSumResponseBean != null) {
         // If copying is successful, add it to the list of responses.
         questionnaireResponses.add(scoreSumResponseBean);
@@ -383,14 +459,9 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
   // Returns an empty response with metadata copied from the dummy sum question, or
   // null if the dummy sum question is not found in metadata.
   private static QuestionnaireActivityStepsBean maybeCreateDummySumResponseFromMetadata(
-      List<QuestionnaireActivityStepsBean> activityMetadataBeanFromWcp) {
+      ActivityStepIndex stepIndex) {
     List<QuestionnaireActivityStepsBean> metadataMatchList =
-        activityMetadataBeanFromWcp
-            .stream()
-            .filter(
-                QuestionnaireActivityStepsBeanPredicate.questionKeyMatch(
-                    AppConstants.DUMMY_SUM_QUESTION_KEY))
-            .collect(Collectors.<QuestionnaireActivityStepsBean>toList());
+        stepIndex.getSteps(AppConstants.DUMMY_SUM_QUESTION_KEY);
     // Return null if dummy sum question is not found from metadata.
     if (metadataMatchList == null || metadataMatchList.size() != 1) {
       return null;
@@ -451,34 +522,32 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
   }
 
   private ActivityValueGroupBean getValueGroupResponses(
-      List<QuestionnaireActivityStepsBean> activityMetadataBeanFromWcp,
-      QuestionnaireActivityStepsBean responseBean) {
+      ActivityStepIndex stepIndex, QuestionnaireActivityStepsBean responseBean) {
     ActivityValueGroupBean activityValueGroupBeanRet = new ActivityValueGroupBean();
     List<QuestionnaireActivityStepsBean> valueResponseBeanList =
         new ArrayList<QuestionnaireActivityStepsBean>();
     Object value = responseBean.getValue();
+    Gson gson = new Gson();
     if (value instanceof List) {
       List<Object> valueList = (ArrayList<Object>) value;
       for (int i = 0; i < valueList.size(); i++) {
         Object valuObj = valueList.get(i);
         if (valuObj instanceof List) {
           List<HashMap> objListMap = (ArrayList<HashMap>) valuObj;
-          Gson gson = new Gson();
           for (HashMap valueObjMap : objListMap) {
             String json = gson.toJson(valueObjMap, Map.class);
             QuestionnaireActivityStepsBean valueBean =
                 gson.fromJson(json, QuestionnaireActivityStepsBean.class);
-            plugInMetadataToResponses(activityMetadataBeanFromWcp, valueBean, true);
+            plugInMetadataToResponses(stepIndex, valueBean, true);
             valueResponseBeanList.add(valueBean);
           }
         } else {
           if (valuObj instanceof Map) {
             Map<String, Object> valueObjMap = (HashMap<String, Object>) valuObj;
-            Gson gson = new Gson();
             String json = gson.toJson(valueObjMap, Map.class);
             QuestionnaireActivityStepsBean valueBean =
                 gson.fromJson(json, QuestionnaireActivityStepsBean.class);
-            plugInMetadataToResponses(activityMetadataBeanFromWcp, valueBean, true);
+            plugInMetadataToResponses(stepIndex, valueBean, true);
             valueResponseBeanList.add(valueBean);
           }
         }
@@ -489,31 +558,12 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
   }
 
   private void plugInMetadataToResponses(
-      List<QuestionnaireActivityStepsBean> activityMetadataBeanFromWcp,
+      ActivityStepIndex stepIndex,
       QuestionnaireActivityStepsBean responseBean,
       boolean fromGrouped) {
-    List<QuestionnaireActivityStepsBean> metadataMatchList = null;
-
     String questionKey = responseBean.getKey();
-    if (fromGrouped) {
-      for (QuestionnaireActivityStepsBean stepBean : activityMetadataBeanFromWcp) {
-        List<QuestionnaireActivityStepsBean> stepsBean = stepBean.getSteps();
-        metadataMatchList =
-            stepsBean
-                .stream()
-                .filter(QuestionnaireActivityStepsBeanPredicate.questionKeyMatch(questionKey))
-                .collect(Collectors.<QuestionnaireActivityStepsBean>toList());
-        if (metadataMatchList != null && metadataMatchList.size() > 0) {
-          break;
-        }
-      }
-    } else {
-      metadataMatchList =
-          activityMetadataBeanFromWcp
-              .stream()
-              .filter(QuestionnaireActivityStepsBeanPredicate.questionKeyMatch(questionKey))
-              .collect(Collectors.<QuestionnaireActivityStepsBean>toList());
-    }
+    List<QuestionnaireActivityStepsBean> metadataMatchList =
+        fromGrouped ? stepIndex.getGroupedSteps(questionKey) : stepIndex.getSteps(questionKey);
     if (metadataMatchList != null) {
       for (QuestionnaireActivityStepsBean metadataMatchBean : metadataMatchList) {
         responseBean.setSkippable(metadataMatchBean.getSkippable());
@@ -537,14 +587,14 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     questionnaireActivityResponseBean.setCreatedTimestamp(
         String.valueOf(System.currentTimeMillis()));
     Map<String, Object> dataToStoreActivityResults =
-        this.getHashMapForBean(questionnaireActivityResponseBean.getMetadata());
+        ResponseBeanCodec.toStoredMap(questionnaireActivityResponseBean.getMetadata());
     dataToStoreActivityResults.remove(AppConstants.DATA_FIELD_KEY);
 
     List<QuestionnaireActivityStepsBean> questionnaireResponses =
         questionnaireActivityResponseBean.getData().getResults();
     List<Map<String, Object>> stepsList = new ArrayList<>();
     for (QuestionnaireActivityStepsBean tmpBean : questionnaireResponses) {
-      Map<String, Object> dataToStoreTemp = getHashMapForBean(tmpBean);
+      Map<String, Object> dataToStoreTemp = ResponseBeanCodec.toStoredMap(tmpBean);
       stepsList.add(dataToStoreTemp);
     }
     dataToStoreActivityResults.put(AppConstants.RESULTS_FIELD_KEY, stepsList);
@@ -563,22 +613,34 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     String fhirJson = "";
     if (appConfig.getEnableFhirApi().contains("fhir")
         && appConfig.getDiscardFhirAfterDid().equalsIgnoreCase("false")) {
-      fhirJson = processToFhirResponse(questionnaireActivityResponseBean, locale);
+      fhirJson =
+          ingestionMetrics.record(
+              ResponseIngestionMetrics.FHIR_WRITE,
+              () -> processToFhirResponse(questionnaireActivityResponseBean, locale));
 
     } else {
-      responsesDao.saveActivityResponseData(
-          studyId,
-          studyCollectionName,
-          AppConstants.ACTIVITIES_COLLECTION_NAME,
-          dataToStoreActivityResults);
+      ingestionMetrics.run(
+          ResponseIngestionMetrics.FIRESTORE_WRITE,
+          () ->
+              responsesDao.saveActivityResponseData(
+                  studyId,
+                  studyCollectionName,
+                  AppConstants.ACTIVITIES_COLLECTION_NAME,
+                  dataToStoreActivityResults));
     }
 
     if (appConfig.getEnableFhirApi().contains("did")) {
       logger.info(" did Enabled " + appConfig.getEnableFhirApi());
       if (StringUtils.isBlank(fhirJson)) {
-        fhirJson = processToFhirResponse(questionnaireActivityResponseBean, locale);
+        fhirJson =
+            ingestionMetrics.record(
+                ResponseIngestionMetrics.FHIR_WRITE,
+                () -> processToFhirResponse(questionnaireActivityResponseBean, locale));
       }
-      processToDIDResponse(fhirJson, questionnaireActivityResponseBean);
+      String didFhirJson = fhirJson;
+      ingestionMetrics.run(
+          ResponseIngestionMetrics.DID,
+          () -> processToDIDResponse(didFhirJson, questionnaireActivityResponseBean));
       logger.info("did end");
     }
     logger.exit("saveActivityResponseData() - ends ");
@@ -599,6 +661,16 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
             new Gson().fromJson(fhirJson, FHIRQuestionnaireResponseBean.class);
         String datasetPathforDID =
             String.format(DATASET_PATH, appConfig.getProjectId(), appConfig.getRegionId(), studyId);
+        String questionnaireResponseId =
+            fhirQuestionnaireResponseBean.getResourceType()
+                + "/"
+                + fhirQuestionnaireResponseBean.getId();
+
+        // a retried submission whose operation is still running is not in the DID store yet
+        if (deIdentificationScheduler.isPending(questionnaireResponseId)) {
+          logger.debug("processToDIDResponse() " + questionnaireResponseId + " is pending");
+          return;
+        }
 
         //  createFhirStore(datasetPathforDID, "DID_" + studyId);
 
@@ -631,47 +703,26 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
         }
 
         List<String> resourceIds = new ArrayList<>();
-        resourceIds.add(
-            fhirQuestionnaireResponseBean.getResourceType()
-                + "/"
-                + fhirQuestionnaireResponseBean.getId());
+        resourceIds.add(questionnaireResponseId);
         resourceIds.add(fhirQuestionnaireResponseBean.getSource().getReference());
         logger.entry("begin processToDIDResponse()" + srcDatasetPathforFHIR);
         logger.entry("begin processToDIDResponse()" + datasetPathforDID);
         logger.entry("begin deIdentification() :");
-        deIdentifyHealthcareApis.deIdentification(
-            srcDatasetPathforFHIR + FHIR_STORES + "FHIR_" + studyId,
-            datasetPathforDID + FHIR_STORES + "DID_" + studyId,
-            resourceIds);
-        logger.entry("deIdentification Created  :");
-        commonDao.updateDidStatus(
-            fhirQuestionnaireResponseBean.getResourceType()
-                + "/"
-                + fhirQuestionnaireResponseBean.getId());
-        deIdentifyHealthcareApis.updateDIDResponseLocation(
-            datasetPathforDID, studyId, fhirQuestionnaireResponseBean);
-        if (appConfig.getDiscardFhirAfterDid().equalsIgnoreCase("true")) {
-          String datasetPathforFHIR =
-              String.format(
-                  DATASET_PATH, appConfig.getProjectId(), appConfig.getRegionId(), studyId);
-          String resourceNameForQuestionnaireResponse =
-              datasetPathforFHIR
-                  + FHIR_STORES
-                  + "FHIR_"
-                  + studyId
-                  + "/fhir/"
-                  + QUESTIONNAIRE_RESPONSE_TYPE
-                  + "/"
-                  + fhirQuestionnaireResponseBean.getId();
-          fhirHealthcareAPIs.fhirResourceDelete(resourceNameForQuestionnaireResponse);
-          /*String resourceNameForPatient =
-              datasetPathforFHIR
-                  + FHIR_STORES
-                  + questionnaireActivityResponseBean.getMetadata().getStudyId()
-                  + "/fhir/"
-                  + fhirQuestionnaireResponseBean.getSource().getReference();
-          fhirHealthcareAPIs.fhirResourceDelete(resourceNameForPatient);*/
-        }
+        String didStudyId = studyId;
+        deIdentificationScheduler
+            .submit(
+                srcDatasetPathforFHIR + FHIR_STORES + "FHIR_" + studyId,
+                datasetPathforDID + FHIR_STORES + "DID_" + studyId,
+                resourceIds)
+            .whenComplete(
+                (result, error) -> {
+                  if (error != null) {
+                    logger.error("processToDIDResponse() - de-identification failed", error);
+                  } else {
+                    completeDIDResponse(
+                        datasetPathforDID, didStudyId, fhirQuestionnaireResponseBean);
+                  }
+                });
       }
     } catch (JsonSyntaxException | ProcessResponseException e) {
       logger.error(
@@ -679,6 +730,42 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     }
   }
 
+  /**
+   * Runs once the response is de-identified: marks it as de-identified, masks its location answers
+   * in the DID store and discards the identified copy when configured to.
+   */
+  private void completeDIDResponse(
+      String datasetPathforDID,
+      String studyId,
+      FHIRQuestionnaireResponseBean fhirQuestionnaireResponseBean) {
+    logger.entry("deIdentification Created  :");
+    try {
+      commonDao.updateDidStatus(
+          fhirQuestionnaireResponseBean.getResourceType()
+              + "/"
+              + fhirQuestionnaireResponseBean.getId());
+      deIdentifyHealthcareApis.updateDIDResponseLocation(
+          datasetPathforDID, studyId, fhirQuestionnaireResponseBean);
+      if (appConfig.getDiscardFhirAfterDid().equalsIgnoreCase("true")) {
+        String datasetPathforFHIR =
+            String.format(DATASET_PATH, appConfig.getProjectId(), appConfig.getRegionId(), studyId);
+        String resourceNameForQuestionnaireResponse =
+            datasetPathforFHIR
+                + FHIR_STORES
+                + "FHIR_"
+                + studyId
+                + "/fhir/"
+                + QUESTIONNAIRE_RESPONSE_TYPE
+                + "/"
+                + fhirQuestionnaireResponseBean.getId();
+        fhirHealthcareAPIs.fhirResourceDelete(resourceNameForQuestionnaireResponse);
+      }
+    } catch (ProcessResponseException e) {
+      logger.error("completeDIDResponse() - " + e.getMessage(), e);
+    }
+    logger.exit("completeDIDResponse() - ends ");
+  }
+
   public String processToFhirResponse(
       ActivityResponseBean questionnaireActivityResponseBean, Locale locale) throws Exception {
 
@@ -690,7 +777,6 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
 
       try {
         studyId = questionnaireActivityResponseBean.getMetadata().getStudyId();
-        List<ItemsQuestionnaireResponse> listOfItems = new LinkedList<>();
         String datasetPathforFHIR =
             String.format(DATASET_PATH, appConfig.getProjectId(), appConfig.getRegionId(), studyId);
 
@@ -723,42 +809,6 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
           return new Gson().toJson(searchQuestionFhirResponseBean.getEntry().get(0).getResource());
         }
 
-        for (QuestionnaireActivityStepsBean tmpBean :
-            questionnaireActivityResponseBean.getData().getResults()) {
-
-          ItemsQuestionnaireResponse items = new ItemsQuestionnaireResponse();
-          List<Answer> answerList = new LinkedList<>();
-          Map<String, Object> map = new HashedMap<>();
-          map.put(RESPONSE_RESULT_TYPE, tmpBean.getResultType());
-          map.put(WCP_RESULT_TYPE, tmpBean.getWcpResultType());
-          map.put(SKIPPED, tmpBean.getSkipped());
-          map.put(QUESTIONNAIRE_TYPE, questionnaireActivityResponseBean.getData().getResultType());
-          map.put(QUESTION_KEY, tmpBean.getKey());
-
-          toFHIRFormatQuestionnaireResponse(
-              tmpBean, false, items, map, answerList, questionnaireActivityResponseBean.getType());
-
-          items.setLinkId(tmpBean.getKey());
-
-          if (questionnaireActivityResponseBean.getType().equals("questionnaire")) {
-            items.setText(
-                tmpBean.getResultType().equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)
-                    ? tmpBean.getKey()
-                    : tmpBean.getTitle());
-          } else {
-            items.setText(questionnaireActivityResponseBean.getMetadata().getName());
-          }
-
-          items.setDefinition(tmpBean.getResultType());
-          listOfItems.add(items);
-        }
-
-        FHIRQuestionnaireResponseBean questFHIResponseBean = new FHIRQuestionnaireResponseBean();
-        questFHIResponseBean.setResourceType("QuestionnaireResponse");
-        questFHIResponseBean.setStatus("completed");
-
-        questFHIResponseBean.setItem(listOfItems);
-        logger.debug("processToFhirResponse4" + questFHIResponseBean.toString());
         String searchPostForQuestionaire =
             datasetPathforFHIR
                 + FHIR_STORES
@@ -767,115 +817,54 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
                 + "/fhir/"
                 + QUESTIONNAIRE_TYPE_FHIR;
         logger.debug("processToFhirResponse4.1" + searchPostForQuestionaire);
-        String searchJson =
-            fhirHealthcareAPIs.fhirResourceSearchPost(
+        String questionnaireReference =
+            fhirQuestionnaireIndex.getQuestionnaireReference(
                 searchPostForQuestionaire,
-                "identifier="
-                    + questionnaireActivityResponseBean.getMetadata().getActivityId()
-                    + "&"
-                    + "version="
-                    + questionnaireActivityResponseBean.getMetadata().getVersion());
-
-        logger.debug("processToFhirResponse5" + searchJson);
-
-        SearchQuestionnaireFhirBean searchQuestionnaireFhirBean =
-            new Gson().fromJson(searchJson, SearchQuestionnaireFhirBean.class);
-        String metaVersion = questionnaireActivityResponseBean.getMetadata().getVersion();
-        for (int i = 0; i < 10; i++) {
-          logger.debug("processToFhirResponse5.4" + searchQuestionnaireFhirBean.getEntry());
-          if (searchQuestionnaireFhirBean.getEntry() == null
-              || searchQuestionnaireFhirBean.getEntry().isEmpty()) {
-            metaVersion =
-                Float.valueOf(String.format("%.02f", Float.parseFloat(metaVersion) + 0.1f))
-                    .toString();
-            searchJson =
-                fhirHealthcareAPIs.fhirResourceSearchPost(
-                    searchPostForQuestionaire,
-                    "identifier="
-                        + questionnaireActivityResponseBean.getMetadata().getActivityId()
-                        + "&"
-                        + "version="
-                        + metaVersion);
-
-            logger.debug("processToFhirResponse5.3" + searchJson);
-            logger.debug("processToFhirResponse5.4" + metaVersion);
-            searchQuestionnaireFhirBean =
-                new Gson().fromJson(searchJson, SearchQuestionnaireFhirBean.class);
-          } else {
-            break;
-          }
-        }
-
-        logger.debug("processToFhirResponse5.1" + searchQuestionnaireFhirBean.toString());
-        String resourceId = searchQuestionnaireFhirBean.getEntry().get(0).getResource().getId();
-        logger.debug("processToFhirResponse5.2" + resourceId);
-        String searchVersionHistoryJson =
-            fhirHealthcareAPIs.fhirResourceGetHistory(searchPostForQuestionaire + "/" + resourceId);
-        logger.debug("processToFhirResponse6" + searchVersionHistoryJson);
-
-        SearchQuestionnaireFhirBean searchVersionQuestionnaireFhirBean =
-            new Gson().fromJson(searchVersionHistoryJson, SearchQuestionnaireFhirBean.class);
-        logger.debug("processToFhirResponse6.1" + searchVersionQuestionnaireFhirBean.toString());
-
-        QuestionnaireEntry questionnaireEntry =
-            searchVersionQuestionnaireFhirBean
-                .getEntry()
-                .stream()
-                .filter(
-                    version ->
-                        version
-                            .getResource()
-                            .getVersion()
-                            .equals(questionnaireActivityResponseBean.getMetadata().getVersion()))
-                .filter(status -> status.getResource().getStatus().equals("active"))
-                .findAny()
-                .orElse(null);
-        logger.debug(
-            "processToFhirResponse7"
-                + questionnaireActivityResponseBean.getMetadata().getVersion().toString());
-
-        if (questionnaireEntry != null) {
-
-          questFHIResponseBean.setQuestionnaire(
+                questionnaireActivityResponseBean.getMetadata().getStudyId(),
+                questionnaireActivityResponseBean.getMetadata().getActivityId(),
+                questionnaireActivityResponseBean.getMetadata().getVersion());
+        logger.debug("processToFhirResponse5" + questionnaireReference);
+
+        String questionnaire = null;
+        if (questionnaireReference != null) {
+          questionnaire =
               FHIR_STORES
                   + "FHIR_"
                   + questionnaireActivityResponseBean.getMetadata().getStudyId()
                   + "/fhir/"
                   + QUESTIONNAIRE_TYPE_FHIR
                   + "/"
-                  + resourceId
-                  + "/_history/"
-                  + questionnaireEntry.getResource().getMeta().getVersionId());
-
-          logger.debug(
-              "processToFhirResponse7.1"
-                  + questionnaireEntry.getResource().getMeta().getVersionId().toString());
+                  + questionnaireReference;
         }
 
-        getPatientReference(
-            questionnaireActivityResponseBean.getMetadata().getStudyId(),
-            questionnaireActivityResponseBean.getParticipantId(),
-            datasetPathforFHIR,
-            questFHIResponseBean);
+        Reference source =
+            getPatientReference(
+                questionnaireActivityResponseBean.getMetadata().getStudyId(),
+                questionnaireActivityResponseBean.getParticipantId(),
+                datasetPathforFHIR);
 
+        String authored = null;
         if (StringUtils.isNotBlank(
             questionnaireActivityResponseBean.getData().getSubmittedTime())) {
-          questFHIResponseBean.setAuthored(
+          authored =
               AppUtil.convertDateToOtherFormat(
                   questionnaireActivityResponseBean.getData().getSubmittedTime(),
                   locale,
                   AppConstants.DATE_FORMAT_RESPONSE_MOBILE,
-                  AppConstants.DATE_FORMAT_RESPONSE_FHIR));
+                  AppConstants.DATE_FORMAT_RESPONSE_FHIR);
         }
 
-        Map<String, Object> identifierType = new HashedMap<>();
-        identifierType.put(
-            "text", questionnaireActivityResponseBean.getMetadata().getActivityType());
-        Identifier identifier = new Identifier();
-        identifier.setValue(identifierValue);
-        identifier.setUse("official");
-        identifier.setType(identifierType);
-        questFHIResponseBean.setIdentifier(identifier);
+        // the resource is written straight from the conjoined response steps
+        StringWriter questionnaireResponseJson = new StringWriter();
+        try (JsonWriter out = ResponseBeanCodec.newJsonWriter(questionnaireResponseJson)) {
+          ResponseBeanCodec.writeQuestionnaireResponse(
+              out,
+              questionnaireActivityResponseBean,
+              questionnaire,
+              source,
+              authored,
+              identifierValue);
+        }
 
         final String DATASET_NAME =
             datasetPathforFHIR
@@ -883,22 +872,25 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
                 + "FHIR_"
                 + questionnaireActivityResponseBean.getMetadata().getStudyId();
 
-        if (questFHIResponseBean != null && new Gson().toJson(questFHIResponseBean) != null) {
-          logger.debug(
-              "method name :processToFhirResponse()"
-                  + "questFHIResponseBean"
-                  + questFHIResponseBean.toString());
+        logger.debug(
+            "method name :processToFhirResponse()"
+                + "questFHIResponseBean"
+                + questionnaireResponseJson);
+        if (appConfig.isFhirBundleEnabled()) {
+          getFhirJson = createInBundle(DATASET_NAME, questionnaireResponseJson.toString());
+        } else {
           getFhirJson =
               fhirHealthcareAPIs.fhirResourceCreate(
-                  DATASET_NAME,
-                  QUESTIONNAIRE_RESPONSE_TYPE,
-                  new Gson().toJson(questFHIResponseBean));
-          commonDao.saveToFHIREntity(
-              getFhirJson, questionnaireActivityResponseBean.getMetadata().getStudyId());
-          logger.exit("processToFhirResponse() - ends ");
-        } else {
-          logger.exit("unable to create fhirResource- ");
+                  DATASET_NAME, QUESTIONNAIRE_RESPONSE_TYPE, questionnaireResponseJson.toString());
         }
+        commonDao.saveToFHIREntity(
+            getFhirJson, questionnaireActivityResponseBean.getMetadata().getStudyId());
+        logger.exit("processToFhirResponse() - ends ");
+      } catch (TimeoutException e) {
+        // the submission fails so that it is retried; a resource the bundle creates later is
+        // then found by the identifier search above
+        throw new ProcessResponseException(
+            "FHIR bundle was not executed within " + FHIR_BUNDLE_WAIT_SECONDS + " seconds");
       } catch (Exception e) {
         logger.error("ActivityResponseProcessorServiceImpl : \n processToFhirResponse:", e);
       }
@@ -906,12 +898,23 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     return getFhirJson;
   }
 
-  private void getPatientReference(
-      String studyId,
-      String participantId,
-      String datasetPathforFHIR,
-      FHIRQuestionnaireResponseBean questFHIResponseBean)
-      throws Exception {
+  /**
+   * Waits for the bundle so that the DID step sees the created resource. A request still queued
+   * when the wait times out is dropped from its bundle.
+   */
+  private String createInBundle(String fhirStoreName, String resourceJson) throws Exception {
+    CompletableFuture<String> created =
+        fhirBundleWriter.create(fhirStoreName, QUESTIONNAIRE_RESPONSE_TYPE, resourceJson);
+    try {
+      return created.get(FHIR_BUNDLE_WAIT_SECONDS, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      created.cancel(false);
+      throw e;
+    }
+  }
+
+  private Reference getPatientReference(
+      String studyId, String participantId, String datasetPathforFHIR) throws Exception {
     logger.entry("begin getPatientReference()");
 
     String searchJson =
@@ -923,13 +926,14 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
         new Gson().fromJson(searchJson, SearchPatientFhirResponseBean.class);
     logger.debug(
         "processToFhirResponsegetPatientReference" + searchPatientFhirResponseBean.toString());
+    Reference source = null;
     if (searchPatientFhirResponseBean != null && searchPatientFhirResponseBean.getTotal() == 1) {
-      questFHIResponseBean.setSource(
+      source =
           new Reference(
               PATIENT_TYPE
                   + "/"
                   + searchPatientFhirResponseBean.getEntry().get(0).getResource().getId(),
-              PATIENT_TYPE));
+              PATIENT_TYPE);
     } else if (searchPatientFhirResponseBean != null
         && searchPatientFhirResponseBean.getTotal() == 0) {
       FHIRPatientBean responseBean =
@@ -937,11 +941,11 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
               .fromJson(
                   insertPatientInFHIR(datasetPathforFHIR, studyId, participantId),
                   FHIRPatientBean.class);
-      questFHIResponseBean.setSource(
-          new Reference(PATIENT_TYPE + "/" + responseBean.getId(), PATIENT_TYPE));
+      source = new Reference(PATIENT_TYPE + "/" + responseBean.getId(), PATIENT_TYPE);
     }
 
     logger.exit("getPatientReference() - ends ");
+    return source;
   }
 
   public String insertPatientInFHIR(String datasetPathforFHIR, String studyId, String participantId)
@@ -962,282 +966,6 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
         datasetPathforFHIR + FHIR_STORES + "FHIR_" + studyId, PATIENT_TYPE, json);
   }
 
-  @SuppressWarnings("unchecked")
-  private void toFHIRFormatQuestionnaireResponse(
-      Object bean,
-      boolean value,
-      ItemsQuestionnaireResponse items,
-      Map<String, Object> map,
-      List<Answer> answerList,
-      String type)
-      throws Exception {
-    logger.entry("begin toFHIRFormatQuestionnaireResponse()");
-
-    String responseResultType = (String) map.get(RESPONSE_RESULT_TYPE);
-    boolean skipped = (boolean) map.get(SKIPPED);
-
-    BeanInfo beanInfo;
-    beanInfo = Introspector.getBeanInfo(bean.getClass());
-    PropertyDescriptor[] propDescriptor = beanInfo.getPropertyDescriptors();
-    Answer ans = new Answer();
-    ActivityValueGroupBean acitivtyValueGroup = null;
-    logger.debug("bean" + bean.toString());
-    for (PropertyDescriptor pd : propDescriptor) {
-      String propertyName = pd.getName();
-      Method getterMethod = pd.getReadMethod();
-      Object propertyValue = getterMethod.invoke(bean);
-      logger.debug("propertyValue22" + propertyValue);
-      logger.debug("propertyValue23" + propertyName);
-      logger.debug("propertyValue24" + getterMethod);
-      if (!propertyName.equals(AppConstants.PROPERTY_NAME_CLASS)) {
-        logger.debug("propertyValue25" + propertyValue);
-        logger.debug("propertyValue26" + propertyName);
-        logger.debug("propertyValue27" + getterMethod);
-        logger.debug("propertyValue28" + propertyName.toString());
-        if (propertyName.equals("actvityValueGroup")) {
-          acitivtyValueGroup = (ActivityValueGroupBean) propertyValue;
-          logger.debug("propertyValue27" + acitivtyValueGroup);
-        }
-
-        if (value
-            || propertyName.equals("value")
-            || (acitivtyValueGroup != null && !acitivtyValueGroup.getValueGroup().isEmpty())) {
-          if (!(propertyValue instanceof String)) {
-            if (propertyValue instanceof ActivityValueGroupBean) {
-              logger.debug("propertyValue29" + propertyValue);
-              toFHIRFormatQuestionnaireResponse(propertyValue, true, items, map, answerList, type);
-            } else if (propertyValue instanceof List) {
-              logger.debug("propertyValue30" + propertyValue);
-              ArrayList<Object> pvalueList = (ArrayList<Object>) propertyValue;
-              List<ItemsQuestionnaireResponse> listOfItems1 = new LinkedList<>();
-              List<Answer> answer = new LinkedList<>();
-              for (Object valueObj : pvalueList) {
-                logger.debug("propertyValue31" + valueObj);
-                if (valueObj instanceof QuestionnaireActivityStepsBean) {
-                  logger.debug("propertyValue32" + valueObj);
-                  ItemsQuestionnaireResponse nestedItem = new ItemsQuestionnaireResponse();
-                  nestedItem.setLinkId(((QuestionnaireActivityStepsBean) valueObj).getKey());
-                  nestedItem.setText(
-                      ((QuestionnaireActivityStepsBean) valueObj)
-                              .getResultType()
-                              .equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)
-                          ? ((QuestionnaireActivityStepsBean) valueObj).getKey()
-                          : ((QuestionnaireActivityStepsBean) valueObj).getTitle());
-
-                  nestedItem.setDefinition(
-                      ((QuestionnaireActivityStepsBean) valueObj).getResultType());
-
-                  map.put(
-                      RESPONSE_RESULT_TYPE,
-                      ((QuestionnaireActivityStepsBean) valueObj).getResultType());
-                  map.put(
-                      WCP_RESULT_TYPE,
-                      ((QuestionnaireActivityStepsBean) valueObj).getWcpResultType());
-                  map.put(SKIPPED, ((QuestionnaireActivityStepsBean) valueObj).getSkipped());
-                  map.put(QUESTION_KEY, ((QuestionnaireActivityStepsBean) valueObj).getKey());
-                  toFHIRFormatQuestionnaireResponse(valueObj, false, nestedItem, map, answer, type);
-
-                  listOfItems1.add(nestedItem);
-
-                } else {
-                  if (valueObj instanceof String
-                      && StringUtils.isNotBlank((String) valueObj)
-                      && !skipped) {
-                    ans = new Answer();
-                    logger.debug("valueObj" + valueObj.toString());
-                    ans = fhirAnswerValue(map, valueObj, ans);
-                    answer.add(ans);
-                    items.setAnswer(answer);
-                    logger.debug("items1: " + items.toString());
-                  } else {
-                    if (valueObj != null || ObjectUtils.isNotEmpty(valueObj)) {
-
-                      List<Answer> a1 = new LinkedList<>();
-                      logger.debug("othervalueObj" + valueObj);
-                      a1 = fhirAnswerValueForOther(map, valueObj, a1);
-
-                      for (int i = 0; i < a1.size(); i++) {
-                        answer.add(a1.get(i));
-                      }
-
-                      items.setAnswer(answer);
-                      logger.debug("items2: " + items.toString());
-                    }
-                  }
-                }
-
-                if (type.equals("task")) {
-                  Answer ansList = new Answer();
-                  ansList.setItem(listOfItems1);
-                  List<Answer> a1 = new LinkedList<>();
-                  a1.add(ansList);
-                  items.setAnswer(a1);
-                } else {
-                  items.setItem(listOfItems1);
-                }
-              }
-            } else {
-              if (!responseResultType.equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)
-                  && !skipped) {
-                logger.debug("valueObj1" + propertyValue.toString());
-                ans = fhirAnswerValue(map, propertyValue, ans);
-                answerList = new LinkedList<>();
-                answerList.add(ans);
-                items.setAnswer(answerList);
-              }
-            }
-          } else {
-            if (!responseResultType.equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)
-                && !skipped
-                && StringUtils.isNotBlank((String) propertyValue)) {
-              if (map.get(QUESTION_KEY).equals("duration")) {
-                map.put(WCP_RESULT_TYPE, "Integer");
-                propertyValue = Double.parseDouble((String) propertyValue);
-              }
-              logger.debug("valueObj2" + propertyValue.toString());
-              ans = fhirAnswerValue(map, propertyValue, ans);
-              answerList = new LinkedList<>();
-              answerList.add(ans);
-              items.setAnswer(answerList);
-            }
-          }
-        }
-      }
-    }
-    logger.exit("toFHIRFormatQuestionnaireResponse() - ends ");
-  }
-
-  private List<Answer> fhirAnswerValueForOther(
-      Map<String, Object> map, Object propertyValue, List<Answer> a1) throws Exception {
-    logger.debug("begin fhirAnswerValue()");
-    String responseResultType = (String) map.get(RESPONSE_RESULT_TYPE);
-    if (responseResultType.equals("textChoice")) {
-      logger.debug("fhirAnswerValue()textChoice1" + propertyValue);
-      try {
-
-        ObjectMapper Obj = new ObjectMapper();
-
-        // Converting the Java object into a JSON string
-        String jsonStr = Obj.writeValueAsString(propertyValue);
-
-        logger.debug("fhirAnswerValue()otherChoice3" + jsonStr);
-        JSONObject jsonObject = new JSONObject(String.valueOf(jsonStr));
-        logger.debug("fhirAnswerValue()otherChoice4" + jsonObject);
-        if (jsonObject.has("other")) {
-          String otheroptionvalue = String.valueOf(jsonObject.get("other"));
-          logger.debug("fhirAnswerValue()otherChoice5" + otheroptionvalue);
-          Answer otherAns = new Answer();
-          otherAns.setValueString(otheroptionvalue);
-          logger.debug("fhirAnswerValue()otherChoice6" + otherAns.toString());
-          a1.add(otherAns);
-        }
-
-        if (jsonObject.has("text")) {
-          String otheroptiontext = String.valueOf(jsonObject.get("text"));
-          logger.debug("fhirAnswerValue()otherChoice7" + otheroptiontext);
-          if (!otheroptiontext.equalsIgnoreCase("null")) {
-            Answer textAns = new Answer();
-            textAns.setValueString(otheroptiontext);
-            logger.debug("fhirAnswerValue()otherChoice8" + textAns.toString());
-            a1.add(textAns);
-          }
-        }
-
-      } catch (JSONException e) {
-        logger.error("fhirAnswerValue() method: Unable to getvalue of otheroption object", e);
-      }
-    }
-    logger.exit("fhirAnswerValue() - ends ");
-    return a1;
-  }
-
-  @SuppressWarnings("deprecation")
-  private Answer fhirAnswerValue(Map<String, Object> map, Object propertyValue, Answer answerMap)
-      throws Exception {
-    logger.entry("begin fhirAnswerValue()");
-    logger.debug("fhirAnswerValue()" + propertyValue.toString());
-    String responseResultType = (String) map.get(RESPONSE_RESULT_TYPE);
-    String wcpResultType = (String) map.get(WCP_RESULT_TYPE);
-
-    if (responseResultType.equals("continuousScale")
-        || responseResultType.equals("timeInterval")
-        || responseResultType.equals("height")) {
-
-      if (propertyValue instanceof Double) {
-        answerMap.setValueDecimal((Double) propertyValue);
-      } else if (propertyValue instanceof Integer) {
-        answerMap.setValueDecimal(new Double((Integer) propertyValue));
-      }
-
-    } else if (responseResultType.equals("numeric")) {
-
-      if (wcpResultType.equals("Integer")) {
-        if (propertyValue instanceof Double) {
-          answerMap.setValueInteger(new Double((Double) propertyValue).intValue());
-        } else if (propertyValue instanceof Integer) {
-          answerMap.setValueInteger((Integer) propertyValue);
-        }
-      } else {
-        if (propertyValue instanceof Double) {
-          answerMap.setValueDecimal((Double) propertyValue);
-        } else if (propertyValue instanceof Integer) {
-          answerMap.setValueDecimal(new Double((Integer) propertyValue));
-        }
-      }
-
-    } else if (responseResultType.equals("scale")) {
-
-      if (propertyValue instanceof Double) {
-        answerMap.setValueInteger(new Double((Double) propertyValue).intValue());
-      } else if (propertyValue instanceof Integer) {
-        answerMap.setValueInteger((Integer) propertyValue);
-      }
-
-    } else if (responseResultType.equals("boolean")) {
-      answerMap.setValueBoolean((Boolean) propertyValue);
-    } else if (responseResultType.equals("timeOfDay")) {
-      answerMap.setValueTime((String) propertyValue);
-    } else if (responseResultType.equals("date")) {
-
-      if (StringUtils.isNotBlank((String) propertyValue)) {
-        answerMap.setValueDateTime(
-            AppUtil.convertDateToOtherFormat1(
-                (String) propertyValue, DATE_FORMAT_RESPONSE_MOBILE, DATE_FORMAT_RESPONSE_FHIR));
-      }
-    } /* else if (responseResultType.equals("textChoice")) {
-        logger.debug("fhirAnswerValue()textChoice1" + propertyValue);
-        if (propertyValue instanceof String) {
-          answerMap.setValueString((String) propertyValue);
-          logger.debug("fhirAnswerValue()textChoice2" + answerMap.toString());
-        } else {
-          try {
-            logger.debug("fhirAnswerValue()otherChoice3" + propertyValue);
-            JSONObject jsonObject = new JSONObject(propertyValue.toString());
-            logger.debug("fhirAnswerValue()otherChoice4" + jsonObject);
-            String otheroptionvalue = jsonObject.get("other").toString();
-            logger.debug("fhirAnswerValue()otherChoice5" + otheroptionvalue);
-            answerMap.setValueString(otheroptionvalue);
-            logger.debug("fhirAnswerValue()otherChoice6" + answerMap.toString());
-            if (jsonObject.has("text")) {
-              String otheroptiontext = jsonObject.get("text").toString();
-              logger.debug("fhirAnswerValue()otherChoice7" + otheroptiontext);
-              answerMap.setValueString(otheroptiontext);
-              logger.debug("fhirAnswerValue()otherChoice8" + answerMap.toString());
-            }
-
-          } catch (JSONException e) {
-            logger.error(
-                "fhirAnswerValue() method: Unable to getvalue of otheroption object"
-                    + e.getMessage());
-          }
-        }
-      }*/ else if (propertyValue instanceof String) {
-      answerMap.setValueString((String) propertyValue);
-    }
-    logger.exit("fhirAnswerValue() - ends ");
-    return answerMap;
-  }
-
   public void createFhirStore(String datasetPath, String studyId) throws ProcessResponseException {
 
     try {
@@ -1283,80 +1011,4 @@ public class ActivityResponseProcessorServiceImpl implements ActivityResponsePro
     Gson gson = new Gson();
     return gson.toJson(argBean);
   }
-
-  private Map<String, Object> getHashMapForBean(Object bean) throws Exception {
-    BeanInfo beanInfo;
-    beanInfo = Introspector.getBeanInfo(bean.getClass());
-    PropertyDescriptor[] propDescriptor = beanInfo.getPropertyDescriptors();
-    Map<String, Object> dataToStore = new HashMap<>();
-    GsonBuilder gsonBuilder = new GsonBuilder();
-    Gson gson = gsonBuilder.create();
-    List<Map<String, Object>> stepsList = new ArrayList<Map<String, Object>>();
-    for (PropertyDescriptor pd : propDescriptor) {
-      String propertyName = pd.getName();
-      if (!propertyName.equals(AppConstants.PROPERTY_NAME_CLASS)) {
-        Method getterMethod = pd.getReadMethod();
-        Object propertyValue = getterMethod.invoke(bean);
-        if (!(propertyValue instanceof String)) {
-          if (propertyValue instanceof ActivityValueGroupBean
-              || propertyValue instanceof ActivityMetadataBean) {
-            dataToStore.put(propertyName, getHashMapForBean(propertyValue));
-          } else if (propertyValue instanceof List) {
-            try {
-              ArrayList<Object> pvalueList = (ArrayList<Object>) propertyValue;
-              for (Object valueObj : pvalueList) {
-                if (valueObj instanceof QuestionnaireActivityStepsBean) {
-                  Map<String, Object> tempMap = getHashMapForBean(valueObj);
-                  stepsList.add(tempMap);
-                } else if (valueObj instanceof String) {
-                  if (valueObj != null) {
-                    Object tmpPropertyValue = dataToStore.get(propertyName);
-                    if (tmpPropertyValue != null) {
-                      String tmpPropertyValueStr = (String) tmpPropertyValue.toString();
-                      if (!StringUtils.isBlank(tmpPropertyValueStr)) {
-                        valueObj = tmpPropertyValueStr + AppConstants.COMMA_STR + valueObj;
-                      }
-                    }
-                    dataToStore.put(propertyName, valueObj);
-                  }
-                } else {
-                  if (valueObj != null) {
-                    propertyValue = gson.toJson(valueObj);
-                    Object tmpPropertyValue = dataToStore.get(propertyName);
-                    if (tmpPropertyValue != null) {
-                      String tmpPropertyValueStr = (String) tmpPropertyValue.toString();
-                      if (!StringUtils.isBlank(tmpPropertyValueStr)) {
-                        propertyValue =
-                            tmpPropertyValueStr + AppConstants.COMMA_STR + propertyValue;
-                      }
-                    }
-                    dataToStore.put(propertyName, propertyValue);
-                  }
-                }
-                if (stepsList != null && !stepsList.isEmpty()) {
-                  dataToStore.put(AppConstants.RESULTS_FIELD_KEY, stepsList);
-                }
-              }
-            } catch (ClassCastException ce) {
-              propertyValue = gson.toJson(propertyValue);
-              dataToStore.put(propertyName, getHashMapForBean(propertyValue));
-            }
-          } else {
-            propertyValue = gson.toJson(propertyValue);
-            dataToStore.put(propertyName, propertyValue);
-          }
-        } else {
-          if (propertyValue != null) {
-            dataToStore.put(propertyName, propertyValue);
-          }
-        }
-        logger.debug(
-            "getHashMapForBean() : \n Property Name: "
-                + propertyName
-                + "\t Property Value : "
-                + propertyValue);
-      }
-    }
-    return dataToStore;
-  }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020-2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import java.util.Locale;
+
+public interface ActivityResponseQueueService {
+
+  boolean isQueueFull();
+
+  /**
+   * Queues the response; the receipt of the activity run is released under the given claim token
+   * when the response cannot be processed.
+   */
+  String enqueueActivityResponse(
+      ActivityResponseBean activityResponseBean,
+      AuditLogEventRequest auditRequest,
+      Locale locale,
+      String receiptClaimToken)
+      throws ProcessResponseException;
+
+  void processPendingActivityResponses();
+
+  void purgeFailedActivityResponses();
+}
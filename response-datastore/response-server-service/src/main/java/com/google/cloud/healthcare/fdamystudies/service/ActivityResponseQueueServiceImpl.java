@@ -0,0 +1,376 @@
+/*
+ * Copyright 2020-2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.ACTIVITY_ID;
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.ACTIVITY_VERSION;
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.RUN_ID;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_RESPONSE_DATA_PROCESSING_FAILED;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.common.ResponseServerAuditLogHelper;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.repository.ActivityResponseQueueRepository;
+import com.google.cloud.healthcare.fdamystudies.response.model.ActivityResponseQueueEntity;
+import com.google.cloud.healthcare.fdamystudies.service.ActivityResponseIngestionService.IngestionOutcome;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.collections4.map.HashedMap;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+/**
+ * Durable queue for activity responses. Responses are stored in the activity_response_queue table
+ * when they are received and are processed by a bounded pool of workers. Failed entries are
+ * retried with exponential backoff until the configured number of attempts is reached.
+ *
+ * <p>Each claim of an entry carries a token. Claims of entries still being processed are renewed
+ * every {@code response.ingestion.claim.heartbeat.ms}, so only the claims of dead workers expire,
+ * and the result of an entry is only recorded while its token is current.
+ *
+ * <p>An entry records the stages it completed, so a retry does not store the response again once
+ * it is stored and only saves the activity state.
+ *
+ * <p>The receipt of a queued response stays in progress, and its claim is renewed with the claims
+ * of the entries, until a worker saves the response and completes it or gives up and releases it.
+ */
+@Service
+public class ActivityResponseQueueServiceImpl implements ActivityResponseQueueService {
+
+  static final String STATUS_PENDING = "PENDING";
+  static final String STATUS_IN_PROGRESS = "IN_PROGRESS";
+  static final String STATUS_FAILED = "FAILED";
+
+  /** Completed stage of an entry whose response is stored and whose activity state is not. */
+  static final String STAGE_RESPONSE_SAVED = "RESPONSE_SAVED";
+
+  private static final String CLAIM_EXPIRED_MESSAGE =
+      "processQueueEntry() : claim of queue id %s expired and the entry was claimed again";
+
+  @Autowired private ActivityResponseQueueRepository activityResponseQueueRepository;
+  @Autowired private ActivityResponseIngestionService activityResponseIngestionService;
+  @Autowired private ActivityResponseReceiptService activityResponseReceiptService;
+  @Autowired private ResponseServerAuditLogHelper responseServerAuditLogHelper;
+  @Autowired private ApplicationConfiguration appConfig;
+  @Autowired private ObjectMapper objectMapper;
+  @Autowired private MeterRegistry meterRegistry;
+
+  private ThreadPoolExecutor workers;
+
+  private ScheduledExecutorService heartbeat;
+
+  /** Claim token of each entry this instance has claimed and not finished yet. */
+  private final Map<String, String> activeClaims = new ConcurrentHashMap<>();
+
+  /**
+   * Pending entries as counted by the last poll plus the entries queued since, so that submissions
+   * do not count the table.
+   */
+  private final AtomicLong pendingCount = new AtomicLong();
+
+  private XLogger logger =
+      XLoggerFactory.getXLogger(ActivityResponseQueueServiceImpl.class.getName());
+
+  @PostConstruct
+  public void initWorkers() {
+    int workerCount = appConfig.getResponseIngestionWorkerCount();
+    // the hand-off queue is kept as small as the pool so that entries stay in the database until a
+    // worker is about to pick them up
+    workers =
+        new ThreadPoolExecutor(
+            workerCount,
+            workerCount,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(workerCount),
+            new ThreadPoolExecutor.AbortPolicy());
+    new ExecutorServiceMetrics(workers, "responseIngestionWorkers", Collections.emptyList())
+        .bindTo(meterRegistry);
+    Gauge.builder("response.ingestion.queue.pending", pendingCount, AtomicLong::get)
+        .register(meterRegistry);
+
+    long heartbeatMs = appConfig.getResponseIngestionClaimHeartbeatMs();
+    heartbeat = Executors.newSingleThreadScheduledExecutor();
+    heartbeat.scheduleWithFixedDelay(
+        this::renewActiveClaims, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void shutdownWorkers() throws InterruptedException {
+    workers.shutdown();
+    workers.awaitTermination(30, TimeUnit.SECONDS);
+    heartbeat.shutdown();
+  }
+
+  @Override
+  public boolean isQueueFull() {
+    return pendingCount.get() >= appConfig.getResponseIngestionMaxPending();
+  }
+
+  @Override
+  public String enqueueActivityResponse(
+      ActivityResponseBean activityResponseBean,
+      AuditLogEventRequest auditRequest,
+      Locale locale,
+      String receiptClaimToken)
+      throws ProcessResponseException {
+    logger.entry("begin enqueueActivityResponse()");
+    ActivityResponseQueueEntity queueEntity = new ActivityResponseQueueEntity();
+    queueEntity.setStudyId(activityResponseBean.getMetadata().getStudyId());
+    queueEntity.setParticipantId(activityResponseBean.getParticipantId());
+    queueEntity.setActivityId(activityResponseBean.getMetadata().getActivityId());
+    queueEntity.setActivityVersion(activityResponseBean.getMetadata().getVersion());
+    queueEntity.setActivityRunId(activityResponseBean.getMetadata().getActivityRunId());
+    queueEntity.setUserId(auditRequest.getUserId());
+    queueEntity.setLocale(locale != null ? locale.toLanguageTag() : null);
+    queueEntity.setReceiptClaimToken(receiptClaimToken);
+    try {
+      queueEntity.setPayload(objectMapper.writeValueAsString(activityResponseBean));
+      queueEntity.setAuditRequest(objectMapper.writeValueAsString(auditRequest));
+    } catch (IOException e) {
+      throw new ProcessResponseException(
+          "Could not serialize activity response. " + e.getMessage());
+    }
+    queueEntity.setStatus(STATUS_PENDING);
+    queueEntity.setNextAttemptTime(new Timestamp(System.currentTimeMillis()));
+    queueEntity = activityResponseQueueRepository.saveAndFlush(queueEntity);
+    pendingCount.incrementAndGet();
+    logger.exit("enqueueActivityResponse() - ends with queue id " + queueEntity.getId());
+    return queueEntity.getId();
+  }
+
+  @Override
+  public void processPendingActivityResponses() {
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    int released =
+        activityResponseQueueRepository.releaseExpiredClaims(
+            STATUS_PENDING,
+            STATUS_IN_PROGRESS,
+            new Timestamp(now.getTime() - appConfig.getResponseIngestionClaimTimeoutMs()));
+    if (released > 0) {
+      logger.warn(
+          String.format(
+              "processPendingActivityResponses() : %d expired queue entries released", released));
+    }
+    pendingCount.set(activityResponseQueueRepository.countByStatus(STATUS_PENDING));
+
+    // back-pressure: only claim as many entries as the workers are able to accept
+    int capacity = workers.getQueue().remainingCapacity();
+    if (capacity == 0) {
+      return;
+    }
+    List<String> ids =
+        activityResponseQueueRepository.findIdsReadyForProcessing(
+            STATUS_PENDING, now, PageRequest.of(0, capacity));
+    for (String id : ids) {
+      String claimToken = UUID.randomUUID().toString();
+      if (activityResponseQueueRepository.claim(
+              id, STATUS_PENDING, STATUS_IN_PROGRESS, now, claimToken)
+          == 1) {
+        activeClaims.put(id, claimToken);
+        try {
+          workers.execute(() -> processQueueEntry(id, claimToken));
+        } catch (RejectedExecutionException e) {
+          // the entry is released again once its claim expires
+          activeClaims.remove(id);
+          logger.warn("processPendingActivityResponses() : workers are shut down", e);
+          return;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void purgeFailedActivityResponses() {
+    long retentionMs = appConfig.getResponseIngestionFailedRetentionMs();
+    Timestamp createdBefore = new Timestamp(System.currentTimeMillis() - retentionMs);
+    int purged =
+        activityResponseQueueRepository.deleteByStatusCreatedBefore(STATUS_FAILED, createdBefore);
+    if (purged > 0) {
+      logger.info(
+          String.format("purgeFailedActivityResponses() : %d failed queue entries purged", purged));
+    }
+  }
+
+  private void renewActiveClaims() {
+    try {
+      // the receipts of queued responses stay in progress until a worker saves the response
+      activityResponseReceiptService.renewQueuedReceipts(
+          Arrays.asList(STATUS_PENDING, STATUS_IN_PROGRESS));
+      if (!activeClaims.isEmpty()) {
+        activityResponseQueueRepository.renewClaims(
+            STATUS_IN_PROGRESS,
+            new ArrayList<>(activeClaims.values()),
+            new Timestamp(System.currentTimeMillis()));
+      }
+    } catch (Exception e) {
+      logger.error("renewActiveClaims() failed", e);
+    }
+  }
+
+  private void processQueueEntry(String id, String claimToken) {
+    try {
+      Optional<ActivityResponseQueueEntity> optQueueEntity =
+          activityResponseQueueRepository.findById(id);
+      if (!optQueueEntity.isPresent()
+          || !claimToken.equals(optQueueEntity.get().getClaimToken())) {
+        logger.warn(String.format(CLAIM_EXPIRED_MESSAGE, id));
+        return;
+      }
+      processQueueEntry(optQueueEntity.get(), claimToken);
+    } finally {
+      activeClaims.remove(id);
+    }
+  }
+
+  private void processQueueEntry(ActivityResponseQueueEntity queueEntity, String claimToken) {
+    String id = queueEntity.getId();
+    ActivityResponseBean activityResponseBean = null;
+    AuditLogEventRequest auditRequest = null;
+    try {
+      activityResponseBean =
+          objectMapper.readValue(queueEntity.getPayload(), ActivityResponseBean.class);
+      auditRequest =
+          StringUtils.isBlank(queueEntity.getAuditRequest())
+              ? new AuditLogEventRequest()
+              : objectMapper.readValue(queueEntity.getAuditRequest(), AuditLogEventRequest.class);
+      Locale locale =
+          StringUtils.isBlank(queueEntity.getLocale())
+              ? Locale.getDefault()
+              : Locale.forLanguageTag(queueEntity.getLocale());
+
+      if (!processActivityResponse(
+              queueEntity, claimToken, activityResponseBean, auditRequest, locale)
+          || activityResponseQueueRepository.deleteClaimed(id, claimToken) == 0) {
+        logger.warn(String.format(CLAIM_EXPIRED_MESSAGE, id));
+      }
+    } catch (Exception e) {
+      int attempts = queueEntity.getAttempts() + 1;
+      String lastError = StringUtils.abbreviate(e.getMessage(), 255);
+      if (attempts >= appConfig.getResponseIngestionMaxAttempts()) {
+        Timestamp lastAttemptTime = queueEntity.getNextAttemptTime();
+        if (activityResponseQueueRepository.updateClaimed(
+                id, claimToken, STATUS_FAILED, attempts, lastAttemptTime, lastError)
+            == 0) {
+          // another worker holds the entry now, so it decides whether the receipt is released
+          logger.warn(String.format(CLAIM_EXPIRED_MESSAGE, id));
+          return;
+        }
+        logger.error(
+            String.format(
+                "processQueueEntry() : giving up on queue id %s after %d attempts", id, attempts),
+            e);
+        if (activityResponseBean != null) {
+          // the response was not stored, so the app may submit the activity run again
+          activityResponseReceiptService.releaseReceipt(
+              activityResponseBean, queueEntity.getReceiptClaimToken());
+        }
+        if (auditRequest != null) {
+          Map<String, String> map = new HashedMap<>();
+          map.put(ACTIVITY_ID, queueEntity.getActivityId());
+          map.put(ACTIVITY_VERSION, queueEntity.getActivityVersion());
+          map.put(RUN_ID, queueEntity.getActivityRunId());
+          responseServerAuditLogHelper.logEvent(
+              ACTIVITY_RESPONSE_DATA_PROCESSING_FAILED, auditRequest, map);
+        }
+      } else {
+        long backoffMs = appConfig.getResponseIngestionRetryBackoffMs() << (attempts - 1);
+        activityResponseQueueRepository.updateClaimed(
+            id,
+            claimToken,
+            STATUS_PENDING,
+            attempts,
+            new Timestamp(System.currentTimeMillis() + backoffMs),
+            lastError);
+        logger.warn(
+            String.format(
+                "processQueueEntry() : attempt %d for queue id %s failed, retrying in %d ms",
+                attempts, id, backoffMs),
+            e);
+      }
+    }
+  }
+
+  /**
+   * Processes the response from the stage after the last completed one, and records the stored
+   * response on the entry so that a retry only saves the activity state again. The receipt of the
+   * activity run is completed once the activity state is saved.
+   *
+   * @return false when the claim expired and the entry was claimed again
+   */
+  private boolean processActivityResponse(
+      ActivityResponseQueueEntity queueEntity,
+      String claimToken,
+      ActivityResponseBean activityResponseBean,
+      AuditLogEventRequest auditRequest,
+      Locale locale)
+      throws Exception {
+    if (!STAGE_RESPONSE_SAVED.equals(queueEntity.getCompletedStage())) {
+      IngestionOutcome outcome =
+          activityResponseIngestionService.saveActivityResponse(
+              activityResponseBean, auditRequest, locale);
+      if (outcome == IngestionOutcome.METADATA_NOT_FOUND) {
+        throw new ProcessResponseException(
+            "Could not retrieve study activity metadata for activity Id: "
+                + queueEntity.getActivityId());
+      } else if (outcome == IngestionOutcome.PARTICIPANT_STUDY_INFO_NOT_FOUND) {
+        throw new ProcessResponseException(
+            "Could not retrieve participant study info for study Id: "
+                + queueEntity.getStudyId());
+      } else if (outcome == IngestionOutcome.PARTICIPANT_WITHDRAWN) {
+        // the participant withdrew while the response was queued, retrying will not help
+        logger.warn(
+            "processActivityResponse() : discarded queued response of withdrawn participant for"
+                + " activity Id: "
+                + queueEntity.getActivityId());
+        activityResponseReceiptService.releaseReceipt(
+            activityResponseBean, queueEntity.getReceiptClaimToken());
+        return true;
+      }
+      if (activityResponseQueueRepository.updateCompletedStage(
+              queueEntity.getId(), claimToken, STAGE_RESPONSE_SAVED)
+          == 0) {
+        return false;
+      }
+      queueEntity.setCompletedStage(STAGE_RESPONSE_SAVED);
+    }
+    activityResponseIngestionService.saveActivityState(activityResponseBean, auditRequest);
+    activityResponseReceiptService.completeReceipt(
+        activityResponseBean, queueEntity.getReceiptClaimToken());
+    return true;
+  }
+}
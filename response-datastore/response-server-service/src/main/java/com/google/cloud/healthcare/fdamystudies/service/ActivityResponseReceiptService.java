@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import java.util.Collection;
+
+public interface ActivityResponseReceiptService {
+
+  /**
+   * Claims the receipt of the submitted activity run. Submissions without an activity run id are
+   * not deduplicated and can always be claimed.
+   *
+   * @return the token of the claim, or null when the run was already submitted and its receipt is
+   *     completed or still claimed
+   */
+  String claimReceipt(ActivityResponseBean activityResponseBean);
+
+  /** @return true when the submitted activity run has already been stored */
+  boolean isReceiptCompleted(ActivityResponseBean activityResponseBean);
+
+  /**
+   * Marks the claimed receipt completed, so later submissions of the run are skipped. Does nothing
+   * when the claim expired and the receipt was claimed again.
+   */
+  void completeReceipt(ActivityResponseBean activityResponseBean, String claimToken);
+
+  /**
+   * Drops the claimed receipt, so the activity run can be submitted again. Does nothing when the
+   * claim expired and the receipt was claimed again.
+   */
+  void releaseReceipt(ActivityResponseBean activityResponseBean, String claimToken);
+
+  /**
+   * Renews the claims of the receipts whose responses are in the response queue with one of the
+   * given statuses, so a retried submission is not saved again while the response is queued.
+   */
+  void renewQueuedReceipts(Collection<String> queueStatuses);
+
+  /** Deletes completed receipts claimed before the retention period. */
+  void purgeCompletedReceipts();
+}
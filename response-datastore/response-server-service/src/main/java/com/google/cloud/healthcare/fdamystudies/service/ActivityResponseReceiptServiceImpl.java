@@ -0,0 +1,181 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityMetadataBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.repository.ActivityResponseReceiptRepository;
+import com.google.cloud.healthcare.fdamystudies.response.model.ActivityResponseReceiptEntity;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.UUID;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+/**
+ * Deduplicates activity response submissions. The first submission of an activity run inserts a
+ * receipt keyed by study, participant, activity, version and run, and the unique key on these
+ * columns rejects replays of the run, so a retried submission is answered without fetching the
+ * activity metadata or writing the response again.
+ *
+ * <p>Each claim of a receipt carries a token, and a receipt is only completed or dropped under the
+ * token of its current claim, so a request whose claim expired cannot change the receipt of the
+ * request that took it over. Completed receipts are kept for {@code
+ * response.receipt.completed.retention.ms}, which has to exceed the time the apps keep retrying a
+ * submission.
+ */
+@Service
+public class ActivityResponseReceiptServiceImpl implements ActivityResponseReceiptService {
+
+  static final String RECEIPT_IN_PROGRESS = "IN_PROGRESS";
+  static final String RECEIPT_COMPLETED = "COMPLETED";
+
+  private static final String CLAIM_EXPIRED_MESSAGE =
+      "claim of the receipt of activity run %s expired and the receipt was claimed again";
+
+  @Autowired private ActivityResponseReceiptRepository activityResponseReceiptRepository;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  private XLogger logger =
+      XLoggerFactory.getXLogger(ActivityResponseReceiptServiceImpl.class.getName());
+
+  @Override
+  public String claimReceipt(ActivityResponseBean activityResponseBean) {
+    ActivityMetadataBean metadata = activityResponseBean.getMetadata();
+    String claimToken = UUID.randomUUID().toString();
+    if (StringUtils.isBlank(metadata.getActivityRunId())) {
+      return claimToken;
+    }
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    ActivityResponseReceiptEntity receipt = new ActivityResponseReceiptEntity();
+    receipt.setStudyId(metadata.getStudyId());
+    receipt.setParticipantId(activityResponseBean.getParticipantId());
+    receipt.setActivityId(metadata.getActivityId());
+    receipt.setActivityVersion(metadata.getVersion());
+    receipt.setActivityRunId(metadata.getActivityRunId());
+    receipt.setStatus(RECEIPT_IN_PROGRESS);
+    receipt.setClaimedTime(now);
+    receipt.setClaimToken(claimToken);
+    try {
+      activityResponseReceiptRepository.saveAndFlush(receipt);
+      return claimToken;
+    } catch (DataIntegrityViolationException e) {
+      // the run was submitted before; take the receipt over if that submission never finished
+      Timestamp claimedBefore =
+          new Timestamp(now.getTime() - appConfig.getResponseReceiptClaimTimeoutMs());
+      boolean reclaimed =
+          activityResponseReceiptRepository.reclaimExpired(
+                  metadata.getStudyId(),
+                  activityResponseBean.getParticipantId(),
+                  metadata.getActivityId(),
+                  metadata.getVersion(),
+                  metadata.getActivityRunId(),
+                  RECEIPT_IN_PROGRESS,
+                  now,
+                  claimedBefore,
+                  claimToken)
+              == 1;
+      logger.debug(
+          String.format(
+              "claimReceipt() : activity run %s of activity Id %s was submitted before,"
+                  + " reclaimed: %b",
+              metadata.getActivityRunId(), metadata.getActivityId(), reclaimed));
+      return reclaimed ? claimToken : null;
+    }
+  }
+
+  @Override
+  public boolean isReceiptCompleted(ActivityResponseBean activityResponseBean) {
+    ActivityMetadataBean metadata = activityResponseBean.getMetadata();
+    return RECEIPT_COMPLETED.equals(
+        activityResponseReceiptRepository
+            .findStatus(
+                metadata.getStudyId(),
+                activityResponseBean.getParticipantId(),
+                metadata.getActivityId(),
+                metadata.getVersion(),
+                metadata.getActivityRunId())
+            .orElse(null));
+  }
+
+  @Override
+  public void completeReceipt(ActivityResponseBean activityResponseBean, String claimToken) {
+    ActivityMetadataBean metadata = activityResponseBean.getMetadata();
+    if (StringUtils.isBlank(metadata.getActivityRunId())) {
+      return;
+    }
+    try {
+      if (activityResponseReceiptRepository.completeClaimed(
+              metadata.getStudyId(),
+              activityResponseBean.getParticipantId(),
+              metadata.getActivityId(),
+              metadata.getVersion(),
+              metadata.getActivityRunId(),
+              RECEIPT_IN_PROGRESS,
+              RECEIPT_COMPLETED,
+              claimToken)
+          == 0) {
+        logger.warn(String.format(CLAIM_EXPIRED_MESSAGE, metadata.getActivityRunId()));
+      }
+    } catch (DataAccessException e) {
+      // the receipt expires and is claimed again by the next submission of the run
+      logger.error("completeReceipt() : could not complete the receipt", e);
+    }
+  }
+
+  @Override
+  public void releaseReceipt(ActivityResponseBean activityResponseBean, String claimToken) {
+    ActivityMetadataBean metadata = activityResponseBean.getMetadata();
+    if (StringUtils.isBlank(metadata.getActivityRunId())) {
+      return;
+    }
+    try {
+      if (activityResponseReceiptRepository.deleteClaimed(
+              metadata.getStudyId(),
+              activityResponseBean.getParticipantId(),
+              metadata.getActivityId(),
+              metadata.getVersion(),
+              metadata.getActivityRunId(),
+              RECEIPT_IN_PROGRESS,
+              claimToken)
+          == 0) {
+        logger.warn(String.format(CLAIM_EXPIRED_MESSAGE, metadata.getActivityRunId()));
+      }
+    } catch (DataAccessException e) {
+      // the receipt expires and is claimed again by the next submission of the run
+      logger.error("releaseReceipt() : could not release the receipt", e);
+    }
+  }
+
+  @Override
+  public void renewQueuedReceipts(Collection<String> queueStatuses) {
+    activityResponseReceiptRepository.renewQueuedClaims(
+        RECEIPT_IN_PROGRESS, queueStatuses, new Timestamp(System.currentTimeMillis()));
+  }
+
+  @Override
+  public void purgeCompletedReceipts() {
+    Timestamp claimedBefore =
+        new Timestamp(
+            System.currentTimeMillis() - appConfig.getResponseReceiptCompletedRetentionMs());
+    int purged =
+        activityResponseReceiptRepository.deleteByStatusClaimedBefore(
+            RECEIPT_COMPLETED, claimedBefore);
+    if (purged > 0) {
+      logger.info(String.format("purgeCompletedReceipts() : %d completed receipts purged", purged));
+    }
+  }
+}
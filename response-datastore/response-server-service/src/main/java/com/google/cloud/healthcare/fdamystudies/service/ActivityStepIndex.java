@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Metadata steps of one activity version keyed by question key, so responses are conjoined with
+ * their metadata without scanning the step list for every response step. Keys match ignoring case,
+ * as {@link QuestionnaireActivityStepsBeanPredicate#questionKeyMatch(String)} does.
+ */
+public final class ActivityStepIndex {
+
+  private final Map<String, List<QuestionnaireActivityStepsBean>> steps;
+
+  private final Map<String, List<QuestionnaireActivityStepsBean>> groupedSteps;
+
+  private ActivityStepIndex(
+      Map<String, List<QuestionnaireActivityStepsBean>> steps,
+      Map<String, List<QuestionnaireActivityStepsBean>> groupedSteps) {
+    this.steps = steps;
+    this.groupedSteps = groupedSteps;
+  }
+
+  public static ActivityStepIndex compile(List<QuestionnaireActivityStepsBean> metadataSteps) {
+    Map<String, List<QuestionnaireActivityStepsBean>> steps = new HashMap<>();
+    Map<String, List<QuestionnaireActivityStepsBean>> groupedSteps = new HashMap<>();
+    for (QuestionnaireActivityStepsBean stepBean : metadataSteps) {
+      addStep(steps, stepBean);
+      if (stepBean.getSteps() == null) {
+        continue;
+      }
+      // a grouped question belongs to the first form step that has a step with its key
+      Map<String, List<QuestionnaireActivityStepsBean>> formSteps = new LinkedHashMap<>();
+      for (QuestionnaireActivityStepsBean formStepBean : stepBean.getSteps()) {
+        addStep(formSteps, formStepBean);
+      }
+      for (Map.Entry<String, List<QuestionnaireActivityStepsBean>> formStep :
+          formSteps.entrySet()) {
+        groupedSteps.putIfAbsent(formStep.getKey(), formStep.getValue());
+      }
+    }
+    return new ActivityStepIndex(steps, groupedSteps);
+  }
+
+  /** @return the top level metadata steps with the question key, in metadata order */
+  public List<QuestionnaireActivityStepsBean> getSteps(String questionKey) {
+    return lookup(steps, questionKey);
+  }
+
+  /** @return the steps with the question key in the first form step that has any */
+  public List<QuestionnaireActivityStepsBean> getGroupedSteps(String questionKey) {
+    return lookup(groupedSteps, questionKey);
+  }
+
+  private static List<QuestionnaireActivityStepsBean> lookup(
+      Map<String, List<QuestionnaireActivityStepsBean>> index, String questionKey) {
+    if (questionKey == null) {
+      return Collections.emptyList();
+    }
+    List<QuestionnaireActivityStepsBean> matches = index.get(AppUtil.foldKeyCase(questionKey));
+    return matches != null ? matches : Collections.emptyList();
+  }
+
+  private static void addStep(
+      Map<String, List<QuestionnaireActivityStepsBean>> index,
+      QuestionnaireActivityStepsBean stepBean) {
+    if (stepBean == null || stepBean.getKey() == null) {
+      return;
+    }
+    index
+        .computeIfAbsent(AppUtil.foldKeyCase(stepBean.getKey()), key -> new ArrayList<>())
+        .add(stepBean);
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020-2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireEntry;
+import com.google.cloud.healthcare.fdamystudies.bean.SearchQuestionnaireFhirBean;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.utils.FhirHealthcareApis;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.Gson;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Local index from (study, activity, activity version) to the versioned FHIR Questionnaire that a
+ * QuestionnaireResponse refers to. All versions of an activity are indexed from the history of its
+ * Questionnaire resources, so responses normally resolve their questionnaire without any FHIR call.
+ * Each activity is loaded by the first lookup that needs it; lookups of other activities do not
+ * wait for it. A miss reloads the activity at most once per refresh interval, and in between
+ * searches the FHIR store for the missing version directly.
+ */
+@Component
+public class FhirQuestionnaireIndex {
+
+  private static final String KEY_SEPARATOR = "@";
+
+  @Autowired private FhirHealthcareApis fhirHealthcareAPIs;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  /** Indexed versions of each study activity, keyed by {@code <studyId>@<activityId>}. */
+  private Cache<String, ActivityIndex> activityIndexes;
+
+  private XLogger logger = XLoggerFactory.getXLogger(FhirQuestionnaireIndex.class.getName());
+
+  @PostConstruct
+  public void initQuestionnaireIndex() {
+    activityIndexes =
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(appConfig.getFhirQuestionnaireIndexExpireMinutes(), TimeUnit.MINUTES)
+            .build();
+  }
+
+  /**
+   * @param questionnaireStorePath path of the Questionnaire resources in the study FHIR store
+   * @return the {@code <resourceId>/_history/<versionId>} of the active Questionnaire for the given
+   *     activity version, or null when the Questionnaire has no such version
+   * @throws ProcessResponseException when the FHIR store has no Questionnaire for the activity
+   */
+  public String getQuestionnaireReference(
+      String questionnaireStorePath, String studyId, String activityId, String activityVersion)
+      throws ProcessResponseException {
+    String activityKey = studyId + KEY_SEPARATOR + activityId;
+    ActivityIndex index = getActivityIndex(questionnaireStorePath, activityKey, activityId);
+    String reference = index.references.get(activityVersion);
+    if (reference != null) {
+      return reference;
+    }
+
+    long refreshAfterMs =
+        TimeUnit.SECONDS.toMillis(appConfig.getFhirQuestionnaireIndexMissRefreshSeconds());
+    if (System.currentTimeMillis() - index.loadTime > refreshAfterMs) {
+      // only the first lookup to see the stale index drops it, the others wait for its reload
+      activityIndexes.asMap().remove(activityKey, index);
+      return getActivityIndex(questionnaireStorePath, activityKey, activityId)
+          .references
+          .get(activityVersion);
+    }
+
+    reference = searchReference(questionnaireStorePath, activityId, activityVersion);
+    if (reference != null) {
+      index.references.putIfAbsent(activityVersion, reference);
+    }
+    return reference;
+  }
+
+  private ActivityIndex getActivityIndex(
+      String questionnaireStorePath, String activityKey, String activityId)
+      throws ProcessResponseException {
+    try {
+      return activityIndexes.get(
+          activityKey, () -> loadActivity(questionnaireStorePath, activityKey, activityId));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof ProcessResponseException) {
+        throw (ProcessResponseException) e.getCause();
+      }
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
+
+  private ActivityIndex loadActivity(
+      String questionnaireStorePath, String activityKey, String activityId)
+      throws ProcessResponseException {
+    logger.entry("begin loadActivity() " + activityKey);
+    SearchQuestionnaireFhirBean searchQuestionnaireFhirBean =
+        search(questionnaireStorePath, "identifier=" + activityId);
+    if (searchQuestionnaireFhirBean == null
+        || searchQuestionnaireFhirBean.getEntry() == null
+        || searchQuestionnaireFhirBean.getEntry().isEmpty()) {
+      throw new ProcessResponseException("No FHIR Questionnaire found for activity " + activityId);
+    }
+
+    // the first search match wins, as does the newest history entry of each activity version
+    ActivityIndex index = new ActivityIndex();
+    for (QuestionnaireEntry entry : searchQuestionnaireFhirBean.getEntry()) {
+      addActiveVersions(questionnaireStorePath, entry.getResource().getId(), index.references);
+    }
+    logger.exit("loadActivity() - ends");
+    return index;
+  }
+
+  /** Looks up a single activity version in the FHIR store, as lookups did before the index. */
+  private String searchReference(
+      String questionnaireStorePath, String activityId, String activityVersion)
+      throws ProcessResponseException {
+    SearchQuestionnaireFhirBean searchQuestionnaireFhirBean =
+        search(questionnaireStorePath, "identifier=" + activityId + "&version=" + activityVersion);
+    if (searchQuestionnaireFhirBean == null || searchQuestionnaireFhirBean.getEntry() == null) {
+      return null;
+    }
+    Map<String, String> references = new HashMap<>();
+    for (QuestionnaireEntry entry : searchQuestionnaireFhirBean.getEntry()) {
+      addActiveVersions(questionnaireStorePath, entry.getResource().getId(), references);
+      if (references.containsKey(activityVersion)) {
+        return references.get(activityVersion);
+      }
+    }
+    return null;
+  }
+
+  private SearchQuestionnaireFhirBean search(String questionnaireStorePath, String query)
+      throws ProcessResponseException {
+    String searchJson = fhirHealthcareAPIs.fhirResourceSearchPost(questionnaireStorePath, query);
+    return new Gson().fromJson(searchJson, SearchQuestionnaireFhirBean.class);
+  }
+
+  private void addActiveVersions(
+      String questionnaireStorePath, String resourceId, Map<String, String> references)
+      throws ProcessResponseException {
+    String historyJson =
+        fhirHealthcareAPIs.fhirResourceGetHistory(questionnaireStorePath + "/" + resourceId);
+    SearchQuestionnaireFhirBean historyBean =
+        new Gson().fromJson(historyJson, SearchQuestionnaireFhirBean.class);
+    if (historyBean == null || historyBean.getEntry() == null) {
+      return;
+    }
+    for (QuestionnaireEntry version : historyBean.getEntry()) {
+      if (version.getResource() != null
+          && StringUtils.isNotBlank(version.getResource().getVersion())
+          && "active".equals(version.getResource().getStatus())
+          && version.getResource().getMeta() != null) {
+        references.putIfAbsent(
+            version.getResource().getVersion(),
+            resourceId + "/_history/" + version.getResource().getMeta().getVersionId());
+      }
+    }
+  }
+
+  private static class ActivityIndex {
+    /** {@code <resourceId>/_history/<versionId>} keyed by activity version. */
+    private final Map<String, String> references = new ConcurrentHashMap<>();
+
+    private final long loadTime = System.currentTimeMillis();
+  }
+}
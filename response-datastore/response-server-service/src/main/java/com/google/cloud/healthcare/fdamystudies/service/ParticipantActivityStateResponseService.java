@@ -11,15 +11,23 @@ package com.google.cloud.healthcare.fdamystudies.service;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivitiesBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityStateRequestBean;
 import com.google.cloud.healthcare.fdamystudies.exception.ProcessActivityStateException;
+import java.util.List;
 
 public interface ParticipantActivityStateResponseService {
 
   void saveParticipantActivities(ActivityStateRequestBean activityStateBean)
       throws ProcessActivityStateException;
 
+  /**
+   * Reads the activity state from the cache when the cached state has the stored version,
+   * otherwise from the database, so the result reflects changes made through other instances.
+   */
   ActivitiesBean getParticipantActivities(String studyId, String participantId)
       throws ProcessActivityStateException;
 
   void deleteParticipantActivites(String studyId, String participantId)
       throws ProcessActivityStateException;
+
+  void deleteParticipantActivites(String studyId, List<String> participantIds)
+      throws ProcessActivityStateException;
 }
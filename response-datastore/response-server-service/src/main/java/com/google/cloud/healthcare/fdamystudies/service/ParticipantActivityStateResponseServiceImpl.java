@@ -8,16 +8,27 @@
 
 package com.google.cloud.healthcare.fdamystudies.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivitiesBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityRunBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityStateRequestBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ParticipantActivityBean;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
 import com.google.cloud.healthcare.fdamystudies.dao.ParticipantActivitiesDao;
 import com.google.cloud.healthcare.fdamystudies.exception.ProcessActivityStateException;
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantActivitiesEntity;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
@@ -27,15 +38,85 @@ import org.springframework.stereotype.Service;
 @Service
 public class ParticipantActivityStateResponseServiceImpl
     implements ParticipantActivityStateResponseService {
+
+  private static final String CACHE_KEY_SEPARATOR = "@";
+
   @Autowired private ParticipantActivitiesDao participantActivitiesDao;
 
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Autowired private ObjectMapper objectMapper;
+
   private XLogger logger =
       XLoggerFactory.getXLogger(ParticipantActivityStateResponseServiceImpl.class.getName());
 
+  /**
+   * Activity state keyed by studyId@participantId, with the version it was read at. Cached beans
+   * are shared between requests and must be treated as read-only. A change of the activity state
+   * replaces the entry with one that holds no state, so that a read that started before the change
+   * cannot put its result in place of it.
+   */
+  private Cache<String, CachedActivityState> activityStateCache;
+
+  @PostConstruct
+  public void initActivityStateCache() {
+    activityStateCache =
+        CacheBuilder.newBuilder()
+            .maximumSize(appConfig.getActivityStateCacheMaxSize())
+            .expireAfterWrite(appConfig.getActivityStateCacheExpireSeconds(), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    GuavaCacheMetrics.monitor(meterRegistry, activityStateCache, "activityState");
+  }
+
   @Override
   public ActivitiesBean getParticipantActivities(String studyId, String participantId)
       throws ProcessActivityStateException {
     logger.entry("begin getParticipantActivities()");
+    String cacheKey = studyId + CACHE_KEY_SEPARATOR + participantId;
+    CachedActivityState cached = activityStateCache.getIfPresent(cacheKey);
+    // the stored version is read on every request, as other instances do not evict this cache
+    String version = participantActivitiesDao.getActivityStateVersion(studyId, participantId);
+    if (cached != null && cached.activities != null) {
+      if (Objects.equals(cached.version, version)) {
+        logger.exit("getParticipantActivities() - ends with cached activity state");
+        return cached.activities;
+      }
+      activityStateCache.asMap().remove(cacheKey, cached);
+      cached = null;
+    }
+    return loadParticipantActivities(cacheKey, cached, version, studyId, participantId);
+  }
+
+  /**
+   * Reads the activity state and caches it in place of the entry seen before reading, unless a
+   * change replaced that entry meanwhile.
+   *
+   * @param version the version of the activity state, read before the activity state so that the
+   *     cached version is never newer than the cached state
+   */
+  private ActivitiesBean loadParticipantActivities(
+      String cacheKey,
+      CachedActivityState seen,
+      String version,
+      String studyId,
+      String participantId)
+      throws ProcessActivityStateException {
+    ActivitiesBean activitiesBean = readParticipantActivities(studyId, participantId);
+    CachedActivityState loaded = new CachedActivityState(version, activitiesBean);
+    if (seen == null) {
+      activityStateCache.asMap().putIfAbsent(cacheKey, loaded);
+    } else {
+      activityStateCache.asMap().replace(cacheKey, seen, loaded);
+    }
+    return activitiesBean;
+  }
+
+  private ActivitiesBean readParticipantActivities(String studyId, String participantId)
+      throws ProcessActivityStateException {
+    logger.entry("begin readParticipantActivities()");
     List<ParticipantActivitiesEntity> participantActivityList = null;
     ActivitiesBean retActivitiesBean = new ActivitiesBean();
     retActivitiesBean.setMessage(AppConstants.FAILURE);
@@ -77,7 +158,8 @@ public class ParticipantActivityStateResponseServiceImpl
       retActivitiesBean.setActivities(participantActivityBeanList);
       retActivitiesBean.setMessage(AppConstants.SUCCESS_MSG);
     }
-    logger.exit("getParticipantActivities() - Ends ");
+    retActivitiesBean.setEtag(computeEtag(retActivitiesBean));
+    logger.exit("readParticipantActivities() - Ends ");
     return retActivitiesBean;
   }
 
@@ -87,17 +169,16 @@ public class ParticipantActivityStateResponseServiceImpl
     logger.entry("begin saveParticipantActivities()");
     if (activityStateRequestBean.getStudyId() != null
         && activityStateRequestBean.getParticipantId() != null) {
-      List<ParticipantActivitiesEntity> inputParticipantActivitiesList =
-          this.getDtoObject(activityStateRequestBean);
-
-      List<ParticipantActivitiesEntity> existingParticipantActivitiesList =
-          participantActivitiesDao.getParticipantActivities(
-              activityStateRequestBean.getStudyId(), activityStateRequestBean.getParticipantId());
-      List<ParticipantActivitiesEntity> participantActivitiesListToUpdate =
-          this.getConsolidatedParticipantListToUpdate(
-              inputParticipantActivitiesList, existingParticipantActivitiesList);
-
-      participantActivitiesDao.saveParticipantActivities(participantActivitiesListToUpdate);
+      try {
+        // the request holds the changed activities only, which are merged into the stored state
+        participantActivitiesDao.upsertParticipantActivities(
+            activityStateRequestBean.getStudyId(),
+            activityStateRequestBean.getParticipantId(),
+            this.getDtoObject(activityStateRequestBean));
+      } finally {
+        markChanged(
+            activityStateRequestBean.getStudyId(), activityStateRequestBean.getParticipantId());
+      }
     } else {
       throw new ProcessActivityStateException(
           "saveParticipantActivities() - error. Provided input for"
@@ -110,56 +191,41 @@ public class ParticipantActivityStateResponseServiceImpl
   @Override
   public void deleteParticipantActivites(String studyId, String participantId)
       throws ProcessActivityStateException {
-    participantActivitiesDao.deleteParticipantActivites(studyId, participantId);
+    try {
+      participantActivitiesDao.deleteParticipantActivites(studyId, participantId);
+    } finally {
+      markChanged(studyId, participantId);
+    }
   }
 
-  private List<ParticipantActivitiesEntity> getConsolidatedParticipantListToUpdate(
-      List<ParticipantActivitiesEntity> inputParticipantActivitiesList,
-      List<ParticipantActivitiesEntity> saveOrUpdateParticipantActivitiesList) {
-    if (!inputParticipantActivitiesList.isEmpty()) {
-      for (ParticipantActivitiesEntity participantActivityInput : inputParticipantActivitiesList) {
-        boolean isExistingRecord = false;
-        if (!saveOrUpdateParticipantActivitiesList.isEmpty()) {
-          for (ParticipantActivitiesEntity participantActivityExisting :
-              saveOrUpdateParticipantActivitiesList) {
-            if (participantActivityInput
-                .getActivityId()
-                .equalsIgnoreCase(participantActivityExisting.getActivityId())) {
-              isExistingRecord = true;
-              participantActivityExisting.setActivityVersion(
-                  participantActivityInput.getActivityVersion());
-              participantActivityExisting.setActivityState(
-                  participantActivityInput.getActivityState());
-
-              if (StringUtils.isNotBlank(participantActivityInput.getActivityRunId())) {
-                participantActivityExisting.setActivityRunId(
-                    participantActivityInput.getActivityRunId());
-              }
-
-              participantActivityExisting.setBookmark(participantActivityInput.getBookmark());
-
-              if (participantActivityInput.getTotalCount() != null) {
-                participantActivityExisting.setTotalCount(participantActivityInput.getTotalCount());
-              }
-
-              if (participantActivityInput.getCompletedCount() != null) {
-                participantActivityExisting.setCompletedCount(
-                    participantActivityInput.getCompletedCount());
-              }
-
-              if (participantActivityInput.getMissedCount() != null) {
-                participantActivityExisting.setMissedCount(
-                    participantActivityInput.getMissedCount());
-              }
-            }
-          }
-        }
-        if (!isExistingRecord) {
-          saveOrUpdateParticipantActivitiesList.add(participantActivityInput);
-        }
+  @Override
+  public void deleteParticipantActivites(String studyId, List<String> participantIds)
+      throws ProcessActivityStateException {
+    try {
+      participantActivitiesDao.deleteParticipantActivites(studyId, participantIds);
+    } finally {
+      for (String participantId : participantIds) {
+        markChanged(studyId, participantId);
       }
     }
-    return saveOrUpdateParticipantActivitiesList;
+  }
+
+  /** Replaces the cached activity state, after the change was written or has failed. */
+  private void markChanged(String studyId, String participantId) {
+    activityStateCache.put(
+        studyId + CACHE_KEY_SEPARATOR + participantId, new CachedActivityState(null, null));
+  }
+
+  /** Hashes the JSON of the activity state, so every instance derives the same tag. */
+  private String computeEtag(ActivitiesBean activitiesBean) throws ProcessActivityStateException {
+    try {
+      return "\""
+          + Hashing.murmur3_128().hashBytes(objectMapper.writeValueAsBytes(activitiesBean))
+          + "\"";
+    } catch (JsonProcessingException e) {
+      throw new ProcessActivityStateException(
+          "Exception serializing activity state data" + e.getMessage());
+    }
   }
 
   private List<ParticipantActivitiesEntity> getDtoObject(
@@ -188,4 +254,17 @@ public class ParticipantActivityStateResponseServiceImpl
     }
     return retList;
   }
+
+  /** Cache entry; entries are compared by identity. */
+  private static class CachedActivityState {
+
+    private final String version;
+
+    private final ActivitiesBean activities;
+
+    CachedActivityState(String version, ActivitiesBean activities) {
+      this.version = version;
+      this.activities = activities;
+    }
+  }
 }
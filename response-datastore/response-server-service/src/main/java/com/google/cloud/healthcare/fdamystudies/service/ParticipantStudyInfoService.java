@@ -21,4 +21,7 @@ public interface ParticipantStudyInfoService {
   ParticipantStudyInformation getParticipantStudyInfoFromConsent(
       String studyId, String participantId, AuditLogEventRequest auditRequest)
       throws ProcessResponseException, IOException;
+
+  /** Drops the cached study info of the participant, e.g. once the participant withdrew. */
+  void evictParticipantStudyInfo(String studyId, String participantId);
 }
@@ -22,8 +22,14 @@ import com.google.cloud.healthcare.fdamystudies.mapper.AuditEventMapper;
 import com.google.cloud.healthcare.fdamystudies.mapper.ConsentManagementAPIs;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
 import org.apache.commons.collections4.CollectionUtils;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
@@ -43,14 +49,87 @@ public class ParticipantStudyInfoServiceImpl implements ParticipantStudyInfoServ
   @Autowired private ApplicationConfiguration appConfig;
   @Autowired private OAuthService oauthService;
   @Autowired private ConsentManagementAPIs consentManagementAPIs;
+  @Autowired private MeterRegistry meterRegistry;
 
   private XLogger logger =
       XLoggerFactory.getXLogger(ParticipantStudyInfoServiceImpl.class.getName());
 
+  private static final String CACHE_KEY_SEPARATOR = "@";
+
+  /**
+   * Sharing and withdrawal status keyed by studyId@participantId. Cached beans are shared between
+   * requests and must be treated as read-only.
+   */
+  private Cache<String, ParticipantStudyInformation> participantStudyInfoCache;
+
+  /** Keys of participants without study info, kept for a shorter time. */
+  private Cache<String, Boolean> missingParticipantStudyInfoCache;
+
+  @PostConstruct
+  public void initParticipantStudyInfoCache() {
+    participantStudyInfoCache =
+        CacheBuilder.newBuilder()
+            .maximumSize(appConfig.getParticipantStudyInfoCacheMaxSize())
+            .expireAfterWrite(
+                appConfig.getParticipantStudyInfoCacheExpireSeconds(), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    missingParticipantStudyInfoCache =
+        CacheBuilder.newBuilder()
+            .maximumSize(appConfig.getParticipantStudyInfoCacheMaxSize())
+            .expireAfterWrite(
+                appConfig.getParticipantStudyInfoCacheNegativeExpireSeconds(), TimeUnit.SECONDS)
+            .build();
+    GuavaCacheMetrics.monitor(meterRegistry, participantStudyInfoCache, "participantStudyInfo");
+  }
+
   @Override
   public ParticipantStudyInformation getParticipantStudyInfo(
       String studyId, String participantId, AuditLogEventRequest auditRequest)
       throws ProcessResponseException {
+    return getCachedParticipantStudyInfo(
+        studyId,
+        participantId,
+        () -> fetchParticipantStudyInfo(studyId, participantId, auditRequest));
+  }
+
+  @Override
+  public ParticipantStudyInformation getParticipantStudyInfoFromConsent(
+      String studyId, String participantId, AuditLogEventRequest auditRequest)
+      throws ProcessResponseException, IOException {
+    return getCachedParticipantStudyInfo(
+        studyId,
+        participantId,
+        () -> fetchParticipantStudyInfoFromConsent(studyId, participantId, auditRequest));
+  }
+
+  @Override
+  public void evictParticipantStudyInfo(String studyId, String participantId) {
+    String cacheKey = studyId + CACHE_KEY_SEPARATOR + participantId;
+    participantStudyInfoCache.invalidate(cacheKey);
+    missingParticipantStudyInfoCache.invalidate(cacheKey);
+  }
+
+  private <E extends Exception> ParticipantStudyInformation getCachedParticipantStudyInfo(
+      String studyId, String participantId, ParticipantStudyInfoLoader<E> loader)
+      throws ProcessResponseException, E {
+    String cacheKey = studyId + CACHE_KEY_SEPARATOR + participantId;
+    ParticipantStudyInformation partStudyInfo = participantStudyInfoCache.getIfPresent(cacheKey);
+    if (partStudyInfo != null || missingParticipantStudyInfoCache.getIfPresent(cacheKey) != null) {
+      return partStudyInfo;
+    }
+    partStudyInfo = loader.load();
+    if (partStudyInfo != null) {
+      participantStudyInfoCache.put(cacheKey, partStudyInfo);
+    } else {
+      missingParticipantStudyInfoCache.put(cacheKey, Boolean.TRUE);
+    }
+    return partStudyInfo;
+  }
+
+  private ParticipantStudyInformation fetchParticipantStudyInfo(
+      String studyId, String participantId, AuditLogEventRequest auditRequest)
+      throws ProcessResponseException {
     logger.entry("begin getParticipantStudyInfo()");
     HttpHeaders headers = null;
 
@@ -77,8 +156,7 @@ public class ParticipantStudyInfoServiceImpl implements ParticipantStudyInfoServ
     return partStudyInfo;
   }
 
-  @Override
-  public ParticipantStudyInformation getParticipantStudyInfoFromConsent(
+  private ParticipantStudyInformation fetchParticipantStudyInfoFromConsent(
       String studyId, String participantId, AuditLogEventRequest auditRequest)
       throws ProcessResponseException, IOException {
     logger.info("begin getParticipantStudyInfo()");
@@ -102,7 +180,7 @@ public class ParticipantStudyInfoServiceImpl implements ParticipantStudyInfoServ
         consentManagementAPIs.getListOfConsents(consentFilter + " AND " + sharing, parentName);
     if (CollectionUtils.isEmpty(primaryConsentList)) {
       // below code has been added to support old studies mystudies_participant_datastore
-      partStudyInfo = getParticipantStudyInfo(studyId, participantId, auditRequest);
+      partStudyInfo = fetchParticipantStudyInfo(studyId, participantId, auditRequest);
     } else {
       Consent primaryConsent = primaryConsentList.get(0);
       String withdrawn = primaryConsent.getState().equals("REVOKED") ? "Withdrawn" : "";
@@ -122,4 +200,9 @@ public class ParticipantStudyInfoServiceImpl implements ParticipantStudyInfoServ
     logger.exit("getParticipantStudyInfo() - ends");
     return partStudyInfo;
   }
+
+  @FunctionalInterface
+  private interface ParticipantStudyInfoLoader<E extends Exception> {
+    ParticipantStudyInformation load() throws ProcessResponseException, E;
+  }
 }
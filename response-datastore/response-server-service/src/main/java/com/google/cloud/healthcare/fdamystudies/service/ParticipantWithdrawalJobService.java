@@ -0,0 +1,29 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import com.google.cloud.healthcare.fdamystudies.bean.WithdrawParticipantsJobBean;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import java.util.List;
+
+public interface ParticipantWithdrawalJobService {
+
+  WithdrawParticipantsJobBean submitWithdrawal(
+      String studyId, List<String> participantIds, AuditLogEventRequest auditRequest)
+      throws ProcessResponseException;
+
+  WithdrawParticipantsJobBean getWithdrawal(String jobId);
+
+  /** Resumes unfinished jobs whose claim expired, e.g. because their instance stopped. */
+  void resumeAbandonedWithdrawals();
+
+  /** Deletes finished jobs older than {@code response.withdrawal.job.retention.minutes}. */
+  void purgeWithdrawalJobs();
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_DATA_DELETION_FAILED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.PARTICIPANT_ACTIVITY_DATA_DELETED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.PARTICIPANT_WITHDRAWAL_INTIMATION_FROM_PARTICIPANT_DATASTORE;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.WITHDRAWAL_INFORMATION_UPDATED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.WITHDRAWAL_INFORMATION_UPDATE_FAILED;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.bean.WithdrawParticipantsJobBean;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.common.ResponseServerAuditLogHelper;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.repository.ParticipantWithdrawalJobRepository;
+import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantWithdrawalJobEntity;
+import com.google.cloud.healthcare.fdamystudies.utils.ErrorCode;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs the withdrawal of many participants of a study as one background job, so that the request
+ * returns as soon as the job is queued. Jobs are stored, so the state of a job can be looked up on
+ * any instance until {@code response.withdrawal.job.retention.minutes} after it finished.
+ *
+ * <p>The instance that runs a job holds a claim on it, renewed with each state change. An
+ * unfinished job whose claim is older than {@code response.withdrawal.job.claim.expiry.ms} is
+ * claimed again and resumed from the start, which is safe as withdrawal is idempotent.
+ */
+@Service
+public class ParticipantWithdrawalJobServiceImpl implements ParticipantWithdrawalJobService {
+
+  static final String JOB_PENDING = "PENDING";
+  static final String JOB_IN_PROGRESS = "IN_PROGRESS";
+  static final String JOB_COMPLETED = "COMPLETED";
+  static final String JOB_FAILED = "FAILED";
+
+  private static final List<String> UNFINISHED_JOB_STATUSES =
+      Arrays.asList(JOB_PENDING, JOB_IN_PROGRESS);
+
+  private static final List<String> FINISHED_JOB_STATUSES =
+      Arrays.asList(JOB_COMPLETED, JOB_FAILED);
+
+  private static final String CLAIM_EXPIRED_MESSAGE =
+      "withdrawParticipants() : claim of withdrawal job %s expired and the job was claimed again";
+
+  private XLogger logger =
+      XLoggerFactory.getXLogger(ParticipantWithdrawalJobServiceImpl.class.getName());
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Autowired private ParticipantStudyInfoService partStudyInfoService;
+
+  @Autowired private ActivityResponseProcessorService activityResponseProcessorService;
+
+  @Autowired
+  private ParticipantActivityStateResponseService participantActivityStateResponseService;
+
+  @Autowired private ResponseServerAuditLogHelper responseServerAuditLogHelper;
+
+  @Autowired private ParticipantWithdrawalJobRepository participantWithdrawalJobRepository;
+
+  @Autowired private ObjectMapper objectMapper;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  private ThreadPoolExecutor withdrawalWorkers;
+
+  @PostConstruct
+  public void initWithdrawalJobs() {
+    int workerCount = appConfig.getResponseWithdrawalJobThreads();
+    withdrawalWorkers =
+        new ThreadPoolExecutor(
+            workerCount,
+            workerCount,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(appConfig.getResponseWithdrawalJobMaxQueued()),
+            new ThreadPoolExecutor.AbortPolicy());
+    new ExecutorServiceMetrics(withdrawalWorkers, "withdrawalJobs", Collections.emptyList())
+        .bindTo(meterRegistry);
+  }
+
+  @PreDestroy
+  public void shutdownWithdrawalJobs() throws InterruptedException {
+    withdrawalWorkers.shutdown();
+    withdrawalWorkers.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public WithdrawParticipantsJobBean submitWithdrawal(
+      String studyId, List<String> participantIds, AuditLogEventRequest auditRequest)
+      throws ProcessResponseException {
+    List<String> distinctParticipantIds = new ArrayList<>(new LinkedHashSet<>(participantIds));
+    String claimToken = UUID.randomUUID().toString();
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    ParticipantWithdrawalJobEntity jobEntity = new ParticipantWithdrawalJobEntity();
+    jobEntity.setStudyId(studyId);
+    jobEntity.setParticipantCount(distinctParticipantIds.size());
+    try {
+      jobEntity.setParticipantIds(objectMapper.writeValueAsString(distinctParticipantIds));
+      jobEntity.setAuditRequest(objectMapper.writeValueAsString(auditRequest));
+    } catch (IOException e) {
+      throw new ProcessResponseException("Could not serialize withdrawal job. " + e.getMessage());
+    }
+    jobEntity.setStatus(JOB_PENDING);
+    jobEntity.setClaimToken(claimToken);
+    jobEntity.setClaimedTime(now);
+    jobEntity.setUpdatedTime(now);
+    jobEntity = participantWithdrawalJobRepository.saveAndFlush(jobEntity);
+
+    String jobId = jobEntity.getId();
+    try {
+      withdrawalWorkers.execute(
+          () ->
+              withdrawParticipants(
+                  jobId, claimToken, studyId, distinctParticipantIds, auditRequest));
+    } catch (RejectedExecutionException e) {
+      participantWithdrawalJobRepository.deleteById(jobId);
+      throw new ProcessResponseException(
+          "submitWithdrawal() - too many withdrawal jobs are waiting to run");
+    }
+    return toJobBean(jobEntity);
+  }
+
+  @Override
+  public WithdrawParticipantsJobBean getWithdrawal(String jobId) {
+    return participantWithdrawalJobRepository.findById(jobId).map(this::toJobBean).orElse(null);
+  }
+
+  @Override
+  public void resumeAbandonedWithdrawals() {
+    long now = System.currentTimeMillis();
+    Timestamp claimedBefore =
+        new Timestamp(now - appConfig.getResponseWithdrawalJobClaimExpiryMs());
+    for (String jobId :
+        participantWithdrawalJobRepository.findIdsByStatusClaimedBefore(
+            UNFINISHED_JOB_STATUSES, claimedBefore)) {
+      if (withdrawalWorkers.getQueue().remainingCapacity() == 0) {
+        // the remaining jobs are resumed by a later check, here or on another instance
+        return;
+      }
+      String claimToken = UUID.randomUUID().toString();
+      if (participantWithdrawalJobRepository.reclaimExpired(
+              jobId, UNFINISHED_JOB_STATUSES, new Timestamp(now), claimedBefore, claimToken)
+          == 0) {
+        continue;
+      }
+      Optional<ParticipantWithdrawalJobEntity> optJob =
+          participantWithdrawalJobRepository.findById(jobId);
+      if (optJob.isPresent()) {
+        resumeWithdrawal(optJob.get(), claimToken);
+      }
+    }
+  }
+
+  @Override
+  public void purgeWithdrawalJobs() {
+    Timestamp updatedBefore =
+        new Timestamp(
+            System.currentTimeMillis()
+                - TimeUnit.MINUTES.toMillis(appConfig.getResponseWithdrawalJobRetentionMinutes()));
+    int purged =
+        participantWithdrawalJobRepository.deleteByStatusUpdatedBefore(
+            FINISHED_JOB_STATUSES, updatedBefore);
+    if (purged > 0) {
+      logger.info(String.format("purgeWithdrawalJobs() : %d finished jobs purged", purged));
+    }
+  }
+
+  private void resumeWithdrawal(ParticipantWithdrawalJobEntity jobEntity, String claimToken) {
+    String jobId = jobEntity.getId();
+    List<String> participantIds;
+    AuditLogEventRequest auditRequest;
+    try {
+      participantIds =
+          objectMapper.readValue(
+              jobEntity.getParticipantIds(), new TypeReference<List<String>>() {});
+      auditRequest =
+          StringUtils.isEmpty(jobEntity.getAuditRequest())
+              ? new AuditLogEventRequest()
+              : objectMapper.readValue(jobEntity.getAuditRequest(), AuditLogEventRequest.class);
+    } catch (IOException e) {
+      logger.error("resumeWithdrawal() : could not read withdrawal job " + jobId, e);
+      updateJob(
+          jobId,
+          claimToken,
+          JOB_FAILED,
+          ErrorCode.EC_712.code(),
+          StringUtils.abbreviate(e.getMessage(), 255));
+      return;
+    }
+    try {
+      withdrawalWorkers.execute(
+          () ->
+              withdrawParticipants(
+                  jobId, claimToken, jobEntity.getStudyId(), participantIds, auditRequest));
+      logger.info("resumeWithdrawal() : resumed abandoned withdrawal job " + jobId);
+    } catch (RejectedExecutionException e) {
+      // the claim expires again and the job is resumed by a later check
+      logger.warn("resumeWithdrawal() : no worker free to resume withdrawal job " + jobId);
+    }
+  }
+
+  void withdrawParticipants(
+      String jobId,
+      String claimToken,
+      String studyId,
+      List<String> participantIds,
+      AuditLogEventRequest auditRequest) {
+    logger.entry("begin withdrawParticipants() for job " + jobId);
+    if (!updateJob(jobId, claimToken, JOB_IN_PROGRESS, null, null)) {
+      logger.warn(String.format(CLAIM_EXPIRED_MESSAGE, jobId));
+      return;
+    }
+    boolean responseDataUpdate = false;
+    try {
+      Map<String, String> map = new HashMap<>();
+      map.put("withdrawal_timetamp", Timestamp.from(Instant.now()).toString());
+      for (String participantId : participantIds) {
+        auditRequest.setParticipantId(participantId);
+        responseServerAuditLogHelper.logEvent(
+            PARTICIPANT_WITHDRAWAL_INTIMATION_FROM_PARTICIPANT_DATASTORE, auditRequest, map);
+        partStudyInfoService.evictParticipantStudyInfo(studyId, participantId);
+      }
+
+      activityResponseProcessorService.updateWithdrawalStatusForParticipants(
+          studyId, participantIds);
+      responseDataUpdate = true;
+      for (String participantId : participantIds) {
+        auditRequest.setParticipantId(participantId);
+        responseServerAuditLogHelper.logEvent(WITHDRAWAL_INFORMATION_UPDATED, auditRequest);
+      }
+
+      participantActivityStateResponseService.deleteParticipantActivites(studyId, participantIds);
+      for (String participantId : participantIds) {
+        auditRequest.setParticipantId(participantId);
+        responseServerAuditLogHelper.logEvent(PARTICIPANT_ACTIVITY_DATA_DELETED, auditRequest);
+      }
+      if (!updateJob(jobId, claimToken, JOB_COMPLETED, null, null)) {
+        logger.warn(String.format(CLAIM_EXPIRED_MESSAGE, jobId));
+      }
+    } catch (Exception e) {
+      auditRequest.setParticipantId(null);
+      ErrorCode errorCode = responseDataUpdate ? ErrorCode.EC_717 : ErrorCode.EC_712;
+      responseServerAuditLogHelper.logEvent(
+          responseDataUpdate ? ACTIVITY_DATA_DELETION_FAILED : WITHDRAWAL_INFORMATION_UPDATE_FAILED,
+          auditRequest);
+      logger.error(
+          "Could not successfully withdraw "
+              + participantIds.size()
+              + " participants.\n Study Id: "
+              + studyId
+              + "\n Job Id: "
+              + jobId,
+          e);
+      if (!updateJob(
+          jobId,
+          claimToken,
+          JOB_FAILED,
+          errorCode.code(),
+          StringUtils.abbreviate(e.getMessage(), 255))) {
+        logger.warn(String.format(CLAIM_EXPIRED_MESSAGE, jobId));
+      }
+    }
+    logger.exit("withdrawParticipants() - ends for job " + jobId);
+  }
+
+  /** Records the state of a job under its claim; false when the claim expired. */
+  private boolean updateJob(
+      String jobId, String claimToken, String status, Integer appErrorCode, String errorMessage) {
+    return participantWithdrawalJobRepository.updateClaimed(
+            jobId,
+            claimToken,
+            status,
+            appErrorCode,
+            errorMessage,
+            new Timestamp(System.currentTimeMillis()))
+        > 0;
+  }
+
+  private WithdrawParticipantsJobBean toJobBean(ParticipantWithdrawalJobEntity jobEntity) {
+    WithdrawParticipantsJobBean job = new WithdrawParticipantsJobBean();
+    job.setJobId(jobEntity.getId());
+    job.setStudyId(jobEntity.getStudyId());
+    job.setParticipantCount(jobEntity.getParticipantCount());
+    job.setStatus(jobEntity.getStatus());
+    job.setAppErrorCode(jobEntity.getAppErrorCode());
+    job.setErrorMessage(jobEntity.getErrorMessage());
+    return job;
+  }
+}
@@ -19,6 +19,10 @@ import com.google.cloud.healthcare.fdamystudies.mapper.AuditEventMapper;
 import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
 import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
 import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
 import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
@@ -28,6 +32,9 @@ import java.lang.reflect.Method;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
@@ -48,11 +55,35 @@ public class StudyMetadataServiceImpl implements StudyMetadataService {
   @Autowired private ApplicationConfiguration appConfig;
 
   @Autowired
-  @Qualifier("cloudFirestoreResponsesDaoImpl")
+  @Qualifier("responsesDao")
   private ResponsesDao responsesDao;
 
+  @Autowired private MeterRegistry meterRegistry;
+
   private XLogger logger = XLoggerFactory.getXLogger(StudyMetadataServiceImpl.class.getName());
 
+  private static final String CACHE_KEY_SEPARATOR = "@";
+
+  /**
+   * Activity metadata keyed by studyId@activityId@activityVersion. Cached beans are shared between
+   * requests and must be treated as read-only.
+   */
+  private Cache<String, QuestionnaireActivityStructureBean> activityMetadataCache;
+
+  /** Last study version received through {@link #saveStudyMetadata(StudyMetadataBean)}. */
+  private final Map<String, String> studyVersions = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  public void initActivityMetadataCache() {
+    activityMetadataCache =
+        CacheBuilder.newBuilder()
+            .maximumSize(appConfig.getActivityMetadataCacheMaxSize())
+            .expireAfterWrite(appConfig.getActivityMetadataCacheExpireMinutes(), TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+    GuavaCacheMetrics.monitor(meterRegistry, activityMetadataCache, "activityMetadata");
+  }
+
   @Override
   public void saveStudyMetadata(StudyMetadataBean studyMetadataBean)
       throws ProcessResponseException, IntrospectionException, IllegalAccessException,
@@ -81,6 +112,8 @@ public class StudyMetadataServiceImpl implements StudyMetadataService {
     String studyCollectionName = AppUtil.makeStudyCollectionName(studyMetadataBean.getStudyId());
 
     logger.info("saveStudyMetadata() : \n Study Collection Name: " + studyCollectionName);
+    evictActivityMetadataOnNewVersion(
+        studyMetadataBean.getStudyId(), studyMetadataBean.getStudyVersion());
     if (appConfig.getEnableFhirApi().equalsIgnoreCase("false")) {
       responsesDao.saveStudyMetadata(
           studyCollectionName, studyMetadataBean.getStudyId(), dataToStore);
@@ -103,6 +136,19 @@ public class StudyMetadataServiceImpl implements StudyMetadataService {
       AuditLogEventRequest auditRequest)
       throws ProcessResponseException {
     logger.entry("begin getStudyActivityMetadata()");
+    String cacheKey =
+        studyActivityMetadataRequestBean.getStudyId()
+            + CACHE_KEY_SEPARATOR
+            + studyActivityMetadataRequestBean.getActivityId()
+            + CACHE_KEY_SEPARATOR
+            + studyActivityMetadataRequestBean.getActivityVersion();
+    QuestionnaireActivityStructureBean cachedActivityStructureBean =
+        activityMetadataCache.getIfPresent(cacheKey);
+    if (cachedActivityStructureBean != null) {
+      logger.exit("getStudyActivityMetadata() - ends with cached metadata");
+      return cachedActivityStructureBean;
+    }
+
     HttpHeaders headers = null;
 
     ResponseEntity<?> responseEntity = null;
@@ -131,10 +177,27 @@ public class StudyMetadataServiceImpl implements StudyMetadataService {
         (QuestionnaireActivityMetaDataBean) responseEntity.getBody();
     QuestionnaireActivityStructureBean retQuestionnaireActivityStructureBean =
         metadataParentBean.getActivity();
+    if (retQuestionnaireActivityStructureBean != null) {
+      activityMetadataCache.put(cacheKey, retQuestionnaireActivityStructureBean);
+    }
     logger.exit("getStudyActivityMetadata() - ends");
     return retQuestionnaireActivityStructureBean;
   }
 
+  private void evictActivityMetadataOnNewVersion(String studyId, String studyVersion) {
+    String previousVersion = studyVersions.put(studyId, studyVersion);
+    if (previousVersion == null || !previousVersion.equals(studyVersion)) {
+      String keyPrefix = studyId + CACHE_KEY_SEPARATOR;
+      activityMetadataCache.asMap().keySet().removeIf(key -> key.startsWith(keyPrefix));
+      logger.info(
+          String.format(
+              "evictActivityMetadataOnNewVersion() : activity metadata evicted for study %s,"
+                  + " version %s",
+              studyId,
+              studyVersion));
+    }
+  }
+
   private String getWcpAuthorizationHeader() throws ProcessResponseException {
     String wcpAuthUserName = appConfig.getWcpBundleId();
     String wcpAuthPassword = appConfig.getWcpAppToken();
@@ -3,6 +3,8 @@ package com.google.cloud.healthcare.fdamystudies.task;
 import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.CONSENT_TABLE_NAME;
 
 import com.google.api.services.healthcare.v1.model.Consent;
+import com.google.api.services.healthcare.v1.model.ListConsentsResponse;
+import com.google.api.services.healthcare.v1.model.Operation;
 import com.google.cloud.bigquery.BigQuery;
 import com.google.cloud.bigquery.BigQueryException;
 import com.google.cloud.bigquery.BigQueryOptions;
@@ -11,10 +13,32 @@ import com.google.cloud.bigquery.DatasetId;
 import com.google.cloud.bigquery.DatasetInfo;
 import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
 import com.google.cloud.healthcare.fdamystudies.mapper.BigQueryApis;
+import com.google.cloud.healthcare.fdamystudies.mapper.BigQueryApis.BigQueryTableWriter;
 import com.google.cloud.healthcare.fdamystudies.mapper.ConsentManagementAPIs;
+import com.google.cloud.healthcare.fdamystudies.utils.DeIdentifyHealthcareApis;
+import com.google.cloud.healthcare.fdamystudies.utils.FhirHealthcareApis;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
@@ -22,9 +46,24 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+/**
+ * Exports the FHIR, de-identified FHIR and consent stores of every study to BigQuery. The scheduled
+ * run only hands the studies to a bounded pool of workers, so it does not hold the application task
+ * scheduler while the exports run, and a study still being exported is skipped. A FHIR store is
+ * exported again only when some resource was updated after the creation time of its last
+ * successful export, and then only the updated resources are exported and appended to the tables;
+ * the views read the latest version of each resource. Once {@code
+ * ingest.bigQuery.full.export.interval.ms} has passed, the whole store is exported and replaces the
+ * tables, which drops the older versions and the deleted resources. High-water marks are kept per
+ * instance, so the first run after a restart exports everything.
+ */
 @Component
 public class ExportFHIRDataToBQScheduledTask {
 
+  private static final String WRITE_DISPOSITION_TRUNCATE = "WRITE_TRUNCATE";
+
+  private static final Pattern WHITESPACE = Pattern.compile("\\s");
+
   private XLogger logger =
       XLoggerFactory.getXLogger(ExportFHIRDataToBQScheduledTask.class.getName());
 
@@ -34,49 +73,80 @@ public class ExportFHIRDataToBQScheduledTask {
 
   @Autowired ConsentManagementAPIs consentManagementAPIs;
 
+  @Autowired private DeIdentifyHealthcareApis deIdentifyHealthcareApis;
+
+  @Autowired private FhirHealthcareApis fhirHealthcareApis;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  /** High-water marks keyed by FHIR or consent store name. */
+  private final Map<String, ExportWatermark> watermarks = new ConcurrentHashMap<>();
+
+  /** Export of each study submitted by the last runs, keyed by study id. */
+  private final Map<String, Future<?>> studyExports = new ConcurrentHashMap<>();
+
+  private ExecutorService exportExecutor;
+
+  @PostConstruct
+  public void initExportExecutor() {
+    exportExecutor = Executors.newFixedThreadPool(appConfig.getBigQueryExportThreads());
+    new ExecutorServiceMetrics(exportExecutor, "bigQueryExport", Collections.emptyList())
+        .bindTo(meterRegistry);
+  }
+
+  @PreDestroy
+  public void shutdownExportExecutor() throws InterruptedException {
+    exportExecutor.shutdownNow();
+    exportExecutor.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
   // 30min fixed delay and 1min initial delay
   @Scheduled(
       fixedDelayString = "${ingest.bigQuery.fixed.delay.ms}",
       initialDelayString = "${ingest.bigQuery.initial.delay.ms}")
   public void exportFHIRDataToBQTask() throws Exception {
     logger.entry("begin exportFHIRConsentDataToBQTask()");
-    String WriteDisposition = "WRITE_TRUNCATE";
     logger.debug(
         "begin exportFHIRConsentDataToBQTask() IngestDataToBigQuery : "
             + appConfig.getIngestDataToBigQuery()
             + " : ");
-    if (appConfig.getIngestDataToBigQuery().equalsIgnoreCase("true")) {
+    boolean exportFhir = appConfig.getIngestDataToBigQuery().equalsIgnoreCase("true");
+    boolean exportConsent = appConfig.getEnableConsentManagementAPI().equalsIgnoreCase("true");
+    if (!exportFhir && !exportConsent) {
+      logger.exit("exportFHIRConsentDataToBQTask() completed");
+      return;
+    }
+
+    List<com.google.api.services.healthcare.v1.model.Dataset> datasets =
+        consentManagementAPIs.datasetList(appConfig.getProjectId(), appConfig.getRegionId());
+    for (com.google.api.services.healthcare.v1.model.Dataset data : datasets) {
+      String studyId = data.getName().substring(data.getName().indexOf("/datasets/") + 10);
+      Future<?> previousExport = studyExports.get(studyId);
+      if (previousExport != null && !previousExport.isDone()) {
+        logger.info("exportFHIRConsentDataToBQTask() study " + studyId + " still exporting");
+        continue;
+      }
+      studyExports.put(
+          studyId,
+          exportExecutor.submit(
+              () -> {
+                try {
+                  exportStudy(studyId, exportFhir, exportConsent);
+                } catch (RuntimeException e) {
+                  logger.error("exportFHIRConsentDataToBQTask() study export failed ", e);
+                }
+              }));
+    }
+    logger.exit("exportFHIRConsentDataToBQTask() submitted");
+  }
 
+  private void exportStudy(String studyId, boolean exportFhir, boolean exportConsent) {
+    logger.info("exportFHIRConsentDataToBQTask() study ID: " + studyId);
+    if (exportFhir) {
       logger.debug("Export FHIR data from Google Healthcare API to BigQuery - begin");
       try {
         if (appConfig.getEnableFhirApi().contains("fhir")) {
-          logger.debug(" getEnableFhirManagementApi fhir");
-          List<com.google.api.services.healthcare.v1.model.Dataset> datasets =
-              consentManagementAPIs.datasetList(appConfig.getProjectId(), appConfig.getRegionId());
-
-          if (null != datasets && !datasets.isEmpty()) {
-            for (com.google.api.services.healthcare.v1.model.Dataset data : datasets) {
-
-              String FHIRStudyId = data.getName();
-              FHIRStudyId = FHIRStudyId.substring(FHIRStudyId.indexOf("/datasets/") + 10);
-              logger.info("exportFHIRConsentDataToBQTask() FHIR study ID: " + FHIRStudyId);
-
-              createDataSetInBigQuery(FHIRStudyId + "_FHIR");
-
-              String fhirStoreLocation =
-                  String.format(
-                      "projects/%s/locations/%s/datasets/%s/fhirStores/%s",
-                      appConfig.getProjectId(),
-                      appConfig.getRegionId(),
-                      FHIRStudyId,
-                      "FHIR_" + FHIRStudyId);
-
-              bigQueryApis.exportFhirStoreDataToBigQuery(
-                  fhirStoreLocation, appConfig.getProjectId(), FHIRStudyId + "_FHIR");
-
-              logger.debug(" exportFhirStoreDataToBigQuery complete");
-            }
-          }
+          exportFhirStore(studyId, "FHIR_" + studyId, studyId + "_FHIR");
         }
       } catch (Exception e) {
         logger.error("exportFHIRConsentDataToBQTask() FHIR Error ", e);
@@ -85,140 +155,238 @@ public class ExportFHIRDataToBQScheduledTask {
       logger.debug("Export DID data from Google Healthcare API to BigQuery - Begin ");
       try {
         if (appConfig.getEnableFhirApi().contains("did")) {
+          exportFhirStore(studyId, "DID_" + studyId, studyId);
+        }
+      } catch (Exception e) {
+        logger.error("exportFHIRConsentDataToBQTask() DID Error ", e);
+      }
+    }
 
-          logger.debug(" getEnableFhirManagementApi did");
-          List<com.google.api.services.healthcare.v1.model.Dataset> datasets =
-              consentManagementAPIs.datasetList(appConfig.getProjectId(), appConfig.getRegionId());
+    if (exportConsent) {
+      logger.debug("Export consent data from Google Healthcare API to BigQuery - Begin ");
+      try {
+        exportConsentStore(studyId);
+      } catch (Exception e) {
+        logger.error("exportFHIRConsentDataToBQTask() Consent Error ", e);
+      }
+    }
+  }
 
-          if (null != datasets && !datasets.isEmpty()) {
-            for (com.google.api.services.healthcare.v1.model.Dataset data : datasets) {
+  private void exportFhirStore(String studyId, String fhirStoreId, String bqDatasetName)
+      throws Exception {
+    createDataSetInBigQuery(bqDatasetName);
+
+    String fhirStoreLocation =
+        String.format(
+            "projects/%s/locations/%s/datasets/%s/fhirStores/%s",
+            appConfig.getProjectId(), appConfig.getRegionId(), studyId, fhirStoreId);
+    ExportWatermark watermark =
+        watermarks.computeIfAbsent(fhirStoreLocation, name -> new ExportWatermark());
+    if (!settlePendingExport(fhirStoreLocation, watermark)) {
+      logger.info("exportFhirStore() previous export of " + fhirStoreLocation + " still running");
+      return;
+    }
 
-              String DIDStudyId = data.getName();
-              DIDStudyId = DIDStudyId.substring(DIDStudyId.indexOf("/datasets/") + 10);
-              logger.info("exportFHIRConsentDataToBQTask() DID study ID: " + DIDStudyId);
+    Instant startTime = Instant.now();
+    boolean fullExport = watermark.isFullExportDue(startTime, appConfig);
+    if (!fullExport && !hasResourcesUpdatedSince(fhirStoreLocation, watermark.since)) {
+      logger.debug("exportFhirStore() no resources updated since " + watermark.since);
+      return;
+    }
+    Operation operation =
+        bigQueryApis.startFhirStoreExport(
+            fhirStoreLocation,
+            appConfig.getProjectId(),
+            bqDatasetName,
+            fullExport ? null : watermark.since.toString());
+    watermark.pendingOperation = operation.getName();
+    watermark.pendingSince = operationCreateTime(operation, startTime);
+    watermark.pendingFullExport = fullExport;
+    logger.debug(" exportFhirStoreDataToBigQuery started");
+  }
 
-              createDataSetInBigQuery(DIDStudyId);
+  /** @return true when the search found updated resources or could not be run */
+  private boolean hasResourcesUpdatedSince(String fhirStoreLocation, Instant since)
+      throws ProcessResponseException {
+    String searchJson =
+        fhirHealthcareApis.fhirResourceSearchPost(
+            fhirStoreLocation + "/fhir", "_lastUpdated=gt" + since + "&_count=1");
+    if (StringUtils.isBlank(searchJson)) {
+      // the search swallows its errors, so a failed search exports rather than skips updates
+      logger.error(
+          "hasResourcesUpdatedSince() search of " + fhirStoreLocation + " failed, exporting");
+      return true;
+    }
+    JsonArray entries =
+        new JsonParser().parse(searchJson).getAsJsonObject().getAsJsonArray("entry");
+    return entries != null && entries.size() > 0;
+  }
 
-              String didStoreLocation =
-                  String.format(
-                      "projects/%s/locations/%s/datasets/%s/fhirStores/%s",
-                      appConfig.getProjectId(),
-                      appConfig.getRegionId(),
-                      DIDStudyId,
-                      "DID_" + DIDStudyId);
+  /**
+   * Advances the high-water mark of the store once its last export succeeded.
+   *
+   * @return false while the last export is still running
+   */
+  private boolean settlePendingExport(String fhirStoreLocation, ExportWatermark watermark)
+      throws ProcessResponseException {
+    if (watermark.pendingOperation == null) {
+      return true;
+    }
+    Operation operation = deIdentifyHealthcareApis.getOperation(watermark.pendingOperation);
+    if (operation.getDone() == null || !operation.getDone()) {
+      return false;
+    }
+    if (operation.getError() != null) {
+      logger.error(
+          "settlePendingExport() export of "
+              + fhirStoreLocation
+              + " failed: "
+              + operation.getError());
+    } else {
+      watermark.since = watermark.pendingSince;
+      if (watermark.pendingFullExport) {
+        watermark.lastFullExport = watermark.pendingSince;
+      }
+    }
+    watermark.pendingOperation = null;
+    return true;
+  }
 
-              bigQueryApis.exportFhirStoreDataToBigQuery(
-                  didStoreLocation, appConfig.getProjectId(), DIDStudyId);
+  /** Server side creation time of the operation, so the next export does not skip resources. */
+  private Instant operationCreateTime(Operation operation, Instant defaultTime) {
+    Object createTime =
+        operation.getMetadata() != null ? operation.getMetadata().get("createTime") : null;
+    if (createTime == null) {
+      return defaultTime;
+    }
+    try {
+      return Instant.parse(createTime.toString());
+    } catch (DateTimeParseException e) {
+      return defaultTime;
+    }
+  }
 
-              logger.debug(" exportFhirStoreDataToBigQuery did");
+  /**
+   * Replaces the consent table of the study, unless no consent has a revision newer than the last
+   * ingested one. Consent rows are not appended, as the views expect one row per consent. Consents
+   * are read page by page and each row is uploaded to the load jobs as soon as it is encoded, so
+   * memory use does not grow with the size of the consent store. The table of an empty consent
+   * store is truncated.
+   */
+  void exportConsentStore(String studyId) throws Exception {
+    String consentDatasetName =
+        String.format(
+            "projects/%s/locations/%s/datasets/%s/consentStores/%s",
+            appConfig.getProjectId(), appConfig.getRegionId(), studyId, "CONSENT_" + studyId);
+    ExportWatermark watermark =
+        watermarks.computeIfAbsent(consentDatasetName, name -> new ExportWatermark());
+    Instant startTime = Instant.now();
+    if (!watermark.isFullExportDue(startTime, appConfig)) {
+      ListConsentsResponse revisedConsents =
+          consentManagementAPIs.getConsentsPage(
+              String.format("revision_create_time > \"%s\"", watermark.since),
+              consentDatasetName,
+              1,
+              null);
+      if (CollectionUtils.isEmpty(revisedConsents.getConsents())) {
+        logger.debug("exportConsentStore() no consent revisions since " + watermark.since);
+        createViews(studyId);
+        return;
+      }
+    }
+
+    // the same rows are loaded into the FHIR and the DID dataset, writers open on the first row
+    List<String> consentDatasets = new ArrayList<>();
+    if (appConfig.getEnableFhirApi().contains("fhir")
+        && !appConfig.getDiscardFhirAfterDid().equalsIgnoreCase("true")) {
+      consentDatasets.add(studyId + "_FHIR");
+    }
+    if (appConfig.getEnableFhirApi().contains("did")) {
+      consentDatasets.add(studyId);
+    }
+    List<BigQueryTableWriter> writers = new ArrayList<>();
+    Instant latestRevision = null;
+    String pageToken = null;
+    do {
+      ListConsentsResponse page =
+          consentManagementAPIs.getConsentsPage(
+              "", consentDatasetName, appConfig.getBigQueryConsentPageSize(), pageToken);
+      if (page.getConsents() != null) {
+        for (Consent consent : page.getConsents()) {
+          if (writers.isEmpty()) {
+            for (String consentDataset : consentDatasets) {
+              writers.add(
+                  bigQueryApis.openTableWriter(
+                      appConfig.getProjectId(),
+                      appConfig.getRegionId(),
+                      consentDataset,
+                      CONSENT_TABLE_NAME,
+                      WRITE_DISPOSITION_TRUNCATE));
             }
           }
+          String consentRow = encodeConsentRow(consent);
+          for (BigQueryTableWriter writer : writers) {
+            writer.writeRow(consentRow);
+          }
+          latestRevision = laterRevision(latestRevision, consent.getRevisionCreateTime());
         }
-      } catch (Exception e) {
-        logger.error("exportFHIRConsentDataToBQTask() DID Error ", e);
       }
+      pageToken = page.getNextPageToken();
+    } while (StringUtils.isNotEmpty(pageToken));
+
+    if (writers.isEmpty()) {
+      // no load job was opened, so the consents loaded before have to be dropped separately
+      for (String consentDataset : consentDatasets) {
+        bigQueryApis.truncateTable(
+            appConfig.getProjectId(), appConfig.getRegionId(), consentDataset, CONSENT_TABLE_NAME);
+      }
+      logger.debug("exportConsentStore() consent store is empty");
+    }
+    for (BigQueryTableWriter writer : writers) {
+      writer.finish();
+      logger.debug("exportConsentStore() loaded " + writer.getRowCount() + " consent rows");
     }
 
-    logger.debug("Export consent data from Google Healthcare API to BigQuery - Begin ");
-    try {
-      if (appConfig.getEnableConsentManagementAPI().equalsIgnoreCase("true")) {
-
-        List<com.google.api.services.healthcare.v1.model.Dataset> datasets =
-            consentManagementAPIs.datasetList(appConfig.getProjectId(), appConfig.getRegionId());
-
-        if (null != datasets && !datasets.isEmpty()) {
-          for (com.google.api.services.healthcare.v1.model.Dataset data : datasets) {
-
-            String ConsentStudyId = data.getName();
-            ConsentStudyId = ConsentStudyId.substring(ConsentStudyId.indexOf("/datasets/") + 10);
-            logger.debug("exportFHIRConsentDataToBQTask() Consent study ID: " + ConsentStudyId);
-
-            // createDataSetInBigQuery(ConsentStudyId);
-
-            // Ingest consent data
-            List<Object> consentDataBQ = new ArrayList<Object>();
-
-            String consentDatasetName =
-                String.format(
-                    "projects/%s/locations/%s/datasets/%s/consentStores/%s",
-                    appConfig.getProjectId(),
-                    appConfig.getRegionId(),
-                    ConsentStudyId,
-                    "CONSENT_" + ConsentStudyId);
-
-            List<Consent> consentDataList =
-                consentManagementAPIs.getListOfConsents("", consentDatasetName);
-
-            if (null != consentDataList && !consentDataList.isEmpty()) {
-              for (Consent consentList : consentDataList) {
-
-                JSONObject jsonObj = new JSONObject();
-                jsonObj.put(
-                    "ParticipantId",
-                    StringUtils.isNotEmpty(consentList.getUserId()) ? consentList.getUserId() : "");
-                jsonObj.put(
-                    "ConsentState",
-                    StringUtils.isNotEmpty(consentList.getState()) ? consentList.getState() : "");
-                jsonObj.put(
-                    "ConsentType",
-                    StringUtils.isNotEmpty(consentList.getMetadata().get("ConsentType"))
-                        ? consentList.getMetadata().get("ConsentType")
-                        : "");
-                jsonObj.put(
-                    "DataSharingPermission",
-                    StringUtils.isNotEmpty(consentList.getMetadata().get("DataSharingPermission"))
-                        ? consentList.getMetadata().get("DataSharingPermission")
-                        : "");
-
-                consentDataBQ.add(jsonObj);
-              }
-            }
-
-            if (appConfig.getEnableFhirApi().contains("fhir")
-                && !appConfig.getDiscardFhirAfterDid().equalsIgnoreCase("true")) {
-              if (null != consentDataBQ && !consentDataBQ.isEmpty()) {
-                bigQueryApis.ingestDataToBigQueryTable(
-                    appConfig.getProjectId(),
-                    appConfig.getRegionId(),
-                    ConsentStudyId + "_FHIR",
-                    CONSENT_TABLE_NAME,
-                    consentDataBQ,
-                    WriteDisposition);
-                logger.debug("ingestDataToBigQueryTable() complete FHIR ");
-              }
-            }
+    watermark.since = latestRevision != null ? latestRevision : startTime;
+    watermark.lastFullExport = startTime;
+    createViews(studyId);
+  }
 
-            if (appConfig.getEnableFhirApi().contains("did")) {
-              if (null != consentDataBQ && !consentDataBQ.isEmpty()) {
-                bigQueryApis.ingestDataToBigQueryTable(
-                    appConfig.getProjectId(),
-                    appConfig.getRegionId(),
-                    ConsentStudyId,
-                    CONSENT_TABLE_NAME,
-                    consentDataBQ,
-                    WriteDisposition);
-                logger.debug("ingestDataToBigQueryTable() complete DID ");
-              }
-            }
+  /** Encodes the consent_data row, with whitespace removed as the views expect. */
+  private String encodeConsentRow(Consent consent) throws JSONException {
+    Map<String, String> metadata =
+        consent.getMetadata() != null ? consent.getMetadata() : Collections.emptyMap();
+    JSONObject jsonObj = new JSONObject();
+    jsonObj.put("ParticipantId", StringUtils.defaultString(consent.getUserId()));
+    jsonObj.put("ConsentState", StringUtils.defaultString(consent.getState()));
+    jsonObj.put("ConsentType", StringUtils.defaultString(metadata.get("ConsentType")));
+    jsonObj.put(
+        "DataSharingPermission", StringUtils.defaultString(metadata.get("DataSharingPermission")));
+    return WHITESPACE.matcher(jsonObj.toString()).replaceAll("");
+  }
 
-            if (appConfig.getEnableFhirApi().contains("fhir")) {
-              bigQueryApis.createViewsInBigQuery(
-                  appConfig.getProjectId(), ConsentStudyId + "_FHIR");
-              logger.debug(" createViewsInBigQuery complete");
-            }
+  private Instant laterRevision(Instant latestRevision, String revisionCreateTime) {
+    if (StringUtils.isEmpty(revisionCreateTime)) {
+      return latestRevision;
+    }
+    try {
+      Instant revision = Instant.parse(revisionCreateTime);
+      return latestRevision == null || revision.isAfter(latestRevision) ? revision : latestRevision;
+    } catch (DateTimeParseException e) {
+      return latestRevision;
+    }
+  }
 
-            if (appConfig.getEnableFhirApi().contains("did")) {
-              bigQueryApis.createViewsInBigQuery(appConfig.getProjectId(), ConsentStudyId);
-              logger.debug(" createViewsInBigQuery did");
-            }
-          }
-        }
-      }
-    } catch (Exception e) {
-      logger.error("exportFHIRConsentDataToBQTask() Consent Error ", e);
+  private void createViews(String studyId) throws Exception {
+    if (appConfig.getEnableFhirApi().contains("fhir")) {
+      bigQueryApis.createViewsInBigQuery(appConfig.getProjectId(), studyId + "_FHIR");
+      logger.debug(" createViewsInBigQuery complete");
     }
 
-    logger.exit("exportFHIRConsentDataToBQTask() completed");
+    if (appConfig.getEnableFhirApi().contains("did")) {
+      bigQueryApis.createViewsInBigQuery(appConfig.getProjectId(), studyId);
+      logger.debug(" createViewsInBigQuery did");
+    }
   }
 
   public void createDataSetInBigQuery(String dataSetName) {
@@ -252,4 +420,19 @@ public class ExportFHIRDataToBQScheduledTask {
     }
     logger.exit("ExportFHIRDataToBQScheduledTask.createDataSetInBigQuery() completed");
   }
+
+  /** Export state of one store, only accessed by the worker exporting its study. */
+  private static class ExportWatermark {
+    private Instant since;
+    private Instant lastFullExport;
+    private String pendingOperation;
+    private Instant pendingSince;
+    private boolean pendingFullExport;
+
+    private boolean isFullExportDue(Instant now, ApplicationConfiguration appConfig) {
+      return since == null
+          || lastFullExport == null
+          || lastFullExport.plusMillis(appConfig.getBigQueryFullExportIntervalMs()).isBefore(now);
+    }
+  }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.task;
+
+import com.google.cloud.healthcare.fdamystudies.service.ParticipantWithdrawalJobService;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ParticipantWithdrawalJobScheduledTask {
+
+  private XLogger logger =
+      XLoggerFactory.getXLogger(ParticipantWithdrawalJobScheduledTask.class.getName());
+
+  @Autowired private ParticipantWithdrawalJobService participantWithdrawalJobService;
+
+  @Scheduled(fixedDelayString = "${response.withdrawal.job.recovery.check.ms}")
+  public void resumeAbandonedWithdrawalsTask() {
+    try {
+      participantWithdrawalJobService.resumeAbandonedWithdrawals();
+    } catch (Exception e) {
+      logger.error("resumeAbandonedWithdrawalsTask() failed", e);
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${response.withdrawal.job.purge.check.ms}")
+  public void purgeWithdrawalJobsTask() {
+    try {
+      participantWithdrawalJobService.purgeWithdrawalJobs();
+    } catch (Exception e) {
+      logger.error("purgeWithdrawalJobsTask() failed", e);
+    }
+  }
+}
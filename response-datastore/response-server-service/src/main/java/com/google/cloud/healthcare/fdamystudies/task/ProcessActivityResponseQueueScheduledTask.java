@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020-2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.task;
+
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.service.ActivityResponseQueueService;
+import com.google.cloud.healthcare.fdamystudies.service.ActivityResponseReceiptService;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ProcessActivityResponseQueueScheduledTask {
+
+  private XLogger logger =
+      XLoggerFactory.getXLogger(ProcessActivityResponseQueueScheduledTask.class.getName());
+
+  @Autowired private ActivityResponseQueueService activityResponseQueueService;
+
+  @Autowired private ActivityResponseReceiptService activityResponseReceiptService;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Scheduled(fixedDelayString = "${response.ingestion.poll.delay.ms}")
+  public void processActivityResponseQueueTask() {
+    if (!appConfig.isResponseIngestionAsyncEnabled()) {
+      return;
+    }
+    try {
+      activityResponseQueueService.processPendingActivityResponses();
+    } catch (Exception e) {
+      logger.error("processActivityResponseQueueTask() failed", e);
+    }
+  }
+
+  /** Runs even when asynchronous ingestion is disabled, so entries left from before are purged. */
+  @Scheduled(fixedDelayString = "${response.ingestion.failed.purge.check.ms}")
+  public void purgeFailedActivityResponsesTask() {
+    try {
+      activityResponseQueueService.purgeFailedActivityResponses();
+    } catch (Exception e) {
+      logger.error("purgeFailedActivityResponsesTask() failed", e);
+    }
+  }
+
+  @Scheduled(fixedDelayString = "${response.receipt.completed.purge.check.ms}")
+  public void purgeCompletedReceiptsTask() {
+    try {
+      activityResponseReceiptService.purgeCompletedReceipts();
+    } catch (Exception e) {
+      logger.error("purgeCompletedReceiptsTask() failed", e);
+    }
+  }
+}
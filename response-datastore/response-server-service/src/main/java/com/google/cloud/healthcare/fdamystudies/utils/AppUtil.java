@@ -8,19 +8,13 @@
 
 package com.google.cloud.healthcare.fdamystudies.utils;
 
-import com.google.api.client.http.HttpRequestInitializer;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.JsonFactory;
-import com.google.api.client.json.jackson2.JacksonFactory;
-import com.google.api.services.healthcare.v1.CloudHealthcare;
-import com.google.api.services.healthcare.v1.CloudHealthcareScopes;
-import com.google.auth.http.HttpCredentialsAdapter;
-import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.healthcare.fdamystudies.bean.ErrorBean;
+import com.google.cloud.healthcare.fdamystudies.exception.InvalidPageTokenException;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Collections;
+import java.util.Base64;
 import java.util.Locale;
 import java.util.TimeZone;
 import org.apache.commons.lang3.StringUtils;
@@ -29,8 +23,6 @@ import org.slf4j.ext.XLoggerFactory;
 
 public class AppUtil {
   private static final XLogger logger = XLoggerFactory.getXLogger(AppUtil.class.getName());
-  private static final JsonFactory JSON_FACTORY = new JacksonFactory();
-  private static final NetHttpTransport HTTP_TRANSPORT = new NetHttpTransport();
 
   public static ErrorBean dynamicResponse(
       int code, String userMessage, String type, String detailMessage) {
@@ -84,30 +76,31 @@ public class AppUtil {
     return sdf1.format(sdf.parse(dateString));
   }
 
-  public static CloudHealthcare createClient() throws ProcessResponseException {
-    try {
-      // Use Application Default Credentials (ADC) to authenticate the requests
-      GoogleCredentials credential =
-          GoogleCredentials.getApplicationDefault()
-              .createScoped(Collections.singleton(CloudHealthcareScopes.CLOUD_PLATFORM));
+  /** Encodes a storage cursor as an opaque, URL safe page token. */
+  public static String encodePageToken(String cursor) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+  }
 
-      // Create a HttpRequestInitializer, which will provide a baseline configuration to all
-      // requests.
-      HttpRequestInitializer requestInitializer =
-          request -> {
-            new HttpCredentialsAdapter(credential).initialize(request);
-            request.setConnectTimeout(60000); // 1 minute connect timeout
-            request.setReadTimeout(60000); // 1 minute read timeout
-          };
+  public static String decodePageToken(String pageToken) throws InvalidPageTokenException {
+    try {
+      return new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException e) {
+      throw new InvalidPageTokenException("Invalid page token");
+    }
+  }
 
-      // Build the client for interacting with the service.
-      return new CloudHealthcare.Builder(HTTP_TRANSPORT, JSON_FACTORY, requestInitializer)
-          .setApplicationName("your-application-name")
-          .build();
-    } catch (Exception e) {
-      logger.error(e.getMessage(), e);
-      throw new ProcessResponseException(e.getMessage());
+  /**
+   * Folds the case of a key, so that two folded keys are equal exactly when the keys are equal by
+   * {@link String#equalsIgnoreCase(String)}.
+   */
+  public static String foldKeyCase(String key) {
+    char[] chars = key.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
     }
+    return new String(chars);
   }
 
   public static String convertDateToOtherFormat1(
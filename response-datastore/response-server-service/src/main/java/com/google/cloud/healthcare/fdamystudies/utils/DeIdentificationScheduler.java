@@ -0,0 +1,308 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.utils;
+
+import com.google.api.services.healthcare.v1.model.Operation;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Coalesces de-identification of FHIR resources. Resource ids submitted for the same source and
+ * destination store within {@code did.batch.window.ms} are de-identified by a single operation, and
+ * the operations are started and polled with exponential backoff on the scheduler's own threads,
+ * never on the threads that submit. Callers get a future that completes once their resources are
+ * in the destination store.
+ *
+ * <p>Batches are only held in memory. Callers record the resources in {@code fhir_history} before
+ * submitting them, and {@code DIDForFHIROldResponses} re-submits the rows that are still not
+ * de-identified after a restart or a failed operation.
+ */
+@Component
+public class DeIdentificationScheduler {
+
+  private static final String STORE_SEPARATOR = "|";
+
+  private XLogger logger = XLoggerFactory.getXLogger(DeIdentificationScheduler.class.getName());
+
+  @Autowired private DeIdentifyHealthcareApis deIdentifyHealthcareApis;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  private final Map<String, PendingBatch> pendingBatches = new ConcurrentHashMap<>();
+
+  private final Queue<TrackedOperation> trackedOperations = new ConcurrentLinkedQueue<>();
+
+  /** Submissions per resource id that are batched or in a running operation. */
+  private final Map<String, Integer> inFlightResourceIds = new ConcurrentHashMap<>();
+
+  /** Flushes batches, starts operations and polls them. */
+  private ScheduledExecutorService operationExecutor;
+
+  /** Runs the callers' continuations so they never block the operation threads. */
+  private ExecutorService callbackExecutor;
+
+  @PostConstruct
+  public void initExecutors() {
+    callbackExecutor = Executors.newFixedThreadPool(appConfig.getDidCallbackThreads());
+    new ExecutorServiceMetrics(callbackExecutor, "didCallbacks", Collections.emptyList())
+        .bindTo(meterRegistry);
+    operationExecutor = Executors.newScheduledThreadPool(appConfig.getDidOperationThreads());
+    new ExecutorServiceMetrics(operationExecutor, "didOperations", Collections.emptyList())
+        .bindTo(meterRegistry);
+    Gauge.builder("did.operations.tracked", trackedOperations, Queue::size)
+        .register(meterRegistry);
+
+    long flushCheckMs = appConfig.getDidBatchFlushCheckMs();
+    operationExecutor.scheduleWithFixedDelay(
+        this::flushExpiredBatches, flushCheckMs, flushCheckMs, TimeUnit.MILLISECONDS);
+    long pollCheckMs = appConfig.getDidOperationPollCheckMs();
+    operationExecutor.scheduleWithFixedDelay(
+        this::pollOperations, pollCheckMs, pollCheckMs, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void shutdownExecutors() throws InterruptedException {
+    operationExecutor.shutdown();
+    operationExecutor.awaitTermination(30, TimeUnit.SECONDS);
+    callbackExecutor.shutdown();
+    callbackExecutor.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Queues resources for de-identification.
+   *
+   * @param srcDataStoreName
+   * @param destDataStoreName
+   * @param resourceIds resource type and id of each resource, e.g. QuestionnaireResponse/123
+   * @return future completed once the operation that includes the resources is done
+   */
+  public CompletableFuture<Void> submit(
+      String srcDataStoreName, String destDataStoreName, List<String> resourceIds) {
+    String key = srcDataStoreName + STORE_SEPARATOR + destDataStoreName;
+    CompletableFuture<Void> result = new CompletableFuture<>();
+    for (String resourceId : resourceIds) {
+      inFlightResourceIds.merge(resourceId, 1, Integer::sum);
+    }
+    PendingBatch batch = pendingBatches.computeIfAbsent(key, name -> new PendingBatch());
+    List<Submission> drained = new ArrayList<>();
+    Set<String> drainedIds =
+        batch.addAndDrainIfFull(
+            new Submission(resourceIds, result), appConfig.getDidBatchMaxResources(), drained);
+    if (!drainedIds.isEmpty()) {
+      dispatchOperation(srcDataStoreName, destDataStoreName, drainedIds, drained);
+    }
+    return result;
+  }
+
+  /**
+   * @param resourceId resource type and id, e.g. QuestionnaireResponse/123
+   * @return whether the resource was submitted and its operation is not done yet
+   */
+  public boolean isPending(String resourceId) {
+    return inFlightResourceIds.containsKey(resourceId);
+  }
+
+  void flushExpiredBatches() {
+    long oldestAllowed = System.currentTimeMillis() - appConfig.getDidBatchWindowMs();
+    for (Map.Entry<String, PendingBatch> batch : pendingBatches.entrySet()) {
+      List<Submission> drained = new ArrayList<>();
+      Set<String> drainedIds = batch.getValue().drainIfOlderThan(oldestAllowed, drained);
+      if (!drainedIds.isEmpty()) {
+        String[] stores = batch.getKey().split("\\" + STORE_SEPARATOR, 2);
+        dispatchOperation(stores[0], stores[1], drainedIds, drained);
+      }
+    }
+  }
+
+  void pollOperations() {
+    long now = System.currentTimeMillis();
+    Iterator<TrackedOperation> iterator = trackedOperations.iterator();
+    while (iterator.hasNext()) {
+      TrackedOperation tracked = iterator.next();
+      if (tracked.nextPollTime > now) {
+        continue;
+      }
+      Operation operation;
+      try {
+        operation = deIdentifyHealthcareApis.getOperation(tracked.name);
+      } catch (ProcessResponseException e) {
+        logger.error("pollOperations() - polling " + tracked.name + " failed", e);
+        tracked.backOff(System.currentTimeMillis(), appConfig.getDidOperationPollMaxMs());
+        continue;
+      }
+      if (operation.getDone() == null || !operation.getDone()) {
+        // the delay runs from the end of the poll, so slow polls do not shorten it
+        tracked.backOff(System.currentTimeMillis(), appConfig.getDidOperationPollMaxMs());
+        continue;
+      }
+      iterator.remove();
+      if (operation.getError() != null) {
+        logger.error(
+            "pollOperations() - operation " + tracked.name + " failed: " + operation.getError());
+        complete(
+            tracked.submissions,
+            new ProcessResponseException(
+                "De-identification failed: " + operation.getError().getMessage()));
+      } else {
+        logger.debug("pollOperations() - operation " + tracked.name + " done");
+        complete(tracked.submissions, null);
+      }
+    }
+  }
+
+  /** Starts the operation on an operation thread, so the submitting request never waits for it. */
+  private void dispatchOperation(
+      String srcDataStoreName,
+      String destDataStoreName,
+      Set<String> resourceIds,
+      List<Submission> submissions) {
+    try {
+      operationExecutor.execute(
+          () -> startOperation(srcDataStoreName, destDataStoreName, resourceIds, submissions));
+    } catch (RejectedExecutionException e) {
+      logger.error("dispatchOperation() - scheduler is shut down", e);
+      complete(submissions, e);
+    }
+  }
+
+  private void startOperation(
+      String srcDataStoreName,
+      String destDataStoreName,
+      Set<String> resourceIds,
+      List<Submission> submissions) {
+    logger.entry(
+        String.format(
+            "begin startOperation() %d resources for %s", resourceIds.size(), destDataStoreName));
+    try {
+      Operation operation =
+          deIdentifyHealthcareApis.startDeIdentification(
+              srcDataStoreName, destDataStoreName, new ArrayList<>(resourceIds));
+      if (operation.getDone() != null && operation.getDone()) {
+        complete(submissions, null);
+      } else {
+        trackedOperations.add(
+            new TrackedOperation(
+                operation.getName(), submissions, appConfig.getDidOperationPollInitialMs()));
+      }
+    } catch (Exception e) {
+      logger.error("startOperation() - de-identification failed for " + destDataStoreName, e);
+      complete(submissions, e);
+    }
+    logger.exit("startOperation() - Ends ");
+  }
+
+  private void complete(List<Submission> submissions, Exception error) {
+    for (Submission submission : submissions) {
+      for (String resourceId : submission.resourceIds) {
+        inFlightResourceIds.computeIfPresent(
+            resourceId, (id, count) -> count > 1 ? count - 1 : null);
+      }
+    }
+    Runnable completion =
+        () -> {
+          for (Submission submission : submissions) {
+            if (error == null) {
+              submission.result.complete(null);
+            } else {
+              submission.result.completeExceptionally(error);
+            }
+          }
+        };
+    try {
+      callbackExecutor.execute(completion);
+    } catch (RejectedExecutionException e) {
+      completion.run();
+    }
+  }
+
+  private static class Submission {
+    private final List<String> resourceIds;
+    private final CompletableFuture<Void> result;
+
+    private Submission(List<String> resourceIds, CompletableFuture<Void> result) {
+      this.resourceIds = resourceIds;
+      this.result = result;
+    }
+  }
+
+  private static class PendingBatch {
+    private Set<String> resourceIds = new LinkedHashSet<>();
+    private List<Submission> submissions = new ArrayList<>();
+    private long oldestEntryTime;
+
+    private synchronized Set<String> addAndDrainIfFull(
+        Submission submission, int maxResources, List<Submission> drained) {
+      if (resourceIds.isEmpty()) {
+        oldestEntryTime = System.currentTimeMillis();
+      }
+      resourceIds.addAll(submission.resourceIds);
+      submissions.add(submission);
+      return resourceIds.size() >= maxResources ? drain(drained) : new LinkedHashSet<>();
+    }
+
+    private synchronized Set<String> drainIfOlderThan(long time, List<Submission> drained) {
+      return !resourceIds.isEmpty() && oldestEntryTime <= time
+          ? drain(drained)
+          : new LinkedHashSet<>();
+    }
+
+    private Set<String> drain(List<Submission> drained) {
+      Set<String> drainedIds = resourceIds;
+      drained.addAll(submissions);
+      resourceIds = new LinkedHashSet<>();
+      submissions = new ArrayList<>();
+      return drainedIds;
+    }
+  }
+
+  private static class TrackedOperation {
+    private final String name;
+    private final List<Submission> submissions;
+    private long pollDelayMs;
+    private long nextPollTime;
+
+    private TrackedOperation(String name, List<Submission> submissions, long initialPollDelayMs) {
+      this.name = name;
+      this.submissions = submissions;
+      this.pollDelayMs = initialPollDelayMs;
+      this.nextPollTime = System.currentTimeMillis() + initialPollDelayMs;
+    }
+
+    private void backOff(long now, long maxPollDelayMs) {
+      pollDelayMs = Math.min(pollDelayMs * 2, maxPollDelayMs);
+      nextPollTime = now + pollDelayMs;
+    }
+  }
+}
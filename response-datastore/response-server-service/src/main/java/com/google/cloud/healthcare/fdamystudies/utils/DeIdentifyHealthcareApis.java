@@ -21,6 +21,9 @@ import com.google.api.services.healthcare.v1.model.Operation;
 import com.google.api.services.healthcare.v1.model.Resources;
 import com.google.cloud.healthcare.fdamystudies.bean.FHIRQuestionnaireResponseBean;
 import com.google.cloud.healthcare.fdamystudies.bean.ItemsQuestionnaireResponse;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import org.apache.commons.collections4.CollectionUtils;
@@ -39,6 +42,9 @@ public class DeIdentifyHealthcareApis {
 
   private XLogger logger = XLoggerFactory.getXLogger(DeIdentifyHealthcareApis.class.getName());
   @Autowired private FhirHealthcareApis fhirHealthcareApis;
+  @Autowired private FhirBundleWriter fhirBundleWriter;
+  @Autowired private ApplicationConfiguration appConfig;
+  @Autowired private HealthcareApiHttpClient healthcareApiHttpClient;
 
   private static final String FHIR_STORES = "/fhirStores/";
 
@@ -47,31 +53,35 @@ public class DeIdentifyHealthcareApis {
           + "item.item.definition,item.item.answer.valueString,item.item.answer.valueDecimal,item.item.answer.valueTime";
 
   private static final String INSPECT_AND_TRANSFORM = "INSPECT_AND_TRANSFORM";
+
+  private static final String LOCATION_PATCH_OPERATION =
+      "{\"op\": \"replace\", \"path\": \"%s/answer/0/valueString\", \"value\": \"[LOCATION]\"}";
   /**
-   * Fhir store with sensitive information de-identified.
+   * Starts a de-identify operation copying the given resources from the source to the destination
+   * FHIR store.
    *
    * @param srcDataStoreName
    * @param destDataStoreName
-   * @param resourceId
+   * @param resourceIds resource type and id of each resource, e.g. QuestionnaireResponse/123
+   * @return the long-running operation
    * @throws ProcessResponseException
    */
-  public void deIdentification(
-      String srcDataStoreName, String destDataStoreName, List<String> resourceId)
+  public Operation startDeIdentification(
+      String srcDataStoreName, String destDataStoreName, List<String> resourceIds)
       throws ProcessResponseException {
-    logger.entry("begin deIdentification()");
-    String fhirResponseFields = FIELDS_TO_BE_DEIDENTIFIED;
+    logger.entry("begin startDeIdentification()");
     try {
       // Initialize the client, which will be used to interact with the service.
-      CloudHealthcare client = AppUtil.createClient();
+      CloudHealthcare client = healthcareApiHttpClient.getHealthcareClient();
 
       // Configure what information needs to be De-Identified.
       FieldMetadata fieldMetadata =
           new FieldMetadata()
               .setAction(INSPECT_AND_TRANSFORM)
-              .setPaths(Arrays.asList(fhirResponseFields.split(",")));
+              .setPaths(Arrays.asList(FIELDS_TO_BE_DEIDENTIFIED.split(",")));
       FhirConfig fhirConfig = new FhirConfig().setFieldMetadataList(Arrays.asList(fieldMetadata));
       DeidentifyConfig deidentifyConfig = new DeidentifyConfig().setFhir(fhirConfig);
-      Resources resources = new Resources().setResources(resourceId);
+      Resources resources = new Resources().setResources(resourceIds);
       FhirFilter fhirFilter = new FhirFilter().setResources(resources);
 
       // Create the de-identify request and configure any parameters.
@@ -80,7 +90,6 @@ public class DeIdentifyHealthcareApis {
               .setDestinationStore(destDataStoreName)
               .setConfig(deidentifyConfig)
               .setResourceFilter(fhirFilter);
-      logger.entry("begin deIdentification()" + deidentifyRequest.toString());
       FhirStores.Deidentify request =
           client
               .projects()
@@ -88,28 +97,33 @@ public class DeIdentifyHealthcareApis {
               .datasets()
               .fhirStores()
               .deidentify(srcDataStoreName, deidentifyRequest);
-      logger.entry("begin deIdentification()" + request.toString());
 
       Operation operation = request.execute();
-      logger.entry("begin deIdentification()" + operation.toString());
-      while (operation.getDone() == null || !operation.getDone()) {
-        // Update the status of the operation with another request.
-        Thread.sleep(500); // Pause for 500ms between requests.
-        operation =
-            client
-                .projects()
-                .locations()
-                .datasets()
-                .operations()
-                .get(operation.getName())
-                .execute();
-      }
+      logger.exit("startDeIdentification() - Ends " + operation.getName());
+      return operation;
+    } catch (IOException e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
 
-      logger.debug("De-identified Dataset created. Response content: " + operation.getResponse());
-      logger.exit("deIdentification() - Ends ");
-    } catch (Exception e) {
+  /**
+   * @param operationName name of a long-running operation
+   * @return the current state of the operation
+   * @throws ProcessResponseException
+   */
+  public Operation getOperation(String operationName) throws ProcessResponseException {
+    try {
+      return healthcareApiHttpClient.getHealthcareClient()
+          .projects()
+          .locations()
+          .datasets()
+          .operations()
+          .get(operationName)
+          .execute();
+    } catch (IOException e) {
       logger.error(e.getMessage(), e);
-      // throw new ProcessResponseException(e.getMessage());
+      throw new ProcessResponseException(e.getMessage());
     }
   }
 
@@ -120,36 +134,21 @@ public class DeIdentifyHealthcareApis {
       throws ProcessResponseException {
     if (fhirQuestionnaireResponseBean != null) {
       List<ItemsQuestionnaireResponse> items = fhirQuestionnaireResponseBean.getItem();
+      // all location answers of a response are masked with a single JSON patch
+      List<String> operations = new ArrayList<>();
       int count = 0;
       for (ItemsQuestionnaireResponse questionnaireItems : items) {
-        final String RESOURCE_NAME =
-            datasetPathforDID
-                + FHIR_STORES
-                + "DID_"
-                + studyId
-                + "/fhir/"
-                + QUESTIONNAIRE_RESPONSE_TYPE
-                + "/"
-                + fhirQuestionnaireResponseBean.getId();
         if (questionnaireItems.getDefinition().equalsIgnoreCase("location")) {
-          String data =
-              "[{\"op\": \"replace\", \"path\": \"/item/"
-                  + count
-                  + "/answer/0/valueString\", \"value\": \"[LOCATION]\"}]";
-          fhirHealthcareApis.fhirResourcePatch(RESOURCE_NAME, data);
+          operations.add(String.format(LOCATION_PATCH_OPERATION, "/item/" + count));
         } else if (questionnaireItems.getDefinition().equalsIgnoreCase("grouped")) {
           List<ItemsQuestionnaireResponse> innerItem = questionnaireItems.getItem();
           if (CollectionUtils.isNotEmpty(innerItem)) {
             int innerCount = 0;
             for (ItemsQuestionnaireResponse questionnaireInnerItems : innerItem) {
               if (questionnaireInnerItems.getDefinition().equalsIgnoreCase("location")) {
-                String data =
-                    "[{\"op\": \"replace\", \"path\": \"/item/"
-                        + count
-                        + "/item/"
-                        + innerCount
-                        + "/answer/0/valueString\", \"value\": \"[LOCATION]\"}]";
-                fhirHealthcareApis.fhirResourcePatch(RESOURCE_NAME, data);
+                operations.add(
+                    String.format(
+                        LOCATION_PATCH_OPERATION, "/item/" + count + "/item/" + innerCount));
               }
               innerCount++;
             }
@@ -157,6 +156,19 @@ public class DeIdentifyHealthcareApis {
         }
         count++;
       }
+      if (operations.isEmpty()) {
+        return;
+      }
+
+      String didStoreName = datasetPathforDID + FHIR_STORES + "DID_" + studyId;
+      String resourcePath =
+          QUESTIONNAIRE_RESPONSE_TYPE + "/" + fhirQuestionnaireResponseBean.getId();
+      String data = "[" + String.join(",", operations) + "]";
+      if (appConfig.isFhirBundleEnabled()) {
+        fhirBundleWriter.patch(didStoreName, resourcePath, data);
+      } else {
+        fhirHealthcareApis.fhirResourcePatch(didStoreName + "/fhir/" + resourcePath, data);
+      }
     }
   }
 }
@@ -74,7 +74,11 @@ public enum ErrorCode {
           + " but could not delete participant activity state data."),
 
   EC_718(718, "UNAUTHORIZED"),
-  EC_719(719, "Invalid clientId or secretKey");
+  EC_719(719, "Invalid clientId or secretKey"),
+
+  EC_720(720, "Too many responses are waiting to be processed. Please try again after sometime"),
+
+  EC_721(721, "This activity response is already being processed. Please try again after sometime");
 
   private final int code;
   private final String errorMessage;
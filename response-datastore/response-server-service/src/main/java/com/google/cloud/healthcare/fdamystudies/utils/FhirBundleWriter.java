@@ -0,0 +1,349 @@
+/*
+ * Copyright 2020-2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.utils;
+
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.exception.FhirBundleRejectedException;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Groups FHIR create and patch requests per FHIR store into batch or transaction bundles. A store
+ * is flushed when it holds {@code fhir.bundle.max.entries} requests or when its oldest request is
+ * older than {@code fhir.bundle.max.age.ms}. Bundles are executed on a dedicated pool of {@code
+ * fhir.bundle.flush.threads}, so neither the request that fills a bundle nor the application task
+ * scheduler waits for the FHIR store.
+ *
+ * <p>Entries of a bundle that failed, or that the store answered with a retryable status, are sent
+ * again one at a time. Entries of a rejected bundle, e.g. a rolled back transaction, and entries
+ * rejected by the store fail without being sent again.
+ */
+@Component
+public class FhirBundleWriter {
+
+  private XLogger logger = XLoggerFactory.getXLogger(FhirBundleWriter.class.getName());
+
+  @Autowired private FhirHealthcareApis fhirHealthcareApis;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  private final Map<String, StoreBuffer> buffers = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService flushExecutor;
+
+  @PostConstruct
+  public void initFlushExecutor() {
+    flushExecutor = Executors.newScheduledThreadPool(appConfig.getFhirBundleFlushThreads());
+    new ExecutorServiceMetrics(flushExecutor, "fhirBundleFlush", Collections.emptyList())
+        .bindTo(meterRegistry);
+    flushExecutor.scheduleWithFixedDelay(
+        this::flushExpired,
+        appConfig.getFhirBundleFlushCheckMs(),
+        appConfig.getFhirBundleFlushCheckMs(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Queues the creation of a resource.
+   *
+   * @param fhirStoreName
+   * @param resourceType
+   * @param resourceJson
+   * @return future completed with the created resource once the bundle is executed; cancelling
+   *     it before the bundle is sent drops the request
+   */
+  public CompletableFuture<String> create(
+      String fhirStoreName, String resourceType, String resourceJson) {
+    PendingEntry entry = new PendingEntry("POST", resourceType, resourceJson, null);
+    add(fhirStoreName, entry);
+    return entry.result;
+  }
+
+  /**
+   * Queues a JSON patch of a resource.
+   *
+   * @param fhirStoreName
+   * @param resourcePath resource type and id, e.g. QuestionnaireResponse/123
+   * @param jsonPatch
+   * @return future completed once the patch is applied, or exceptionally when it failed
+   */
+  public CompletableFuture<String> patch(
+      String fhirStoreName, String resourcePath, String jsonPatch) {
+    PendingEntry entry = new PendingEntry("PATCH", resourcePath, null, jsonPatch);
+    add(fhirStoreName, entry);
+    return entry.result;
+  }
+
+  public void flushExpired() {
+    long oldestAllowed = System.currentTimeMillis() - appConfig.getFhirBundleMaxAgeMs();
+    for (Map.Entry<String, StoreBuffer> buffer : buffers.entrySet()) {
+      List<PendingEntry> entries = buffer.getValue().drainIfOlderThan(oldestAllowed);
+      if (!entries.isEmpty()) {
+        submit(buffer.getKey(), entries);
+      }
+    }
+  }
+
+  @PreDestroy
+  public void flushAll() throws InterruptedException {
+    for (Map.Entry<String, StoreBuffer> buffer : buffers.entrySet()) {
+      List<PendingEntry> entries = buffer.getValue().drainIfOlderThan(Long.MAX_VALUE);
+      if (!entries.isEmpty()) {
+        submit(buffer.getKey(), entries);
+      }
+    }
+    flushExecutor.shutdown();
+    flushExecutor.awaitTermination(30, TimeUnit.SECONDS);
+  }
+
+  private void add(String fhirStoreName, PendingEntry entry) {
+    StoreBuffer buffer = buffers.computeIfAbsent(fhirStoreName, name -> new StoreBuffer());
+    List<PendingEntry> entries =
+        buffer.addAndDrainIfFull(entry, appConfig.getFhirBundleMaxEntries());
+    if (!entries.isEmpty()) {
+      submit(fhirStoreName, entries);
+    }
+  }
+
+  private void submit(String fhirStoreName, List<PendingEntry> entries) {
+    try {
+      flushExecutor.execute(() -> executeOrFail(fhirStoreName, entries));
+    } catch (RejectedExecutionException e) {
+      logger.error("submit() - flush rejected for " + fhirStoreName, e);
+      fail(entries, e);
+    }
+  }
+
+  private void executeOrFail(String fhirStoreName, List<PendingEntry> entries) {
+    try {
+      execute(fhirStoreName, entries);
+    } catch (RuntimeException e) {
+      logger.error("executeOrFail() - flush failed for " + fhirStoreName, e);
+      fail(entries, e);
+    }
+  }
+
+  private void fail(List<PendingEntry> entries, Exception cause) {
+    for (PendingEntry entry : entries) {
+      entry.result.completeExceptionally(cause);
+    }
+  }
+
+  private void execute(String fhirStoreName, List<PendingEntry> drained) {
+    // requests whose caller stopped waiting are not sent
+    List<PendingEntry> entries = new ArrayList<>();
+    for (PendingEntry entry : drained) {
+      if (!entry.result.isCancelled()) {
+        entries.add(entry);
+      }
+    }
+    if (entries.isEmpty()) {
+      return;
+    }
+    logger.entry(
+        String.format("begin execute() %d entries for %s", entries.size(), fhirStoreName));
+    JsonArray bundleEntries = new JsonArray();
+    for (PendingEntry entry : entries) {
+      bundleEntries.add(toBundleEntry(entry));
+    }
+    JsonObject bundle = new JsonObject();
+    bundle.addProperty("resourceType", "Bundle");
+    bundle.addProperty("type", appConfig.getFhirBundleType());
+    bundle.add("entry", bundleEntries);
+
+    JsonArray responseEntries = null;
+    try {
+      String responseJson = fhirHealthcareApis.fhirExecuteBundle(fhirStoreName, bundle.toString());
+      if (StringUtils.isNotBlank(responseJson)) {
+        responseEntries =
+            new JsonParser().parse(responseJson).getAsJsonObject().getAsJsonArray("entry");
+      }
+    } catch (FhirBundleRejectedException e) {
+      // a rejected transaction is rolled back as a whole, so its entries are not sent on their own
+      logger.error("execute() - bundle rejected for " + fhirStoreName, e);
+      fail(entries, e);
+      return;
+    } catch (Exception e) {
+      logger.error("execute() - bundle failed for " + fhirStoreName, e);
+    }
+
+    for (int i = 0; i < entries.size(); i++) {
+      PendingEntry entry = entries.get(i);
+      JsonObject responseEntry =
+          responseEntries != null && i < responseEntries.size()
+              ? responseEntries.get(i).getAsJsonObject()
+              : null;
+      complete(fhirStoreName, entry, responseEntry);
+    }
+    logger.exit("execute() - Ends ");
+  }
+
+  private JsonObject toBundleEntry(PendingEntry entry) {
+    JsonObject request = new JsonObject();
+    request.addProperty("method", entry.method);
+    request.addProperty("url", entry.url);
+    JsonObject bundleEntry = new JsonObject();
+    if ("PATCH".equals(entry.method)) {
+      // JSON patches travel in a bundle as a Binary resource
+      JsonObject binary = new JsonObject();
+      binary.addProperty("resourceType", "Binary");
+      binary.addProperty("contentType", "application/json-patch+json");
+      binary.addProperty(
+          "data",
+          Base64.getEncoder().encodeToString(entry.jsonPatch.getBytes(StandardCharsets.UTF_8)));
+      bundleEntry.add("resource", binary);
+    } else {
+      bundleEntry.add("resource", new JsonParser().parse(entry.resourceJson));
+    }
+    bundleEntry.add("request", request);
+    return bundleEntry;
+  }
+
+  /**
+   * Completes the entry from its response entry. Entries of a bundle that failed without being
+   * rejected, and entries the store could not process at the time, are sent again one at a time.
+   *
+   * @param responseEntry null when the bundle failed
+   */
+  private void complete(String fhirStoreName, PendingEntry entry, JsonObject responseEntry) {
+    String status = null;
+    if (responseEntry != null && responseEntry.has("response")) {
+      JsonElement statusElement = responseEntry.getAsJsonObject("response").get("status");
+      status = statusElement != null ? statusElement.getAsString() : null;
+    }
+    if (status != null && status.startsWith("2")) {
+      entry.result.complete(
+          "PATCH".equals(entry.method) ? null : createdResourceJson(entry, responseEntry));
+      return;
+    }
+    if (status != null && !isRetryableStatus(status)) {
+      // the store rejected the entry itself, which fails the same way when sent again
+      entry.result.completeExceptionally(
+          new ProcessResponseException(
+              String.format("%s %s failed with status %s", entry.method, entry.url, status)));
+      return;
+    }
+
+    logger.debug(
+        "complete() - bundled " + entry.url + " failed with status " + status + ", retrying");
+    try {
+      if ("PATCH".equals(entry.method)) {
+        fhirHealthcareApis.fhirResourcePatch(fhirStoreName + "/fhir/" + entry.url, entry.jsonPatch);
+        entry.result.complete(null);
+      } else {
+        String created =
+            fhirHealthcareApis.fhirResourceCreate(fhirStoreName, entry.url, entry.resourceJson);
+        if (created == null) {
+          throw new ProcessResponseException("Could not create " + entry.url);
+        }
+        entry.result.complete(created);
+      }
+    } catch (Exception e) {
+      logger.error("complete() - " + entry.method + " failed for " + entry.url, e);
+      entry.result.completeExceptionally(e);
+    }
+  }
+
+  /** @param status status of a response entry, e.g. "503 Service Unavailable" */
+  private static boolean isRetryableStatus(String status) {
+    String code = StringUtils.substringBefore(status.trim(), " ");
+    return StringUtils.isNumeric(code)
+        && FhirHealthcareApis.isRetryableStatus(Integer.parseInt(code));
+  }
+
+  /**
+   * Returns the resource from the response entry. When the store does not echo the resource, the
+   * submitted resource is returned with the id and version id taken from the response location.
+   */
+  private String createdResourceJson(PendingEntry entry, JsonObject responseEntry) {
+    if (responseEntry.has("resource")) {
+      return responseEntry.get("resource").toString();
+    }
+    JsonObject resource = new JsonParser().parse(entry.resourceJson).getAsJsonObject();
+    JsonElement location = responseEntry.getAsJsonObject("response").get("location");
+    if (location != null) {
+      // location ends with <resourceType>/<id>/_history/<versionId>
+      String[] parts = location.getAsString().split("/");
+      for (int i = 0; i < parts.length - 1; i++) {
+        if (parts[i].equals(entry.url)) {
+          resource.addProperty("id", parts[i + 1]);
+          if (i + 3 < parts.length && "_history".equals(parts[i + 2])) {
+            JsonObject meta = new JsonObject();
+            meta.addProperty("versionId", parts[i + 3]);
+            resource.add("meta", meta);
+          }
+        }
+      }
+    }
+    return resource.toString();
+  }
+
+  private static class PendingEntry {
+    private final String method;
+    private final String url;
+    private final String resourceJson;
+    private final String jsonPatch;
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+
+    private PendingEntry(String method, String url, String resourceJson, String jsonPatch) {
+      this.method = method;
+      this.url = url;
+      this.resourceJson = resourceJson;
+      this.jsonPatch = jsonPatch;
+    }
+  }
+
+  private static class StoreBuffer {
+    private List<PendingEntry> entries = new ArrayList<>();
+    private long oldestEntryTime;
+
+    private synchronized List<PendingEntry> addAndDrainIfFull(PendingEntry entry, int maxEntries) {
+      if (entries.isEmpty()) {
+        oldestEntryTime = System.currentTimeMillis();
+      }
+      entries.add(entry);
+      return entries.size() >= maxEntries ? drain() : new ArrayList<>();
+    }
+
+    private synchronized List<PendingEntry> drainIfOlderThan(long time) {
+      return !entries.isEmpty() && oldestEntryTime <= time ? drain() : new ArrayList<>();
+    }
+
+    private List<PendingEntry> drain() {
+      List<PendingEntry> drained = entries;
+      entries = new ArrayList<>();
+      return drained;
+    }
+  }
+}
@@ -10,27 +10,22 @@ package com.google.cloud.healthcare.fdamystudies.utils;
 
 import com.google.api.services.healthcare.v1.CloudHealthcare;
 import com.google.api.services.healthcare.v1.CloudHealthcare.Projects.Locations.Datasets.FhirStores;
-import com.google.api.services.healthcare.v1.CloudHealthcareScopes;
 import com.google.api.services.healthcare.v1.model.FhirStore;
 import com.google.api.services.healthcare.v1.model.ListFhirStoresResponse;
-import com.google.auth.oauth2.GoogleCredentials;
-import java.io.IOException;
-import java.util.Collections;
+import com.google.cloud.healthcare.fdamystudies.exception.FhirBundleRejectedException;
+import com.google.cloud.healthcare.fdamystudies.utils.HealthcareApiHttpClient.HealthcareApiResponse;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
@@ -40,7 +35,12 @@ import org.springframework.stereotype.Component;
  */
 @Component
 public class FhirHealthcareApis {
+  private static final int TOO_MANY_REQUESTS = 429;
+
   private XLogger logger = XLoggerFactory.getXLogger(FhirHealthcareApis.class.getName());
+
+  @Autowired private HealthcareApiHttpClient healthcareApiHttpClient;
+
   /**
    * To create fhirStore
    *
@@ -54,7 +54,7 @@ public class FhirHealthcareApis {
 
     try {
       // Initialize the client, which will be used to interact with the service.
-      CloudHealthcare client = AppUtil.createClient();
+      CloudHealthcare client = healthcareApiHttpClient.getHealthcareClient();
 
       // Configure the FhirStore to be created.
       Map<String, String> labels = new HashMap<>();
@@ -92,7 +92,7 @@ public class FhirHealthcareApis {
   public void fhirStoreGet(String fhirStoreName) throws Exception {
     logger.entry("begin fhirStoreGet()");
     // Initialize the client, which will be used to interact with the service.
-    CloudHealthcare client = AppUtil.createClient();
+    CloudHealthcare client = healthcareApiHttpClient.getHealthcareClient();
 
     // Create request and configure any parameters.
     FhirStores.Get request =
@@ -122,11 +122,13 @@ public class FhirHealthcareApis {
     String fhirResponseJson = null;
     // Initialize the client, which will be used to interact with the service.
     try {
-      CloudHealthcare client = AppUtil.createClient();
-      HttpClient httpClient = HttpClients.createDefault();
       String uri =
-          String.format("%sv1/%s/fhir/%s", client.getRootUrl(), fhirStoreName, resourceType);
-      URIBuilder uriBuilder = new URIBuilder(uri).setParameter("access_token", getAccessToken());
+          String.format(
+              "%sv1/%s/fhir/%s",
+              healthcareApiHttpClient.getRootUrl(),
+              fhirStoreName,
+              resourceType);
+      URIBuilder uriBuilder = new URIBuilder(uri);
       StringEntity requestEntity = new StringEntity(requestJson);
       HttpUriRequest request =
           RequestBuilder.post()
@@ -137,15 +139,12 @@ public class FhirHealthcareApis {
               .addHeader("Accept", "application/fhir+json; charset=utf-8")
               .build();
       // Execute the request and process the results.
-      HttpResponse response = httpClient.execute(request);
-      HttpEntity responseEntity = response.getEntity();
-      if (response.getStatusLine().getStatusCode() != HttpStatus.SC_CREATED) {
-        logger.debug("Exception creating FHIR resource: " + response.getStatusLine().toString());
+      HealthcareApiResponse response = healthcareApiHttpClient.execute(request);
+      if (response.getStatusCode() != HttpStatus.SC_CREATED) {
+        logger.debug("Exception creating FHIR resource: " + response.getStatusLine());
         throw new Exception();
       } else {
-        if (response.getEntity() != null) {
-          fhirResponseJson = EntityUtils.toString(responseEntity);
-        }
+        fhirResponseJson = response.getBody();
       }
     } catch (Exception e) {
       // TODO Auto-generated catch block
@@ -155,16 +154,72 @@ public class FhirHealthcareApis {
     return fhirResponseJson;
   }
 
+  /**
+   * To execute a FHIR batch or transaction bundle against a FHIR store
+   *
+   * @param fhirStoreName
+   * @param bundleJson
+   * @return the response bundle
+   * @throws FhirBundleRejectedException when the store rejects the bundle with a client error
+   * @throws ProcessResponseException
+   */
+  public String fhirExecuteBundle(String fhirStoreName, String bundleJson)
+      throws ProcessResponseException {
+    logger.entry("begin fhirExecuteBundle()");
+    String fhirResponseJson = null;
+    try {
+      String uri =
+          String.format("%sv1/%s/fhir", healthcareApiHttpClient.getRootUrl(), fhirStoreName);
+      URIBuilder uriBuilder = new URIBuilder(uri);
+      StringEntity requestEntity = new StringEntity(bundleJson, "UTF-8");
+      HttpUriRequest request =
+          RequestBuilder.post()
+              .setUri(uriBuilder.build())
+              .setEntity(requestEntity)
+              .addHeader("Content-Type", "application/fhir+json")
+              .addHeader("Accept-Charset", "utf-8")
+              .addHeader("Accept", "application/fhir+json; charset=utf-8")
+              .build();
+      // Execute the request and process the results.
+      HealthcareApiResponse response = healthcareApiHttpClient.execute(request);
+      if (response.getStatusCode() != HttpStatus.SC_OK) {
+        logger.debug("Exception executing FHIR bundle: " + response.getStatusLine());
+        if (!isRetryableStatus(response.getStatusCode())) {
+          throw new FhirBundleRejectedException(
+              response.getStatusLine() + " " + StringUtils.defaultString(response.getBody()));
+        }
+        throw new Exception(response.getStatusLine());
+      } else {
+        fhirResponseJson = response.getBody();
+      }
+    } catch (FhirBundleRejectedException e) {
+      logger.error(e.getMessage(), e);
+      throw e;
+    } catch (Exception e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+    logger.exit("fhirExecuteBundle() - Ends ");
+    return fhirResponseJson;
+  }
+
+  /**
+   * @return true for statuses a request may succeed after when sent again, i.e. too many requests
+   *     and server errors
+   */
+  static boolean isRetryableStatus(int statusCode) {
+    return statusCode == TOO_MANY_REQUESTS || statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+  }
+
   public String fhirResourceSearchPost(String resourceName, String search)
       throws ProcessResponseException {
     logger.entry("begin fhirResofhirResourceSearchPosturceCreate()");
     String responseJson = null;
     try {
-      CloudHealthcare client = AppUtil.createClient();
-
-      HttpClient httpClient = HttpClients.createDefault();
-      String uri = String.format("%sv1/%s/_search?%s", client.getRootUrl(), resourceName, search);
-      URIBuilder uriBuilder = new URIBuilder(uri).setParameter("access_token", getAccessToken());
+      String uri =
+          String.format(
+              "%sv1/%s/_search?%s", healthcareApiHttpClient.getRootUrl(), resourceName, search);
+      URIBuilder uriBuilder = new URIBuilder(uri);
       StringEntity requestEntity = new StringEntity("");
 
       HttpUriRequest request =
@@ -177,11 +232,10 @@ public class FhirHealthcareApis {
               .build();
 
       // Execute the request and process the results.
-      HttpResponse response = httpClient.execute(request);
-      HttpEntity responseEntity = response.getEntity();
-      if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_FOUND) {
-          logger.debug("HttpStatus code " + response.getStatusLine().getStatusCode());
+      HealthcareApiResponse response = healthcareApiHttpClient.execute(request);
+      if (response.getStatusCode() != HttpStatus.SC_OK) {
+        if (response.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+          logger.debug("HttpStatus code " + response.getStatusCode());
           return null;
         }
         //        else {
@@ -191,9 +245,7 @@ public class FhirHealthcareApis {
         //          throw new Exception();
         //        }
       } else {
-        if (response.getEntity() != null) {
-          responseJson = EntityUtils.toString(responseEntity);
-        }
+        responseJson = response.getBody();
       }
     } catch (Exception e) {
       logger.error("fhirResourceSearchPost() - Error ", e);
@@ -207,11 +259,9 @@ public class FhirHealthcareApis {
     String responseJson = null;
     try {
       // Initialize the client, which will be used to interact with the service.
-      CloudHealthcare client = AppUtil.createClient();
-
-      HttpClient httpClient = HttpClients.createDefault();
-      String uri = String.format("%sv1/%s/_history", client.getRootUrl(), resourceName);
-      URIBuilder uriBuilder = new URIBuilder(uri).setParameter("access_token", getAccessToken());
+      String uri =
+          String.format("%sv1/%s/_history", healthcareApiHttpClient.getRootUrl(), resourceName);
+      URIBuilder uriBuilder = new URIBuilder(uri);
 
       HttpUriRequest request =
           RequestBuilder.get()
@@ -222,17 +272,13 @@ public class FhirHealthcareApis {
               .build();
 
       // Execute the request and process the results.
-      HttpResponse response = httpClient.execute(request);
-      HttpEntity responseEntity = response.getEntity();
-      if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+      HealthcareApiResponse response = healthcareApiHttpClient.execute(request);
+      if (response.getStatusCode() != HttpStatus.SC_OK) {
         logger.debug(
-            "Exception while fetching FHIR resource history version: "
-                + response.getStatusLine().toString());
+            "Exception while fetching FHIR resource history version: " + response.getStatusLine());
         throw new Exception();
       } else {
-        if (response.getEntity() != null) {
-          responseJson = EntityUtils.toString(responseEntity);
-        }
+        responseJson = response.getBody();
       }
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
@@ -248,11 +294,8 @@ public class FhirHealthcareApis {
 
     try {
       // Initialize the client, which will be used to interact with the service.
-      CloudHealthcare client = AppUtil.createClient();
-
-      HttpClient httpClient = HttpClients.createDefault();
-      String uri = String.format("%sv1/%s", client.getRootUrl(), resourceName);
-      URIBuilder uriBuilder = new URIBuilder(uri).setParameter("access_token", getAccessToken());
+      String uri = String.format("%sv1/%s", healthcareApiHttpClient.getRootUrl(), resourceName);
+      URIBuilder uriBuilder = new URIBuilder(uri);
       StringEntity requestEntity = new StringEntity(data);
 
       HttpUriRequest request =
@@ -264,9 +307,9 @@ public class FhirHealthcareApis {
               .build();
 
       // Execute the request and process the results.
-      HttpResponse response = httpClient.execute(request);
-      if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-        logger.debug("Exception patching FHIR resource: " + response.getStatusLine().toString());
+      HealthcareApiResponse response = healthcareApiHttpClient.execute(request);
+      if (response.getStatusCode() != HttpStatus.SC_OK) {
+        logger.debug("Exception patching FHIR resource: " + response.getStatusLine());
         // throw new Exception();
       }
     } catch (Exception e) {
@@ -280,7 +323,7 @@ public class FhirHealthcareApis {
 
     logger.entry("begin fhirStoreGetList()");
     // Initialize the client, which will be used to interact with the service.
-    CloudHealthcare client = AppUtil.createClient();
+    CloudHealthcare client = healthcareApiHttpClient.getHealthcareClient();
 
     // Create request and configure any parameters.
     FhirStores.List request =
@@ -295,37 +338,23 @@ public class FhirHealthcareApis {
     return fhirStores;
   }
 
-  private static String getAccessToken() throws IOException {
-    GoogleCredentials credential =
-        GoogleCredentials.getApplicationDefault()
-            .createScoped(Collections.singleton(CloudHealthcareScopes.CLOUD_PLATFORM));
-
-    return credential.refreshAccessToken().getTokenValue();
-  }
-
   public String fhirResourceGet(String resourceName) throws ProcessResponseException {
     logger.entry("begin fhirResourceGet()");
     String fhirResponseJson = null;
     // Initialize the client, which will be used to interact with the service.
     try {
-      CloudHealthcare client = AppUtil.createClient();
-      HttpClient httpClient = HttpClients.createDefault();
-      String uri = String.format("%sv1/%s", client.getRootUrl(), resourceName);
-      URIBuilder uriBuilder = new URIBuilder(uri).setParameter("access_token", getAccessToken());
+      String uri = String.format("%sv1/%s", healthcareApiHttpClient.getRootUrl(), resourceName);
+      URIBuilder uriBuilder = new URIBuilder(uri);
 
       HttpUriRequest request = RequestBuilder.get().setUri(uriBuilder.build()).build();
 
       // Execute the request and process the results.
-      HttpResponse response = httpClient.execute(request);
-      HttpEntity responseEntity = response.getEntity();
-      if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-        logger.debug(
-            "Exception while fetching FHIR resource: " + response.getStatusLine().toString());
+      HealthcareApiResponse response = healthcareApiHttpClient.execute(request);
+      if (response.getStatusCode() != HttpStatus.SC_OK) {
+        logger.debug("Exception while fetching FHIR resource: " + response.getStatusLine());
         throw new Exception();
       } else {
-        if (response.getEntity() != null) {
-          fhirResponseJson = EntityUtils.toString(responseEntity);
-        }
+        fhirResponseJson = response.getBody();
       }
     } catch (Exception e) {
       logger.error("error  fhirResourceGet(): " + e.getMessage(), e);
@@ -340,11 +369,8 @@ public class FhirHealthcareApis {
 
     logger.entry("fhirResourceDelete() - starts ");
     try {
-      CloudHealthcare client = AppUtil.createClient();
-
-      HttpClient httpClient = HttpClients.createDefault();
-      String uri = String.format("%sv1/%s", client.getRootUrl(), resourceName);
-      URIBuilder uriBuilder = new URIBuilder(uri).setParameter("access_token", getAccessToken());
+      String uri = String.format("%sv1/%s", healthcareApiHttpClient.getRootUrl(), resourceName);
+      URIBuilder uriBuilder = new URIBuilder(uri);
 
       HttpUriRequest request =
           RequestBuilder.delete()
@@ -359,11 +385,9 @@ public class FhirHealthcareApis {
       // fails, the server returns a 200 OK HTTP status code. To check that the
       // resource was successfully deleted, search for or get the resource and
       // see if it exists.
-      HttpResponse response = httpClient.execute(request);
-      HttpEntity responseEntity = response.getEntity();
-      if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-        logger.debug(
-            "Exception while deleting FHIR resource: " + response.getStatusLine().toString());
+      HealthcareApiResponse response = healthcareApiHttpClient.execute(request);
+      if (response.getStatusCode() != HttpStatus.SC_OK) {
+        logger.debug("Exception while deleting FHIR resource: " + response.getStatusLine());
         // throw new Exception();
       }
     } catch (Exception e) {
@@ -8,9 +8,6 @@
 
 package com.google.cloud.healthcare.fdamystudies.utils;
 
-import com.google.api.services.healthcare.v1.CloudHealthcare;
-import com.google.api.services.healthcare.v1.CloudHealthcareScopes;
-import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.healthcare.fdamystudies.bean.Answer;
 import com.google.cloud.healthcare.fdamystudies.bean.ItemsQuestionnaireResponse;
 import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireResponseEntry;
@@ -19,8 +16,8 @@ import com.google.cloud.healthcare.fdamystudies.bean.SavedActivityResponse;
 import com.google.cloud.healthcare.fdamystudies.bean.SearchQuestionnaireResponseFhirBean;
 import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
 import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.utils.HealthcareApiHttpClient.HealthcareApiResponse;
 import com.google.gson.Gson;
-import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -28,7 +25,6 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
@@ -37,15 +33,10 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -58,6 +49,7 @@ import org.springframework.stereotype.Component;
 @Component
 public class GetResponsefhirApi {
   @Autowired private ApplicationConfiguration appConfig;
+  @Autowired private HealthcareApiHttpClient healthcareApiHttpClient;
   private XLogger logger = XLoggerFactory.getXLogger(GetResponsefhirApi.class.getName());
   /**
    * To get the fhirResource
@@ -71,24 +63,18 @@ public class GetResponsefhirApi {
     String fhirResponseJson = null;
     // Initialize the client, which will be used to interact with the service.
     try {
-      CloudHealthcare client = AppUtil.createClient();
-      HttpClient httpClient = HttpClients.createDefault();
-      String uri = String.format("%sv1/%s", client.getRootUrl(), resourceName);
-      URIBuilder uriBuilder = new URIBuilder(uri).setParameter("access_token", getAccessToken());
+      String uri = String.format("%sv1/%s", healthcareApiHttpClient.getRootUrl(), resourceName);
+      URIBuilder uriBuilder = new URIBuilder(uri);
 
       HttpUriRequest request = RequestBuilder.get().setUri(uriBuilder.build()).build();
 
       // Execute the request and process the results.
-      HttpResponse response = httpClient.execute(request);
-      HttpEntity responseEntity = response.getEntity();
-      if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
-        logger.debug(
-            "Exception while fetching FHIR resource: " + response.getStatusLine().toString());
+      HealthcareApiResponse response = healthcareApiHttpClient.execute(request);
+      if (response.getStatusCode() != HttpStatus.SC_OK) {
+        logger.debug("Exception while fetching FHIR resource: " + response.getStatusLine());
         throw new Exception();
       } else {
-        if (response.getEntity() != null) {
-          fhirResponseJson = EntityUtils.toString(responseEntity);
-        }
+        fhirResponseJson = response.getBody();
       }
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
@@ -98,13 +84,6 @@ public class GetResponsefhirApi {
     return fhirResponseJson;
   }
 
-  private static String getAccessToken() throws IOException {
-    GoogleCredentials credential =
-        GoogleCredentials.getApplicationDefault()
-            .createScoped(Collections.singleton(CloudHealthcareScopes.CLOUD_PLATFORM));
-
-    return credential.refreshAccessToken().getTokenValue();
-  }
   /**
    * Initial StoredResponseBean
    *
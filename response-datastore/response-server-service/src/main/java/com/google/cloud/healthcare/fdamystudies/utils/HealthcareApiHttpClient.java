@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020-2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.utils;
+
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.healthcare.v1.CloudHealthcare;
+import com.google.api.services.healthcare.v1.CloudHealthcareScopes;
+import com.google.auth.http.HttpCredentialsAdapter;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shared HTTP client for the Cloud Healthcare FHIR REST API. Connections are pooled and kept alive
+ * between calls, the number of requests in flight is bounded, and the access token is cached and
+ * refreshed in the background before it expires. The API root URL and, optionally, a fixed access
+ * token come from configuration, so the service can run against a local stand-in of the API.
+ */
+@Component
+public class HealthcareApiHttpClient {
+
+  private static final String APPLICATION_NAME = "response-datastore";
+
+  private XLogger logger = XLoggerFactory.getXLogger(HealthcareApiHttpClient.class.getName());
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  private PoolingHttpClientConnectionManager connectionManager;
+
+  private CloseableHttpClient httpClient;
+
+  private Semaphore concurrencyLimit;
+
+  private volatile GoogleCredentials credentials;
+
+  private volatile CloudHealthcare healthcareClient;
+
+  @PostConstruct
+  public void initHttpClient() {
+    connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(appConfig.getHealthcareApiHttpMaxTotal());
+    connectionManager.setDefaultMaxPerRoute(appConfig.getHealthcareApiHttpMaxPerRoute());
+
+    RequestConfig requestConfig =
+        RequestConfig.custom()
+            .setConnectTimeout(appConfig.getHealthcareApiHttpTimeoutMs())
+            .setSocketTimeout(appConfig.getHealthcareApiHttpTimeoutMs())
+            .setConnectionRequestTimeout(appConfig.getHealthcareApiHttpTimeoutMs())
+            .build();
+    long keepAliveMs = appConfig.getHealthcareApiHttpKeepAliveMs();
+    httpClient =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy((response, context) -> keepAliveMs)
+            .evictExpiredConnections()
+            .evictIdleConnections(keepAliveMs, TimeUnit.MILLISECONDS)
+            .build();
+    concurrencyLimit = new Semaphore(appConfig.getHealthcareApiMaxConcurrentRequests());
+
+    Gauge.builder(
+            "healthcare.api.http.pool.leased",
+            connectionManager,
+            manager -> manager.getTotalStats().getLeased())
+        .register(meterRegistry);
+    Gauge.builder(
+            "healthcare.api.http.pool.available",
+            connectionManager,
+            manager -> manager.getTotalStats().getAvailable())
+        .register(meterRegistry);
+    Gauge.builder(
+            "healthcare.api.http.pool.pending",
+            connectionManager,
+            manager -> manager.getTotalStats().getPending())
+        .register(meterRegistry);
+    Gauge.builder(
+            "healthcare.api.http.permits.available",
+            concurrencyLimit,
+            Semaphore::availablePermits)
+        .register(meterRegistry);
+  }
+
+  @PreDestroy
+  public void closeHttpClient() throws IOException {
+    httpClient.close();
+  }
+
+  /**
+   * Executes the request with the cached access token and reads the whole response, so the
+   * connection goes back to the pool before this method returns.
+   */
+  public HealthcareApiResponse execute(HttpUriRequest request) throws ProcessResponseException {
+    request.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + getAccessToken());
+    boolean acquired = false;
+    try {
+      acquired =
+          concurrencyLimit.tryAcquire(
+              appConfig.getHealthcareApiHttpTimeoutMs(), TimeUnit.MILLISECONDS);
+      if (!acquired) {
+        throw new ProcessResponseException("Too many concurrent Healthcare API requests");
+      }
+      return httpClient.execute(
+          request,
+          response ->
+              new HealthcareApiResponse(
+                  response.getStatusLine().getStatusCode(),
+                  response.getStatusLine().toString(),
+                  response.getEntity() != null
+                      ? EntityUtils.toString(response.getEntity())
+                      : null));
+    } catch (IOException e) {
+      throw new ProcessResponseException(e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessResponseException(e.getMessage());
+    } finally {
+      if (acquired) {
+        concurrencyLimit.release();
+      }
+    }
+  }
+
+  public String getAccessToken() throws ProcessResponseException {
+    try {
+      GoogleCredentials scopedCredentials = getCredentials();
+      scopedCredentials.refreshIfExpired();
+      return scopedCredentials.getAccessToken().getTokenValue();
+    } catch (IOException e) {
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
+
+  /** @return the Cloud Healthcare API root URL, ending with a slash */
+  public String getRootUrl() {
+    String rootUrl = appConfig.getHealthcareApiRootUrl();
+    return rootUrl.endsWith("/") ? rootUrl : rootUrl + "/";
+  }
+
+  /**
+   * Returns the shared Cloud Healthcare client for the operations that are not plain FHIR REST
+   * calls. It is built once and uses the same credentials as {@link #execute(HttpUriRequest)}.
+   */
+  public CloudHealthcare getHealthcareClient() throws ProcessResponseException {
+    if (healthcareClient == null) {
+      synchronized (this) {
+        if (healthcareClient == null) {
+          healthcareClient = buildHealthcareClient();
+        }
+      }
+    }
+    return healthcareClient;
+  }
+
+  private CloudHealthcare buildHealthcareClient() throws ProcessResponseException {
+    try {
+      HttpCredentialsAdapter credentialsAdapter = new HttpCredentialsAdapter(getCredentials());
+      HttpRequestInitializer requestInitializer =
+          request -> {
+            credentialsAdapter.initialize(request);
+            request.setConnectTimeout(appConfig.getHealthcareApiHttpTimeoutMs());
+            request.setReadTimeout(appConfig.getHealthcareApiHttpTimeoutMs());
+          };
+      return new CloudHealthcare.Builder(
+              new NetHttpTransport(), new JacksonFactory(), requestInitializer)
+          .setRootUrl(getRootUrl())
+          .setApplicationName(APPLICATION_NAME)
+          .build();
+    } catch (IOException e) {
+      logger.error(e.getMessage(), e);
+      throw new ProcessResponseException(e.getMessage());
+    }
+  }
+
+  /** Refreshes the access token ahead of its expiry so request threads do not wait for it. */
+  @Scheduled(fixedDelayString = "${healthcare.api.token.refresh.check.ms}")
+  public void refreshAccessToken() {
+    if (credentials == null) {
+      return;
+    }
+    try {
+      credentials.refreshIfExpired();
+    } catch (IOException e) {
+      logger.warn("refreshAccessToken() failed", e);
+    }
+  }
+
+  private GoogleCredentials getCredentials() throws IOException {
+    if (credentials == null) {
+      synchronized (this) {
+        if (credentials == null) {
+          String staticAccessToken = appConfig.getHealthcareApiStaticAccessToken();
+          // a fixed token is never refreshed, so no call is made to the token server
+          credentials =
+              StringUtils.isNotBlank(staticAccessToken)
+                  ? GoogleCredentials.create(new AccessToken(staticAccessToken, null))
+                  : GoogleCredentials.getApplicationDefault()
+                      .createScoped(Collections.singleton(CloudHealthcareScopes.CLOUD_PLATFORM));
+        }
+      }
+    }
+    return credentials;
+  }
+
+  @Getter
+  @AllArgsConstructor
+  public static class HealthcareApiResponse {
+    private final int statusCode;
+    private final String statusLine;
+    private final String body;
+  }
+}
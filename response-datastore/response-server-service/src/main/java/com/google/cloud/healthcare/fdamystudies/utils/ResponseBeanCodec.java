@@ -0,0 +1,456 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.utils;
+
+import static com.google.cloud.healthcare.fdamystudies.utils.AppConstants.DATE_FORMAT_RESPONSE_FHIR;
+import static com.google.cloud.healthcare.fdamystudies.utils.AppConstants.DATE_FORMAT_RESPONSE_MOBILE;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityMetadataBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityValueGroupBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.bean.Reference;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+/**
+ * Hand-written codecs of the activity response beans: the maps stored with an activity response,
+ * and the FHIR QuestionnaireResponse written to a {@link JsonWriter} straight from the conjoined
+ * response steps. The output is the same as the former {@code Introspector} walk of the beans, so
+ * every bean property has to be handled here explicitly; {@code ResponseBeanCodecTest} fails when
+ * a bean gains a property that is not.
+ */
+public final class ResponseBeanCodec {
+
+  private static final XLogger logger =
+      XLoggerFactory.getXLogger(ResponseBeanCodec.class.getName());
+
+  private static final Gson GSON = new Gson();
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+  private static final String TASK_TYPE = "task";
+
+  private static final String QUESTIONNAIRE_TYPE = "questionnaire";
+
+  private static final String DURATION_KEY = "duration";
+
+  private static final String INTEGER_STYLE = "Integer";
+
+  private static final String NULL_JSON = "null";
+
+  /** Step properties that the FHIR items are written from. */
+  static final Set<String> FHIR_STEP_PROPERTIES =
+      properties(
+          "actvityValueGroup", "key", "resultType", "skipped", "title", "value", "wcpResultType");
+
+  /**
+   * Step properties left out of the FHIR items. They describe the question rather than the answer
+   * and are not submitted with a response.
+   */
+  static final Set<String> FHIR_IGNORED_STEP_PROPERTIES =
+      properties(
+          "destinations",
+          "endTime",
+          "format",
+          "groupName",
+          "healthDataKey",
+          "options",
+          "repeatable",
+          "repeatableText",
+          "skippable",
+          "startTime",
+          "steps",
+          "text",
+          "type");
+
+  private ResponseBeanCodec() {}
+
+  /** @return a writer with the settings of the {@link Gson} serialization the codec replaces */
+  public static JsonWriter newJsonWriter(Writer writer) throws IOException {
+    JsonWriter out = GSON.newJsonWriter(writer);
+    // Gson.toJson escapes HTML characters, which newJsonWriter leaves to the caller
+    out.setHtmlSafe(true);
+    return out;
+  }
+
+  /**
+   * Flattens a response step into the map stored with the activity response. Nested steps are
+   * collected under {@link AppConstants#RESULTS_FIELD_KEY}, string lists are joined with commas and
+   * other non-string values are stored as JSON.
+   */
+  public static Map<String, Object> toStoredMap(QuestionnaireActivityStepsBean step) {
+    Map<String, Object> dataToStore = new HashMap<>();
+    List<Map<String, Object>> stepsList = new ArrayList<>();
+    putValueGroup(dataToStore, "actvityValueGroup", step.getActvityValueGroup());
+    putList(dataToStore, stepsList, "destinations", step.getDestinations());
+    putString(dataToStore, "endTime", step.getEndTime());
+    dataToStore.put("format", GSON.toJson(step.getFormat()));
+    putString(dataToStore, "groupName", step.getGroupName());
+    putString(dataToStore, "healthDataKey", step.getHealthDataKey());
+    putString(dataToStore, "key", step.getKey());
+    putList(dataToStore, stepsList, "options", step.getOptions());
+    putBoolean(dataToStore, "repeatable", step.getRepeatable());
+    putString(dataToStore, "repeatableText", step.getRepeatableText());
+    putString(dataToStore, "resultType", step.getResultType());
+    putBoolean(dataToStore, "skippable", step.getSkippable());
+    putBoolean(dataToStore, "skipped", step.getSkipped());
+    putString(dataToStore, "startTime", step.getStartTime());
+    putList(dataToStore, stepsList, "steps", step.getSteps());
+    putString(dataToStore, "text", step.getText());
+    putString(dataToStore, "title", step.getTitle());
+    putString(dataToStore, "type", step.getType());
+    putValue(dataToStore, stepsList, "value", step.getValue());
+    putString(dataToStore, "wcpResultType", step.getWcpResultType());
+    if (!stepsList.isEmpty()) {
+      dataToStore.put(AppConstants.RESULTS_FIELD_KEY, stepsList);
+    }
+    return dataToStore;
+  }
+
+  /** Flattens the activity metadata of a response into the map stored with it. */
+  public static Map<String, Object> toStoredMap(ActivityMetadataBean metadata) {
+    Map<String, Object> dataToStore = new HashMap<>();
+    putString(dataToStore, "activityId", metadata.getActivityId());
+    putString(dataToStore, "activityRunId", metadata.getActivityRunId());
+    putString(dataToStore, "activityType", metadata.getActivityType());
+    putString(dataToStore, "endDate", metadata.getEndDate());
+    putString(dataToStore, "lastModified", metadata.getLastModified());
+    putString(dataToStore, "name", metadata.getName());
+    putString(dataToStore, "startDate", metadata.getStartDate());
+    putString(dataToStore, "studyId", metadata.getStudyId());
+    putString(dataToStore, "studyVersion", metadata.getStudyVersion());
+    putString(dataToStore, "version", metadata.getVersion());
+    return dataToStore;
+  }
+
+  private static Map<String, Object> toStoredMap(ActivityValueGroupBean valueGroup) {
+    Map<String, Object> dataToStore = new HashMap<>();
+    List<Map<String, Object>> stepsList = new ArrayList<>();
+    putList(dataToStore, stepsList, "valueGroup", valueGroup.getValueGroup());
+    if (!stepsList.isEmpty()) {
+      dataToStore.put(AppConstants.RESULTS_FIELD_KEY, stepsList);
+    }
+    return dataToStore;
+  }
+
+  /**
+   * Writes the QuestionnaireResponse resource of a conjoined activity response.
+   *
+   * @param questionnaire the reference of the answered Questionnaire, or null
+   * @param source the reference of the participant's Patient, or null
+   * @param authored the submission time in FHIR format, or null
+   * @param identifier the identifier value of the response
+   */
+  public static void writeQuestionnaireResponse(
+      JsonWriter out,
+      ActivityResponseBean response,
+      String questionnaire,
+      Reference source,
+      String authored,
+      String identifier)
+      throws IOException, ParseException {
+    out.beginObject();
+    out.name("resourceType").value(AppConstants.QUESTIONNAIRE_RESPONSE_TYPE);
+    out.name("status").value("completed");
+    out.name("item");
+    writeQuestionnaireResponseItems(out, response);
+    out.name("questionnaire").value(questionnaire);
+    if (source != null) {
+      out.name("source").beginObject();
+      out.name("reference").value(source.getReference());
+      out.name("type").value(source.getType());
+      out.endObject();
+    }
+    out.name("authored").value(authored);
+    out.name("identifier").beginObject();
+    out.name("use").value("official");
+    out.name("type").beginObject();
+    out.name("text").value(response.getMetadata().getActivityType());
+    out.endObject();
+    out.name("value").value(identifier);
+    out.endObject();
+    out.endObject();
+  }
+
+  /**
+   * Writes the items of the QuestionnaireResponse of a conjoined activity response: one item per
+   * response step, with the answers of the step or, for a form, one nested item per answered form
+   * step. Task answers are nested in an answer rather than in the item.
+   */
+  public static void writeQuestionnaireResponseItems(JsonWriter out, ActivityResponseBean response)
+      throws IOException, ParseException {
+    boolean task = response.getType().equals(TASK_TYPE);
+    boolean questionnaire = response.getType().equals(QUESTIONNAIRE_TYPE);
+    out.beginArray();
+    for (QuestionnaireActivityStepsBean step : response.getData().getResults()) {
+      writeItem(
+          out, step, questionnaire ? itemText(step) : response.getMetadata().getName(), task);
+    }
+    out.endArray();
+  }
+
+  private static void writeItem(
+      JsonWriter out, QuestionnaireActivityStepsBean step, String text, boolean task)
+      throws IOException, ParseException {
+    boolean skipped = step.getSkipped();
+    ActivityValueGroupBean valueGroup = step.getActvityValueGroup();
+    out.beginObject();
+    out.name("linkId").value(step.getKey());
+    out.name("text").value(text);
+    out.name("definition").value(step.getResultType());
+    if (valueGroup != null && !valueGroup.getValueGroup().isEmpty()) {
+      writeFormAnswersAndItems(out, valueGroup.getValueGroup(), task);
+    } else {
+      out.name("answer").beginArray();
+      writeAnswers(out, step, skipped, task);
+      out.endArray();
+      out.name("item").beginArray().endArray();
+    }
+    out.endObject();
+  }
+
+  private static void writeFormAnswersAndItems(
+      JsonWriter out, List<QuestionnaireActivityStepsBean> formSteps, boolean task)
+      throws IOException, ParseException {
+    out.name("answer").beginArray();
+    if (task) {
+      out.beginObject();
+      out.name("item");
+      writeFormItems(out, formSteps, task);
+      out.endObject();
+    }
+    out.endArray();
+    out.name("item");
+    if (task) {
+      out.beginArray().endArray();
+    } else {
+      writeFormItems(out, formSteps, task);
+    }
+  }
+
+  private static void writeFormItems(
+      JsonWriter out, List<QuestionnaireActivityStepsBean> formSteps, boolean task)
+      throws IOException, ParseException {
+    out.beginArray();
+    for (QuestionnaireActivityStepsBean formStep : formSteps) {
+      if (formStep != null) {
+        writeItem(out, formStep, itemText(formStep), task);
+      }
+    }
+    out.endArray();
+  }
+
+  private static void writeAnswers(
+      JsonWriter out, QuestionnaireActivityStepsBean step, boolean skipped, boolean task)
+      throws IOException, ParseException {
+    String resultType = step.getResultType();
+    boolean grouped = resultType.equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY);
+    Object value = step.getValue();
+    if (value instanceof String) {
+      if (!grouped && !skipped && StringUtils.isNotBlank((String) value)) {
+        if (step.getKey().equals(DURATION_KEY)) {
+          writeAnswer(out, resultType, INTEGER_STYLE, Double.parseDouble((String) value));
+        } else {
+          writeAnswer(out, resultType, step.getWcpResultType(), value);
+        }
+      }
+    } else if (value instanceof List) {
+      List<?> values = (List<?>) value;
+      if (task) {
+        // as for a form, a task answer holds the nested items of the step; values have none
+        if (!values.isEmpty()) {
+          writeNestedItemsAnswer(out);
+        }
+        return;
+      }
+      for (Object listValue : values) {
+        if (listValue instanceof String
+            && StringUtils.isNotBlank((String) listValue)
+            && !skipped) {
+          writeAnswer(out, resultType, step.getWcpResultType(), listValue);
+        } else if (listValue != null) {
+          writeOtherAnswers(out, resultType, listValue);
+        }
+      }
+    } else if (value != null && !grouped && !skipped) {
+      writeAnswer(out, resultType, step.getWcpResultType(), value);
+    }
+  }
+
+  private static void writeNestedItemsAnswer(JsonWriter out) throws IOException {
+    out.beginObject();
+    out.name("item").beginArray().endArray();
+    out.endObject();
+  }
+
+  private static void writeAnswer(
+      JsonWriter out, String resultType, String wcpResultType, Object value)
+      throws IOException, ParseException {
+    out.beginObject();
+    switch (resultType) {
+      case "continuousScale":
+      case "timeInterval":
+      case "height":
+        if (value instanceof Double || value instanceof Integer) {
+          out.name("valueDecimal").value(((Number) value).doubleValue());
+        }
+        break;
+      case "numeric":
+        if (wcpResultType.equals(INTEGER_STYLE)) {
+          if (value instanceof Double || value instanceof Integer) {
+            out.name("valueInteger").value(((Number) value).intValue());
+          }
+        } else if (value instanceof Double || value instanceof Integer) {
+          out.name("valueDecimal").value(((Number) value).doubleValue());
+        }
+        break;
+      case "scale":
+        if (value instanceof Double || value instanceof Integer) {
+          out.name("valueInteger").value(((Number) value).intValue());
+        }
+        break;
+      case "boolean":
+        out.name("valueBoolean").value((Boolean) value);
+        break;
+      case "timeOfDay":
+        out.name("valueTime").value((String) value);
+        break;
+      case "date":
+        if (StringUtils.isNotBlank((String) value)) {
+          out.name("valueDateTime")
+              .value(
+                  AppUtil.convertDateToOtherFormat1(
+                      (String) value, DATE_FORMAT_RESPONSE_MOBILE, DATE_FORMAT_RESPONSE_FHIR));
+        }
+        break;
+      default:
+        if (value instanceof String) {
+          out.name("valueString").value((String) value);
+        }
+    }
+    out.name("item").beginArray().endArray();
+    out.endObject();
+  }
+
+  /** Writes the "other" option of a text choice answer and the text entered for it. */
+  private static void writeOtherAnswers(JsonWriter out, String resultType, Object value)
+      throws IOException {
+    if (!resultType.equals("textChoice")) {
+      return;
+    }
+    try {
+      JSONObject jsonObject = new JSONObject(OBJECT_MAPPER.writeValueAsString(value));
+      if (jsonObject.has("other")) {
+        writeStringAnswer(out, String.valueOf(jsonObject.get("other")));
+      }
+      if (jsonObject.has("text")) {
+        String otherOptionText = String.valueOf(jsonObject.get("text"));
+        if (!otherOptionText.equalsIgnoreCase("null")) {
+          writeStringAnswer(out, otherOptionText);
+        }
+      }
+    } catch (JSONException e) {
+      logger.error("writeOtherAnswers() method: Unable to getvalue of otheroption object", e);
+    }
+  }
+
+  private static void writeStringAnswer(JsonWriter out, String value) throws IOException {
+    out.beginObject();
+    out.name("valueString").value(value);
+    out.name("item").beginArray().endArray();
+    out.endObject();
+  }
+
+  private static String itemText(QuestionnaireActivityStepsBean step) {
+    return step.getResultType().equalsIgnoreCase(AppConstants.GROUPED_FIELD_KEY)
+        ? step.getKey()
+        : step.getTitle();
+  }
+
+  private static void putString(Map<String, Object> dataToStore, String name, String value) {
+    dataToStore.put(name, value != null ? value : NULL_JSON);
+  }
+
+  private static void putBoolean(Map<String, Object> dataToStore, String name, Boolean value) {
+    dataToStore.put(name, String.valueOf(value));
+  }
+
+  private static void putValueGroup(
+      Map<String, Object> dataToStore, String name, ActivityValueGroupBean valueGroup) {
+    dataToStore.put(name, valueGroup != null ? toStoredMap(valueGroup) : NULL_JSON);
+  }
+
+  private static void putValue(
+      Map<String, Object> dataToStore,
+      List<Map<String, Object>> stepsList,
+      String name,
+      Object value) {
+    if (value instanceof String) {
+      dataToStore.put(name, value);
+    } else if (value instanceof ActivityValueGroupBean) {
+      dataToStore.put(name, toStoredMap((ActivityValueGroupBean) value));
+    } else if (value instanceof ActivityMetadataBean) {
+      dataToStore.put(name, toStoredMap((ActivityMetadataBean) value));
+    } else if (value instanceof List) {
+      putList(dataToStore, stepsList, name, (List<?>) value);
+    } else {
+      dataToStore.put(name, GSON.toJson(value));
+    }
+  }
+
+  private static void putList(
+      Map<String, Object> dataToStore,
+      List<Map<String, Object>> stepsList,
+      String name,
+      List<?> values) {
+    if (values == null) {
+      dataToStore.put(name, NULL_JSON);
+      return;
+    }
+    for (Object value : values) {
+      if (value instanceof QuestionnaireActivityStepsBean) {
+        stepsList.add(toStoredMap((QuestionnaireActivityStepsBean) value));
+      } else if (value instanceof String) {
+        appendValue(dataToStore, name, (String) value);
+      } else if (value != null) {
+        appendValue(dataToStore, name, GSON.toJson(value));
+      }
+    }
+  }
+
+  private static void appendValue(Map<String, Object> dataToStore, String name, String value) {
+    Object previousValue = dataToStore.get(name);
+    if (previousValue != null && !StringUtils.isBlank(previousValue.toString())) {
+      value = previousValue + AppConstants.COMMA_STR + value;
+    }
+    dataToStore.put(name, value);
+  }
+
+  private static Set<String> properties(String... names) {
+    return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(names)));
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.utils;
+
+import brave.Span;
+import brave.Tracer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times the stages of activity response ingestion. Every stage is recorded in the {@code
+ * response.ingestion.stage} timer, tagged with the stage and its outcome, failures are counted in
+ * {@code response.ingestion.stage.errors}, and the stage runs in its own span of the current trace.
+ */
+@Component
+public class ResponseIngestionMetrics {
+
+  public static final String METADATA_FETCH = "metadata_fetch";
+  public static final String PARTICIPANT_VALIDATION = "participant_validation";
+  public static final String PARTICIPANT_STUDY_INFO = "participant_study_info";
+  public static final String CONJOINING = "conjoining";
+  public static final String FIRESTORE_WRITE = "firestore_write";
+  public static final String FHIR_WRITE = "fhir_write";
+  public static final String DID = "did";
+  public static final String ACTIVITY_STATE_SAVE = "activity_state_save";
+
+  private static final String STAGE_TIMER = "response.ingestion.stage";
+  private static final String STAGE_ERRORS = "response.ingestion.stage.errors";
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Autowired private Tracer tracer;
+
+  public <T, E extends Exception> T record(String stage, StageCall<T, E> call) throws E {
+    Span span = tracer.nextSpan().name("response-" + stage).start();
+    Timer.Sample sample = Timer.start(meterRegistry);
+    String outcome = "success";
+    try (Tracer.SpanInScope spanInScope = tracer.withSpanInScope(span)) {
+      return call.call();
+    } catch (Exception e) {
+      outcome = "error";
+      meterRegistry
+          .counter(STAGE_ERRORS, "stage", stage, "exception", e.getClass().getSimpleName())
+          .increment();
+      span.error(e);
+      throw e;
+    } finally {
+      sample.stop(meterRegistry.timer(STAGE_TIMER, "stage", stage, "outcome", outcome));
+      span.finish();
+    }
+  }
+
+  public <E extends Exception> void run(String stage, StageRun<E> run) throws E {
+    record(
+        stage,
+        () -> {
+          run.run();
+          return null;
+        });
+  }
+
+  @FunctionalInterface
+  public interface StageCall<T, E extends Exception> {
+    T call() throws E;
+  }
+
+  @FunctionalInterface
+  public interface StageRun<E extends Exception> {
+    void run() throws E;
+  }
+}
@@ -30,7 +30,9 @@ public enum ApiEndpoint {
 
   GET_PROCESS_ACTIVITY_RESPONSE("http://localhost:8004/response-datastore/participant/getresponse"),
 
-  WITHDRAW("http://localhost:8004/response-datastore/participant/withdraw");
+  WITHDRAW("http://localhost:8004/response-datastore/participant/withdraw"),
+
+  WITHDRAW_PARTICIPANTS("http://localhost:8004/response-datastore/participants/withdraw");
   private String url;
 
   private ApiEndpoint(String url) {
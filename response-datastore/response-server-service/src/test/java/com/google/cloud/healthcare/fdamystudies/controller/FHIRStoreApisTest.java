@@ -45,6 +45,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import com.google.api.services.healthcare.v1.model.Operation;
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.common.ApiEndpoint;
@@ -131,7 +132,8 @@ public class FHIRStoreApisTest extends BaseMockIT {
     when(fhirHealthcareAPIs.fhirResourceCreate(anyString(), anyString(), anyString()))
         .thenReturn(null);
 
-    doNothing().when(deIdentifyHealthcareApis).deIdentification(anyString(), anyString(), any());
+    when(deIdentifyHealthcareApis.startDeIdentification(anyString(), anyString(), any()))
+        .thenReturn(new Operation().setDone(true));
 
     // Step-2 call API to details to save participant activities
     ActivityResponseBean activityResponseBean = setActivityResponseBean();
@@ -40,11 +40,24 @@ import static com.google.cloud.healthcare.fdamystudies.utils.Constants.SUCCESS;
 import static com.google.cloud.healthcare.fdamystudies.utils.Constants.USER_ID_HEADER;
 import static com.google.cloud.healthcare.fdamystudies.utils.Constants.VALID_USER_ID;
 import static com.google.cloud.healthcare.fdamystudies.utils.ErrorCode.EC_701;
+import static com.google.cloud.healthcare.fdamystudies.utils.ErrorCode.EC_711;
+import static com.google.cloud.healthcare.fdamystudies.utils.ErrorCode.EC_712;
+import static com.google.cloud.healthcare.fdamystudies.utils.ErrorCode.EC_714;
+import static com.google.cloud.healthcare.fdamystudies.utils.ErrorCode.EC_720;
+import static com.google.cloud.healthcare.fdamystudies.utils.ErrorCode.EC_721;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -55,34 +68,60 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
 import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.WithdrawParticipantsBean;
+import com.google.cloud.healthcare.fdamystudies.bean.WithdrawParticipantsJobBean;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.common.ApiEndpoint;
 import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
 import com.google.cloud.healthcare.fdamystudies.common.IdGenerator;
 import com.google.cloud.healthcare.fdamystudies.common.JsonUtils;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
 import com.google.cloud.healthcare.fdamystudies.dao.CloudFirestoreResponsesDaoImpl;
+import com.google.cloud.healthcare.fdamystudies.exception.InvalidPageTokenException;
+import com.google.cloud.healthcare.fdamystudies.exception.ProcessActivityStateException;
 import com.google.cloud.healthcare.fdamystudies.helper.TestDataHelper;
+import com.google.cloud.healthcare.fdamystudies.repository.ActivityResponseQueueRepository;
+import com.google.cloud.healthcare.fdamystudies.repository.ActivityResponseReceiptRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantActivitiesRepository;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantInfoRepository;
+import com.google.cloud.healthcare.fdamystudies.response.model.ActivityResponseQueueEntity;
+import com.google.cloud.healthcare.fdamystudies.response.model.ActivityResponseReceiptEntity;
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantActivitiesEntity;
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantInfoEntity;
+import com.google.cloud.healthcare.fdamystudies.service.ActivityResponseReceiptService;
+import com.google.cloud.healthcare.fdamystudies.service.ParticipantActivityStateResponseService;
+import com.google.cloud.healthcare.fdamystudies.task.ProcessActivityResponseQueueScheduledTask;
+import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
 import com.google.cloud.healthcare.fdamystudies.utils.Constants;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
 import com.google.cloud.healthcare.fdamystudies.utils.TestUtils;
+import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.collections4.map.HashedMap;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
 public class ProcessActivityResponseControllerTest extends BaseMockIT {
 
@@ -105,6 +144,19 @@ public class ProcessActivityResponseControllerTest extends BaseMockIT {
 
   @Autowired private ParticipantActivitiesRepository participantActivitiesRepository;
 
+  @Autowired private ActivityResponseQueueRepository activityResponseQueueRepository;
+
+  @Autowired private ActivityResponseReceiptRepository activityResponseReceiptRepository;
+
+  @Autowired private ActivityResponseReceiptService activityResponseReceiptService;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @SpyBean private ParticipantActivityStateResponseService participantActivityStateResponseService;
+
+  // keeps queued responses in the queue while they are asserted
+  @MockBean private ProcessActivityResponseQueueScheduledTask queueScheduledTask;
+
   @BeforeEach
   public void setUp() {
     participantBo = testDataHelper.saveParticipant();
@@ -207,6 +259,242 @@ public class ProcessActivityResponseControllerTest extends BaseMockIT {
         ACTIVITY_STATE_SAVED_OR_UPDATED_AFTER_RESPONSE_SUBMISSION);
   }
 
+  @Test
+  public void shouldQueueActivityResponseWhenIngestionIsAsynchronous() throws Exception {
+    appConfig.setResponseIngestionAsyncEnabled(true);
+    ActivityResponseBean activityResponseBean = setActivityResponseBean();
+    activityResponseBean.getMetadata().setStudyVersion(STUDY_VERSION);
+    activityResponseBean.getMetadata().setActivityRunId("3");
+
+    mockMvc
+        .perform(
+            post(ApiEndpoint.PROCESS_ACTIVITY_RESPONSE.getPath())
+                .contextPath(getContextPath())
+                .content(JsonUtils.asJsonString(activityResponseBean))
+                .headers(TestUtils.newHeadersUser()))
+        .andDo(print())
+        .andExpect(status().isAccepted())
+        .andExpect(jsonPath("$.message", is(SUCCESS)));
+
+    List<ActivityResponseQueueEntity> queue = activityResponseQueueRepository.findAll();
+    assertEquals(1, queue.size());
+    assertEquals("PENDING", queue.get(0).getStatus());
+    assertEquals(participantBo.getParticipantId(), queue.get(0).getParticipantId());
+    assertEquals("3", queue.get(0).getActivityRunId());
+    assertEquals("IN_PROGRESS", receiptStatus("3"));
+    verify(responsesDaoMock, never())
+        .saveActivityResponseData(anyString(), anyString(), anyString(), any());
+
+    // a replay of the queued run is not answered as saved before a worker saved it
+    mockMvc
+        .perform(processActivityResponseRequest(activityResponseBean))
+        .andDo(print())
+        .andExpect(status().isConflict())
+        .andExpect(jsonPath("$.appErrorCode", is(EC_721.code())));
+    assertEquals(1, activityResponseQueueRepository.count());
+  }
+
+  @Test
+  public void shouldReturnServiceUnavailableWhenResponseQueueIsFull() throws Exception {
+    appConfig.setResponseIngestionAsyncEnabled(true);
+    appConfig.setResponseIngestionMaxPending(0);
+    ActivityResponseBean activityResponseBean = setActivityResponseBean();
+    activityResponseBean.getMetadata().setStudyVersion(STUDY_VERSION);
+    activityResponseBean.getMetadata().setActivityRunId("4");
+
+    mockMvc
+        .perform(
+            post(ApiEndpoint.PROCESS_ACTIVITY_RESPONSE.getPath())
+                .contextPath(getContextPath())
+                .content(JsonUtils.asJsonString(activityResponseBean))
+                .headers(TestUtils.newHeadersUser()))
+        .andDo(print())
+        .andExpect(status().isServiceUnavailable())
+        .andExpect(jsonPath("$.appErrorCode", is(EC_720.code())));
+
+    assertTrue(activityResponseQueueRepository.findAll().isEmpty());
+  }
+
+  @Test
+  public void shouldAnswerReplayOfCompletedRunWithoutSavingAgain() throws Exception {
+    ActivityResponseBean activityResponseBean = activityResponseOfRun("5");
+
+    mockMvc
+        .perform(processActivityResponseRequest(activityResponseBean))
+        .andDo(print())
+        .andExpect(status().isOk());
+    assertEquals("COMPLETED", receiptStatus("5"));
+
+    mockMvc
+        .perform(processActivityResponseRequest(activityResponseBean))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.message", is(SUCCESS)));
+
+    verify(responsesDaoMock, times(1))
+        .saveActivityResponseData(anyString(), anyString(), anyString(), any());
+    verify(
+        1,
+        getRequestedFor(
+            urlEqualTo(
+                "/study-datastore/activity?studyId=ASignature01"
+                    + "&activityId=Activity&activityVersion=1.0")));
+  }
+
+  @Test
+  public void shouldReturnConflictForReplayWhileRunIsBeingSaved() throws Exception {
+    CountDownLatch firstSaving = new CountDownLatch(1);
+    CountDownLatch replayAnswered = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              firstSaving.countDown();
+              replayAnswered.await(10, TimeUnit.SECONDS);
+              return null;
+            })
+        .when(responsesDaoMock)
+        .saveActivityResponseData(anyString(), anyString(), anyString(), any());
+    ActivityResponseBean activityResponseBean = activityResponseOfRun("6");
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      MockHttpServletRequestBuilder firstRequest =
+          processActivityResponseRequest(activityResponseBean);
+      Future<MvcResult> first = executor.submit(() -> mockMvc.perform(firstRequest).andReturn());
+      assertTrue(firstSaving.await(10, TimeUnit.SECONDS));
+
+      mockMvc
+          .perform(processActivityResponseRequest(activityResponseBean))
+          .andDo(print())
+          .andExpect(status().isConflict())
+          .andExpect(jsonPath("$.appErrorCode", is(EC_721.code())));
+      replayAnswered.countDown();
+
+      assertEquals(
+          HttpStatus.OK.value(), first.get(10, TimeUnit.SECONDS).getResponse().getStatus());
+    } finally {
+      replayAnswered.countDown();
+      executor.shutdownNow();
+    }
+    verify(responsesDaoMock, times(1))
+        .saveActivityResponseData(anyString(), anyString(), anyString(), any());
+    assertEquals("COMPLETED", receiptStatus("6"));
+  }
+
+  @Test
+  public void shouldAcceptReplayOfRunWhoseSubmissionFailed() throws Exception {
+    doThrow(new ProcessResponseException("Firestore unavailable"))
+        .doNothing()
+        .when(responsesDaoMock)
+        .saveActivityResponseData(anyString(), anyString(), anyString(), any());
+    ActivityResponseBean activityResponseBean = activityResponseOfRun("7");
+
+    mockMvc
+        .perform(processActivityResponseRequest(activityResponseBean))
+        .andDo(print())
+        .andExpect(status().isBadRequest());
+    // the receipt was released, so the run can be submitted again
+    assertNull(receiptStatus("7"));
+
+    mockMvc
+        .perform(processActivityResponseRequest(activityResponseBean))
+        .andDo(print())
+        .andExpect(status().isOk());
+
+    verify(responsesDaoMock, times(2))
+        .saveActivityResponseData(anyString(), anyString(), anyString(), any());
+    assertEquals("COMPLETED", receiptStatus("7"));
+  }
+
+  @Test
+  public void shouldReleaseReceiptWhenActivityStateCouldNotBeSaved() throws Exception {
+    ActivityResponseBean activityResponseBean = activityResponseOfRun("13");
+    doThrow(new ProcessActivityStateException("database unavailable"))
+        .when(participantActivityStateResponseService)
+        .saveParticipantActivities(any());
+
+    mockMvc
+        .perform(processActivityResponseRequest(activityResponseBean))
+        .andDo(print())
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.appErrorCode", is(EC_714.code())));
+
+    // the submission is not complete, so a retry of the run is processed again
+    assertNull(receiptStatus("13"));
+  }
+
+  @Test
+  public void shouldReclaimReceiptLeftInProgressPastTimeout() throws Exception {
+    ActivityResponseReceiptEntity receipt = new ActivityResponseReceiptEntity();
+    receipt.setStudyId(STUDY_ID_VALUE);
+    receipt.setParticipantId(participantBo.getParticipantId());
+    receipt.setActivityId(ACTIVITY_ID_VALUE);
+    receipt.setActivityVersion("1.0");
+    receipt.setActivityRunId("8");
+    receipt.setStatus("IN_PROGRESS");
+    receipt.setClaimedTime(
+        new Timestamp(
+            System.currentTimeMillis() - appConfig.getResponseReceiptClaimTimeoutMs() - 1000));
+    activityResponseReceiptRepository.saveAndFlush(receipt);
+
+    mockMvc
+        .perform(processActivityResponseRequest(activityResponseOfRun("8")))
+        .andDo(print())
+        .andExpect(status().isOk());
+
+    verify(responsesDaoMock, times(1))
+        .saveActivityResponseData(anyString(), anyString(), anyString(), any());
+    assertEquals("COMPLETED", receiptStatus("8"));
+  }
+
+  @Test
+  public void shouldKeepReceiptOfNewClaimFromExpiredClaim() throws Exception {
+    ActivityResponseBean activityResponseBean = activityResponseOfRun("9");
+    String expiredClaim = activityResponseReceiptService.claimReceipt(activityResponseBean);
+    ActivityResponseReceiptEntity receipt = activityResponseReceiptRepository.findAll().get(0);
+    receipt.setClaimedTime(
+        new Timestamp(
+            System.currentTimeMillis() - appConfig.getResponseReceiptClaimTimeoutMs() - 1000));
+    activityResponseReceiptRepository.saveAndFlush(receipt);
+    String currentClaim = activityResponseReceiptService.claimReceipt(activityResponseBean);
+    assertNotNull(currentClaim);
+
+    activityResponseReceiptService.completeReceipt(activityResponseBean, expiredClaim);
+    activityResponseReceiptService.releaseReceipt(activityResponseBean, expiredClaim);
+    assertEquals("IN_PROGRESS", receiptStatus("9"));
+
+    activityResponseReceiptService.completeReceipt(activityResponseBean, currentClaim);
+    assertEquals("COMPLETED", receiptStatus("9"));
+
+    // a completed receipt is not dropped, even under the claim that completed it
+    activityResponseReceiptService.releaseReceipt(activityResponseBean, currentClaim);
+    assertEquals("COMPLETED", receiptStatus("9"));
+  }
+
+  @Test
+  public void shouldPurgeCompletedReceiptsOlderThanRetention() throws Exception {
+    for (String activityRunId : Arrays.asList("10", "11", "12")) {
+      ActivityResponseBean activityResponseBean = activityResponseOfRun(activityRunId);
+      String claimToken = activityResponseReceiptService.claimReceipt(activityResponseBean);
+      if (!"12".equals(activityRunId)) {
+        activityResponseReceiptService.completeReceipt(activityResponseBean, claimToken);
+      }
+    }
+    long claimedBefore =
+        System.currentTimeMillis() - appConfig.getResponseReceiptCompletedRetentionMs() - 1000;
+    for (ActivityResponseReceiptEntity receipt : activityResponseReceiptRepository.findAll()) {
+      if (!"11".equals(receipt.getActivityRunId())) {
+        receipt.setClaimedTime(new Timestamp(claimedBefore));
+        activityResponseReceiptRepository.saveAndFlush(receipt);
+      }
+    }
+
+    activityResponseReceiptService.purgeCompletedReceipts();
+
+    // only the completed receipt past the retention is purged
+    assertNull(receiptStatus("10"));
+    assertEquals("COMPLETED", receiptStatus("11"));
+    assertEquals("IN_PROGRESS", receiptStatus("12"));
+  }
+
   @Test
   public void shouldReturnBadRequestForEmptyInputsOfProccessActivityResponse() throws Exception {
     ActivityResponseBean activityResponseBean = new ActivityResponseBean();
@@ -340,6 +628,90 @@ public class ProcessActivityResponseControllerTest extends BaseMockIT {
         .andExpect(jsonPath("$.userMessage", is(EC_701.errorMessage())));
   }
 
+  @Test
+  public void shouldGetActivityResponsePage() throws Exception {
+    StoredResponseBean storedResponseBean =
+        getObjectMapper()
+            .readValue(
+                readJsonFile("/get_activity_response_data_for_participant.json"),
+                StoredResponseBean.class);
+    storedResponseBean.setNextPageToken(AppUtil.encodePageToken("ResponseDocument2"));
+    String pageToken = AppUtil.encodePageToken("ResponseDocument1");
+    when(responsesDaoMock.getActivityResponseDataPageForParticipant(
+            STUDY_COLLECTION_NAME_VALUE,
+            STUDY_ID_VALUE,
+            SITE_ID_VALUE,
+            participantBo.getParticipantId(),
+            ACTIVITY_ID_VALUE,
+            QUESTION_KEY_VALUE,
+            2,
+            pageToken))
+        .thenReturn(storedResponseBean);
+
+    mockMvc
+        .perform(
+            getActivityResponseRequest()
+                .queryParam("pageSize", "2")
+                .queryParam("pageToken", pageToken))
+        .andDo(print())
+        .andExpect(status().isOk())
+        .andExpect(
+            jsonPath("$.nextPageToken", is(AppUtil.encodePageToken("ResponseDocument2"))));
+
+    verify(responsesDaoMock)
+        .getActivityResponseDataPageForParticipant(
+            STUDY_COLLECTION_NAME_VALUE,
+            STUDY_ID_VALUE,
+            SITE_ID_VALUE,
+            participantBo.getParticipantId(),
+            ACTIVITY_ID_VALUE,
+            QUESTION_KEY_VALUE,
+            2,
+            pageToken);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"0", "-1", "1001"})
+  public void shouldReturnBadRequestForPageSizeOutOfRange(String pageSize) throws Exception {
+    mockMvc
+        .perform(getActivityResponseRequest().queryParam("pageSize", pageSize))
+        .andDo(print())
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.userMessage", is(EC_701.errorMessage())));
+
+    verify(responsesDaoMock, never())
+        .getActivityResponseDataPageForParticipant(
+            anyString(),
+            anyString(),
+            anyString(),
+            anyString(),
+            anyString(),
+            anyString(),
+            anyInt(),
+            any());
+  }
+
+  @Test
+  public void shouldReturnBadRequestForInvalidPageToken() throws Exception {
+    when(responsesDaoMock.getActivityResponseDataPageForParticipant(
+            STUDY_COLLECTION_NAME_VALUE,
+            STUDY_ID_VALUE,
+            SITE_ID_VALUE,
+            participantBo.getParticipantId(),
+            ACTIVITY_ID_VALUE,
+            QUESTION_KEY_VALUE,
+            500,
+            "not-a-token"))
+        .thenThrow(new InvalidPageTokenException("Invalid page token"));
+
+    mockMvc
+        .perform(getActivityResponseRequest().queryParam("pageToken", "not-a-token"))
+        .andDo(print())
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.appErrorCode", is(EC_701.code())))
+        .andExpect(jsonPath("$.detailMessage", is("Invalid page token")));
+  }
+
   @Test
   public void shouldUpdateWithdrawStatusParticipantFromStudy() throws Exception {
     // Step-1 updateWithdrawalStatusForParticipant
@@ -422,8 +794,165 @@ public class ProcessActivityResponseControllerTest extends BaseMockIT {
         .andExpect(jsonPath("$.userMessage", is(EC_701.errorMessage())));
   }
 
+  @Test
+  public void shouldWithdrawParticipantsInBackgroundJob() throws Exception {
+    String otherParticipantId = testDataHelper.saveParticipant().getParticipantId();
+    List<String> participantIds =
+        Arrays.asList(participantBo.getParticipantId(), otherParticipantId);
+
+    MvcResult result =
+        mockMvc
+            .perform(
+                withdrawParticipantsRequest(
+                    Arrays.asList(
+                        participantBo.getParticipantId(),
+                        otherParticipantId,
+                        participantBo.getParticipantId())))
+            .andDo(print())
+            .andExpect(status().isAccepted())
+            .andExpect(jsonPath("$.participantCount", is(2)))
+            .andReturn();
+
+    WithdrawParticipantsJobBean job = awaitWithdrawal(jobIdOf(result));
+    assertEquals("COMPLETED", job.getStatus());
+    assertEquals(STUDY_ID_VALUE, job.getStudyId());
+    assertNull(job.getAppErrorCode());
+    verify(responsesDaoMock)
+        .updateWithdrawalStatusForParticipants(
+            STUDY_COLLECTION_NAME_VALUE, STUDY_ID_VALUE, participantIds);
+    assertTrue(
+        participantActivitiesRepository
+            .findByStudyIdAndParticipantId(STUDY_ID_VALUE, otherParticipantId)
+            .isEmpty());
+  }
+
+  @Test
+  public void shouldReportFailedWithdrawalJob() throws Exception {
+    doThrow(new ProcessResponseException("Firestore unavailable"))
+        .when(responsesDaoMock)
+        .updateWithdrawalStatusForParticipants(anyString(), anyString(), any());
+
+    MvcResult result =
+        mockMvc
+            .perform(
+                withdrawParticipantsRequest(Arrays.asList(participantBo.getParticipantId())))
+            .andDo(print())
+            .andExpect(status().isAccepted())
+            .andReturn();
+
+    WithdrawParticipantsJobBean job = awaitWithdrawal(jobIdOf(result));
+    assertEquals("FAILED", job.getStatus());
+    assertEquals(Integer.valueOf(EC_712.code()), job.getAppErrorCode());
+    assertEquals("Firestore unavailable", job.getErrorMessage());
+  }
+
+  @Test
+  public void shouldReturnBadRequestForBlankParticipantOfWithdrawParticipants() throws Exception {
+    mockMvc
+        .perform(withdrawParticipantsRequest(Arrays.asList(participantBo.getParticipantId(), "")))
+        .andDo(print())
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.appErrorCode", is(EC_701.code())));
+
+    verify(responsesDaoMock, never())
+        .updateWithdrawalStatusForParticipants(anyString(), anyString(), any());
+  }
+
+  @Test
+  public void shouldReturnNotFoundForUnknownWithdrawalJob() throws Exception {
+    mockMvc
+        .perform(withdrawalJobRequest("unknown-job"))
+        .andDo(print())
+        .andExpect(status().isNotFound())
+        .andExpect(jsonPath("$.appErrorCode", is(EC_711.code())));
+  }
+
+  private MockHttpServletRequestBuilder withdrawParticipantsRequest(List<String> participantIds)
+      throws Exception {
+    WithdrawParticipantsBean withdrawParticipantsBean = new WithdrawParticipantsBean();
+    withdrawParticipantsBean.setStudyId(STUDY_ID_VALUE);
+    withdrawParticipantsBean.setStudyVersion(STUDY_VERSION);
+    withdrawParticipantsBean.setParticipantIds(participantIds);
+    HttpHeaders headers = TestUtils.newCommonHeaders();
+    headers.add(USER_ID_HEADER, VALID_USER_ID);
+    return post(ApiEndpoint.WITHDRAW_PARTICIPANTS.getPath())
+        .contextPath(getContextPath())
+        .content(JsonUtils.asJsonString(withdrawParticipantsBean))
+        .headers(headers);
+  }
+
+  private MockHttpServletRequestBuilder withdrawalJobRequest(String jobId) throws Exception {
+    HttpHeaders headers = TestUtils.newCommonHeaders();
+    headers.add(USER_ID_HEADER, VALID_USER_ID);
+    return get(ApiEndpoint.WITHDRAW_PARTICIPANTS.getPath() + "/" + jobId)
+        .contextPath(getContextPath())
+        .headers(headers);
+  }
+
+  private String jobIdOf(MvcResult result) throws Exception {
+    return getObjectMapper()
+        .readValue(result.getResponse().getContentAsString(), WithdrawParticipantsJobBean.class)
+        .getJobId();
+  }
+
+  private WithdrawParticipantsJobBean awaitWithdrawal(String jobId) throws Exception {
+    for (int i = 0; i < 100; i++) {
+      MvcResult result =
+          mockMvc.perform(withdrawalJobRequest(jobId)).andExpect(status().isOk()).andReturn();
+      WithdrawParticipantsJobBean job =
+          getObjectMapper()
+              .readValue(
+                  result.getResponse().getContentAsString(), WithdrawParticipantsJobBean.class);
+      if (!"PENDING".equals(job.getStatus()) && !"IN_PROGRESS".equals(job.getStatus())) {
+        return job;
+      }
+      Thread.sleep(50);
+    }
+    throw new AssertionError("withdrawal job " + jobId + " did not finish");
+  }
+
+  private MockHttpServletRequestBuilder processActivityResponseRequest(
+      ActivityResponseBean activityResponseBean) throws Exception {
+    return post(ApiEndpoint.PROCESS_ACTIVITY_RESPONSE.getPath())
+        .contextPath(getContextPath())
+        .content(JsonUtils.asJsonString(activityResponseBean))
+        .headers(TestUtils.newHeadersUser());
+  }
+
+  private ActivityResponseBean activityResponseOfRun(String activityRunId) throws Exception {
+    ActivityResponseBean activityResponseBean = setActivityResponseBean();
+    activityResponseBean.getMetadata().setStudyVersion(STUDY_VERSION);
+    activityResponseBean.getMetadata().setActivityRunId(activityRunId);
+    return activityResponseBean;
+  }
+
+  private String receiptStatus(String activityRunId) {
+    String participantId = participantBo.getParticipantId();
+    return activityResponseReceiptRepository
+        .findStatus(STUDY_ID_VALUE, participantId, ACTIVITY_ID_VALUE, "1.0", activityRunId)
+        .orElse(null);
+  }
+
+  private MockHttpServletRequestBuilder getActivityResponseRequest() throws Exception {
+    return get(ApiEndpoint.GET_PROCESS_ACTIVITY_RESPONSE.getPath())
+        .contextPath(getContextPath())
+        .headers(TestUtils.newHeadersUser())
+        .queryParam("appId", "appId")
+        .queryParam("studyId", STUDY_ID_VALUE)
+        .queryParam("siteId", SITE_ID_VALUE)
+        .queryParam("participantId", participantBo.getParticipantId())
+        .queryParam(PARTICIPANT_TOKEN_IDENTIFIER_KEY, participantBo.getTokenId())
+        .queryParam("activityId", ACTIVITY_ID_VALUE)
+        .queryParam("activityRunId", ACTIVITY_ID_VALUE)
+        .queryParam("questionKey", QUESTION_KEY_VALUE);
+  }
+
   @AfterEach
   public void clean() {
+    appConfig.setResponseIngestionAsyncEnabled(false);
+    appConfig.setResponseIngestionMaxPending(10000);
+    activityResponseQueueRepository.deleteAll();
+    activityResponseReceiptRepository.deleteAll();
     participantBoRepository.deleteAll();
   }
 
@@ -15,9 +15,12 @@ import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEven
 import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.READ_OPERATION_FOR_ACTIVITY_STATE_INFO_SUCCEEDED;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -25,11 +28,13 @@ import com.google.cloud.healthcare.fdamystudies.bean.ActivityStateRequestBean;
 import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
 import com.google.cloud.healthcare.fdamystudies.common.ApiEndpoint;
 import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.dao.ParticipantActivitiesDao;
 import com.google.cloud.healthcare.fdamystudies.repository.ParticipantActivitiesRepository;
 import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantActivitiesEntity;
 import com.google.cloud.healthcare.fdamystudies.service.ParticipantActivityStateResponseService;
 import com.google.cloud.healthcare.fdamystudies.utils.Constants;
 import com.google.cloud.healthcare.fdamystudies.utils.TestUtils;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import org.apache.commons.collections4.map.HashedMap;
@@ -38,16 +43,19 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.aggregator.ArgumentsAccessor;
 import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.skyscreamer.jsonassert.JSONAssert;
 import org.skyscreamer.jsonassert.JSONCompareMode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.util.LinkedMultiValueMap;
 
 public class ProcessActivityStateControllerTest extends BaseMockIT {
   @Autowired ParticipantActivitiesRepository participantActivitiesRepository;
+  @Autowired ParticipantActivitiesDao participantActivitiesDao;
   @Autowired ParticipantActivityStateResponseService participantActivitiesResponseService;
 
   @Test
@@ -94,6 +102,65 @@ public class ProcessActivityStateControllerTest extends BaseMockIT {
     verifyAuditEventCall(auditEventMap, READ_OPERATION_FOR_ACTIVITY_STATE_INFO_SUCCEEDED);
   }
 
+  @Test
+  void shouldReturnEtagAndNotModifiedForMatchingTag() throws Exception {
+    saveActivityState("Completed");
+    String etag = getActivityState(null).getResponse().getHeader(HttpHeaders.ETAG);
+    assertNotNull(etag);
+
+    mockMvc
+        .perform(activityStateRequest().header(HttpHeaders.IF_NONE_MATCH, etag))
+        .andDo(print())
+        .andExpect(status().isNotModified())
+        .andExpect(header().string(HttpHeaders.ETAG, etag))
+        .andExpect(content().string(""));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"W/%s", "*", "\"0123\", %s", "\"0123\",W/%s"})
+  void shouldReturnNotModifiedForWeakWildcardAndListedTags(String ifNoneMatch) throws Exception {
+    saveActivityState("Completed");
+    String etag = getActivityState(null).getResponse().getHeader(HttpHeaders.ETAG);
+
+    mockMvc
+        .perform(
+            activityStateRequest()
+                .header(HttpHeaders.IF_NONE_MATCH, String.format(ifNoneMatch, etag)))
+        .andDo(print())
+        .andExpect(status().isNotModified());
+  }
+
+  @Test
+  void shouldReturnNewStateAndEtagAfterSave() throws Exception {
+    saveActivityState("inProgress");
+    String etag = getActivityState(null).getResponse().getHeader(HttpHeaders.ETAG);
+
+    saveActivityState("Completed");
+    MvcResult result = getActivityState(etag);
+
+    assertNotEquals(etag, result.getResponse().getHeader(HttpHeaders.ETAG));
+    JSONAssert.assertEquals(
+        readJsonFile("/get_activity_state_runs_info_response.json"),
+        result.getResponse().getContentAsString(),
+        JSONCompareMode.NON_EXTENSIBLE);
+  }
+
+  @Test
+  void shouldNotAnswerNotModifiedWhenStoredStateChanged() throws Exception {
+    saveActivityState("Completed");
+    String etag = getActivityState(null).getResponse().getHeader(HttpHeaders.ETAG);
+
+    // a change saved by another instance does not invalidate the cache of this one
+    List<ParticipantActivitiesEntity> storedActivities =
+        participantActivitiesRepository.findByStudyIdAndParticipantId("RT3", "567");
+    storedActivities.get(0).setActivityState("inProgress");
+    participantActivitiesDao.upsertParticipantActivities("RT3", "567", storedActivities);
+
+    MvcResult result = getActivityState(etag);
+
+    assertNotEquals(etag, result.getResponse().getHeader(HttpHeaders.ETAG));
+  }
+
   @ParameterizedTest
   @CsvSource({"RT4,567", "RT3,568"})
   @DirtiesContext(methodMode = DirtiesContext.MethodMode.BEFORE_METHOD)
@@ -290,8 +357,36 @@ public class ProcessActivityStateControllerTest extends BaseMockIT {
         resultsList.get(1).getCompletedCount());
   }
 
+  private void saveActivityState(String activityState) throws Exception {
+    ActivityStateRequestBean activityStateBean =
+        getObjectMapper()
+            .readValue(
+                readJsonFile("/update_activity_state_runs_info_request.json"),
+                ActivityStateRequestBean.class);
+    activityStateBean.getActivity().get(0).setActivityState(activityState);
+    participantActivitiesResponseService.saveParticipantActivities(activityStateBean);
+  }
+
+  private MockHttpServletRequestBuilder activityStateRequest() throws Exception {
+    return get(ApiEndpoint.GET_ACTIVITY_STATE.getPath())
+        .contextPath(getContextPath())
+        .param("studyId", "RT3")
+        .param("participantId", "567")
+        .headers(TestUtils.newHeadersUser());
+  }
+
+  private MvcResult getActivityState(String ifNoneMatch) throws Exception {
+    MockHttpServletRequestBuilder request = activityStateRequest();
+    if (ifNoneMatch != null) {
+      request.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+    }
+    return mockMvc.perform(request).andDo(print()).andExpect(status().isOk()).andReturn();
+  }
+
   @AfterEach
-  void cleanUp() {
+  void cleanUp() throws Exception {
+    participantActivitiesResponseService.deleteParticipantActivites(
+        "RT3", Collections.singletonList("567"));
     participantActivitiesRepository.deleteAll();
   }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.exception.InvalidPageTokenException;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+public class CloudFirestoreResponsesDaoImplTest extends BaseMockIT {
+
+  private static final String STUDY_ID = "StudyId";
+
+  private static final String STUDY_COLLECTION_NAME = "StudyId-RESPONSES";
+
+  private static final String PARTICIPANT_ID = "ParticipantId";
+
+  /** Returns the mock itself from the query builder methods, so a query chain ends on it. */
+  private static final Answer<Object> RETURNS_SELF =
+      invocation ->
+          invocation.getMethod().getReturnType().isInstance(invocation.getMock())
+              ? invocation.getMock()
+              : RETURNS_DEFAULTS.answer(invocation);
+
+  private CollectionReference activities;
+
+  @MockBean private Firestore responsesDb;
+
+  @MockBean private StoredResponseConverter storedResponseConverter;
+
+  @Autowired private CloudFirestoreResponsesDaoImpl responsesDao;
+
+  @BeforeEach
+  public void setUp() {
+    activities = mock(CollectionReference.class, RETURNS_SELF);
+    DocumentReference study = mock(DocumentReference.class);
+    when(study.collection(AppConstants.ACTIVITIES_COLLECTION_NAME)).thenReturn(activities);
+    CollectionReference studies = mock(CollectionReference.class);
+    when(studies.document(STUDY_ID)).thenReturn(study);
+    when(responsesDb.collection(STUDY_COLLECTION_NAME)).thenReturn(studies);
+    when(storedResponseConverter.toStoredResponseBean(eq(PARTICIPANT_ID), anyList()))
+        .thenAnswer(invocation -> new StoredResponseBean());
+  }
+
+  @Test
+  public void shouldReturnTokenOfLastDocumentWhenPageIsFull() throws Exception {
+    returnDocuments("ResponseDocument1", "ResponseDocument2");
+
+    StoredResponseBean page = getPage(2, null);
+
+    assertEquals(AppUtil.encodePageToken("ResponseDocument2"), page.getNextPageToken());
+    verify(activities).limit(2);
+    verify(activities, never()).startAfter(anyString());
+    verify(storedResponseConverter).toStoredResponseBean(eq(PARTICIPANT_ID), anyList());
+  }
+
+  @Test
+  public void shouldStartAfterDocumentOfPageToken() throws Exception {
+    returnDocuments("ResponseDocument3");
+
+    StoredResponseBean page = getPage(2, AppUtil.encodePageToken("ResponseDocument2"));
+
+    verify(activities).startAfter("ResponseDocument2");
+    assertNull(page.getNextPageToken());
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"not base64!", "YS9i", "IA"})
+  public void shouldRejectInvalidPageToken(String pageToken) throws Exception {
+    // "YS9i" is a document path "a/b" and "IA" is a blank id
+    assertThrows(InvalidPageTokenException.class, () -> getPage(2, pageToken));
+
+    verify(activities, never()).get();
+  }
+
+  private void returnDocuments(String... documentIds) {
+    List<QueryDocumentSnapshot> documents = new ArrayList<>();
+    for (String documentId : documentIds) {
+      QueryDocumentSnapshot document = mock(QueryDocumentSnapshot.class);
+      when(document.getId()).thenReturn(documentId);
+      when(document.getData())
+          .thenReturn(Collections.<String, Object>singletonMap("documentId", documentId));
+      documents.add(document);
+    }
+    QuerySnapshot snapshot = mock(QuerySnapshot.class);
+    when(snapshot.getDocuments()).thenReturn(documents);
+    when(activities.get()).thenReturn(ApiFutures.immediateFuture(snapshot));
+  }
+
+  private StoredResponseBean getPage(int pageSize, String pageToken) throws Exception {
+    return responsesDao.getActivityResponseDataPageForParticipant(
+        STUDY_COLLECTION_NAME,
+        STUDY_ID,
+        "SiteId",
+        PARTICIPANT_ID,
+        "ActivityId",
+        null,
+        pageSize,
+        pageToken);
+  }
+}
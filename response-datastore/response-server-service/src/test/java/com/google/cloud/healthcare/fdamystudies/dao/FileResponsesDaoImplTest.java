@@ -0,0 +1,189 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.healthcare.fdamystudies.bean.StoredResponseBean;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.exception.InvalidPageTokenException;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class FileResponsesDaoImplTest {
+
+  private static final String STUDY_ID = "StudyId";
+
+  private static final String STUDY_COLLECTION_NAME = "StudyId-RESPONSES";
+
+  private static final String SITE_ID = "SiteId";
+
+  private static final String PARTICIPANT_ID = "ParticipantId";
+
+  private static final String DELETED_PARTICIPANT_ID = "DeletedParticipantId";
+
+  private static final String ACTIVITY_ID = "ActivityId";
+
+  @TempDir Path responseDataPath;
+
+  private FileResponsesDaoImpl responsesDao;
+
+  /** Run ids of the responses of each page read, in the order they were read. */
+  private final List<List<Object>> pages = new ArrayList<>();
+
+  @BeforeEach
+  public void setUp() {
+    ApplicationConfiguration appConfig = new ApplicationConfiguration();
+    appConfig.setResponseDataFilePath(responseDataPath.toString());
+    appConfig.setResponseFileSegmentMaxBytes(1024);
+    appConfig.setResponseFileSyncWrites(false);
+    appConfig.setResponseFileCompactionDeadRatio(0.5);
+
+    StoredResponseConverter storedResponseConverter = mock(StoredResponseConverter.class);
+    when(storedResponseConverter.toStoredResponseBean(anyString(), anyList()))
+        .thenAnswer(
+            invocation -> {
+              List<Object> runIds = new ArrayList<>();
+              for (Map<?, ?> response : (List<Map<?, ?>>) invocation.getArgument(1)) {
+                runIds.add(response.get(AppConstants.ACTIVITY_RUN_ID_KEY));
+              }
+              pages.add(runIds);
+              return new StoredResponseBean();
+            });
+
+    responsesDao =
+        new FileResponsesDaoImpl(appConfig, storedResponseConverter, new SimpleMeterRegistry());
+    responsesDao.initCompactionExecutor();
+  }
+
+  @AfterEach
+  public void tearDown() throws InterruptedException {
+    responsesDao.closeStudyStores();
+  }
+
+  @Test
+  public void shouldReadAllResponsesPageByPage() throws Exception {
+    for (int run = 1; run <= 5; run++) {
+      saveResponse(String.valueOf(run));
+    }
+
+    StoredResponseBean first = getPage(2, null);
+    StoredResponseBean second = getPage(2, first.getNextPageToken());
+    StoredResponseBean last = getPage(2, second.getNextPageToken());
+
+    assertEquals(AppUtil.encodePageToken("2"), first.getNextPageToken());
+    assertEquals(AppUtil.encodePageToken("4"), second.getNextPageToken());
+    assertNull(last.getNextPageToken());
+    assertEquals(3, pages.size());
+    assertEquals(Arrays.asList("1", "2"), pages.get(0));
+    assertEquals(Arrays.asList("3", "4"), pages.get(1));
+    assertEquals(Arrays.asList("5"), pages.get(2));
+  }
+
+  @Test
+  public void shouldNotReturnTokenWhenLastPageIsFull() throws Exception {
+    saveResponse("1");
+    saveResponse("2");
+
+    assertNull(getPage(2, null).getNextPageToken());
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"not base64!", "LTE", "YWJj"})
+  public void shouldRejectInvalidPageToken(String pageToken) throws Exception {
+    // "LTE" is "-1" and "YWJj" is "abc"
+    saveResponse("1");
+
+    assertThrows(InvalidPageTokenException.class, () -> getPage(2, pageToken));
+  }
+
+  @Test
+  public void shouldCompactInBackgroundOnceDeletedResponsesDominate() throws Exception {
+    for (int run = 1; run <= 6; run++) {
+      saveResponse(DELETED_PARTICIPANT_ID, String.valueOf(run));
+    }
+    saveResponse("1");
+    saveResponse("2");
+    long bytesBeforeCompaction = segmentBytes();
+
+    responsesDao.deleteActivityResponseDataForParticipant(
+        STUDY_COLLECTION_NAME,
+        STUDY_ID,
+        AppConstants.ACTIVITIES_COLLECTION_NAME,
+        DELETED_PARTICIPANT_ID);
+    // waits for the queued compaction
+    responsesDao.closeStudyStores();
+
+    assertTrue(segmentBytes() < bytesBeforeCompaction / 2);
+    setUp();
+    assertNull(
+        responsesDao.getActivityResponseDataForParticipant(
+            STUDY_COLLECTION_NAME, STUDY_ID, SITE_ID, DELETED_PARTICIPANT_ID, ACTIVITY_ID, null));
+    getPage(10, null);
+    assertEquals(Arrays.asList("1", "2"), pages.get(0));
+  }
+
+  private void saveResponse(String activityRunId) throws Exception {
+    saveResponse(PARTICIPANT_ID, activityRunId);
+  }
+
+  private void saveResponse(String participantId, String activityRunId) throws Exception {
+    Map<String, Object> response = new HashMap<>();
+    response.put(AppConstants.PARTICIPANT_ID_KEY, participantId);
+    response.put(AppConstants.SITE_ID_KEY, SITE_ID);
+    response.put(AppConstants.ACTIVITY_ID_KEY, ACTIVITY_ID);
+    response.put(AppConstants.ACTIVITY_RUN_ID_KEY, activityRunId);
+    responsesDao.saveActivityResponseData(
+        STUDY_ID, STUDY_COLLECTION_NAME, AppConstants.ACTIVITIES_COLLECTION_NAME, response);
+  }
+
+  private long segmentBytes() throws IOException {
+    try (Stream<Path> files = Files.list(responseDataPath.resolve(STUDY_ID).resolve("responses"))) {
+      return files
+          .filter(file -> file.getFileName().toString().startsWith("segment-"))
+          .mapToLong(file -> file.toFile().length())
+          .sum();
+    }
+  }
+
+  private StoredResponseBean getPage(int pageSize, String pageToken) throws Exception {
+    return responsesDao.getActivityResponseDataPageForParticipant(
+        STUDY_COLLECTION_NAME,
+        STUDY_ID,
+        SITE_ID,
+        PARTICIPANT_ID,
+        ACTIVITY_ID,
+        null,
+        pageSize,
+        pageToken);
+  }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantActivitiesEntity;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import javax.persistence.EntityManagerFactory;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.jdbc.Work;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs the INSERT ... ON DUPLICATE KEY UPDATE path of {@link ParticipantActivitiesDaoImpl}, which
+ * the H2 database of the integration tests does not select, against H2 in MySQL mode, and checks
+ * it against the merge rules of the fallback path. Also runs the de-duplication of the release
+ * migration that adds the unique key.
+ */
+public class ParticipantActivitiesDaoImplTest {
+
+  private static final String MIGRATION =
+      "../../db-migration/response-datastore-db-migration/db/migration/V2_0_12__release.sql";
+
+  private static final String STUDY_ID = "StudyId";
+
+  private static final String PARTICIPANT_ID = "ParticipantId";
+
+  private Connection connection;
+
+  private ParticipantActivitiesDaoImpl participantActivitiesDao;
+
+  @BeforeEach
+  public void setUp() throws SQLException {
+    connection =
+        DriverManager.getConnection(
+            "jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(
+          "CREATE TABLE participant_activities (id VARCHAR(255) NOT NULL PRIMARY KEY,"
+              + " study_id VARCHAR(64) NOT NULL, participant_id VARCHAR(64) NOT NULL,"
+              + " activity_id VARCHAR(64) NOT NULL, activity_version VARCHAR(32) NOT NULL,"
+              + " activity_state VARCHAR(255) NOT NULL, activity_run_id VARCHAR(32) NOT NULL,"
+              + " bookmark BOOLEAN DEFAULT FALSE, total_count INT, completed_count INT,"
+              + " missed_count INT, created_time TIMESTAMP)");
+      statement.execute(
+          "ALTER TABLE participant_activities ADD CONSTRAINT participant_activities_uidx"
+              + " UNIQUE (study_id, participant_id, activity_id)");
+      statement.execute(
+          "CREATE TABLE participant_activity_state_version (id VARCHAR(255) NOT NULL PRIMARY KEY,"
+              + " study_id VARCHAR(32), participant_id VARCHAR(64), version VARCHAR(32) NOT NULL,"
+              + " updated_time TIMESTAMP, CONSTRAINT participant_activity_state_version_uidx"
+              + " UNIQUE (study_id, participant_id))");
+    }
+
+    Session session = mock(Session.class);
+    SessionFactory sessionFactory = mock(SessionFactory.class);
+    EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+    when(entityManagerFactory.unwrap(SessionFactory.class)).thenReturn(sessionFactory);
+    when(sessionFactory.openSession()).thenReturn(session);
+    when(session.beginTransaction()).thenReturn(mock(Transaction.class));
+    when(session.doReturningWork(any())).thenReturn("MySQL");
+    doAnswer(
+            invocation -> {
+              ((Work) invocation.getArgument(0)).execute(connection);
+              return null;
+            })
+        .when(session)
+        .doWork(any());
+
+    participantActivitiesDao = new ParticipantActivitiesDaoImpl(entityManagerFactory);
+  }
+
+  @AfterEach
+  public void tearDown() throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("SHUTDOWN");
+    }
+    connection.close();
+  }
+
+  @Test
+  public void shouldInsertActivitiesNotStoredYet() throws Exception {
+    participantActivitiesDao.upsertParticipantActivities(
+        STUDY_ID,
+        PARTICIPANT_ID,
+        Arrays.asList(
+            activity("Q1", "inProgress", "1", true, 3, 1, 0),
+            activity("Q2", "yetToJoin", "", false, null, null, null)));
+
+    List<ParticipantActivitiesEntity> rows = storedActivities();
+    assertEquals(2, rows.size());
+    assertActivity(activity("Q1", "inProgress", "1", true, 3, 1, 0), rows.get(0));
+    assertActivity(activity("Q2", "yetToJoin", "", false, null, null, null), rows.get(1));
+  }
+
+  @Test
+  public void shouldMergeChangeIntoStoredActivityLikeMergeActivity() throws Exception {
+    ParticipantActivitiesEntity stored = activity("Q1", "inProgress", "2", true, 5, 2, 1);
+    participantActivitiesDao.upsertParticipantActivities(
+        STUDY_ID, PARTICIPANT_ID, Collections.singletonList(stored));
+
+    // blank run id and missing counts keep the stored values, the other fields are replaced
+    ParticipantActivitiesEntity change = activity("Q1", "completed", "", false, null, 3, null);
+    change.setActivityVersion("1.1");
+    participantActivitiesDao.upsertParticipantActivities(
+        STUDY_ID, PARTICIPANT_ID, Collections.singletonList(change));
+
+    ParticipantActivitiesEntity expected = activity("Q1", "inProgress", "2", true, 5, 2, 1);
+    ParticipantActivitiesDaoImpl.mergeActivity(expected, change);
+    List<ParticipantActivitiesEntity> rows = storedActivities();
+    assertEquals(1, rows.size());
+    assertActivity(expected, rows.get(0));
+    ParticipantActivitiesEntity merged = activity("Q1", "completed", "2", false, 5, 3, 1);
+    merged.setActivityVersion("1.1");
+    assertActivity(merged, rows.get(0));
+  }
+
+  @Test
+  public void shouldMergeRepeatedChangesOfAnActivityInOneRequest() throws Exception {
+    participantActivitiesDao.upsertParticipantActivities(
+        STUDY_ID,
+        PARTICIPANT_ID,
+        Arrays.asList(
+            activity("Q1", "inProgress", "3", false, 4, null, 1),
+            activity("Q1", "completed", null, true, null, 2, null)));
+
+    List<ParticipantActivitiesEntity> rows = storedActivities();
+    assertEquals(1, rows.size());
+    assertActivity(activity("Q1", "completed", "3", true, 4, 2, 1), rows.get(0));
+  }
+
+  @Test
+  public void shouldReplaceActivityStateVersionOnEveryUpsert() throws Exception {
+    participantActivitiesDao.upsertParticipantActivities(
+        STUDY_ID,
+        PARTICIPANT_ID,
+        Collections.singletonList(activity("Q1", "inProgress", "1", false, 1, 0, 0)));
+    List<String> versions = storedVersions();
+
+    participantActivitiesDao.upsertParticipantActivities(
+        STUDY_ID,
+        PARTICIPANT_ID,
+        Collections.singletonList(activity("Q1", "completed", "1", false, 1, 1, 0)));
+
+    assertEquals(1, versions.size());
+    assertEquals(1, storedVersions().size());
+    assertNotEquals(versions, storedVersions());
+  }
+
+  @Test
+  public void shouldKeepMostRecentlyCreatedDuplicateWhenMigrating() throws Exception {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(
+          "ALTER TABLE participant_activities DROP CONSTRAINT participant_activities_uidx");
+    }
+    insertRow("c0ffee", "Q1", null);
+    insertRow("ffff", "Q1", "2021-03-01 10:00:00");
+    insertRow("0000", "Q1", "2021-03-02 10:00:00");
+    insertRow("0aaa", "Q1", "2021-03-02 10:00:00");
+    insertRow("1234", "Q2", null);
+    insertRow("9999", "Q3", "2021-03-01 10:00:00");
+    insertRow("8888", "Q3", null);
+
+    try (Statement statement = connection.createStatement()) {
+      statement.executeUpdate(migrationDeleteStatement());
+    }
+
+    List<String> remainingIds = new ArrayList<>();
+    for (ParticipantActivitiesEntity row : storedActivities()) {
+      remainingIds.add(row.getId());
+    }
+    assertEquals(Arrays.asList("0aaa", "1234", "9999"), remainingIds);
+  }
+
+  private String migrationDeleteStatement() throws Exception {
+    String migration = new String(Files.readAllBytes(Paths.get(MIGRATION)), StandardCharsets.UTF_8);
+    int start = migration.indexOf("DELETE FROM `participant_activities`");
+    return migration.substring(start, migration.indexOf(';', start)).replace("`", "");
+  }
+
+  private void insertRow(String id, String activityId, String createdTime) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(
+          String.format(
+              "INSERT INTO participant_activities (id, study_id, participant_id, activity_id,"
+                  + " activity_version, activity_state, activity_run_id, created_time)"
+                  + " VALUES ('%s', '%s', '%s', '%s', '1.0', 'inProgress', '1', %s)",
+              id,
+              STUDY_ID,
+              PARTICIPANT_ID,
+              activityId,
+              createdTime == null ? "NULL" : "'" + createdTime + "'"));
+    }
+  }
+
+  private List<String> storedVersions() throws SQLException {
+    List<String> versions = new ArrayList<>();
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "SELECT version FROM participant_activity_state_version"
+                    + " WHERE study_id = 'StudyId' AND participant_id = 'ParticipantId'")) {
+      while (resultSet.next()) {
+        versions.add(resultSet.getString("version"));
+      }
+    }
+    return versions;
+  }
+
+  private List<ParticipantActivitiesEntity> storedActivities() throws SQLException {
+    List<ParticipantActivitiesEntity> rows = new ArrayList<>();
+    try (Statement statement = connection.createStatement();
+        ResultSet resultSet =
+            statement.executeQuery(
+                "SELECT * FROM participant_activities ORDER BY activity_id, id")) {
+      while (resultSet.next()) {
+        ParticipantActivitiesEntity row = new ParticipantActivitiesEntity();
+        row.setId(resultSet.getString("id"));
+        row.setStudyId(resultSet.getString("study_id"));
+        row.setParticipantId(resultSet.getString("participant_id"));
+        row.setActivityId(resultSet.getString("activity_id"));
+        row.setActivityVersion(resultSet.getString("activity_version"));
+        row.setActivityState(resultSet.getString("activity_state"));
+        row.setActivityRunId(resultSet.getString("activity_run_id"));
+        row.setBookmark((Boolean) resultSet.getObject("bookmark"));
+        row.setTotalCount((Integer) resultSet.getObject("total_count"));
+        row.setCompletedCount((Integer) resultSet.getObject("completed_count"));
+        row.setMissedCount((Integer) resultSet.getObject("missed_count"));
+        row.setCreated((Timestamp) resultSet.getObject("created_time"));
+        rows.add(row);
+      }
+    }
+    return rows;
+  }
+
+  private static ParticipantActivitiesEntity activity(
+      String activityId,
+      String activityState,
+      String activityRunId,
+      Boolean bookmark,
+      Integer totalCount,
+      Integer completedCount,
+      Integer missedCount) {
+    ParticipantActivitiesEntity activity = new ParticipantActivitiesEntity();
+    activity.setStudyId(STUDY_ID);
+    activity.setParticipantId(PARTICIPANT_ID);
+    activity.setActivityId(activityId);
+    activity.setActivityVersion("1.0");
+    activity.setActivityState(activityState);
+    activity.setActivityRunId(activityRunId);
+    activity.setBookmark(bookmark);
+    activity.setTotalCount(totalCount);
+    activity.setCompletedCount(completedCount);
+    activity.setMissedCount(missedCount);
+    return activity;
+  }
+
+  private static void assertActivity(
+      ParticipantActivitiesEntity expected, ParticipantActivitiesEntity actual) {
+    assertEquals(expected.getActivityId(), actual.getActivityId());
+    assertEquals(expected.getActivityVersion(), actual.getActivityVersion());
+    assertEquals(expected.getActivityState(), actual.getActivityState());
+    assertEquals(expected.getActivityRunId(), actual.getActivityRunId());
+    assertEquals(expected.getBookmark(), actual.getBookmark());
+    assertEquals(expected.getTotalCount(), actual.getTotalCount());
+    assertEquals(expected.getCompletedCount(), actual.getCompletedCount());
+    assertEquals(expected.getMissedCount(), actual.getMissedCount());
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ResponseSegmentStoreTest {
+
+  private static final long SEGMENT_MAX_BYTES = 256;
+
+  private static final String SITE_ID = "SiteId";
+
+  private static final String ACTIVITY_ID = "ActivityId";
+
+  @TempDir Path studyDir;
+
+  private ResponseSegmentStore store;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    store = ResponseSegmentStore.open(studyDir, SEGMENT_MAX_BYTES, false);
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException {
+    store.close();
+  }
+
+  @Test
+  public void shouldReadResponsesOfActivityAtSiteInAppendOrder() throws IOException {
+    assertTrue(append("P1", "1"));
+    assertEquals(Arrays.asList("P1-1"), read("P1"));
+
+    assertTrue(append("P1", "2"));
+    assertTrue(store.append("P1", SITE_ID, "OtherActivity", "1", json("P1-other")));
+    assertTrue(store.append("P1", "OtherSite", ACTIVITY_ID, "3", json("P1-site")));
+
+    assertEquals(Arrays.asList("P1-1", "P1-2"), read("P1"));
+    assertEquals(Collections.emptyList(), read("P2"));
+  }
+
+  @Test
+  public void shouldNotAppendActivityRunTwice() throws IOException {
+    assertTrue(append("P1", "1"));
+
+    assertFalse(append("P1", "1"));
+    assertEquals(Arrays.asList("P1-1"), read("P1"));
+  }
+
+  @Test
+  public void shouldRollSegmentsAndReadSealedOnes() throws IOException {
+    List<String> expected = new ArrayList<>();
+    for (int run = 1; run <= 20; run++) {
+      append("P1", String.valueOf(run));
+      expected.add("P1-" + run);
+      assertEquals(expected, read("P1"));
+    }
+
+    assertTrue(segmentFiles().size() > 1);
+  }
+
+  @Test
+  public void shouldDeleteAndWithdrawParticipants() throws IOException {
+    append("P1", "1");
+    append("P2", "1");
+
+    store.delete("P1");
+    store.withdraw("P2");
+
+    assertEquals(Collections.emptyList(), read("P1"));
+    assertFalse(store.isWithdrawn("P1"));
+    assertEquals(Arrays.asList("P2-1"), read("P2"));
+    assertTrue(store.isWithdrawn("P2"));
+    assertTrue(store.deadRatio() > 0);
+  }
+
+  @Test
+  public void shouldRecoverIndexWhenReopened() throws IOException {
+    for (int run = 1; run <= 10; run++) {
+      append("P1", String.valueOf(run));
+    }
+    append("P2", "1");
+    store.withdraw("P1");
+    store.delete("P2");
+    double deadRatio = store.deadRatio();
+
+    reopen();
+
+    assertEquals(10, read("P1").size());
+    assertTrue(store.isWithdrawn("P1"));
+    assertEquals(Collections.emptyList(), read("P2"));
+    assertFalse(append("P1", "10"));
+    assertEquals(deadRatio, store.deadRatio(), 1e-9);
+  }
+
+  @Test
+  public void shouldTruncateTornWriteAtEndOfActiveSegment() throws IOException {
+    append("P1", "1");
+    append("P1", "2");
+    store.close();
+    Path activeSegment = segmentFiles().get(segmentFiles().size() - 1);
+    long size = Files.size(activeSegment);
+    try (FileChannel channel = FileChannel.open(activeSegment, StandardOpenOption.APPEND)) {
+      ByteBuffer tornRecord = ByteBuffer.allocate(Integer.BYTES + 3);
+      tornRecord.putInt(100).put((byte) 1).putShort((short) 2).flip();
+      channel.write(tornRecord);
+    }
+
+    store = ResponseSegmentStore.open(studyDir, SEGMENT_MAX_BYTES, false);
+
+    assertEquals(size, Files.size(activeSegment));
+    assertEquals(Arrays.asList("P1-1", "P1-2"), read("P1"));
+    append("P1", "3");
+    reopen();
+    assertEquals(Arrays.asList("P1-1", "P1-2", "P1-3"), read("P1"));
+  }
+
+  @Test
+  public void shouldCompactLiveRecordsAndKeepThemWhenReopened() throws IOException {
+    for (int run = 1; run <= 10; run++) {
+      append("P1", String.valueOf(run));
+    }
+    append("P2", "1");
+    append("P2", "2");
+    store.withdraw("P2");
+    store.delete("P1");
+    long bytesBeforeCompaction = segmentBytes();
+
+    store.compact();
+
+    assertEquals(0, store.deadRatio(), 1e-9);
+    assertTrue(segmentBytes() < bytesBeforeCompaction / 2);
+    assertEquals(Arrays.asList("P2-1", "P2-2"), read("P2"));
+    assertTrue(store.isWithdrawn("P2"));
+
+    append("P2", "3");
+    append("P3", "1");
+    store.delete("P3");
+    reopen();
+
+    assertEquals(Arrays.asList("P2-1", "P2-2", "P2-3"), read("P2"));
+    assertTrue(store.isWithdrawn("P2"));
+    assertEquals(Collections.emptyList(), read("P1"));
+    assertEquals(Collections.emptyList(), read("P3"));
+  }
+
+  @Test
+  public void shouldKeepAppendsMadeWhileCompacting() throws Exception {
+    for (int run = 1; run <= 20; run++) {
+      append("P1", String.valueOf(run));
+    }
+    AtomicReference<Exception> failure = new AtomicReference<>();
+    Thread writer =
+        new Thread(
+            () -> {
+              try {
+                for (int run = 1; run <= 200; run++) {
+                  append("P2", String.valueOf(run));
+                  if (run % 50 == 0) {
+                    store.delete("P1");
+                  }
+                }
+              } catch (IOException e) {
+                failure.set(e);
+              }
+            });
+    writer.start();
+    while (writer.isAlive()) {
+      store.compact();
+    }
+    writer.join();
+
+    assertNull(failure.get());
+    assertEquals(200, read("P2").size());
+    reopen();
+    List<String> expected = new ArrayList<>();
+    for (int run = 1; run <= 200; run++) {
+      expected.add("P2-" + run);
+    }
+    assertEquals(expected, read("P2"));
+    assertEquals(Collections.emptyList(), read("P1"));
+  }
+
+  @Test
+  public void shouldDropSegmentsMissingFromManifest() throws IOException {
+    append("P1", "1");
+    store.close();
+    // a copy written by a compaction that stopped before it swapped in the manifest
+    Path unlisted = studyDir.resolve("segment-0000000099.log");
+    Files.copy(segmentFiles().get(0), unlisted);
+
+    store = ResponseSegmentStore.open(studyDir, SEGMENT_MAX_BYTES, false);
+
+    assertEquals(Arrays.asList("P1-1"), read("P1"));
+    assertFalse(Files.exists(unlisted));
+  }
+
+  @Test
+  public void shouldOpenStoreWrittenWithoutManifest() throws IOException {
+    for (int run = 1; run <= 5; run++) {
+      append("P1", String.valueOf(run));
+    }
+    store.close();
+    Files.delete(studyDir.resolve("MANIFEST"));
+
+    store = ResponseSegmentStore.open(studyDir, SEGMENT_MAX_BYTES, false);
+
+    assertEquals(5, read("P1").size());
+    assertTrue(Files.exists(studyDir.resolve("MANIFEST")));
+  }
+
+  private boolean append(String participantId, String activityRunId) throws IOException {
+    byte[] json = json(participantId + "-" + activityRunId);
+    return store.append(participantId, SITE_ID, ACTIVITY_ID, activityRunId, json);
+  }
+
+  private List<String> read(String participantId) throws IOException {
+    List<String> responses = new ArrayList<>();
+    for (byte[] response : store.read(participantId, SITE_ID, ACTIVITY_ID)) {
+      responses.add(new String(response, StandardCharsets.UTF_8));
+    }
+    return responses;
+  }
+
+  private void reopen() throws IOException {
+    store.close();
+    store = ResponseSegmentStore.open(studyDir, SEGMENT_MAX_BYTES, false);
+  }
+
+  private List<Path> segmentFiles() throws IOException {
+    try (Stream<Path> files = Files.list(studyDir)) {
+      return files
+          .filter(file -> file.getFileName().toString().startsWith("segment-"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private long segmentBytes() throws IOException {
+    long bytes = 0;
+    for (Path file : segmentFiles()) {
+      bytes += Files.size(file);
+    }
+    return bytes;
+  }
+
+  private static byte[] json(String value) {
+    return value.getBytes(StandardCharsets.UTF_8);
+  }
+}
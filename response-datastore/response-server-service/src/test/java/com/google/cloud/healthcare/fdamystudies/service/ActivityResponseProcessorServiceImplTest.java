@@ -0,0 +1,207 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static com.google.cloud.healthcare.fdamystudies.utils.AppConstants.PATIENT_TYPE;
+import static com.google.cloud.healthcare.fdamystudies.utils.AppConstants.QUESTIONNAIRE_RESPONSE_TYPE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.dao.CommonDao;
+import com.google.cloud.healthcare.fdamystudies.utils.AppConstants;
+import com.google.cloud.healthcare.fdamystudies.utils.AppUtil;
+import com.google.cloud.healthcare.fdamystudies.utils.DeIdentificationScheduler;
+import com.google.cloud.healthcare.fdamystudies.utils.FhirHealthcareApis;
+import com.google.cloud.healthcare.fdamystudies.utils.ResponseBeanCodec;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Golden tests of the FHIR QuestionnaireResponse and the stored maps of a conjoined response. The
+ * expected files were written by the {@code Introspector} based mapping that {@link
+ * ResponseBeanCodec} replaced, so the output has to stay byte for byte the same.
+ */
+@TestPropertySource(properties = {"enableFhirApi=fhir", "projectId=project", "regionId=region"})
+public class ActivityResponseProcessorServiceImplTest extends BaseMockIT {
+
+  private static final ObjectMapper OBJECT_MAPPER =
+      new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+  @MockBean private FhirHealthcareApis fhirHealthcareApis;
+
+  @MockBean private FhirQuestionnaireIndex fhirQuestionnaireIndex;
+
+  @MockBean private CommonDao commonDao;
+
+  @MockBean private DeIdentificationScheduler deIdentificationScheduler;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Autowired private ActivityResponseProcessorServiceImpl processor;
+
+  @AfterEach
+  public void tearDown() {
+    appConfig.setEnableFhirApi("fhir");
+  }
+
+  @Test
+  public void shouldWriteQuestionnaireItemsAsBefore() throws Exception {
+    ActivityResponseBean response = conjoinedResponse("questionnaire");
+
+    assertEquals(
+        readResource("/activity_response_codec_questionnaire_fhir_items.json").trim(),
+        questionnaireResponseItems(response));
+  }
+
+  @Test
+  public void shouldWriteTaskItemsAsBefore() throws Exception {
+    ActivityResponseBean response = conjoinedResponse("task");
+
+    assertEquals(
+        readResource("/activity_response_codec_task_fhir_items.json").trim(),
+        questionnaireResponseItems(response));
+  }
+
+  @Test
+  public void shouldStoreResponseAsBefore() throws Exception {
+    ActivityResponseBean response = conjoinedResponse("questionnaire");
+
+    Map<String, Object> stored = new LinkedHashMap<>();
+    stored.put("metadata", ResponseBeanCodec.toStoredMap(response.getMetadata()));
+    List<Map<String, Object>> steps = new ArrayList<>();
+    for (QuestionnaireActivityStepsBean step : response.getData().getResults()) {
+      steps.add(ResponseBeanCodec.toStoredMap(step));
+    }
+    stored.put(AppConstants.RESULTS_FIELD_KEY, steps);
+
+    assertEquals(
+        OBJECT_MAPPER.readValue(readResource("/activity_response_codec_stored.json"), Map.class),
+        stored);
+  }
+
+  @Test
+  public void shouldCreateQuestionnaireResponse() throws Exception {
+    ActivityResponseBean response = conjoinedResponse("questionnaire");
+    response.getMetadata().setActivityType("questionnaire");
+    when(fhirHealthcareApis.fhirResourceSearchPost(
+            endsWith("/" + QUESTIONNAIRE_RESPONSE_TYPE), anyString()))
+        .thenReturn("{\"total\":0}");
+    when(fhirHealthcareApis.fhirResourceSearchPost(
+            endsWith("/" + PATIENT_TYPE), eq("identifier=participant1")))
+        .thenReturn("{\"total\":1,\"entry\":[{\"resource\":{\"id\":\"PatientId\"}}]}");
+    when(fhirQuestionnaireIndex.getQuestionnaireReference(
+            anyString(), eq("StudyId"), eq("DailySurvey"), eq("1.0")))
+        .thenReturn("QuestionnaireId");
+    when(fhirHealthcareApis.fhirResourceCreate(
+            anyString(), eq(QUESTIONNAIRE_RESPONSE_TYPE), anyString()))
+        .thenReturn("{\"id\":\"ResponseId\"}");
+
+    processor.processToFhirResponse(response, Locale.ENGLISH);
+
+    ArgumentCaptor<String> resource = ArgumentCaptor.forClass(String.class);
+    verify(fhirHealthcareApis)
+        .fhirResourceCreate(
+            eq("projects/project/locations/region/datasets/StudyId/fhirStores/FHIR_StudyId"),
+            eq(QUESTIONNAIRE_RESPONSE_TYPE),
+            resource.capture());
+    String authored =
+        AppUtil.convertDateToOtherFormat(
+            response.getData().getSubmittedTime(),
+            Locale.ENGLISH,
+            AppConstants.DATE_FORMAT_RESPONSE_MOBILE,
+            AppConstants.DATE_FORMAT_RESPONSE_FHIR);
+    assertEquals(
+        "{\"resourceType\":\"QuestionnaireResponse\",\"status\":\"completed\",\"item\":"
+            + readResource("/activity_response_codec_questionnaire_fhir_items.json").trim()
+            + ",\"questionnaire\":\"/fhirStores/FHIR_StudyId/fhir/Questionnaire/QuestionnaireId\""
+            + ",\"source\":{\"reference\":\"Patient/PatientId\",\"type\":\"Patient\"}"
+            + ",\"authored\":\""
+            + authored
+            + "\",\"identifier\":{\"use\":\"official\",\"type\":{\"text\":\"questionnaire\"}"
+            + ",\"value\":\"StudyId@site1@participant1@DailySurvey@3\"}}",
+        resource.getValue());
+    verify(commonDao).saveToFHIREntity("{\"id\":\"ResponseId\"}", "StudyId");
+  }
+
+  @Test
+  public void shouldNotDeIdentifyResponseWhoseOperationIsPending() throws Exception {
+    appConfig.setEnableFhirApi("fhir&did");
+    ActivityResponseBean response = conjoinedResponse("questionnaire");
+    when(deIdentificationScheduler.isPending(QUESTIONNAIRE_RESPONSE_TYPE + "/ResponseId"))
+        .thenReturn(true);
+
+    processor.processToDIDResponse(
+        "{\"resourceType\":\"QuestionnaireResponse\",\"id\":\"ResponseId\""
+            + ",\"source\":{\"reference\":\"Patient/PatientId\"}}",
+        response);
+
+    verify(fhirHealthcareApis, never()).fhirResourceSearchPost(anyString(), anyString());
+    verify(deIdentificationScheduler, never()).submit(anyString(), anyString(), anyList());
+  }
+
+  private ActivityResponseBean conjoinedResponse(String type) throws IOException {
+    ActivityResponseBean response =
+        OBJECT_MAPPER.readValue(
+            readResource("/activity_response_codec_request.json"), ActivityResponseBean.class);
+    response.setType(type);
+    List<QuestionnaireActivityStepsBean> metadataSteps =
+        new Gson()
+            .fromJson(
+                readResource("/activity_response_codec_metadata.json"),
+                new TypeToken<List<QuestionnaireActivityStepsBean>>() {}.getType());
+    processor.processActivityResponses(
+        response.getData().getResults(), ActivityStepIndex.compile(metadataSteps));
+    return response;
+  }
+
+  private static String questionnaireResponseItems(ActivityResponseBean response)
+      throws Exception {
+    StringWriter json = new StringWriter();
+    try (JsonWriter out = ResponseBeanCodec.newJsonWriter(json)) {
+      ResponseBeanCodec.writeQuestionnaireResponseItems(out, response);
+    }
+    return json.toString();
+  }
+
+  private static String readResource(String path) throws IOException {
+    try (InputStream in =
+        ActivityResponseProcessorServiceImplTest.class.getResourceAsStream(path)) {
+      return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+    }
+  }
+}
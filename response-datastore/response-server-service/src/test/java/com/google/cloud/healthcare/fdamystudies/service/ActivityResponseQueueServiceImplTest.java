@@ -0,0 +1,369 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_RESPONSE_DATA_PROCESSING_FAILED;
+import static com.google.cloud.healthcare.fdamystudies.service.ActivityResponseQueueServiceImpl.STAGE_RESPONSE_SAVED;
+import static com.google.cloud.healthcare.fdamystudies.service.ActivityResponseQueueServiceImpl.STATUS_FAILED;
+import static com.google.cloud.healthcare.fdamystudies.service.ActivityResponseQueueServiceImpl.STATUS_IN_PROGRESS;
+import static com.google.cloud.healthcare.fdamystudies.service.ActivityResponseQueueServiceImpl.STATUS_PENDING;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityResponseBean;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.common.ResponseServerAuditLogHelper;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.exception.ProcessActivityStateException;
+import com.google.cloud.healthcare.fdamystudies.repository.ActivityResponseQueueRepository;
+import com.google.cloud.healthcare.fdamystudies.response.model.ActivityResponseQueueEntity;
+import com.google.cloud.healthcare.fdamystudies.service.ActivityResponseIngestionService.IngestionOutcome;
+import com.google.cloud.healthcare.fdamystudies.task.ProcessActivityResponseQueueScheduledTask;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(
+    properties = {
+      "response.ingestion.worker.count=1",
+      "response.ingestion.max.pending=2",
+      "response.ingestion.max.attempts=3",
+      "response.ingestion.retry.backoff.ms=1000",
+      "response.ingestion.claim.timeout.ms=600000",
+      "response.ingestion.claim.heartbeat.ms=60000",
+      "response.ingestion.failed.retention.ms=86400000"
+    })
+public class ActivityResponseQueueServiceImplTest extends BaseMockIT {
+
+  private static final String QUEUE_ID = "QueueId";
+
+  private static final String RECEIPT_CLAIM_TOKEN = "ReceiptClaimToken";
+
+  private static final ObjectMapper OBJECT_MAPPER =
+      new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+  @MockBean private ActivityResponseQueueRepository repository;
+
+  @MockBean private ActivityResponseIngestionService ingestionService;
+
+  @MockBean private ActivityResponseReceiptService receiptService;
+
+  @MockBean private ResponseServerAuditLogHelper auditLogHelper;
+
+  // keeps the scheduled purge from calling the queue while it is asserted
+  @MockBean private ProcessActivityResponseQueueScheduledTask queueScheduledTask;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Autowired private ActivityResponseQueueServiceImpl queueService;
+
+  /** Claim token of the entry, as set by the last claim. */
+  private final AtomicReference<String> claimToken = new AtomicReference<>();
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    // each test starts the workers itself and stops them to wait for the entries to be processed
+    queueService.shutdownWorkers();
+    // no activity metadata is found unless a test says otherwise, so processing fails
+    when(ingestionService.saveActivityResponse(any(), any(), any()))
+        .thenReturn(IngestionOutcome.METADATA_NOT_FOUND);
+  }
+
+  @AfterEach
+  public void tearDown() throws InterruptedException {
+    queueService.shutdownWorkers();
+    appConfig.setResponseIngestionClaimHeartbeatMs(60000);
+  }
+
+  @Test
+  public void shouldDeleteProcessedEntryUnderItsClaim() throws Exception {
+    queueEntry(0);
+    when(ingestionService.saveActivityResponse(any(), any(), any()))
+        .thenReturn(IngestionOutcome.SAVED);
+    when(repository.updateCompletedStage(eq(QUEUE_ID), anyString(), anyString())).thenReturn(1);
+    when(repository.deleteClaimed(eq(QUEUE_ID), anyString())).thenReturn(1);
+
+    processQueue();
+
+    verify(ingestionService).saveActivityState(any(ActivityResponseBean.class), any());
+    verify(receiptService)
+        .completeReceipt(any(ActivityResponseBean.class), eq(RECEIPT_CLAIM_TOKEN));
+    verify(repository).deleteClaimed(QUEUE_ID, claimToken.get());
+    verify(repository, never())
+        .updateClaimed(anyString(), anyString(), anyString(), anyInt(), any(), any());
+  }
+
+  @Test
+  public void shouldRecordStoredResponseSoRetryOnlySavesActivityState() throws Exception {
+    queueEntry(0);
+    when(ingestionService.saveActivityResponse(any(), any(), any()))
+        .thenReturn(IngestionOutcome.SAVED);
+    when(repository.updateCompletedStage(eq(QUEUE_ID), anyString(), anyString())).thenReturn(1);
+    doThrow(new ProcessActivityStateException("database unavailable"))
+        .when(ingestionService)
+        .saveActivityState(any(), any());
+
+    processQueue();
+
+    verify(repository).updateCompletedStage(QUEUE_ID, claimToken.get(), STAGE_RESPONSE_SAVED);
+    verify(repository)
+        .updateClaimed(
+            eq(QUEUE_ID), eq(claimToken.get()), eq(STATUS_PENDING), eq(1), any(), anyString());
+    verify(receiptService, never()).completeReceipt(any(), any());
+  }
+
+  @Test
+  public void shouldNotStoreResponseAgainWhenRetryingEntryWithStoredResponse() throws Exception {
+    queueEntry(1).setCompletedStage(STAGE_RESPONSE_SAVED);
+    when(repository.deleteClaimed(eq(QUEUE_ID), anyString())).thenReturn(1);
+
+    processQueue();
+
+    verify(ingestionService, never()).saveActivityResponse(any(), any(), any());
+    verify(ingestionService).saveActivityState(any(ActivityResponseBean.class), any());
+    verify(repository).deleteClaimed(QUEUE_ID, claimToken.get());
+  }
+
+  @Test
+  public void shouldLeaveEntryToNewClaimWhenClaimExpiredBeforeStageWasRecorded() throws Exception {
+    queueEntry(0);
+    when(ingestionService.saveActivityResponse(any(), any(), any()))
+        .thenReturn(IngestionOutcome.SAVED);
+    // the update matches no row, as the entry was claimed again under another token
+
+    processQueue();
+
+    verify(ingestionService, never()).saveActivityState(any(), any());
+    verify(repository, never()).deleteClaimed(anyString(), anyString());
+    verify(repository, never())
+        .updateClaimed(anyString(), anyString(), anyString(), anyInt(), any(), any());
+  }
+
+  @Test
+  public void shouldReleaseReceiptOfResponseDiscardedForWithdrawnParticipant() throws Exception {
+    queueEntry(0);
+    when(ingestionService.saveActivityResponse(any(), any(), any()))
+        .thenReturn(IngestionOutcome.PARTICIPANT_WITHDRAWN);
+    when(repository.deleteClaimed(eq(QUEUE_ID), anyString())).thenReturn(1);
+
+    processQueue();
+
+    verify(ingestionService, never()).saveActivityState(any(), any());
+    verify(receiptService)
+        .releaseReceipt(any(ActivityResponseBean.class), eq(RECEIPT_CLAIM_TOKEN));
+    verify(receiptService, never()).completeReceipt(any(), any());
+    verify(repository).deleteClaimed(QUEUE_ID, claimToken.get());
+  }
+
+  @Test
+  public void shouldRetryFailedEntryWithBackoff() throws Exception {
+    // no activity metadata is found, so processing fails
+    queueEntry(1);
+    long startTime = System.currentTimeMillis();
+
+    processQueue();
+
+    ArgumentCaptor<Timestamp> nextAttemptTime = ArgumentCaptor.forClass(Timestamp.class);
+    verify(repository)
+        .updateClaimed(
+            eq(QUEUE_ID),
+            eq(claimToken.get()),
+            eq(STATUS_PENDING),
+            eq(2),
+            nextAttemptTime.capture(),
+            anyString());
+    // the second retry waits twice the backoff
+    assertTrue(nextAttemptTime.getValue().getTime() >= startTime + 2000);
+    verify(receiptService, never()).releaseReceipt(any(), any());
+  }
+
+  @Test
+  public void shouldGiveUpAfterLastAttemptAndReleaseReceipt() throws Exception {
+    queueEntry(2);
+    when(repository.updateClaimed(
+            eq(QUEUE_ID), anyString(), eq(STATUS_FAILED), eq(3), any(), anyString()))
+        .thenReturn(1);
+
+    processQueue();
+
+    verify(repository)
+        .updateClaimed(
+            eq(QUEUE_ID), eq(claimToken.get()), eq(STATUS_FAILED), eq(3), any(), anyString());
+    verify(receiptService)
+        .releaseReceipt(any(ActivityResponseBean.class), eq(RECEIPT_CLAIM_TOKEN));
+    verify(auditLogHelper)
+        .logEvent(eq(ACTIVITY_RESPONSE_DATA_PROCESSING_FAILED), any(), anyMap());
+  }
+
+  @Test
+  public void shouldLeaveEntryToNewClaimWhenClaimExpiredWhileProcessing() throws Exception {
+    queueEntry(2);
+    // the update matches no row, as the entry was claimed again under another token
+
+    processQueue();
+
+    verify(repository)
+        .updateClaimed(
+            eq(QUEUE_ID), eq(claimToken.get()), eq(STATUS_FAILED), eq(3), any(), anyString());
+    verify(receiptService, never()).releaseReceipt(any(), any());
+    verify(auditLogHelper, never())
+        .logEvent(eq(ACTIVITY_RESPONSE_DATA_PROCESSING_FAILED), any(), anyMap());
+  }
+
+  @Test
+  public void shouldSkipEntryClaimedAgainBeforeProcessing() throws Exception {
+    ActivityResponseQueueEntity entry = queueEntry(0);
+    when(repository.findById(QUEUE_ID))
+        .thenAnswer(
+            invocation -> {
+              entry.setClaimToken("AnotherClaimToken");
+              return Optional.of(entry);
+            });
+
+    processQueue();
+
+    verify(ingestionService, never()).saveActivityResponse(any(), any(), any());
+    verify(repository, never()).deleteClaimed(anyString(), anyString());
+    verify(repository, never())
+        .updateClaimed(anyString(), anyString(), anyString(), anyInt(), any(), any());
+  }
+
+  @Test
+  public void shouldRenewClaimWhileEntryIsProcessed() throws Exception {
+    appConfig.setResponseIngestionClaimHeartbeatMs(10);
+    queueEntry(0);
+    CountDownLatch claimRenewed = new CountDownLatch(1);
+    when(ingestionService.saveActivityResponse(any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              claimRenewed.await(5, TimeUnit.SECONDS);
+              return IngestionOutcome.METADATA_NOT_FOUND;
+            });
+    queueService.initWorkers();
+
+    queueService.processPendingActivityResponses();
+
+    verify(repository, timeout(5000).atLeast(2))
+        .renewClaims(
+            eq(STATUS_IN_PROGRESS),
+            argThat(tokens -> tokens.contains(claimToken.get())),
+            any(Timestamp.class));
+    verify(receiptService, atLeast(2))
+        .renewQueuedReceipts(Arrays.asList(STATUS_PENDING, STATUS_IN_PROGRESS));
+    claimRenewed.countDown();
+    queueService.shutdownWorkers();
+  }
+
+  @Test
+  public void shouldAnswerQueueFullFromPendingCountOfLastPoll() throws Exception {
+    when(repository.countByStatus(STATUS_PENDING)).thenReturn(1L);
+    when(repository.findIdsReadyForProcessing(eq(STATUS_PENDING), any(), any(Pageable.class)))
+        .thenReturn(Collections.emptyList());
+    when(repository.saveAndFlush(any(ActivityResponseQueueEntity.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+    queueService.initWorkers();
+    queueService.processPendingActivityResponses();
+
+    assertFalse(queueService.isQueueFull());
+    queueService.enqueueActivityResponse(
+        activityResponse(), new AuditLogEventRequest(), Locale.ENGLISH, RECEIPT_CLAIM_TOKEN);
+    assertTrue(queueService.isQueueFull());
+
+    verify(repository, times(1)).countByStatus(STATUS_PENDING);
+  }
+
+  @Test
+  public void shouldPurgeFailedEntriesOlderThanRetention() {
+    queueService.initWorkers();
+    long startTime = System.currentTimeMillis();
+
+    queueService.purgeFailedActivityResponses();
+
+    ArgumentCaptor<Timestamp> createdBefore = ArgumentCaptor.forClass(Timestamp.class);
+    verify(repository).deleteByStatusCreatedBefore(eq(STATUS_FAILED), createdBefore.capture());
+    assertTrue(createdBefore.getValue().getTime() >= startTime - 86400000);
+    assertTrue(createdBefore.getValue().getTime() <= System.currentTimeMillis() - 86400000);
+  }
+
+  private ActivityResponseQueueEntity queueEntry(int attempts) throws Exception {
+    ActivityResponseQueueEntity entry = new ActivityResponseQueueEntity();
+    entry.setId(QUEUE_ID);
+    entry.setStudyId("StudyId");
+    entry.setParticipantId("ParticipantId");
+    entry.setActivityId("ActivityId");
+    entry.setActivityVersion("1.0");
+    entry.setActivityRunId("1");
+    entry.setReceiptClaimToken(RECEIPT_CLAIM_TOKEN);
+    entry.setPayload(OBJECT_MAPPER.writeValueAsString(activityResponse()));
+    entry.setStatus(STATUS_PENDING);
+    entry.setAttempts(attempts);
+    entry.setNextAttemptTime(new Timestamp(System.currentTimeMillis()));
+
+    when(repository.findIdsReadyForProcessing(eq(STATUS_PENDING), any(), any(Pageable.class)))
+        .thenReturn(Collections.singletonList(QUEUE_ID));
+    when(repository.claim(
+            eq(QUEUE_ID), eq(STATUS_PENDING), eq(STATUS_IN_PROGRESS), any(), anyString()))
+        .thenAnswer(
+            invocation -> {
+              claimToken.set(invocation.getArgument(4));
+              entry.setClaimToken(invocation.getArgument(4));
+              return 1;
+            });
+    when(repository.findById(QUEUE_ID)).thenReturn(Optional.of(entry));
+    return entry;
+  }
+
+  /** Claims and processes the ready entries, and waits until the workers are done. */
+  private void processQueue() throws InterruptedException {
+    queueService.initWorkers();
+    queueService.processPendingActivityResponses();
+    queueService.shutdownWorkers();
+  }
+
+  private static ActivityResponseBean activityResponse() {
+    ActivityResponseBean activityResponseBean = new ActivityResponseBean();
+    activityResponseBean.setApplicationId("AppId");
+    activityResponseBean.setParticipantId("ParticipantId");
+    activityResponseBean.setType("questionnaire");
+    activityResponseBean.getMetadata().setStudyId("StudyId");
+    activityResponseBean.getMetadata().setActivityId("ActivityId");
+    activityResponseBean.getMetadata().setVersion("1.0");
+    activityResponseBean.getMetadata().setActivityRunId("1");
+    return activityResponseBean;
+  }
+}
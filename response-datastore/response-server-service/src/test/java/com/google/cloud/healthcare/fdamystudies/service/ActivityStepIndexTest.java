@@ -0,0 +1,157 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the lookups of {@link ActivityStepIndex} against the scans with {@link
+ * QuestionnaireActivityStepsBeanPredicate#questionKeyMatch(String)} that the index replaced.
+ */
+public class ActivityStepIndexTest {
+
+  /** Includes a dotless i and a sharp s, whose upper and lower cases do not map back and forth. */
+  private static final List<String> KEYS =
+      Arrays.asList(
+          "Mood", "MOOD", "mood", "Sleep", "\u0131d", "ID", "Stra\u00dfe", "STRASSE", "", "Other");
+
+  @Test
+  public void shouldFindStepsIgnoringCase() {
+    QuestionnaireActivityStepsBean mood = step("Mood");
+    ActivityStepIndex index = ActivityStepIndex.compile(Arrays.asList(mood, step("Sleep")));
+
+    assertEquals(Collections.singletonList(mood), index.getSteps("mood"));
+    assertEquals(Collections.singletonList(mood), index.getSteps("MOOD"));
+  }
+
+  @Test
+  public void shouldKeepEveryTopLevelStepWithKeyInMetadataOrder() {
+    QuestionnaireActivityStepsBean first = step("mood");
+    QuestionnaireActivityStepsBean second = step("MOOD");
+    ActivityStepIndex index =
+        ActivityStepIndex.compile(Arrays.asList(first, step("Sleep"), second));
+
+    assertEquals(Arrays.asList(first, second), index.getSteps("Mood"));
+  }
+
+  @Test
+  public void shouldFindNestedFormStepsOnlyAsGroupedSteps() {
+    QuestionnaireActivityStepsBean nested = step("Hours");
+    ActivityStepIndex index =
+        ActivityStepIndex.compile(Collections.singletonList(form("SleepForm", nested)));
+
+    assertEquals(Collections.singletonList(nested), index.getGroupedSteps("hours"));
+    assertTrue(index.getSteps("Hours").isEmpty());
+    assertTrue(index.getGroupedSteps("SleepForm").isEmpty());
+  }
+
+  @Test
+  public void shouldTakeGroupedStepsFromFirstFormWithKey() {
+    QuestionnaireActivityStepsBean firstForm = step("Hours");
+    QuestionnaireActivityStepsBean firstFormAgain = step("HOURS");
+    ActivityStepIndex index =
+        ActivityStepIndex.compile(
+            Arrays.asList(
+                form("NightForm", firstForm, step("Naps"), firstFormAgain),
+                form("DayForm", step("hours"))));
+
+    List<QuestionnaireActivityStepsBean> grouped = index.getGroupedSteps("hours");
+    assertEquals(2, grouped.size());
+    assertSame(firstForm, grouped.get(0));
+    assertSame(firstFormAgain, grouped.get(1));
+  }
+
+  @Test
+  public void shouldFindNothingForMissingKey() {
+    ActivityStepIndex index =
+        ActivityStepIndex.compile(Arrays.asList(step("Mood"), form("Form", step("Hours"))));
+
+    assertTrue(index.getSteps("Missing").isEmpty());
+    assertTrue(index.getGroupedSteps("Missing").isEmpty());
+    assertTrue(index.getSteps(null).isEmpty());
+    assertTrue(index.getGroupedSteps(null).isEmpty());
+  }
+
+  @Test
+  public void shouldMatchLikeQuestionKeyPredicate() {
+    List<QuestionnaireActivityStepsBean> metadata = new ArrayList<>();
+    List<QuestionnaireActivityStepsBean> formSteps = new ArrayList<>();
+    for (String key : KEYS) {
+      metadata.add(step(key));
+      formSteps.add(step(key));
+    }
+    metadata.add(step(null));
+    metadata.add(form("FirstForm", formSteps.subList(0, 5)));
+    metadata.add(form("SecondForm", formSteps.toArray(new QuestionnaireActivityStepsBean[0])));
+    ActivityStepIndex index = ActivityStepIndex.compile(metadata);
+
+    for (String questionKey : KEYS) {
+      assertEquals(scanSteps(metadata, questionKey), index.getSteps(questionKey), questionKey);
+      assertEquals(
+          scanGroupedSteps(metadata, questionKey), index.getGroupedSteps(questionKey), questionKey);
+    }
+  }
+
+  /** Lookup of top level steps before the index. */
+  private static List<QuestionnaireActivityStepsBean> scanSteps(
+      List<QuestionnaireActivityStepsBean> metadata, String questionKey) {
+    return metadata
+        .stream()
+        .filter(QuestionnaireActivityStepsBeanPredicate.questionKeyMatch(questionKey))
+        .collect(Collectors.toList());
+  }
+
+  /** Lookup of grouped steps before the index, which failed on steps without form steps. */
+  private static List<QuestionnaireActivityStepsBean> scanGroupedSteps(
+      List<QuestionnaireActivityStepsBean> metadata, String questionKey) {
+    for (QuestionnaireActivityStepsBean stepBean : metadata) {
+      if (stepBean.getSteps() == null) {
+        continue;
+      }
+      List<QuestionnaireActivityStepsBean> matches =
+          stepBean
+              .getSteps()
+              .stream()
+              .filter(QuestionnaireActivityStepsBeanPredicate.questionKeyMatch(questionKey))
+              .collect(Collectors.toList());
+      if (!matches.isEmpty()) {
+        return matches;
+      }
+    }
+    return Collections.emptyList();
+  }
+
+  private static QuestionnaireActivityStepsBean step(String key) {
+    QuestionnaireActivityStepsBean step = new QuestionnaireActivityStepsBean();
+    step.setKey(key);
+    return step;
+  }
+
+  private static QuestionnaireActivityStepsBean form(
+      String key, QuestionnaireActivityStepsBean... formSteps) {
+    return form(key, Arrays.asList(formSteps));
+  }
+
+  private static QuestionnaireActivityStepsBean form(
+      String key, List<QuestionnaireActivityStepsBean> formSteps) {
+    QuestionnaireActivityStepsBean form = step(key);
+    form.setSteps(new ArrayList<>(formSteps));
+    return form;
+  }
+}
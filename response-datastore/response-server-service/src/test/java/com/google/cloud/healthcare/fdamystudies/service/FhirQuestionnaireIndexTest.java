@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.utils.FhirHealthcareApis;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+
+public class FhirQuestionnaireIndexTest extends BaseMockIT {
+
+  private static final String STORE_PATH = "datasets/d/fhirStores/FHIR_StudyId/fhir/Questionnaire";
+
+  private static final String STUDY_ID = "StudyId";
+
+  @MockBean private FhirHealthcareApis fhirHealthcareApis;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Autowired private FhirQuestionnaireIndex index;
+
+  private ExecutorService executor;
+
+  @BeforeEach
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    executor.shutdownNow();
+    appConfig.setFhirQuestionnaireIndexMissRefreshSeconds(60);
+  }
+
+  @Test
+  public void shouldIndexEveryActiveVersionFromOneLoad() throws Exception {
+    when(fhirHealthcareApis.fhirResourceSearchPost(STORE_PATH, "identifier=A1"))
+        .thenReturn(search("Q1"));
+    when(fhirHealthcareApis.fhirResourceGetHistory(STORE_PATH + "/Q1"))
+        .thenReturn(history("1.1:active:3", "1.0:active:1", "1.2:draft:4"));
+    startIndex();
+
+    assertEquals("Q1/_history/1", lookup("A1", "1.0"));
+    assertEquals("Q1/_history/3", lookup("A1", "1.1"));
+
+    verify(fhirHealthcareApis, times(1)).fhirResourceSearchPost(STORE_PATH, "identifier=A1");
+    verify(fhirHealthcareApis, times(1)).fhirResourceGetHistory(STORE_PATH + "/Q1");
+  }
+
+  @Test
+  public void shouldLoadActivityOnceForConcurrentLookups() throws Exception {
+    CountDownLatch bothLookingUp = new CountDownLatch(1);
+    when(fhirHealthcareApis.fhirResourceSearchPost(STORE_PATH, "identifier=A1"))
+        .thenAnswer(
+            invocation -> {
+              bothLookingUp.await(5, TimeUnit.SECONDS);
+              return search("Q1");
+            });
+    when(fhirHealthcareApis.fhirResourceGetHistory(STORE_PATH + "/Q1"))
+        .thenReturn(history("1.0:active:1"));
+    startIndex();
+
+    Future<String> first = executor.submit(() -> lookup("A1", "1.0"));
+    Future<String> second = executor.submit(() -> lookup("A1", "1.0"));
+    bothLookingUp.countDown();
+
+    assertEquals("Q1/_history/1", first.get(5, TimeUnit.SECONDS));
+    assertEquals("Q1/_history/1", second.get(5, TimeUnit.SECONDS));
+    verify(fhirHealthcareApis, times(1)).fhirResourceSearchPost(STORE_PATH, "identifier=A1");
+  }
+
+  @Test
+  public void shouldNotWaitForLoadOfAnotherActivity() throws Exception {
+    CountDownLatch slowLoadStarted = new CountDownLatch(1);
+    CountDownLatch otherActivityLoaded = new CountDownLatch(1);
+    when(fhirHealthcareApis.fhirResourceSearchPost(STORE_PATH, "identifier=A1"))
+        .thenAnswer(
+            invocation -> {
+              slowLoadStarted.countDown();
+              otherActivityLoaded.await(5, TimeUnit.SECONDS);
+              return search("Q1");
+            });
+    when(fhirHealthcareApis.fhirResourceSearchPost(STORE_PATH, "identifier=A2"))
+        .thenReturn(search("Q2"));
+    when(fhirHealthcareApis.fhirResourceGetHistory(STORE_PATH + "/Q1"))
+        .thenReturn(history("1.0:active:1"));
+    when(fhirHealthcareApis.fhirResourceGetHistory(STORE_PATH + "/Q2"))
+        .thenReturn(history("1.0:active:7"));
+    startIndex();
+
+    Future<String> slow = executor.submit(() -> lookup("A1", "1.0"));
+    assertTrue(slowLoadStarted.await(5, TimeUnit.SECONDS));
+    Future<String> other = executor.submit(() -> lookup("A2", "1.0"));
+
+    assertEquals("Q2/_history/7", other.get(1, TimeUnit.SECONDS));
+    otherActivityLoaded.countDown();
+    assertEquals("Q1/_history/1", slow.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldSearchMissingVersionDirectlyWhileReloadIsThrottled() throws Exception {
+    when(fhirHealthcareApis.fhirResourceSearchPost(STORE_PATH, "identifier=A1"))
+        .thenReturn(search("Q1"));
+    when(fhirHealthcareApis.fhirResourceSearchPost(STORE_PATH, "identifier=A1&version=2.0"))
+        .thenReturn(search("Q1"));
+    when(fhirHealthcareApis.fhirResourceGetHistory(STORE_PATH + "/Q1"))
+        .thenReturn(history("1.0:active:1"))
+        .thenReturn(history("2.0:active:2", "1.0:active:1"));
+    startIndex();
+    assertEquals("Q1/_history/1", lookup("A1", "1.0"));
+
+    // version 2.0 is published after the activity was indexed
+    assertEquals("Q1/_history/2", lookup("A1", "2.0"));
+    assertEquals("Q1/_history/2", lookup("A1", "2.0"));
+
+    verify(fhirHealthcareApis, times(1)).fhirResourceSearchPost(STORE_PATH, "identifier=A1");
+    verify(fhirHealthcareApis, times(1))
+        .fhirResourceSearchPost(STORE_PATH, "identifier=A1&version=2.0");
+  }
+
+  @Test
+  public void shouldReloadActivityOnMissAfterRefreshInterval() throws Exception {
+    appConfig.setFhirQuestionnaireIndexMissRefreshSeconds(0);
+    when(fhirHealthcareApis.fhirResourceSearchPost(STORE_PATH, "identifier=A1"))
+        .thenReturn(search("Q1"));
+    when(fhirHealthcareApis.fhirResourceGetHistory(STORE_PATH + "/Q1"))
+        .thenReturn(history("1.0:active:1"))
+        .thenReturn(history("2.0:active:2", "1.0:active:1"));
+    startIndex();
+    assertEquals("Q1/_history/1", lookup("A1", "1.0"));
+    Thread.sleep(10);
+
+    assertEquals("Q1/_history/2", lookup("A1", "2.0"));
+    Thread.sleep(10);
+    assertNull(lookup("A1", "3.0"));
+
+    verify(fhirHealthcareApis, times(3)).fhirResourceSearchPost(STORE_PATH, "identifier=A1");
+  }
+
+  @Test
+  public void shouldFailWhenActivityHasNoQuestionnaire() throws Exception {
+    when(fhirHealthcareApis.fhirResourceSearchPost(STORE_PATH, "identifier=A1"))
+        .thenReturn(search());
+    startIndex();
+
+    assertThrows(ProcessResponseException.class, () -> lookup("A1", "1.0"));
+  }
+
+  private void startIndex() {
+    // the index of the context outlives the test methods, so each test starts with an empty one
+    index.initQuestionnaireIndex();
+  }
+
+  private String lookup(String activityId, String activityVersion)
+      throws ProcessResponseException {
+    return index.getQuestionnaireReference(STORE_PATH, STUDY_ID, activityId, activityVersion);
+  }
+
+  private static String search(String... resourceIds) {
+    StringBuilder entries = new StringBuilder();
+    for (String resourceId : resourceIds) {
+      if (entries.length() > 0) {
+        entries.append(',');
+      }
+      entries.append(String.format("{\"resource\":{\"id\":\"%s\"}}", resourceId));
+    }
+    return "{\"resourceType\":\"Bundle\",\"entry\":[" + entries + "]}";
+  }
+
+  /** History entries, newest first, as {@code <version>:<status>:<versionId>}. */
+  private static String history(String... versions) {
+    StringBuilder entries = new StringBuilder();
+    for (String version : versions) {
+      String[] fields = version.split(":");
+      if (entries.length() > 0) {
+        entries.append(',');
+      }
+      entries.append(
+          String.format(
+              "{\"resource\":{\"version\":\"%s\",\"status\":\"%s\","
+                  + "\"meta\":{\"versionId\":\"%s\"}}}",
+              fields[0], fields[1], fields[2]));
+    }
+    return "{\"resourceType\":\"Bundle\",\"entry\":[" + entries + "]}";
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivitiesBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityStateRequestBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ParticipantActivityBean;
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.dao.ParticipantActivitiesDao;
+import com.google.cloud.healthcare.fdamystudies.exception.ProcessActivityStateException;
+import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantActivitiesEntity;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = "participant.activity.state.cache.max.size=100")
+public class ParticipantActivityStateResponseServiceImplTest extends BaseMockIT {
+
+  private static final String STUDY_ID = "StudyId";
+
+  private static final String PARTICIPANT_ID = "ParticipantId";
+
+  private static final String OTHER_PARTICIPANT_ID = "OtherParticipantId";
+
+  @MockBean private ParticipantActivitiesDao participantActivitiesDao;
+
+  @Autowired private ParticipantActivityStateResponseServiceImpl activityStateService;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    // the cache outlives the test methods, deleting the participants evicts what they cached
+    activityStateService.deleteParticipantActivites(
+        STUDY_ID, Arrays.asList(PARTICIPANT_ID, OTHER_PARTICIPANT_ID));
+    when(participantActivitiesDao.getParticipantActivities(eq(STUDY_ID), eq(PARTICIPANT_ID)))
+        .thenReturn(Collections.singletonList(storedActivity(PARTICIPANT_ID)));
+    when(participantActivitiesDao.getParticipantActivities(eq(STUDY_ID), eq(OTHER_PARTICIPANT_ID)))
+        .thenReturn(Collections.singletonList(storedActivity(OTHER_PARTICIPANT_ID)));
+  }
+
+  @Test
+  public void shouldServeRepeatedActivityStateFromCache() throws Exception {
+    ActivitiesBean first = activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+    ActivitiesBean second = activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+
+    assertSame(first, second);
+    assertEquals(1, first.getActivities().size());
+    verify(participantActivitiesDao).getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+  }
+
+  @Test
+  public void shouldInvalidateActivityStateOnSave() throws Exception {
+    ActivitiesBean cached = activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+
+    activityStateService.saveParticipantActivities(activityStateRequest());
+
+    assertNotSame(cached, activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID));
+    verify(participantActivitiesDao, times(2)).getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+  }
+
+  @Test
+  public void shouldInvalidateActivityStateWhenSaveFails() throws Exception {
+    doThrow(new ProcessActivityStateException("database unavailable"))
+        .when(participantActivitiesDao)
+        .upsertParticipantActivities(eq(STUDY_ID), eq(PARTICIPANT_ID), anyList());
+    ActivitiesBean cached = activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+
+    assertThrows(
+        ProcessActivityStateException.class,
+        () -> activityStateService.saveParticipantActivities(activityStateRequest()));
+
+    assertNotSame(cached, activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID));
+  }
+
+  @Test
+  public void shouldInvalidateActivityStateOfDeletedParticipantsOnly() throws Exception {
+    ActivitiesBean deleted =
+        activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+    ActivitiesBean kept =
+        activityStateService.getParticipantActivities(STUDY_ID, OTHER_PARTICIPANT_ID);
+
+    activityStateService.deleteParticipantActivites(STUDY_ID, Arrays.asList(PARTICIPANT_ID));
+
+    assertNotSame(deleted, activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID));
+    assertSame(
+        kept, activityStateService.getParticipantActivities(STUDY_ID, OTHER_PARTICIPANT_ID));
+  }
+
+  @Test
+  public void shouldServeActivityStateFromCacheWhileVersionIsUnchanged() throws Exception {
+    when(participantActivitiesDao.getActivityStateVersion(STUDY_ID, PARTICIPANT_ID))
+        .thenReturn("version1");
+    ActivitiesBean first = activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+
+    assertSame(first, activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID));
+    verify(participantActivitiesDao).getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+    verify(participantActivitiesDao, times(2)).getActivityStateVersion(STUDY_ID, PARTICIPANT_ID);
+  }
+
+  @Test
+  public void shouldReloadActivityStateChangedByAnotherInstance() throws Exception {
+    when(participantActivitiesDao.getActivityStateVersion(STUDY_ID, PARTICIPANT_ID))
+        .thenReturn("version1", "version2");
+    ActivitiesBean cached = activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+
+    ActivitiesBean current =
+        activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+
+    assertNotSame(cached, current);
+    assertSame(current, activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID));
+    verify(participantActivitiesDao, times(2)).getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+  }
+
+  @Test
+  public void shouldNotCacheActivityStateReadBeforeConcurrentSave() throws Exception {
+    AtomicBoolean saved = new AtomicBoolean();
+    when(participantActivitiesDao.getParticipantActivities(STUDY_ID, PARTICIPANT_ID))
+        .thenAnswer(
+            invocation -> {
+              // the save completes while this read is in progress
+              if (saved.compareAndSet(false, true)) {
+                activityStateService.saveParticipantActivities(activityStateRequest());
+              }
+              return Collections.singletonList(storedActivity(PARTICIPANT_ID));
+            });
+
+    ActivitiesBean stale = activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+
+    assertNotSame(stale, activityStateService.getParticipantActivities(STUDY_ID, PARTICIPANT_ID));
+    verify(participantActivitiesDao, times(2)).getParticipantActivities(STUDY_ID, PARTICIPANT_ID);
+  }
+
+  private ParticipantActivitiesEntity storedActivity(String participantId) {
+    ParticipantActivitiesEntity activity = new ParticipantActivitiesEntity();
+    activity.setStudyId(STUDY_ID);
+    activity.setParticipantId(participantId);
+    activity.setActivityId("ActivityId");
+    activity.setActivityState("inProgress");
+    return activity;
+  }
+
+  private ActivityStateRequestBean activityStateRequest() {
+    ParticipantActivityBean activity = new ParticipantActivityBean();
+    activity.setActivityId("ActivityId");
+    activity.setActivityState("completed");
+    ActivityStateRequestBean request = new ActivityStateRequestBean();
+    request.setStudyId(STUDY_ID);
+    request.setParticipantId(PARTICIPANT_ID);
+    request.setActivity(Collections.singletonList(activity));
+    return request;
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ParticipantStudyInformation;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.web.client.RestTemplate;
+
+@TestPropertySource(
+    properties = {
+      "participant.study.info.cache.max.size=100",
+      "participant.study.info.cache.expire.seconds=60",
+      "participant.study.info.cache.negative.expire.seconds=60"
+    })
+public class ParticipantStudyInfoServiceImplTest extends BaseMockIT {
+
+  private static final String STUDY_ID = "StudyId";
+
+  private static final String PARTICIPANT_ID = "ParticipantId";
+
+  private static final String UNKNOWN_PARTICIPANT_ID = "UnknownParticipantId";
+
+  @MockBean private RestTemplate restTemplate;
+
+  @MockBean private OAuthService oauthService;
+
+  @Autowired private ParticipantStudyInfoServiceImpl partStudyInfoService;
+
+  @BeforeEach
+  public void setUp() {
+    when(restTemplate.exchange(
+            contains("participantId=" + PARTICIPANT_ID),
+            eq(HttpMethod.GET),
+            any(HttpEntity.class),
+            eq(ParticipantStudyInformation.class)))
+        .thenAnswer(invocation -> ResponseEntity.ok(new ParticipantStudyInformation()));
+    when(restTemplate.exchange(
+            contains("participantId=" + UNKNOWN_PARTICIPANT_ID),
+            eq(HttpMethod.GET),
+            any(HttpEntity.class),
+            eq(ParticipantStudyInformation.class)))
+        .thenReturn(ResponseEntity.ok().build());
+    // the caches outlive the test methods
+    partStudyInfoService.evictParticipantStudyInfo(STUDY_ID, PARTICIPANT_ID);
+    partStudyInfoService.evictParticipantStudyInfo(STUDY_ID, UNKNOWN_PARTICIPANT_ID);
+  }
+
+  @Test
+  public void shouldServeRepeatedStudyInfoFromCache() throws Exception {
+    ParticipantStudyInformation first = getParticipantStudyInfo(PARTICIPANT_ID);
+
+    assertSame(first, getParticipantStudyInfo(PARTICIPANT_ID));
+    verifyParticipantDatastoreCalls(PARTICIPANT_ID, 1);
+  }
+
+  @Test
+  public void shouldCacheMissingStudyInfo() throws Exception {
+    assertNull(getParticipantStudyInfo(UNKNOWN_PARTICIPANT_ID));
+    assertNull(getParticipantStudyInfo(UNKNOWN_PARTICIPANT_ID));
+
+    verifyParticipantDatastoreCalls(UNKNOWN_PARTICIPANT_ID, 1);
+  }
+
+  @Test
+  public void shouldFetchStudyInfoAgainAfterEviction() throws Exception {
+    ParticipantStudyInformation cached = getParticipantStudyInfo(PARTICIPANT_ID);
+    getParticipantStudyInfo(UNKNOWN_PARTICIPANT_ID);
+
+    partStudyInfoService.evictParticipantStudyInfo(STUDY_ID, PARTICIPANT_ID);
+    partStudyInfoService.evictParticipantStudyInfo(STUDY_ID, UNKNOWN_PARTICIPANT_ID);
+
+    assertNotSame(cached, getParticipantStudyInfo(PARTICIPANT_ID));
+    assertNull(getParticipantStudyInfo(UNKNOWN_PARTICIPANT_ID));
+    verifyParticipantDatastoreCalls(PARTICIPANT_ID, 2);
+    verifyParticipantDatastoreCalls(UNKNOWN_PARTICIPANT_ID, 2);
+  }
+
+  private ParticipantStudyInformation getParticipantStudyInfo(String participantId)
+      throws Exception {
+    return partStudyInfoService.getParticipantStudyInfo(
+        STUDY_ID, participantId, new AuditLogEventRequest());
+  }
+
+  private void verifyParticipantDatastoreCalls(String participantId, int calls) {
+    verify(restTemplate, times(calls))
+        .exchange(
+            contains("participantId=" + participantId),
+            eq(HttpMethod.GET),
+            any(HttpEntity.class),
+            eq(ParticipantStudyInformation.class));
+  }
+}
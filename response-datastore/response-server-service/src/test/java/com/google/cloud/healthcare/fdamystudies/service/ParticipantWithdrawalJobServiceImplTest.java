@@ -0,0 +1,314 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.ACTIVITY_DATA_DELETION_FAILED;
+import static com.google.cloud.healthcare.fdamystudies.common.ResponseServerEvent.PARTICIPANT_ACTIVITY_DATA_DELETED;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.healthcare.fdamystudies.bean.WithdrawParticipantsJobBean;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.common.ResponseServerAuditLogHelper;
+import com.google.cloud.healthcare.fdamystudies.repository.ParticipantWithdrawalJobRepository;
+import com.google.cloud.healthcare.fdamystudies.response.model.ParticipantWithdrawalJobEntity;
+import com.google.cloud.healthcare.fdamystudies.task.ParticipantWithdrawalJobScheduledTask;
+import com.google.cloud.healthcare.fdamystudies.utils.ErrorCode;
+import com.google.cloud.healthcare.fdamystudies.utils.ProcessResponseException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(
+    properties = {
+      "response.withdrawal.job.threads=1",
+      "response.withdrawal.job.max.queued=1",
+      "response.withdrawal.job.retention.minutes=60",
+      "response.withdrawal.job.claim.expiry.ms=60000"
+    })
+public class ParticipantWithdrawalJobServiceImplTest extends BaseMockIT {
+
+  private static final String STUDY_ID = "StudyId";
+
+  private static final List<String> PARTICIPANT_IDS = Arrays.asList("P1", "P2");
+
+  @MockBean private ActivityResponseProcessorServiceImpl activityResponseProcessorService;
+
+  @MockBean
+  private ParticipantActivityStateResponseService participantActivityStateResponseService;
+
+  @MockBean private ParticipantStudyInfoService partStudyInfoService;
+
+  @MockBean private ResponseServerAuditLogHelper responseServerAuditLogHelper;
+
+  @MockBean private ParticipantWithdrawalJobRepository jobRepository;
+
+  // keeps the scheduled recovery from resuming the jobs while they are asserted
+  @MockBean private ParticipantWithdrawalJobScheduledTask withdrawalJobScheduledTask;
+
+  @Autowired private ParticipantWithdrawalJobServiceImpl withdrawalJobService;
+
+  /** Rows of the job table, kept by the stubbed repository. */
+  private Map<String, ParticipantWithdrawalJobEntity> jobRows;
+
+  @BeforeEach
+  public void setUp() throws InterruptedException {
+    // each test starts the workers itself and stops them to wait for the jobs to finish
+    withdrawalJobService.shutdownWithdrawalJobs();
+    jobRows = new ConcurrentHashMap<>();
+    stubJobRepository();
+  }
+
+  @AfterEach
+  public void tearDown() throws InterruptedException {
+    withdrawalJobService.shutdownWithdrawalJobs();
+  }
+
+  @Test
+  public void shouldWithdrawParticipantsAndAuditEach() throws Exception {
+    startService();
+
+    WithdrawParticipantsJobBean job =
+        withdrawalJobService.submitWithdrawal(
+            STUDY_ID, Arrays.asList("P1", "P2", "P1"), new AuditLogEventRequest());
+
+    assertEquals(2, job.getParticipantCount());
+    assertEquals("COMPLETED", awaitJob(job.getJobId()).getStatus());
+    verify(partStudyInfoService).evictParticipantStudyInfo(STUDY_ID, "P1");
+    verify(partStudyInfoService).evictParticipantStudyInfo(STUDY_ID, "P2");
+    verify(activityResponseProcessorService)
+        .updateWithdrawalStatusForParticipants(STUDY_ID, PARTICIPANT_IDS);
+    verify(participantActivityStateResponseService)
+        .deleteParticipantActivites(STUDY_ID, PARTICIPANT_IDS);
+    verify(responseServerAuditLogHelper, times(2))
+        .logEvent(eq(PARTICIPANT_ACTIVITY_DATA_DELETED), any(AuditLogEventRequest.class));
+  }
+
+  @Test
+  public void shouldFailJobWhenActivityStateCannotBeDeleted() throws Exception {
+    doThrow(new RuntimeException("database unavailable"))
+        .when(participantActivityStateResponseService)
+        .deleteParticipantActivites(STUDY_ID, PARTICIPANT_IDS);
+    startService();
+
+    WithdrawParticipantsJobBean job = submitWithdrawal();
+
+    job = awaitJob(job.getJobId());
+    assertEquals("FAILED", job.getStatus());
+    assertEquals(Integer.valueOf(ErrorCode.EC_717.code()), job.getAppErrorCode());
+    verify(responseServerAuditLogHelper)
+        .logEvent(eq(ACTIVITY_DATA_DELETION_FAILED), any(AuditLogEventRequest.class));
+  }
+
+  @Test
+  public void shouldRejectJobWhenWorkersAndQueueAreBusy() throws Exception {
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              running.countDown();
+              release.await(5, TimeUnit.SECONDS);
+              return null;
+            })
+        .when(activityResponseProcessorService)
+        .updateWithdrawalStatusForParticipants(STUDY_ID, PARTICIPANT_IDS);
+    startService();
+
+    WithdrawParticipantsJobBean first = submitWithdrawal();
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    WithdrawParticipantsJobBean queued = submitWithdrawal();
+
+    assertThrows(ProcessResponseException.class, () -> submitWithdrawal());
+    assertEquals(2, jobRows.size());
+    assertEquals("IN_PROGRESS", withdrawalJobService.getWithdrawal(first.getJobId()).getStatus());
+    assertEquals("PENDING", withdrawalJobService.getWithdrawal(queued.getJobId()).getStatus());
+    release.countDown();
+    assertEquals("COMPLETED", awaitJob(queued.getJobId()).getStatus());
+  }
+
+  @Test
+  public void shouldResumeJobAbandonedByStoppedInstance() throws Exception {
+    ParticipantWithdrawalJobEntity abandoned = new ParticipantWithdrawalJobEntity();
+    abandoned.setId("abandoned-job");
+    abandoned.setStudyId(STUDY_ID);
+    abandoned.setParticipantCount(PARTICIPANT_IDS.size());
+    abandoned.setParticipantIds(new ObjectMapper().writeValueAsString(PARTICIPANT_IDS));
+    abandoned.setStatus("IN_PROGRESS");
+    abandoned.setClaimToken("stopped-instance");
+    abandoned.setClaimedTime(new Timestamp(System.currentTimeMillis() - 120000));
+    jobRows.put(abandoned.getId(), abandoned);
+    startService();
+
+    withdrawalJobService.resumeAbandonedWithdrawals();
+
+    assertEquals("COMPLETED", awaitJob("abandoned-job").getStatus());
+    verify(activityResponseProcessorService)
+        .updateWithdrawalStatusForParticipants(STUDY_ID, PARTICIPANT_IDS);
+  }
+
+  @Test
+  public void shouldNotResumeJobWithCurrentClaim() throws Exception {
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              running.countDown();
+              release.await(5, TimeUnit.SECONDS);
+              return null;
+            })
+        .when(activityResponseProcessorService)
+        .updateWithdrawalStatusForParticipants(STUDY_ID, PARTICIPANT_IDS);
+    startService();
+
+    WithdrawParticipantsJobBean job = submitWithdrawal();
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    withdrawalJobService.resumeAbandonedWithdrawals();
+    release.countDown();
+
+    assertEquals("COMPLETED", awaitJob(job.getJobId()).getStatus());
+    verify(activityResponseProcessorService)
+        .updateWithdrawalStatusForParticipants(STUDY_ID, PARTICIPANT_IDS);
+  }
+
+  @Test
+  public void shouldNotRecordStateOfJobClaimedAgainByAnotherInstance() throws Exception {
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              running.countDown();
+              release.await(5, TimeUnit.SECONDS);
+              return null;
+            })
+        .when(activityResponseProcessorService)
+        .updateWithdrawalStatusForParticipants(STUDY_ID, PARTICIPANT_IDS);
+    startService();
+
+    WithdrawParticipantsJobBean job = submitWithdrawal();
+    assertTrue(running.await(5, TimeUnit.SECONDS));
+    jobRows.get(job.getJobId()).setClaimToken("other-instance");
+    release.countDown();
+    withdrawalJobService.shutdownWithdrawalJobs();
+
+    assertEquals("IN_PROGRESS", withdrawalJobService.getWithdrawal(job.getJobId()).getStatus());
+  }
+
+  @Test
+  public void shouldNotKnowUnsubmittedJob() {
+    startService();
+
+    assertNull(withdrawalJobService.getWithdrawal("unknown-job"));
+  }
+
+  private void startService() {
+    withdrawalJobService.initWithdrawalJobs();
+  }
+
+  /** Stubs the queries of the repository that the service uses against {@link #jobRows}. */
+  private void stubJobRepository() {
+    when(jobRepository.saveAndFlush(any(ParticipantWithdrawalJobEntity.class)))
+        .thenAnswer(
+            invocation -> {
+              ParticipantWithdrawalJobEntity job = invocation.getArgument(0);
+              job.setId(UUID.randomUUID().toString());
+              jobRows.put(job.getId(), job);
+              return job;
+            });
+    when(jobRepository.findById(anyString()))
+        .thenAnswer(invocation -> Optional.ofNullable(jobRows.get(invocation.getArgument(0))));
+    doAnswer(invocation -> jobRows.remove(invocation.getArgument(0)))
+        .when(jobRepository)
+        .deleteById(anyString());
+    when(jobRepository.findIdsByStatusClaimedBefore(any(), any()))
+        .thenAnswer(
+            invocation ->
+                jobRows
+                    .values()
+                    .stream()
+                    .filter(
+                        job ->
+                            invocation.<Collection<String>>getArgument(0).contains(job.getStatus())
+                                && job.getClaimedTime().before(invocation.getArgument(1)))
+                    .map(ParticipantWithdrawalJobEntity::getId)
+                    .collect(Collectors.toList()));
+    when(jobRepository.reclaimExpired(anyString(), any(), any(), any(), anyString()))
+        .thenAnswer(
+            invocation -> {
+              synchronized (jobRows) {
+                ParticipantWithdrawalJobEntity job = jobRows.get(invocation.getArgument(0));
+                if (job == null
+                    || !invocation.<Collection<String>>getArgument(1).contains(job.getStatus())
+                    || !job.getClaimedTime().before(invocation.getArgument(3))) {
+                  return 0;
+                }
+                job.setClaimedTime(invocation.getArgument(2));
+                job.setClaimToken(invocation.getArgument(4));
+                return 1;
+              }
+            });
+    when(jobRepository.updateClaimed(anyString(), anyString(), anyString(), any(), any(), any()))
+        .thenAnswer(
+            invocation -> {
+              synchronized (jobRows) {
+                ParticipantWithdrawalJobEntity job = jobRows.get(invocation.getArgument(0));
+                if (job == null || !job.getClaimToken().equals(invocation.getArgument(1))) {
+                  return 0;
+                }
+                job.setStatus(invocation.getArgument(2));
+                job.setAppErrorCode(invocation.getArgument(3));
+                job.setErrorMessage(invocation.getArgument(4));
+                job.setClaimedTime(invocation.getArgument(5));
+                job.setUpdatedTime(invocation.getArgument(5));
+                return 1;
+              }
+            });
+  }
+
+  private WithdrawParticipantsJobBean submitWithdrawal() throws ProcessResponseException {
+    return withdrawalJobService.submitWithdrawal(
+        STUDY_ID, PARTICIPANT_IDS, new AuditLogEventRequest());
+  }
+
+  private WithdrawParticipantsJobBean awaitJob(String jobId) throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      WithdrawParticipantsJobBean job = withdrawalJobService.getWithdrawal(jobId);
+      if (!"PENDING".equals(job.getStatus()) && !"IN_PROGRESS".equals(job.getStatus())) {
+        return job;
+      }
+      Thread.sleep(20);
+    }
+    throw new AssertionError("withdrawal job " + jobId + " did not finish");
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.service;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityMetaDataBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStructureBean;
+import com.google.cloud.healthcare.fdamystudies.bean.StudyActivityMetadataRequestBean;
+import com.google.cloud.healthcare.fdamystudies.bean.StudyMetadataBean;
+import com.google.cloud.healthcare.fdamystudies.beans.AuditLogEventRequest;
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.dao.CloudFirestoreResponsesDaoImpl;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.web.client.RestTemplate;
+
+@TestPropertySource(properties = "studydatastore.activity.metadata.cache.max.size=100")
+public class StudyMetadataServiceImplTest extends BaseMockIT {
+
+  private static final String STUDY_ID = "StudyId";
+
+  private static final String OTHER_STUDY_ID = "OtherStudyId";
+
+  @MockBean private RestTemplate restTemplate;
+
+  @MockBean private CloudFirestoreResponsesDaoImpl responsesDaoMock;
+
+  @Autowired private StudyMetadataServiceImpl studyMetadataService;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    when(restTemplate.exchange(
+            any(String.class),
+            eq(HttpMethod.GET),
+            any(HttpEntity.class),
+            eq(QuestionnaireActivityMetaDataBean.class)))
+        .thenAnswer(invocation -> ResponseEntity.ok(new QuestionnaireActivityMetaDataBean()));
+    // the cache outlives the test methods, a new study version evicts what they cached
+    saveStudyMetadata(STUDY_ID, UUID.randomUUID().toString());
+    saveStudyMetadata(OTHER_STUDY_ID, UUID.randomUUID().toString());
+  }
+
+  @Test
+  public void shouldServeRepeatedActivityMetadataFromCache() throws Exception {
+    QuestionnaireActivityStructureBean first = getActivityMetadata(STUDY_ID, "1.0");
+    QuestionnaireActivityStructureBean second = getActivityMetadata(STUDY_ID, "1.0");
+    QuestionnaireActivityStructureBean otherVersion = getActivityMetadata(STUDY_ID, "2.0");
+
+    assertSame(first, second);
+    assertNotSame(first, otherVersion);
+    verifyStudyDatastoreCalls(STUDY_ID, 2);
+  }
+
+  @Test
+  public void shouldEvictActivityMetadataOfStudyOnNewStudyVersion() throws Exception {
+    saveStudyMetadata(STUDY_ID, "1.0");
+    QuestionnaireActivityStructureBean cached = getActivityMetadata(STUDY_ID, "1.0");
+    QuestionnaireActivityStructureBean otherStudy = getActivityMetadata(OTHER_STUDY_ID, "1.0");
+
+    saveStudyMetadata(STUDY_ID, "1.0");
+    assertSame(cached, getActivityMetadata(STUDY_ID, "1.0"));
+
+    saveStudyMetadata(STUDY_ID, "2.0");
+    assertNotSame(cached, getActivityMetadata(STUDY_ID, "1.0"));
+    assertSame(otherStudy, getActivityMetadata(OTHER_STUDY_ID, "1.0"));
+    verifyStudyDatastoreCalls(STUDY_ID, 2);
+    verifyStudyDatastoreCalls(OTHER_STUDY_ID, 1);
+  }
+
+  private QuestionnaireActivityStructureBean getActivityMetadata(
+      String studyId, String activityVersion) throws Exception {
+    StudyActivityMetadataRequestBean request = new StudyActivityMetadataRequestBean();
+    request.setStudyId(studyId);
+    request.setActivityId("ActivityId");
+    request.setActivityVersion(activityVersion);
+    return studyMetadataService.getStudyActivityMetadata(
+        "ApplicationId", request, new AuditLogEventRequest());
+  }
+
+  private void saveStudyMetadata(String studyId, String studyVersion) throws Exception {
+    StudyMetadataBean studyMetadata = new StudyMetadataBean();
+    studyMetadata.setStudyId(studyId);
+    studyMetadata.setStudyVersion(studyVersion);
+    studyMetadataService.saveStudyMetadata(studyMetadata);
+  }
+
+  private void verifyStudyDatastoreCalls(String studyId, int calls) {
+    verify(restTemplate, times(calls))
+        .exchange(
+            contains("studyId=" + studyId + "&"),
+            eq(HttpMethod.GET),
+            any(HttpEntity.class),
+            eq(QuestionnaireActivityMetaDataBean.class));
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.task;
+
+import static com.google.cloud.healthcare.fdamystudies.common.CommonConstants.CONSENT_TABLE_NAME;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.healthcare.v1.model.Consent;
+import com.google.api.services.healthcare.v1.model.ListConsentsResponse;
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.mapper.BigQueryApis;
+import com.google.cloud.healthcare.fdamystudies.mapper.BigQueryApis.BigQueryTableWriter;
+import com.google.cloud.healthcare.fdamystudies.mapper.ConsentManagementAPIs;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(
+    properties = {
+      "projectId=project",
+      "regionId=region",
+      "enableFhirApi=fhir&did",
+      "discardFhirAfterDid=false",
+      "ingest.bigQuery.consent.page.size=2",
+      "ingest.bigQuery.full.export.interval.ms=86400000"
+    })
+public class ExportFHIRDataToBQScheduledTaskTest extends BaseMockIT {
+
+  private static final String PROJECT_ID = "project";
+
+  private static final String REGION_ID = "region";
+
+  private static final int PAGE_SIZE = 2;
+
+  private static final String REVISION_FILTER =
+      "revision_create_time > \"2021-03-01T10:00:00Z\"";
+
+  @MockBean private ConsentManagementAPIs consentManagementAPIs;
+
+  @MockBean private BigQueryApis bigQueryApis;
+
+  @Autowired private ExportFHIRDataToBQScheduledTask exportTask;
+
+  private BigQueryTableWriter fhirWriter;
+
+  private BigQueryTableWriter didWriter;
+
+  private String studyId;
+
+  private String consentStore;
+
+  @BeforeEach
+  public void setUp() {
+    // the task keeps its export watermarks across tests, so each test exports its own study
+    studyId = "Study" + UUID.randomUUID().toString().replace("-", "");
+    consentStore =
+        String.format(
+            "projects/%s/locations/%s/datasets/%s/consentStores/CONSENT_%s",
+            PROJECT_ID, REGION_ID, studyId, studyId);
+    fhirWriter = mock(BigQueryTableWriter.class);
+    didWriter = mock(BigQueryTableWriter.class);
+    when(bigQueryApis.openTableWriter(
+            PROJECT_ID, REGION_ID, studyId + "_FHIR", CONSENT_TABLE_NAME, "WRITE_TRUNCATE"))
+        .thenReturn(fhirWriter);
+    when(bigQueryApis.openTableWriter(
+            PROJECT_ID, REGION_ID, studyId, CONSENT_TABLE_NAME, "WRITE_TRUNCATE"))
+        .thenReturn(didWriter);
+  }
+
+  @Test
+  public void shouldStreamEveryConsentPageIntoBothDatasets() throws Exception {
+    stubPage(null, "page2", consent("P1", "2021-01-01T10:00:00Z"), consent("P2", null));
+    stubPage("page2", null, consent("P3", "2021-03-01T10:00:00Z"));
+
+    exportTask.exportConsentStore(studyId);
+
+    for (BigQueryTableWriter writer : Arrays.asList(fhirWriter, didWriter)) {
+      InOrder inOrder = inOrder(writer);
+      inOrder.verify(writer, times(3)).writeRow(anyString());
+      inOrder.verify(writer).finish();
+    }
+    verify(bigQueryApis).createViewsInBigQuery(PROJECT_ID, studyId + "_FHIR");
+    verify(bigQueryApis).createViewsInBigQuery(PROJECT_ID, studyId);
+  }
+
+  @Test
+  public void shouldEncodeConsentRowsWithoutWhitespace() throws Exception {
+    Consent consent = consent("P1", "2021-01-01T10:00:00Z");
+    Map<String, String> metadata = new HashMap<>();
+    metadata.put("ConsentType", "Primary consent");
+    metadata.put("DataSharingPermission", "Provided");
+    consent.setMetadata(metadata);
+    stubPage(null, null, consent, new Consent());
+
+    exportTask.exportConsentStore(studyId);
+
+    ArgumentCaptor<String> rows = ArgumentCaptor.forClass(String.class);
+    verify(didWriter, times(2)).writeRow(rows.capture());
+    JSONObject row = new JSONObject(rows.getAllValues().get(0));
+    assertEquals("P1", row.get("ParticipantId"));
+    assertEquals("ACTIVE", row.get("ConsentState"));
+    assertEquals("Primaryconsent", row.get("ConsentType"));
+    assertEquals("Provided", row.get("DataSharingPermission"));
+    assertFalse(rows.getAllValues().get(0).matches(".*\\s.*"));
+    JSONObject emptyRow = new JSONObject(rows.getAllValues().get(1));
+    assertEquals("", emptyRow.get("ParticipantId"));
+    assertEquals("", emptyRow.get("ConsentType"));
+  }
+
+  @Test
+  public void shouldNotFinishLoadWhenReadingConsentsFailsMidStream() throws Exception {
+    stubPage(null, "page2", consent("P1", "2021-01-01T10:00:00Z"));
+    when(consentManagementAPIs.getConsentsPage("", consentStore, PAGE_SIZE, "page2"))
+        .thenThrow(new IOException("consent store unavailable"));
+
+    assertThrows(IOException.class, () -> exportTask.exportConsentStore(studyId));
+
+    verify(fhirWriter).writeRow(anyString());
+    verify(fhirWriter, never()).finish();
+    verify(didWriter, never()).finish();
+    verify(bigQueryApis, never()).createViewsInBigQuery(anyString(), anyString());
+  }
+
+  @Test
+  public void shouldReloadOnlyWhenConsentIsRevisedAfterLatestLoadedRevision() throws Exception {
+    stubPage(
+        null, null, consent("P1", "2021-03-01T10:00:00Z"), consent("P2", "2021-01-01T10:00:00Z"));
+    when(consentManagementAPIs.getConsentsPage(REVISION_FILTER, consentStore, 1, null))
+        .thenReturn(
+            new ListConsentsResponse(),
+            new ListConsentsResponse()
+                .setConsents(Collections.singletonList(consent("P2", "2021-03-02T10:00:00Z"))));
+
+    exportTask.exportConsentStore(studyId);
+    exportTask.exportConsentStore(studyId);
+
+    verify(didWriter, times(1)).finish();
+
+    exportTask.exportConsentStore(studyId);
+
+    verify(didWriter, times(2)).finish();
+    verify(consentManagementAPIs, times(2))
+        .getConsentsPage(REVISION_FILTER, consentStore, 1, null);
+  }
+
+  @Test
+  public void shouldTruncateConsentTablesOfEmptyConsentStore() throws Exception {
+    when(consentManagementAPIs.getConsentsPage(eq(""), eq(consentStore), anyInt(), isNull()))
+        .thenReturn(new ListConsentsResponse());
+
+    exportTask.exportConsentStore(studyId);
+
+    verify(bigQueryApis)
+        .truncateTable(PROJECT_ID, REGION_ID, studyId + "_FHIR", CONSENT_TABLE_NAME);
+    verify(bigQueryApis).truncateTable(PROJECT_ID, REGION_ID, studyId, CONSENT_TABLE_NAME);
+    verify(bigQueryApis, never())
+        .openTableWriter(anyString(), anyString(), anyString(), anyString(), anyString());
+  }
+
+  private void stubPage(String pageToken, String nextPageToken, Consent... consents)
+      throws IOException {
+    List<Consent> page = Arrays.asList(consents);
+    when(consentManagementAPIs.getConsentsPage("", consentStore, PAGE_SIZE, pageToken))
+        .thenReturn(new ListConsentsResponse().setConsents(page).setNextPageToken(nextPageToken));
+  }
+
+  private static Consent consent(String participantId, String revisionCreateTime) {
+    return new Consent()
+        .setUserId(participantId)
+        .setState("ACTIVE")
+        .setRevisionCreateTime(revisionCreateTime);
+  }
+}
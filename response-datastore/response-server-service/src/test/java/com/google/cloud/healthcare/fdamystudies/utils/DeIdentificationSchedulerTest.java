@@ -0,0 +1,213 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.healthcare.v1.model.Operation;
+import com.google.api.services.healthcare.v1.model.Status;
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(
+    properties = {
+      "did.batch.window.ms=60000",
+      "did.batch.max.resources=3",
+      "did.batch.flush.check.ms=5",
+      "did.operation.poll.initial.ms=10",
+      "did.operation.poll.max.ms=40",
+      "did.operation.poll.check.ms=2",
+      "did.operation.threads=2",
+      "did.callback.threads=1"
+    })
+public class DeIdentificationSchedulerTest extends BaseMockIT {
+
+  private static final String FHIR_STORE = "projects/p/locations/l/datasets/d/fhirStores/FHIR_1";
+
+  private static final String DID_STORE = "projects/p/locations/l/datasets/d/fhirStores/DID_1";
+
+  @MockBean private DeIdentifyHealthcareApis deIdentifyHealthcareApis;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Autowired private DeIdentificationScheduler scheduler;
+
+  @BeforeEach
+  public void setUp() throws InterruptedException {
+    // each test starts the executors itself once the operations are stubbed
+    scheduler.shutdownExecutors();
+  }
+
+  @AfterEach
+  public void tearDown() throws InterruptedException {
+    scheduler.shutdownExecutors();
+    appConfig.setDidBatchWindowMs(60000);
+    appConfig.setDidBatchMaxResources(3);
+  }
+
+  @Test
+  public void shouldStartOneOperationOffSubmittingThreadWhenBatchIsFull() throws Exception {
+    AtomicReference<Thread> startThread = new AtomicReference<>();
+    when(deIdentifyHealthcareApis.startDeIdentification(anyString(), anyString(), anyList()))
+        .thenAnswer(
+            invocation -> {
+              startThread.set(Thread.currentThread());
+              return operation("op", true);
+            });
+    startScheduler();
+
+    CompletableFuture<Void> first =
+        scheduler.submit(
+            FHIR_STORE, DID_STORE, Arrays.asList("QuestionnaireResponse/1", "Patient/1"));
+    CompletableFuture<Void> second =
+        scheduler.submit(
+            FHIR_STORE, DID_STORE, Arrays.asList("QuestionnaireResponse/2", "Patient/1"));
+
+    first.get(5, TimeUnit.SECONDS);
+    second.get(5, TimeUnit.SECONDS);
+    verify(deIdentifyHealthcareApis, times(1))
+        .startDeIdentification(
+            FHIR_STORE,
+            DID_STORE,
+            Arrays.asList("QuestionnaireResponse/1", "Patient/1", "QuestionnaireResponse/2"));
+    assertNotEquals(Thread.currentThread(), startThread.get());
+  }
+
+  @Test
+  public void shouldStartOperationWhenBatchWindowExpires() throws Exception {
+    appConfig.setDidBatchWindowMs(20);
+    appConfig.setDidBatchMaxResources(500);
+    when(deIdentifyHealthcareApis.startDeIdentification(anyString(), anyString(), anyList()))
+        .thenReturn(operation("op", true));
+    startScheduler();
+
+    scheduler
+        .submit(FHIR_STORE, DID_STORE, Arrays.asList("QuestionnaireResponse/1"))
+        .get(5, TimeUnit.SECONDS);
+
+    verify(deIdentifyHealthcareApis, times(1))
+        .startDeIdentification(FHIR_STORE, DID_STORE, Arrays.asList("QuestionnaireResponse/1"));
+  }
+
+  @Test
+  public void shouldPollOperationWithBackoffUntilDone() throws Exception {
+    appConfig.setDidBatchMaxResources(1);
+    when(deIdentifyHealthcareApis.startDeIdentification(anyString(), anyString(), anyList()))
+        .thenReturn(operation("op", false));
+    List<Long> pollTimes = new CopyOnWriteArrayList<>();
+    AtomicInteger polls = new AtomicInteger();
+    when(deIdentifyHealthcareApis.getOperation("op"))
+        .thenAnswer(
+            invocation -> {
+              pollTimes.add(System.currentTimeMillis());
+              return operation("op", polls.incrementAndGet() == 4);
+            });
+    startScheduler();
+
+    scheduler
+        .submit(FHIR_STORE, DID_STORE, Arrays.asList("QuestionnaireResponse/1"))
+        .get(5, TimeUnit.SECONDS);
+
+    assertEquals(4, pollTimes.size());
+    // the delay doubles from the initial 10 ms and is capped at 40 ms
+    long[] minimumDelays = {20, 40, 40};
+    for (int i = 0; i < minimumDelays.length; i++) {
+      long delay = pollTimes.get(i + 1) - pollTimes.get(i);
+      assertTrue(delay >= minimumDelays[i] - 5, "poll " + (i + 2) + " after " + delay + " ms");
+    }
+  }
+
+  @Test
+  public void shouldFailSubmissionsWhenOperationFails() throws Exception {
+    appConfig.setDidBatchMaxResources(1);
+    when(deIdentifyHealthcareApis.startDeIdentification(anyString(), anyString(), anyList()))
+        .thenReturn(operation("op", false));
+    when(deIdentifyHealthcareApis.getOperation("op"))
+        .thenReturn(operation("op", true).setError(new Status().setMessage("invalid store")));
+    startScheduler();
+
+    CompletableFuture<Void> result =
+        scheduler.submit(FHIR_STORE, DID_STORE, Arrays.asList("QuestionnaireResponse/1"));
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof ProcessResponseException);
+    assertFalse(scheduler.isPending("QuestionnaireResponse/1"));
+  }
+
+  @Test
+  public void shouldFailSubmissionsWhenOperationCannotStart() throws Exception {
+    appConfig.setDidBatchMaxResources(1);
+    when(deIdentifyHealthcareApis.startDeIdentification(anyString(), anyString(), anyList()))
+        .thenThrow(new ProcessResponseException("quota exceeded"));
+    startScheduler();
+
+    CompletableFuture<Void> result =
+        scheduler.submit(FHIR_STORE, DID_STORE, Arrays.asList("QuestionnaireResponse/1"));
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof ProcessResponseException);
+  }
+
+  @Test
+  public void shouldReportResourcesPendingUntilTheirOperationIsDone() throws Exception {
+    appConfig.setDidBatchWindowMs(100);
+    appConfig.setDidBatchMaxResources(500);
+    when(deIdentifyHealthcareApis.startDeIdentification(anyString(), anyString(), anyList()))
+        .thenReturn(operation("op", true));
+    startScheduler();
+
+    CompletableFuture<Void> first =
+        scheduler.submit(
+            FHIR_STORE, DID_STORE, Arrays.asList("QuestionnaireResponse/1", "Patient/1"));
+    CompletableFuture<Void> second =
+        scheduler.submit(
+            FHIR_STORE, DID_STORE, Arrays.asList("QuestionnaireResponse/2", "Patient/1"));
+
+    assertTrue(scheduler.isPending("QuestionnaireResponse/1"));
+    assertTrue(scheduler.isPending("Patient/1"));
+    assertFalse(scheduler.isPending("QuestionnaireResponse/3"));
+    first.get(5, TimeUnit.SECONDS);
+    second.get(5, TimeUnit.SECONDS);
+    assertFalse(scheduler.isPending("QuestionnaireResponse/1"));
+    assertFalse(scheduler.isPending("Patient/1"));
+  }
+
+  private void startScheduler() {
+    scheduler.initExecutors();
+  }
+
+  private static Operation operation(String name, boolean done) {
+    return new Operation().setName(name).setDone(done);
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import com.google.cloud.healthcare.fdamystudies.config.ApplicationConfiguration;
+import com.google.cloud.healthcare.fdamystudies.exception.FhirBundleRejectedException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(
+    properties = {
+      "fhir.bundle.type=batch",
+      "fhir.bundle.max.entries=2",
+      "fhir.bundle.max.age.ms=60000",
+      "fhir.bundle.flush.check.ms=10",
+      "fhir.bundle.flush.threads=1"
+    })
+public class FhirBundleWriterTest extends BaseMockIT {
+
+  private static final String FHIR_STORE = "projects/p/locations/l/datasets/d/fhirStores/FHIR_1";
+
+  private static final String RESOURCE = "{\"resourceType\":\"QuestionnaireResponse\"}";
+
+  @MockBean private FhirHealthcareApis fhirHealthcareApis;
+
+  @Autowired private ApplicationConfiguration appConfig;
+
+  @Autowired private FhirBundleWriter writer;
+
+  @BeforeEach
+  public void setUp() throws InterruptedException {
+    // each test starts the flush thread itself once the store is stubbed
+    writer.flushAll();
+  }
+
+  @AfterEach
+  public void tearDown() throws InterruptedException {
+    writer.flushAll();
+    appConfig.setFhirBundleType("batch");
+    appConfig.setFhirBundleMaxEntries(2);
+    appConfig.setFhirBundleMaxAgeMs(60000);
+  }
+
+  @Test
+  public void shouldFlushOnFlushThreadWhenBundleIsFull() throws Exception {
+    AtomicReference<Thread> flushThread = new AtomicReference<>();
+    when(fhirHealthcareApis.fhirExecuteBundle(eq(FHIR_STORE), anyString()))
+        .thenAnswer(
+            invocation -> {
+              flushThread.set(Thread.currentThread());
+              return bundleResponse("201 Created", "201 Created");
+            });
+    startWriter();
+
+    CompletableFuture<String> first = writer.create(FHIR_STORE, "QuestionnaireResponse", RESOURCE);
+    CompletableFuture<String> second =
+        writer.create(FHIR_STORE, "QuestionnaireResponse", RESOURCE);
+
+    assertEquals("1", idOf(first.get(5, TimeUnit.SECONDS)));
+    assertEquals("2", idOf(second.get(5, TimeUnit.SECONDS)));
+    assertEquals(2, sentEntryCount(1));
+    assertNotEquals(Thread.currentThread(), flushThread.get());
+  }
+
+  @Test
+  public void shouldFlushWhenOldestEntryExpires() throws Exception {
+    appConfig.setFhirBundleMaxEntries(50);
+    appConfig.setFhirBundleMaxAgeMs(50);
+    when(fhirHealthcareApis.fhirExecuteBundle(eq(FHIR_STORE), anyString()))
+        .thenReturn(bundleResponse("201 Created"));
+    startWriter();
+
+    CompletableFuture<String> created =
+        writer.create(FHIR_STORE, "QuestionnaireResponse", RESOURCE);
+
+    assertEquals("1", idOf(created.get(5, TimeUnit.SECONDS)));
+    assertEquals(1, sentEntryCount(1));
+  }
+
+  @Test
+  public void shouldRetryEntriesTheStoreCouldNotProcessAndFailWhenRetryFails() throws Exception {
+    when(fhirHealthcareApis.fhirExecuteBundle(eq(FHIR_STORE), anyString()))
+        .thenReturn(bundleResponse("201 Created", "503 Service Unavailable"));
+    when(fhirHealthcareApis.fhirResourceCreate(FHIR_STORE, "QuestionnaireResponse", RESOURCE))
+        .thenThrow(new ProcessResponseException("store unavailable"));
+    startWriter();
+
+    CompletableFuture<String> accepted =
+        writer.create(FHIR_STORE, "QuestionnaireResponse", RESOURCE);
+    CompletableFuture<String> unavailable =
+        writer.create(FHIR_STORE, "QuestionnaireResponse", RESOURCE);
+
+    assertEquals("1", idOf(accepted.get(5, TimeUnit.SECONDS)));
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> unavailable.get(5, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof ProcessResponseException);
+    verify(fhirHealthcareApis, times(1))
+        .fhirResourceCreate(FHIR_STORE, "QuestionnaireResponse", RESOURCE);
+  }
+
+  @Test
+  public void shouldFailRejectedEntriesWithoutRetrying() throws Exception {
+    when(fhirHealthcareApis.fhirExecuteBundle(eq(FHIR_STORE), anyString()))
+        .thenReturn(bundleResponse("201 Created", "400 Bad Request"));
+    startWriter();
+
+    CompletableFuture<String> accepted =
+        writer.create(FHIR_STORE, "QuestionnaireResponse", RESOURCE);
+    CompletableFuture<String> rejected =
+        writer.create(FHIR_STORE, "QuestionnaireResponse", RESOURCE);
+
+    assertEquals("1", idOf(accepted.get(5, TimeUnit.SECONDS)));
+    assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+    verify(fhirHealthcareApis, never()).fhirResourceCreate(anyString(), anyString(), anyString());
+  }
+
+  @Test
+  public void shouldRetryEntriesOfFailedBundleOneAtATime() throws Exception {
+    when(fhirHealthcareApis.fhirExecuteBundle(eq(FHIR_STORE), anyString()))
+        .thenThrow(new ProcessResponseException("503 Service Unavailable"));
+    when(fhirHealthcareApis.fhirResourceCreate(FHIR_STORE, "QuestionnaireResponse", RESOURCE))
+        .thenReturn("{\"resourceType\":\"QuestionnaireResponse\",\"id\":\"3\"}");
+    startWriter();
+
+    CompletableFuture<String> created =
+        writer.create(FHIR_STORE, "QuestionnaireResponse", RESOURCE);
+    CompletableFuture<String> patched = writer.patch(FHIR_STORE, "QuestionnaireResponse/3", "[]");
+
+    assertEquals("3", idOf(created.get(5, TimeUnit.SECONDS)));
+    patched.get(5, TimeUnit.SECONDS);
+    verify(fhirHealthcareApis)
+        .fhirResourcePatch(FHIR_STORE + "/fhir/QuestionnaireResponse/3", "[]");
+  }
+
+  @Test
+  public void shouldFailEntriesOfRejectedTransactionWithoutRetrying() throws Exception {
+    appConfig.setFhirBundleType("transaction");
+    when(fhirHealthcareApis.fhirExecuteBundle(eq(FHIR_STORE), anyString()))
+        .thenThrow(new FhirBundleRejectedException("400 Bad Request"));
+    startWriter();
+
+    CompletableFuture<String> created =
+        writer.create(FHIR_STORE, "QuestionnaireResponse", RESOURCE);
+    CompletableFuture<String> patched = writer.patch(FHIR_STORE, "QuestionnaireResponse/3", "[]");
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> created.get(5, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof FhirBundleRejectedException);
+    assertThrows(ExecutionException.class, () -> patched.get(5, TimeUnit.SECONDS));
+    verify(fhirHealthcareApis, never()).fhirResourceCreate(anyString(), anyString(), anyString());
+    verify(fhirHealthcareApis, never()).fhirResourcePatch(anyString(), anyString());
+  }
+
+  @Test
+  public void shouldFailPatchWhenPatchingDirectlyFails() throws Exception {
+    when(fhirHealthcareApis.fhirExecuteBundle(eq(FHIR_STORE), anyString()))
+        .thenReturn(bundleResponse("500 Internal Server Error", "200 OK"));
+    doThrow(new ProcessResponseException("store unavailable"))
+        .when(fhirHealthcareApis)
+        .fhirResourcePatch(FHIR_STORE + "/fhir/QuestionnaireResponse/3", "[]");
+    startWriter();
+
+    CompletableFuture<String> failed = writer.patch(FHIR_STORE, "QuestionnaireResponse/3", "[]");
+    CompletableFuture<String> patched = writer.patch(FHIR_STORE, "QuestionnaireResponse/4", "[]");
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof ProcessResponseException);
+    patched.get(5, TimeUnit.SECONDS);
+    verify(fhirHealthcareApis, times(1)).fhirResourcePatch(anyString(), anyString());
+  }
+
+  @Test
+  public void shouldFailEntriesWhenBundleCannotBeBuilt() throws Exception {
+    startWriter();
+
+    CompletableFuture<String> valid = writer.create(FHIR_STORE, "QuestionnaireResponse", RESOURCE);
+    CompletableFuture<String> invalid = writer.create(FHIR_STORE, "QuestionnaireResponse", "{");
+
+    assertThrows(ExecutionException.class, () -> valid.get(5, TimeUnit.SECONDS));
+    assertThrows(ExecutionException.class, () -> invalid.get(5, TimeUnit.SECONDS));
+    verify(fhirHealthcareApis, never()).fhirExecuteBundle(anyString(), anyString());
+  }
+
+  @Test
+  public void shouldNotSendCancelledEntries() throws Exception {
+    startWriter();
+
+    CompletableFuture<String> created =
+        writer.create(FHIR_STORE, "QuestionnaireResponse", RESOURCE);
+    created.cancel(false);
+    writer.flushAll();
+
+    verify(fhirHealthcareApis, never()).fhirExecuteBundle(anyString(), anyString());
+  }
+
+  private void startWriter() {
+    writer.initFlushExecutor();
+  }
+
+  private int sentEntryCount(int bundles) throws ProcessResponseException {
+    ArgumentCaptor<String> bundle = ArgumentCaptor.forClass(String.class);
+    verify(fhirHealthcareApis, times(bundles)).fhirExecuteBundle(eq(FHIR_STORE), bundle.capture());
+    return new JsonParser()
+        .parse(bundle.getValue())
+        .getAsJsonObject()
+        .getAsJsonArray("entry")
+        .size();
+  }
+
+  private static String bundleResponse(String... statuses) {
+    StringBuilder entries = new StringBuilder();
+    for (int i = 0; i < statuses.length; i++) {
+      if (i > 0) {
+        entries.append(',');
+      }
+      entries.append(
+          String.format(
+              "{\"response\":{\"status\":\"%s\","
+                  + "\"location\":\"%s/fhir/QuestionnaireResponse/%d/_history/v1\"}}",
+              statuses[i], FHIR_STORE, i + 1));
+    }
+    return "{\"resourceType\":\"Bundle\",\"entry\":[" + entries + "]}";
+  }
+
+  private static String idOf(String resourceJson) {
+    JsonObject resource = new JsonParser().parse(resourceJson).getAsJsonObject();
+    return resource.get("id").getAsString();
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityMetadataBean;
+import com.google.cloud.healthcare.fdamystudies.bean.ActivityValueGroupBean;
+import com.google.cloud.healthcare.fdamystudies.bean.QuestionnaireActivityStepsBean;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The codecs handle bean properties one by one. These tests fail when a bean gains a property
+ * that a codec does not handle.
+ */
+public class ResponseBeanCodecTest {
+
+  @Test
+  public void shouldStoreEveryStepProperty() throws Exception {
+    assertEveryPropertyStored(
+        QuestionnaireActivityStepsBean.class,
+        QuestionnaireActivityStepsBean::new,
+        ResponseBeanCodec::toStoredMap);
+  }
+
+  @Test
+  public void shouldStoreEveryMetadataProperty() throws Exception {
+    assertEveryPropertyStored(
+        ActivityMetadataBean.class, ActivityMetadataBean::new, ResponseBeanCodec::toStoredMap);
+  }
+
+  @Test
+  public void shouldClassifyEveryStepPropertyForFhir() throws Exception {
+    Set<String> classified = new HashSet<>(ResponseBeanCodec.FHIR_STEP_PROPERTIES);
+    classified.addAll(ResponseBeanCodec.FHIR_IGNORED_STEP_PROPERTIES);
+
+    assertEquals(
+        ResponseBeanCodec.FHIR_STEP_PROPERTIES.size()
+            + ResponseBeanCodec.FHIR_IGNORED_STEP_PROPERTIES.size(),
+        classified.size());
+    assertEquals(propertyNames(QuestionnaireActivityStepsBean.class), classified);
+  }
+
+  @Test
+  public void shouldStoreNestedStepsUnderResults() {
+    QuestionnaireActivityStepsBean formStep = new QuestionnaireActivityStepsBean();
+    formStep.setKey("formStep");
+    QuestionnaireActivityStepsBean step = new QuestionnaireActivityStepsBean();
+    step.getActvityValueGroup().getValueGroup().add(formStep);
+    step.setSkipped(false);
+    step.setValue(null);
+
+    Map<String, Object> stored = ResponseBeanCodec.toStoredMap(step);
+
+    Map<?, ?> valueGroup = (Map<?, ?>) stored.get("actvityValueGroup");
+    List<?> results = (List<?>) valueGroup.get(AppConstants.RESULTS_FIELD_KEY);
+    assertEquals("formStep", ((Map<?, ?>) results.get(0)).get("key"));
+    assertEquals("false", stored.get("skipped"));
+    assertEquals("null", stored.get("skippable"));
+    assertEquals("null", stored.get("value"));
+  }
+
+  @Test
+  public void shouldJoinListValuesWithCommas() {
+    QuestionnaireActivityStepsBean step = new QuestionnaireActivityStepsBean();
+    step.getOptions().add("");
+    step.getOptions().add("first");
+    step.getOptions().add("second");
+    step.setValue(Arrays.asList("a", Collections.singletonMap("other", "b")));
+
+    Map<String, Object> stored = ResponseBeanCodec.toStoredMap(step);
+
+    assertEquals("first,second", stored.get("options"));
+    assertEquals("a,{\"other\":\"b\"}", stored.get("value"));
+    assertFalse(stored.containsKey("destinations"));
+  }
+
+  private static <T> void assertEveryPropertyStored(
+      Class<T> beanClass, Supplier<T> newBean, Function<T, Map<String, Object>> codec)
+      throws Exception {
+    Map<String, Object> defaults = codec.apply(newBean.get());
+    for (PropertyDescriptor property : properties(beanClass)) {
+      T bean = newBean.get();
+      property.getWriteMethod().invoke(bean, sampleValue(property));
+      assertNotEquals(
+          defaults,
+          codec.apply(bean),
+          "property " + property.getName() + " of " + beanClass.getSimpleName() + " is not stored");
+    }
+  }
+
+  private static Object sampleValue(PropertyDescriptor property) {
+    Class<?> type = property.getPropertyType();
+    if (type == String.class || type == Object.class) {
+      return "sample";
+    } else if (type == Boolean.class) {
+      return Boolean.TRUE;
+    } else if (type == List.class) {
+      return Collections.singletonList("sample");
+    } else if (type == Map.class) {
+      return Collections.singletonMap("sample", "sample");
+    } else if (type == ActivityValueGroupBean.class) {
+      ActivityValueGroupBean valueGroup = new ActivityValueGroupBean();
+      valueGroup.getValueGroup().add(new QuestionnaireActivityStepsBean());
+      return valueGroup;
+    }
+    return fail("no sample value for property " + property.getName() + " of type " + type);
+  }
+
+  private static Set<String> propertyNames(Class<?> beanClass) throws Exception {
+    Set<String> names = new HashSet<>();
+    for (PropertyDescriptor property : properties(beanClass)) {
+      names.add(property.getName());
+    }
+    return names;
+  }
+
+  private static List<PropertyDescriptor> properties(Class<?> beanClass) throws Exception {
+    List<PropertyDescriptor> properties = new ArrayList<>();
+    for (PropertyDescriptor property :
+        Introspector.getBeanInfo(beanClass).getPropertyDescriptors()) {
+      if (!property.getName().equals(AppConstants.PROPERTY_NAME_CLASS)) {
+        properties.add(property);
+      }
+    }
+    return properties;
+  }
+}
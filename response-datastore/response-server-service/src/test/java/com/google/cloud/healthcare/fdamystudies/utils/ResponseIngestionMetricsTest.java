@@ -0,0 +1,182 @@
+/*
+ * Copyright 2021 Google LLC
+ *
+ * Use of this source code is governed by an MIT-style
+ * license that can be found in the LICENSE file or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package com.google.cloud.healthcare.fdamystudies.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import brave.ScopedSpan;
+import brave.Tracing;
+import brave.propagation.TraceContext;
+import brave.sampler.Sampler;
+import com.google.cloud.healthcare.fdamystudies.common.BaseMockIT;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import zipkin2.Span;
+import zipkin2.reporter.Reporter;
+
+public class ResponseIngestionMetricsTest extends BaseMockIT {
+
+  private static final String STAGE_TIMER = "response.ingestion.stage";
+
+  private static final String STAGE_ERRORS = "response.ingestion.stage.errors";
+
+  @Autowired private MeterRegistry meterRegistry;
+
+  @Autowired private Tracing tracing;
+
+  @Autowired private SpanCollector spanCollector;
+
+  @Autowired private ResponseIngestionMetrics ingestionMetrics;
+
+  @TestConfiguration
+  static class TracingConfiguration {
+
+    // without a zipkin sender the application samples no trace
+    @Bean
+    public Sampler alwaysSample() {
+      return Sampler.ALWAYS_SAMPLE;
+    }
+
+    @Bean
+    public SpanCollector spanCollector() {
+      return new SpanCollector();
+    }
+  }
+
+  /** Keeps the spans reported by the application tracer. */
+  static class SpanCollector implements Reporter<Span> {
+
+    private final List<Span> spans = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void report(Span span) {
+      spans.add(span);
+    }
+  }
+
+  @BeforeEach
+  public void setUp() {
+    // the registry and the span collector are shared by the context, drop what earlier tests recorded
+    meterRegistry.find(STAGE_TIMER).meters().forEach(meterRegistry::remove);
+    meterRegistry.find(STAGE_ERRORS).meters().forEach(meterRegistry::remove);
+    spanCollector.spans.clear();
+  }
+
+  @Test
+  public void shouldTimeStageTaggedWithStageAndSuccess() {
+    String metadata =
+        ingestionMetrics.record(ResponseIngestionMetrics.METADATA_FETCH, () -> "metadata");
+
+    assertEquals("metadata", metadata);
+    assertEquals(1, stageTimerCount(ResponseIngestionMetrics.METADATA_FETCH, "success"));
+    assertNull(
+        meterRegistry
+            .find(STAGE_TIMER)
+            .tags("stage", ResponseIngestionMetrics.METADATA_FETCH, "outcome", "error")
+            .timer());
+    assertNull(meterRegistry.find(STAGE_ERRORS).counter());
+    List<Span> spans = stageSpans(ResponseIngestionMetrics.METADATA_FETCH);
+    assertEquals(1, spans.size());
+    assertNull(spans.get(0).tags().get("error"));
+  }
+
+  @Test
+  public void shouldRunStageInChildSpanOfCurrentSpan() {
+    ScopedSpan request = tracing.tracer().startScopedSpan("request");
+    TraceContext[] stageContext = new TraceContext[1];
+    try {
+      ingestionMetrics.run(
+          ResponseIngestionMetrics.FHIR_WRITE,
+          () -> stageContext[0] = tracing.currentTraceContext().get());
+    } finally {
+      request.finish();
+    }
+
+    assertEquals(request.context().traceId(), stageContext[0].traceId());
+    assertEquals(Long.valueOf(request.context().spanId()), stageContext[0].parentId());
+    assertEquals(1, stageTimerCount(ResponseIngestionMetrics.FHIR_WRITE, "success"));
+  }
+
+  @Test
+  public void shouldCountErrorAndRethrowWhenRecordedStageFails() {
+    IOException failure = new IOException("metadata unavailable");
+
+    IOException thrown =
+        assertThrows(
+            IOException.class,
+            () ->
+                ingestionMetrics.record(
+                    ResponseIngestionMetrics.METADATA_FETCH,
+                    () -> {
+                      throw failure;
+                    }));
+
+    assertSame(failure, thrown);
+    assertFailureRecorded(ResponseIngestionMetrics.METADATA_FETCH, failure);
+  }
+
+  @Test
+  public void shouldCountErrorAndRethrowWhenRunStageFails() {
+    ProcessResponseException failure = new ProcessResponseException("state not saved");
+
+    ProcessResponseException thrown =
+        assertThrows(
+            ProcessResponseException.class,
+            () ->
+                ingestionMetrics.run(
+                    ResponseIngestionMetrics.ACTIVITY_STATE_SAVE,
+                    () -> {
+                      throw failure;
+                    }));
+
+    assertSame(failure, thrown);
+    assertFailureRecorded(ResponseIngestionMetrics.ACTIVITY_STATE_SAVE, failure);
+  }
+
+  private void assertFailureRecorded(String stage, Exception failure) {
+    assertEquals(1, stageTimerCount(stage, "error"));
+    assertNull(meterRegistry.find(STAGE_TIMER).tags("stage", stage, "outcome", "success").timer());
+    assertEquals(
+        1.0,
+        meterRegistry
+            .get(STAGE_ERRORS)
+            .tags("stage", stage, "exception", failure.getClass().getSimpleName())
+            .counter()
+            .count());
+    List<Span> spans = stageSpans(stage);
+    assertEquals(1, spans.size());
+    assertEquals(failure.getMessage(), spans.get(0).tags().get("error"));
+  }
+
+  private long stageTimerCount(String stage, String outcome) {
+    return meterRegistry
+        .get(STAGE_TIMER)
+        .tags("stage", stage, "outcome", outcome)
+        .timer()
+        .count();
+  }
+
+  private List<Span> stageSpans(String stage) {
+    // scheduled tasks of the context report their own spans
+    return spanCollector.spans.stream()
+        .filter(span -> ("response-" + stage).equals(span.name()))
+        .collect(Collectors.toList());
+  }
+}
@@ -63,26 +63,23 @@ import com.hphc.mystudies.dto.QuestionsDto;
 import com.hphc.mystudies.dto.StudyDto;
 import com.hphc.mystudies.dto.StudyVersionDto;
 import com.hphc.mystudies.exception.DAOException;
+import com.hphc.mystudies.util.ActivityScheduleEngine;
 import com.hphc.mystudies.util.HibernateUtil;
 import com.hphc.mystudies.util.StudyMetaDataConstants;
 import com.hphc.mystudies.util.StudyMetaDataEnum;
 import com.hphc.mystudies.util.StudyMetaDataUtil;
-import java.io.InputStream;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
-import javax.net.ssl.HttpsURLConnection;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.hibernate.Query;
@@ -748,8 +745,36 @@ public class ActivityMetaDataDao {
             }
           }
 
+          Map<String, List<FormMappingDto>> formMappings = new LinkedHashMap<>();
+          List<String> formQuestionIdList = new ArrayList<>();
+          if (!formIdList.isEmpty()) {
+            List<FormMappingDto> formMappingList =
+                session
+                    .createQuery(
+                        "from FormMappingDto FMDTO"
+                            + " where FMDTO.formId in (select FDTO.formId"
+                            + " from FormDto FDTO"
+                            + " where FDTO.formId in (:formIdList)"
+                            + ") and FMDTO.active=true"
+                            + " ORDER BY FMDTO.sequenceNo ")
+                    .setParameterList("formIdList", formIdList)
+                    .list();
+            for (FormMappingDto formMapping : formMappingList) {
+              formMappings
+                  .computeIfAbsent(formMapping.getFormId(), id -> new ArrayList<>())
+                  .add(formMapping);
+              formQuestionIdList.add(formMapping.getQuestionId());
+            }
+          }
+          QuestionnaireQuestionDetails questionDetails =
+              QuestionnaireQuestionDetails.load(session, questionIdList, formQuestionIdList);
+
           questionResponseTypeMasterInfoList =
-              session.createQuery("from QuestionResponsetypeMasterInfoDto").list();
+              session
+                  .createQuery("from QuestionResponsetypeMasterInfoDto")
+                  .setCacheable(true)
+                  .setCacheRegion("referenceQueries")
+                  .list();
           StudyDto studyDto =
               (StudyDto)
                   session
@@ -781,7 +806,8 @@ public class ActivityMetaDataDao {
                           null,
                           questionaireStepsList,
                           questionnaireDto,
-                          studyDto);
+                          studyDto,
+                          questionDetails);
             }
           }
 
@@ -809,23 +835,14 @@ public class ActivityMetaDataDao {
                           questionResponseTypeMasterInfoList,
                           questionaireStepsList,
                           questionnaireDto,
-                          studyDto);
+                          studyDto,
+                          questionDetails);
             }
           }
 
           if (!formIdList.isEmpty()) {
             for (String formId : formIdList) {
-              List<FormMappingDto> formList =
-                  session
-                      .createQuery(
-                          "from FormMappingDto FMDTO"
-                              + " where FMDTO.formId in (select FDTO.formId"
-                              + " from FormDto FDTO"
-                              + " where FDTO.formId=:formId"
-                              + ") and FMDTO.active=true"
-                              + " ORDER BY FMDTO.sequenceNo ")
-                      .setString("formId", formId)
-                      .list();
+              List<FormMappingDto> formList = formMappings.get(formId);
               if ((formList != null) && !formList.isEmpty()) {
                 stepsSequenceTreeMap =
                     (TreeMap<Integer, QuestionnaireActivityStepsBean>)
@@ -841,7 +858,8 @@ public class ActivityMetaDataDao {
                             questionResponseTypeMasterInfoList,
                             questionaireStepsList,
                             questionnaireDto,
-                            studyDto);
+                            studyDto,
+                            questionDetails);
               }
             }
           }
@@ -900,18 +918,9 @@ public class ActivityMetaDataDao {
     LOGGER.entry("begin getActiveTaskFrequencyDetailsForOneTime()");
     try {
       if (activeTask != null) {
-        ActivityFrequencyScheduleBean oneTimeBean = new ActivityFrequencyScheduleBean();
-        oneTimeBean.setStartTime(
-            StudyMetaDataUtil.getFormattedDateTimeZone(
-                activeTask.getActiveTaskLifetimeStart(),
-                StudyMetaDataConstants.SDF_DATE_PATTERN,
-                StudyMetaDataConstants.SDF_DATE_TIME_TIMEZONE_MILLISECONDS_PATTERN));
-        oneTimeBean.setEndTime(
-            StudyMetaDataUtil.getFormattedDateTimeZone(
-                activeTask.getActiveTaskLifetimeEnd(),
-                StudyMetaDataConstants.SDF_DATE_PATTERN,
-                StudyMetaDataConstants.SDF_DATE_TIME_TIMEZONE_MILLISECONDS_PATTERN));
-        runDetailsBean.add(oneTimeBean);
+        runDetailsBean.addAll(
+            ActivityScheduleEngine.oneTimeRuns(
+                activeTask.getActiveTaskLifetimeStart(), activeTask.getActiveTaskLifetimeEnd()));
       }
     } catch (Exception e) {
       LOGGER.error("ActivityMetaDataDao - getActiveTaskFrequencyDetailsForOneTime() :: ERROR", e);
@@ -926,9 +935,12 @@ public class ActivityMetaDataDao {
       throws DAOException {
     LOGGER.entry("begin getActiveTaskFrequencyDetailsForDaily()");
     try {
-      if ((activeTask.getScheduleType() != null)
-          && !activeTask.getScheduleType().isEmpty()
-          && activeTask.getScheduleType().equals(StudyMetaDataConstants.SCHEDULETYPE_ANCHORDATE)) {
+      if (((activeTask.getScheduleType() != null)
+              && activeTask
+                  .getScheduleType()
+                  .equals(StudyMetaDataConstants.SCHEDULETYPE_ANCHORDATE))
+          || (StringUtils.isNotEmpty(activeTask.getActiveTaskLifetimeStart())
+              && StringUtils.isNotEmpty(activeTask.getActiveTaskLifetimeEnd()))) {
         List<ActiveTaskFrequencyDto> activeTaskDailyFrequencyList =
             session
                 .createQuery(
@@ -938,67 +950,13 @@ public class ActivityMetaDataDao {
                 .setString(StudyMetaDataEnum.QF_ACTIVE_TASK_ID.value(), activeTask.getId())
                 .list();
         if ((activeTaskDailyFrequencyList != null) && !activeTaskDailyFrequencyList.isEmpty()) {
-          for (int i = 0; i < activeTaskDailyFrequencyList.size(); i++) {
-            ActivityFrequencyScheduleBean dailyBean = new ActivityFrequencyScheduleBean();
-            String activeTaskStartTime;
-            String activeTaskEndTime;
-            activeTaskStartTime = activeTaskDailyFrequencyList.get(i).getFrequencyTime();
-
-            if (i == (activeTaskDailyFrequencyList.size() - 1)) {
-              activeTaskEndTime = StudyMetaDataConstants.DEFAULT_MAX_TIME;
-            } else {
-              activeTaskEndTime =
-                  StudyMetaDataUtil.addSeconds(
-                      StudyMetaDataUtil.getCurrentDate()
-                          + " "
-                          + activeTaskDailyFrequencyList.get(i + 1).getFrequencyTime(),
-                      -1);
-              activeTaskEndTime = activeTaskEndTime.substring(11, activeTaskEndTime.length());
-            }
-
-            dailyBean.setStartTime(activeTaskStartTime);
-            dailyBean.setEndTime(activeTaskEndTime);
-            runDetailsBean.add(dailyBean);
-          }
-        }
-      } else {
-        if (StringUtils.isNotEmpty(activeTask.getActiveTaskLifetimeStart())
-            && StringUtils.isNotEmpty(activeTask.getActiveTaskLifetimeEnd())) {
-          List<ActiveTaskFrequencyDto> activeTaskDailyFrequencyList =
-              session
-                  .createQuery(
-                      "from ActiveTaskFrequencyDto ATFDTO"
-                          + " where ATFDTO.activeTaskId= :activeTaskId"
-                          + " ORDER BY ATFDTO.frequencyTime ")
-                  .setString(StudyMetaDataEnum.QF_ACTIVE_TASK_ID.value(), activeTask.getId())
-                  .list();
-          if ((activeTaskDailyFrequencyList != null) && !activeTaskDailyFrequencyList.isEmpty()) {
-            for (int i = 0; i < activeTaskDailyFrequencyList.size(); i++) {
-              ActivityFrequencyScheduleBean dailyBean = new ActivityFrequencyScheduleBean();
-              String activeTaskStartTime;
-              String activeTaskEndTime;
-              activeTaskStartTime = activeTaskDailyFrequencyList.get(i).getFrequencyTime();
-
-              if (i == (activeTaskDailyFrequencyList.size() - 1)) {
-                activeTaskEndTime = StudyMetaDataConstants.DEFAULT_MAX_TIME;
-              } else {
-                activeTaskEndTime =
-                    StudyMetaDataUtil.addSeconds(
-                        StudyMetaDataUtil.getCurrentDate()
-                            + " "
-                            + activeTaskDailyFrequencyList.get(i + 1).getFrequencyTime(),
-                        -1);
-                activeTaskEndTime = activeTaskEndTime.substring(11, activeTaskEndTime.length());
-              }
-
-              dailyBean.setStartTime(activeTaskStartTime);
-              dailyBean.setEndTime(activeTaskEndTime);
-              runDetailsBean.add(dailyBean);
-            }
+          List<String> frequencyTimes = new ArrayList<>();
+          for (ActiveTaskFrequencyDto activeTaskFrequencyDto : activeTaskDailyFrequencyList) {
+            frequencyTimes.add(activeTaskFrequencyDto.getFrequencyTime());
           }
+          runDetailsBean.addAll(ActivityScheduleEngine.dailyRuns(frequencyTimes));
         }
       }
-
     } catch (Exception e) {
       LOGGER.error("ActivityMetaDataDao - getActiveTaskFrequencyDetailsForDaily() :: ERROR", e);
     }
@@ -1014,70 +972,17 @@ public class ActivityMetaDataDao {
       if (StringUtils.isNotEmpty(activeTask.getActiveTaskLifetimeStart())
           && StringUtils.isNotEmpty(activeTask.getActiveTaskLifetimeEnd())
           && StringUtils.isNotEmpty(activeTask.getDayOfTheWeek())) {
-        Integer repeatCount =
+        int repeatCount =
             ((activeTask.getRepeatActiveTask() == null) || (activeTask.getRepeatActiveTask() == 0))
                 ? 1
                 : activeTask.getRepeatActiveTask();
-        String activeTaskDay = activeTask.getDayOfTheWeek();
-        String activeTaskStartDate = activeTask.getActiveTaskLifetimeStart();
-        while (repeatCount > 0) {
-          ActivityFrequencyScheduleBean weeklyBean = new ActivityFrequencyScheduleBean();
-          String activeTaskEndDate;
-          String day = "";
-          String weekEndDate;
-          boolean flag = false;
-          boolean skipLoop = false;
-
-          if (activeTaskDay.equalsIgnoreCase(StudyMetaDataUtil.getDayByDate(activeTaskStartDate))) {
-            day = activeTaskDay;
-          }
-
-          if (!activeTaskDay.equalsIgnoreCase(day)) {
-            while (!activeTaskDay.equalsIgnoreCase(day)) {
-              activeTaskStartDate = StudyMetaDataUtil.addDaysToDate(activeTaskStartDate, 1);
-              day = StudyMetaDataUtil.getDayByDate(activeTaskStartDate);
-            }
-          }
-
-          weekEndDate = StudyMetaDataUtil.addWeeksToDate(activeTaskStartDate, 1);
-          if ((StudyMetaDataConstants.SDF_DATE
-                  .parse(StudyMetaDataUtil.getCurrentDate())
-                  .equals(StudyMetaDataConstants.SDF_DATE.parse(weekEndDate)))
-              || (StudyMetaDataConstants.SDF_DATE
-                  .parse(StudyMetaDataUtil.getCurrentDate())
-                  .before(StudyMetaDataConstants.SDF_DATE.parse(weekEndDate)))) {
-            flag = true;
-          }
-
-          if (flag) {
-            activeTaskEndDate = weekEndDate;
-            if ((StudyMetaDataConstants.SDF_DATE
-                    .parse(weekEndDate)
-                    .equals(
-                        StudyMetaDataConstants.SDF_DATE.parse(
-                            activeTask.getActiveTaskLifetimeEnd())))
-                || (StudyMetaDataConstants.SDF_DATE
-                    .parse(weekEndDate)
-                    .after(
-                        StudyMetaDataConstants.SDF_DATE.parse(
-                            activeTask.getActiveTaskLifetimeEnd())))) {
-              activeTaskEndDate = activeTask.getActiveTaskLifetimeEnd();
-              skipLoop = true;
-            }
-
-            weeklyBean.setStartTime(activeTaskStartDate);
-            weeklyBean.setEndTime(activeTaskEndDate);
-            runDetailsBean.add(weeklyBean);
-
-            if (skipLoop) {
-              break;
-            }
-          }
-
-          activeTaskStartDate = weekEndDate;
-          activeTaskDay = day;
-          repeatCount--;
-        }
+        runDetailsBean.addAll(
+            ActivityScheduleEngine.weeklyRuns(
+                activeTask.getActiveTaskLifetimeStart(),
+                activeTask.getActiveTaskLifetimeEnd(),
+                activeTask.getDayOfTheWeek(),
+                repeatCount,
+                ActivityScheduleEngine.today()));
       }
     } catch (Exception e) {
       LOGGER.error("ActivityMetaDataDao - getActiveTaskFrequencyDetailsForWeekly() :: ERROR", e);
@@ -1093,56 +998,16 @@ public class ActivityMetaDataDao {
     try {
       if (StringUtils.isNotEmpty(activeTask.getActiveTaskLifetimeStart())
           && StringUtils.isNotEmpty(activeTask.getActiveTaskLifetimeEnd())) {
-        Integer repeatCount =
+        int repeatCount =
             ((activeTask.getRepeatActiveTask() == null) || (activeTask.getRepeatActiveTask() == 0))
                 ? 1
                 : activeTask.getRepeatActiveTask();
-        String activeTaskStartDate = activeTask.getActiveTaskLifetimeStart();
-        while (repeatCount > 0) {
-          ActivityFrequencyScheduleBean monthlyBean = new ActivityFrequencyScheduleBean();
-          String activeTaskEndDate;
-          String monthEndDate;
-          boolean flag = false;
-          boolean skipLoop = false;
-
-          monthEndDate = StudyMetaDataUtil.addMonthsToDate(activeTaskStartDate, 1);
-          if ((StudyMetaDataConstants.SDF_DATE
-                  .parse(StudyMetaDataUtil.getCurrentDate())
-                  .equals(StudyMetaDataConstants.SDF_DATE.parse(monthEndDate)))
-              || (StudyMetaDataConstants.SDF_DATE
-                  .parse(StudyMetaDataUtil.getCurrentDate())
-                  .before(StudyMetaDataConstants.SDF_DATE.parse(monthEndDate)))) {
-            flag = true;
-          }
-
-          if (flag) {
-            activeTaskEndDate = monthEndDate;
-            if ((StudyMetaDataConstants.SDF_DATE
-                    .parse(monthEndDate)
-                    .equals(
-                        StudyMetaDataConstants.SDF_DATE.parse(
-                            activeTask.getActiveTaskLifetimeEnd())))
-                || (StudyMetaDataConstants.SDF_DATE
-                    .parse(monthEndDate)
-                    .after(
-                        StudyMetaDataConstants.SDF_DATE.parse(
-                            activeTask.getActiveTaskLifetimeEnd())))) {
-              activeTaskEndDate = activeTask.getActiveTaskLifetimeEnd();
-              skipLoop = true;
-            }
-
-            monthlyBean.setStartTime(activeTaskStartDate);
-            monthlyBean.setEndTime(activeTaskEndDate);
-            runDetailsBean.add(monthlyBean);
-
-            if (skipLoop) {
-              break;
-            }
-          }
-
-          activeTaskStartDate = monthEndDate;
-          repeatCount--;
-        }
+        runDetailsBean.addAll(
+            ActivityScheduleEngine.monthlyRuns(
+                activeTask.getActiveTaskLifetimeStart(),
+                activeTask.getActiveTaskLifetimeEnd(),
+                repeatCount,
+                ActivityScheduleEngine.today()));
       }
     } catch (Exception e) {
       LOGGER.error("ActivityMetaDataDao - getActiveTaskFrequencyDetailsForMonthly() :: ERROR", e);
@@ -1167,44 +1032,12 @@ public class ActivityMetaDataDao {
               .list();
       if ((manuallyScheduleFrequencyList != null) && !manuallyScheduleFrequencyList.isEmpty()) {
         for (ActiveTaskCustomFrequenciesDto customFrequencyDto : manuallyScheduleFrequencyList) {
-          ActivityFrequencyScheduleBean manuallyScheduleBean = new ActivityFrequencyScheduleBean();
-
-          String frequencyStartTime = customFrequencyDto.getFrequencyStartTime();
-          if (!frequencyStartTime.matches("^([0-9]|0[0-9]|1[0-9]|2[0-3]):[0-5][0-9]:[0-5][0-9]$")) {
-            frequencyStartTime = frequencyStartTime + ":00";
-          }
-          String frequencyEndTime = customFrequencyDto.getFrequencyEndTime();
-          if (!frequencyEndTime.matches("^([0-9]|0[0-9]|1[0-9]|2[0-3]):[0-5][0-9]:[0-5][0-9]$")) {
-            frequencyEndTime = frequencyEndTime + ":00";
-          }
-
-          String startDate = customFrequencyDto.getFrequencyStartDate() + " " + frequencyStartTime;
-          String endDate = customFrequencyDto.getFrequencyEndDate() + " " + frequencyEndTime;
-
-          if (StringUtils.isNotBlank(customFrequencyDto.getFrequencyStartDate())) {
-            manuallyScheduleBean.setStartTime(
-                StudyMetaDataUtil.getFormattedDateTimeZone(
-                    startDate,
-                    StudyMetaDataConstants.SDF_DATE_TIME_PATTERN,
-                    StudyMetaDataConstants.SDF_DATE_TIME_TIMEZONE_MILLISECONDS_PATTERN));
-          } else if (StringUtils.isNotBlank(customFrequencyDto.getFrequencyEndDate())) {
-            manuallyScheduleBean.setStartTime(
-                StudyMetaDataUtil.getFormattedDateTimeZone(
-                    endDate,
-                    StudyMetaDataConstants.SDF_DATE_TIME_PATTERN,
-                    StudyMetaDataConstants.SDF_DATE_TIME_TIMEZONE_MILLISECONDS_PATTERN));
-          }
-
-          if (StringUtils.isNotBlank(customFrequencyDto.getFrequencyEndDate())) {
-            manuallyScheduleBean.setEndTime(
-                StudyMetaDataUtil.getFormattedDateTimeZone(
-                    endDate,
-                    StudyMetaDataConstants.SDF_DATE_TIME_PATTERN,
-                    StudyMetaDataConstants.SDF_DATE_TIME_TIMEZONE_MILLISECONDS_PATTERN));
-          } else {
-            manuallyScheduleBean.setEndTime("");
-          }
-          runDetailsBean.add(manuallyScheduleBean);
+          runDetailsBean.add(
+              ActivityScheduleEngine.manualRun(
+                  customFrequencyDto.getFrequencyStartDate(),
+                  customFrequencyDto.getFrequencyStartTime(),
+                  customFrequencyDto.getFrequencyEndDate(),
+                  customFrequencyDto.getFrequencyEndTime()));
         }
       }
     } catch (Exception e) {
@@ -1255,18 +1088,9 @@ public class ActivityMetaDataDao {
     LOGGER.entry("begin getQuestionnaireFrequencyDetailsForOneTime()");
     try {
       if (questionaire != null) {
-        ActivityFrequencyScheduleBean oneTimeBean = new ActivityFrequencyScheduleBean();
-        oneTimeBean.setStartTime(
-            StudyMetaDataUtil.getFormattedDateTimeZone(
-                questionaire.getStudyLifetimeStart(),
-                StudyMetaDataConstants.SDF_DATE_PATTERN,
-                StudyMetaDataConstants.SDF_DATE_TIME_TIMEZONE_MILLISECONDS_PATTERN));
-        oneTimeBean.setEndTime(
-            StudyMetaDataUtil.getFormattedDateTimeZone(
-                questionaire.getStudyLifetimeEnd(),
-                StudyMetaDataConstants.SDF_DATE_PATTERN,
-                StudyMetaDataConstants.SDF_DATE_TIME_TIMEZONE_MILLISECONDS_PATTERN));
-        runDetailsBean.add(oneTimeBean);
+        runDetailsBean.addAll(
+            ActivityScheduleEngine.oneTimeRuns(
+                questionaire.getStudyLifetimeStart(), questionaire.getStudyLifetimeEnd()));
       }
     } catch (Exception e) {
       LOGGER.error(
@@ -1285,11 +1109,12 @@ public class ActivityMetaDataDao {
     LOGGER.entry("begin getQuestionnaireFrequencyDetailsForDaily()");
     List<QuestionnairesFrequenciesDto> dailyFrequencyList = null;
     try {
-      if ((questionaire.getScheduleType() != null)
-          && !questionaire.getScheduleType().isEmpty()
-          && questionaire
-              .getScheduleType()
-              .equals(StudyMetaDataConstants.SCHEDULETYPE_ANCHORDATE)) {
+      if (((questionaire.getScheduleType() != null)
+              && questionaire
+                  .getScheduleType()
+                  .equals(StudyMetaDataConstants.SCHEDULETYPE_ANCHORDATE))
+          || (StringUtils.isNotEmpty(questionaire.getStudyLifetimeStart())
+              && StringUtils.isNotEmpty(questionaire.getStudyLifetimeEnd()))) {
         dailyFrequencyList =
             session
                 .createQuery(
@@ -1299,67 +1124,13 @@ public class ActivityMetaDataDao {
                 .setString("questRespId", questionaire.getId())
                 .list();
         if ((dailyFrequencyList != null) && !dailyFrequencyList.isEmpty()) {
-          for (int i = 0; i < dailyFrequencyList.size(); i++) {
-            ActivityFrequencyScheduleBean dailyBean = new ActivityFrequencyScheduleBean();
-            String activeTaskStartTime;
-            String activeTaskEndTime;
-            activeTaskStartTime = dailyFrequencyList.get(i).getFrequencyTime();
-
-            if (i == (dailyFrequencyList.size() - 1)) {
-              activeTaskEndTime = StudyMetaDataConstants.DEFAULT_MAX_TIME;
-            } else {
-              activeTaskEndTime =
-                  StudyMetaDataUtil.addSeconds(
-                      StudyMetaDataUtil.getCurrentDate()
-                          + " "
-                          + dailyFrequencyList.get(i + 1).getFrequencyTime(),
-                      -1);
-              activeTaskEndTime = activeTaskEndTime.substring(11, activeTaskEndTime.length());
-            }
-
-            dailyBean.setStartTime(activeTaskStartTime);
-            dailyBean.setEndTime(activeTaskEndTime);
-            runDetailsBean.add(dailyBean);
-          }
-        }
-      } else {
-        if (StringUtils.isNotEmpty(questionaire.getStudyLifetimeStart())
-            && StringUtils.isNotEmpty(questionaire.getStudyLifetimeEnd())) {
-          dailyFrequencyList =
-              session
-                  .createQuery(
-                      "from QuestionnairesFrequenciesDto QFDTO"
-                          + " where QFDTO.questionnairesId= :questRespId"
-                          + " ORDER BY QFDTO.frequencyTime")
-                  .setString("questRespId", questionaire.getId())
-                  .list();
-          if ((dailyFrequencyList != null) && !dailyFrequencyList.isEmpty()) {
-            for (int i = 0; i < dailyFrequencyList.size(); i++) {
-              ActivityFrequencyScheduleBean dailyBean = new ActivityFrequencyScheduleBean();
-              String activeTaskStartTime;
-              String activeTaskEndTime;
-              activeTaskStartTime = dailyFrequencyList.get(i).getFrequencyTime();
-
-              if (i == (dailyFrequencyList.size() - 1)) {
-                activeTaskEndTime = StudyMetaDataConstants.DEFAULT_MAX_TIME;
-              } else {
-                activeTaskEndTime =
-                    StudyMetaDataUtil.addSeconds(
-                        StudyMetaDataUtil.getCurrentDate()
-                            + " "
-                            + dailyFrequencyList.get(i + 1).getFrequencyTime(),
-                        -1);
-                activeTaskEndTime = activeTaskEndTime.substring(11, activeTaskEndTime.length());
-              }
-
-              dailyBean.setStartTime(activeTaskStartTime);
-              dailyBean.setEndTime(activeTaskEndTime);
-              runDetailsBean.add(dailyBean);
-            }
+          List<String> frequencyTimes = new ArrayList<>();
+          for (QuestionnairesFrequenciesDto questionnairesFrequenciesDto : dailyFrequencyList) {
+            frequencyTimes.add(questionnairesFrequenciesDto.getFrequencyTime());
           }
+          runDetailsBean.addAll(ActivityScheduleEngine.dailyRuns(frequencyTimes));
         }
       }
-
     } catch (Exception e) {
       LOGGER.error("ActivityMetaDataDao - getQuestionnaireFrequencyDetailsForDaily() :: ERROR", e);
     }
@@ -1375,71 +1146,18 @@ public class ActivityMetaDataDao {
       if (StringUtils.isNotEmpty(questionaire.getStudyLifetimeStart())
           && StringUtils.isNotEmpty(questionaire.getStudyLifetimeEnd())
           && StringUtils.isNotEmpty(questionaire.getDayOfTheWeek())) {
-        Integer repeatCount =
+        int repeatCount =
             ((questionaire.getRepeatQuestionnaire() == null)
                     || (questionaire.getRepeatQuestionnaire() == 0))
                 ? 1
                 : questionaire.getRepeatQuestionnaire();
-        String questionaireDay = questionaire.getDayOfTheWeek();
-        String questionaireStartDate = questionaire.getStudyLifetimeStart();
-        while (repeatCount > 0) {
-          ActivityFrequencyScheduleBean weeklyBean = new ActivityFrequencyScheduleBean();
-          String questionaireEndDate;
-          String day = "";
-          String weekEndDate;
-          boolean flag = false;
-          boolean skipLoop = false;
-
-          if (questionaireDay.equalsIgnoreCase(
-              StudyMetaDataUtil.getDayByDate(questionaireStartDate))) {
-            day = questionaireDay;
-          }
-
-          if (!questionaireDay.equalsIgnoreCase(day)) {
-            while (!questionaireDay.equalsIgnoreCase(day)) {
-              questionaireStartDate = StudyMetaDataUtil.addDaysToDate(questionaireStartDate, 1);
-              day = StudyMetaDataUtil.getDayByDate(questionaireStartDate);
-            }
-          }
-
-          weekEndDate = StudyMetaDataUtil.addWeeksToDate(questionaireStartDate, 1);
-          if ((StudyMetaDataConstants.SDF_DATE
-                  .parse(StudyMetaDataUtil.getCurrentDate())
-                  .equals(StudyMetaDataConstants.SDF_DATE.parse(weekEndDate)))
-              || (StudyMetaDataConstants.SDF_DATE
-                  .parse(StudyMetaDataUtil.getCurrentDate())
-                  .before(StudyMetaDataConstants.SDF_DATE.parse(weekEndDate)))) {
-            flag = true;
-          }
-
-          if (flag) {
-            questionaireEndDate = weekEndDate;
-            if ((StudyMetaDataConstants.SDF_DATE
-                    .parse(weekEndDate)
-                    .equals(
-                        StudyMetaDataConstants.SDF_DATE.parse(questionaire.getStudyLifetimeEnd())))
-                || (StudyMetaDataConstants.SDF_DATE
-                    .parse(weekEndDate)
-                    .after(
-                        StudyMetaDataConstants.SDF_DATE.parse(
-                            questionaire.getStudyLifetimeEnd())))) {
-              questionaireEndDate = questionaire.getStudyLifetimeEnd();
-              skipLoop = true;
-            }
-
-            weeklyBean.setStartTime(questionaireStartDate);
-            weeklyBean.setEndTime(questionaireEndDate);
-            runDetailsBean.add(weeklyBean);
-
-            if (skipLoop) {
-              break;
-            }
-          }
-
-          questionaireStartDate = weekEndDate;
-          questionaireDay = day;
-          repeatCount--;
-        }
+        runDetailsBean.addAll(
+            ActivityScheduleEngine.weeklyRuns(
+                questionaire.getStudyLifetimeStart(),
+                questionaire.getStudyLifetimeEnd(),
+                questionaire.getDayOfTheWeek(),
+                repeatCount,
+                ActivityScheduleEngine.today()));
       }
     } catch (Exception e) {
       LOGGER.error("ActivityMetaDataDao - getQuestionnaireFrequencyDetailsForWeekly() :: ERROR", e);
@@ -1455,55 +1173,17 @@ public class ActivityMetaDataDao {
     try {
       if (StringUtils.isNotEmpty(questionaire.getStudyLifetimeStart())
           && StringUtils.isNotEmpty(questionaire.getStudyLifetimeEnd())) {
-        Integer repeatCount =
+        int repeatCount =
             ((questionaire.getRepeatQuestionnaire() == null)
                     || (questionaire.getRepeatQuestionnaire() == 0))
                 ? 1
                 : questionaire.getRepeatQuestionnaire();
-        String questionaireStartDate = questionaire.getStudyLifetimeStart();
-        while (repeatCount > 0) {
-          ActivityFrequencyScheduleBean monthlyBean = new ActivityFrequencyScheduleBean();
-          String questionaireEndDate;
-          String monthEndDate;
-          boolean flag = false;
-          boolean skipLoop = false;
-
-          monthEndDate = StudyMetaDataUtil.addMonthsToDate(questionaireStartDate, 1);
-          if ((StudyMetaDataConstants.SDF_DATE
-                  .parse(StudyMetaDataUtil.getCurrentDate())
-                  .equals(StudyMetaDataConstants.SDF_DATE.parse(monthEndDate)))
-              || (StudyMetaDataConstants.SDF_DATE
-                  .parse(StudyMetaDataUtil.getCurrentDate())
-                  .before(StudyMetaDataConstants.SDF_DATE.parse(monthEndDate)))) {
-            flag = true;
-          }
-
-          if (flag) {
-            questionaireEndDate = monthEndDate;
-            if ((StudyMetaDataConstants.SDF_DATE
-                    .parse(monthEndDate)
-                    .equals(
-                        StudyMetaDataConstants.SDF_DATE.parse(questionaire.getStudyLifetimeEnd())))
-                || (StudyMetaDataConstants.SDF_DATE
-                    .parse(monthEndDate)
-                    .after(
-                        StudyMetaDataConstants.SDF_DATE.parse(
-                            questionaire.getStudyLifetimeEnd())))) {
-              questionaireEndDate = questionaire.getStudyLifetimeEnd();
-              skipLoop = true;
-            }
-            monthlyBean.setStartTime(questionaireStartDate);
-            monthlyBean.setEndTime(questionaireEndDate);
-            runDetailsBean.add(monthlyBean);
-
-            if (skipLoop) {
-              break;
-            }
-          }
-
-          questionaireStartDate = monthEndDate;
-          repeatCount--;
-        }
+        runDetailsBean.addAll(
+            ActivityScheduleEngine.monthlyRuns(
+                questionaire.getStudyLifetimeStart(),
+                questionaire.getStudyLifetimeEnd(),
+                repeatCount,
+                ActivityScheduleEngine.today()));
       }
     } catch (Exception e) {
       LOGGER.error(
@@ -1520,8 +1200,6 @@ public class ActivityMetaDataDao {
       Session session)
       throws DAOException {
     LOGGER.entry("begin getQuestionnaireFrequencyDetailsForManuallySchedule()");
-    String frequencyEndTime = "";
-    String frequencyStartTime = "";
     try {
 
       List<QuestionnairesCustomFrequenciesDto> manuallyScheduleFrequencyList =
@@ -1535,42 +1213,12 @@ public class ActivityMetaDataDao {
       if ((manuallyScheduleFrequencyList != null) && !manuallyScheduleFrequencyList.isEmpty()) {
         for (QuestionnairesCustomFrequenciesDto customFrequencyDto :
             manuallyScheduleFrequencyList) {
-          ActivityFrequencyScheduleBean manuallyScheduleBean = new ActivityFrequencyScheduleBean();
-          frequencyEndTime = customFrequencyDto.getFrequencyEndTime();
-          frequencyStartTime = customFrequencyDto.getFrequencyStartTime();
-
-          if (!frequencyStartTime.matches("^([0-9]|0[0-9]|1[0-9]|2[0-3]):[0-5][0-9]:[0-5][0-9]$")) {
-            frequencyStartTime = frequencyStartTime + ":00";
-          }
-          if (!frequencyEndTime.matches("^([0-9]|0[0-9]|1[0-9]|2[0-3]):[0-5][0-9]:[0-5][0-9]$")) {
-            frequencyEndTime = frequencyEndTime + ":00";
-          }
-
-          if (StringUtils.isNotBlank(customFrequencyDto.getFrequencyEndDate())) {
-            manuallyScheduleBean.setEndTime(
-                StudyMetaDataUtil.getFormattedDateTimeZone(
-                    customFrequencyDto.getFrequencyEndDate() + " " + frequencyEndTime,
-                    StudyMetaDataConstants.SDF_DATE_TIME_PATTERN,
-                    StudyMetaDataConstants.SDF_DATE_TIME_TIMEZONE_MILLISECONDS_PATTERN));
-          } else {
-            manuallyScheduleBean.setEndTime("");
-          }
-
-          if (StringUtils.isNotBlank(customFrequencyDto.getFrequencyStartDate())) {
-            manuallyScheduleBean.setStartTime(
-                StudyMetaDataUtil.getFormattedDateTimeZone(
-                    customFrequencyDto.getFrequencyStartDate() + " " + frequencyStartTime,
-                    StudyMetaDataConstants.SDF_DATE_TIME_PATTERN,
-                    StudyMetaDataConstants.SDF_DATE_TIME_TIMEZONE_MILLISECONDS_PATTERN));
-          } else if (StringUtils.isNotBlank(customFrequencyDto.getFrequencyEndDate())) {
-            manuallyScheduleBean.setStartTime(
-                StudyMetaDataUtil.getFormattedDateTimeZone(
-                    customFrequencyDto.getFrequencyEndDate() + " " + frequencyEndTime,
-                    StudyMetaDataConstants.SDF_DATE_TIME_PATTERN,
-                    StudyMetaDataConstants.SDF_DATE_TIME_TIMEZONE_MILLISECONDS_PATTERN));
-          }
-
-          runDetailsBean.add(manuallyScheduleBean);
+          runDetailsBean.add(
+              ActivityScheduleEngine.manualRun(
+                  customFrequencyDto.getFrequencyStartDate(),
+                  customFrequencyDto.getFrequencyStartTime(),
+                  customFrequencyDto.getFrequencyEndDate(),
+                  customFrequencyDto.getFrequencyEndTime()));
         }
       }
     } catch (Exception e) {
@@ -1594,7 +1242,8 @@ public class ActivityMetaDataDao {
       List<QuestionResponsetypeMasterInfoDto> questionResponseTypeMasterInfoList,
       List<QuestionnairesStepsDto> questionaireStepsList,
       QuestionnairesDto questionnaireDto,
-      StudyDto studyDto)
+      StudyDto studyDto,
+      QuestionnaireQuestionDetails questionDetails)
       throws DAOException {
     LOGGER.entry("begin getStepsInfoForQuestionnaires()");
     TreeMap<Integer, QuestionnaireActivityStepsBean> stepsOrderSequenceTreeMap = new TreeMap<>();
@@ -1621,7 +1270,8 @@ public class ActivityMetaDataDao {
                       questionResponseTypeMasterInfoList,
                       questionaireStepsList,
                       questionnaireDto,
-                      studyDto);
+                      studyDto,
+                      questionDetails);
           break;
         case StudyMetaDataConstants.QUESTIONAIRE_STEP_TYPE_FORM:
           stepsOrderSequenceTreeMap =
@@ -1629,11 +1279,11 @@ public class ActivityMetaDataDao {
                   this.getFormDetailsForQuestionnaire(
                       formsList,
                       sequenceNoMap,
-                      session,
                       stepsSequenceTreeMap,
                       questionnaireStepDetailsMap,
                       questionResponseTypeMasterInfoList,
-                      studyDto);
+                      studyDto,
+                      questionDetails);
           break;
         default:
           break;
@@ -1727,7 +1377,8 @@ public class ActivityMetaDataDao {
       List<QuestionResponsetypeMasterInfoDto> questionResponseTypeMasterInfoList,
       List<QuestionnairesStepsDto> questionaireStepsList,
       QuestionnairesDto questionnaireDto,
-      StudyDto studyDto)
+      StudyDto studyDto,
+      QuestionnaireQuestionDetails questionDetails)
       throws DAOException {
     LOGGER.entry("begin getQuestionDetailsForQuestionnaire()");
     List<QuestionResponseSubTypeDto> destinationConditionList = null;
@@ -1750,7 +1401,7 @@ public class ActivityMetaDataDao {
                 questionBean.setResultType(masterInfo.getResponseTypeCode());
                 questionBean.setFormat(
                     this.getQuestionaireQuestionFormatByType(
-                        questionsDto, masterInfo.getResponseTypeCode(), session, studyDto));
+                        questionsDto, masterInfo.getResponseTypeCode(), questionDetails, studyDto));
                 break;
               }
             }
@@ -1788,13 +1439,7 @@ public class ActivityMetaDataDao {
            * response types
            */
           if (!questionsDto.getResponseType().equals(String.valueOf(4))) {
-            destinationConditionList =
-                session
-                    .createQuery(
-                        "from QuestionResponseSubTypeDto QRSTDTO"
-                            + " where QRSTDTO.responseTypeId= :responseTypeId")
-                    .setString(StudyMetaDataEnum.QF_RESPONSE_TYPE_ID.value(), questionsDto.getId())
-                    .list();
+            destinationConditionList = questionDetails.responseSubTypes(questionsDto.getId());
             if ((destinationConditionList != null) && !destinationConditionList.isEmpty()) {
               for (QuestionResponseSubTypeDto destinationDto : destinationConditionList) {
                 DestinationBean destination = new DestinationBean();
@@ -1843,16 +1488,7 @@ public class ActivityMetaDataDao {
           if (Arrays.asList(StudyMetaDataConstants.CB_RESPONSE_TYPE.split(","))
                   .contains(questionBean.getResultType())
               && questionnaireDto.getBranching()) {
-            QuestionReponseTypeDto reponseType =
-                (QuestionReponseTypeDto)
-                    session
-                        .createQuery(
-                            "from QuestionReponseTypeDto QRTDTO"
-                                + " where QRTDTO.questionsResponseTypeId=:questRespType"
-                                + " ORDER BY QRTDTO.responseTypeId DESC")
-                        .setString("questRespType", questionsDto.getId())
-                        .setMaxResults(1)
-                        .uniqueResult();
+            QuestionReponseTypeDto reponseType = questionDetails.responseType(questionsDto.getId());
             if ((reponseType != null)
                 && StringUtils.isNotEmpty(reponseType.getFormulaBasedLogic())
                 && reponseType
@@ -1912,15 +1548,7 @@ public class ActivityMetaDataDao {
 
           /** other type add destination if there start */
           QuestionReponseTypeDto otherReponseSubType =
-              (QuestionReponseTypeDto)
-                  session
-                      .createQuery(
-                          "from QuestionReponseTypeDto QRTDTO"
-                              + " where QRTDTO.questionsResponseTypeId=:questRespType"
-                              + " ORDER BY QRTDTO.responseTypeId DESC")
-                      .setString("questRespType", questionsDto.getId())
-                      .setMaxResults(1)
-                      .uniqueResult();
+              questionDetails.responseType(questionsDto.getId());
 
           if ((otherReponseSubType != null)
               && (otherReponseSubType.getOtherType() != null)
@@ -1995,11 +1623,11 @@ public class ActivityMetaDataDao {
   public SortedMap<Integer, QuestionnaireActivityStepsBean> getFormDetailsForQuestionnaire(
       List<FormMappingDto> formsList,
       Map<String, Integer> sequenceNoMap,
-      Session session,
       SortedMap<Integer, QuestionnaireActivityStepsBean> stepsSequenceTreeMap,
       Map<String, QuestionnairesStepsDto> questionnaireStepDetailsMap,
       List<QuestionResponsetypeMasterInfoDto> questionResponseTypeMasterInfoList,
-      StudyDto studyDto)
+      StudyDto studyDto,
+      QuestionnaireQuestionDetails questionDetails)
       throws DAOException {
     LOGGER.entry("begin getFormDetailsForQuestionnaire()");
     try {
@@ -2059,13 +1687,14 @@ public class ActivityMetaDataDao {
           destinations.add(dest);
           formBean.setDestinations(destinations);
 
-          List<QuestionsDto> formQuestionsList;
-          formQuestionsList =
-              session
-                  .createQuery("from QuestionsDto QDTO where QDTO.id in (:formQuestionIdsList)")
-                  .setParameterList("formQuestionIdsList", formQuestionIdsList)
-                  .list();
-          if ((formQuestionsList != null) && !formQuestionsList.isEmpty()) {
+          List<QuestionsDto> formQuestionsList = new ArrayList<>();
+          for (String formQuestionId : new LinkedHashSet<>(formQuestionIdsList)) {
+            QuestionsDto formQuestionDto = questionDetails.formQuestion(formQuestionId);
+            if (formQuestionDto != null) {
+              formQuestionsList.add(formQuestionDto);
+            }
+          }
+          if (!formQuestionsList.isEmpty()) {
             for (QuestionsDto formQuestionDto : formQuestionsList) {
               QuestionnaireStepsBean formQuestionBean = new QuestionnaireStepsBean();
               formQuestionBean.setType(
@@ -2077,7 +1706,10 @@ public class ActivityMetaDataDao {
                     formQuestionBean.setResultType(masterInfo.getResponseTypeCode());
                     formQuestionBean.setFormat(
                         this.getQuestionaireQuestionFormatByType(
-                            formQuestionDto, masterInfo.getResponseTypeCode(), session, studyDto));
+                            formQuestionDto,
+                            masterInfo.getResponseTypeCode(),
+                            questionDetails,
+                            studyDto));
                     break;
                   }
                 }
@@ -2256,23 +1888,17 @@ public class ActivityMetaDataDao {
   }
 
   public Map<String, Object> getQuestionaireQuestionFormatByType(
-      QuestionsDto questionDto, String questionResultType, Session session, StudyDto studyDto)
+      QuestionsDto questionDto,
+      String questionResultType,
+      QuestionnaireQuestionDetails questionDetails,
+      StudyDto studyDto)
       throws DAOException {
     LOGGER.entry("begin getQuestionaireQuestionFormatByType()");
     Map<String, Object> questionFormat = new LinkedHashMap<>();
     QuestionReponseTypeDto reponseType = null;
     try {
       if (StringUtils.isNotEmpty(questionResultType)) {
-        reponseType =
-            (QuestionReponseTypeDto)
-                session
-                    .createQuery(
-                        "from QuestionReponseTypeDto QRTDTO"
-                            + " where QRTDTO.questionsResponseTypeId=:questionsResponseTypeId"
-                            + " ORDER BY QRTDTO.responseTypeId DESC")
-                    .setString("questionsResponseTypeId", questionDto.getId())
-                    .setMaxResults(1)
-                    .uniqueResult();
+        reponseType = questionDetails.responseType(questionDto.getId());
         switch (questionResultType) {
           case StudyMetaDataConstants.QUESTION_SCALE:
             questionFormat = this.formatQuestionScaleDetails(reponseType, studyDto);
@@ -2281,17 +1907,19 @@ public class ActivityMetaDataDao {
             questionFormat = this.formatQuestionContinuousScaleDetails(reponseType, studyDto);
             break;
           case StudyMetaDataConstants.QUESTION_TEXT_SCALE:
-            questionFormat = this.formatQuestionTextScaleDetails(questionDto, reponseType, session);
+            questionFormat =
+                this.formatQuestionTextScaleDetails(questionDto, reponseType, questionDetails);
             break;
           case StudyMetaDataConstants.QUESTION_VALUE_PICKER:
-            questionFormat = this.formatQuestionValuePickerDetails(questionDto, session);
+            questionFormat = this.formatQuestionValuePickerDetails(questionDto, questionDetails);
             break;
           case StudyMetaDataConstants.QUESTION_IMAGE_CHOICE:
-            questionFormat = this.formatQuestionImageChoiceDetails(questionDto, session, studyDto);
+            questionFormat =
+                this.formatQuestionImageChoiceDetails(questionDto, questionDetails, studyDto);
             break;
           case StudyMetaDataConstants.QUESTION_TEXT_CHOICE:
             questionFormat =
-                this.formatQuestionTextChoiceDetails(questionDto, reponseType, session);
+                this.formatQuestionTextChoiceDetails(questionDto, reponseType, questionDetails);
             break;
           case StudyMetaDataConstants.QUESTION_NUMERIC:
             questionFormat = this.formatQuestionNumericDetails(reponseType);
@@ -2512,20 +2140,16 @@ public class ActivityMetaDataDao {
 
   @SuppressWarnings("unchecked")
   public Map<String, Object> formatQuestionTextScaleDetails(
-      QuestionsDto questionDto, QuestionReponseTypeDto reponseType, Session session)
+      QuestionsDto questionDto,
+      QuestionReponseTypeDto reponseType,
+      QuestionnaireQuestionDetails questionDetails)
       throws DAOException {
     LOGGER.entry("begin formatQuestionTextScaleDetails()");
     Map<String, Object> questionFormat = new LinkedHashMap<>();
     List<QuestionResponseSubTypeDto> responseSubTypeList = null;
     List<LinkedHashMap<String, Object>> textChoicesList = new ArrayList<>();
     try {
-      responseSubTypeList =
-          session
-              .createQuery(
-                  "from QuestionResponseSubTypeDto QRSTDTO"
-                      + " where QRSTDTO.responseTypeId= :respType")
-              .setString("respType", questionDto.getId())
-              .list();
+      responseSubTypeList = questionDetails.responseSubTypes(questionDto.getId());
       if ((responseSubTypeList != null) && !responseSubTypeList.isEmpty()) {
         for (QuestionResponseSubTypeDto subType : responseSubTypeList) {
           LinkedHashMap<String, Object> textScaleMap = new LinkedHashMap<>();
@@ -2563,19 +2187,13 @@ public class ActivityMetaDataDao {
 
   @SuppressWarnings("unchecked")
   public Map<String, Object> formatQuestionValuePickerDetails(
-      QuestionsDto questionDto, Session session) throws DAOException {
+      QuestionsDto questionDto, QuestionnaireQuestionDetails questionDetails) throws DAOException {
     LOGGER.entry("begin formatQuestionValuePickerDetails()");
     Map<String, Object> questionFormat = new LinkedHashMap<>();
     List<QuestionResponseSubTypeDto> responseSubTypeList = null;
     List<LinkedHashMap<String, Object>> valuePickerList = new ArrayList<>();
     try {
-      responseSubTypeList =
-          session
-              .createQuery(
-                  "from QuestionResponseSubTypeDto QRSTDTO"
-                      + " where QRSTDTO.responseTypeId= :respType")
-              .setString("respType", questionDto.getId())
-              .list();
+      responseSubTypeList = questionDetails.responseSubTypes(questionDto.getId());
       if ((responseSubTypeList != null) && !responseSubTypeList.isEmpty()) {
         for (QuestionResponseSubTypeDto subType : responseSubTypeList) {
           LinkedHashMap<String, Object> valuePickerMap = new LinkedHashMap<>();
@@ -2604,19 +2222,14 @@ public class ActivityMetaDataDao {
 
   @SuppressWarnings("unchecked")
   public Map<String, Object> formatQuestionImageChoiceDetails(
-      QuestionsDto questionDto, Session session, StudyDto studyDto) throws DAOException {
+      QuestionsDto questionDto, QuestionnaireQuestionDetails questionDetails, StudyDto studyDto)
+      throws DAOException {
     LOGGER.info("INFO: ActivityMetaDataDao - formatQuestionImageChoiceDetails() :: Starts");
     Map<String, Object> questionFormat = new LinkedHashMap<>();
     List<QuestionResponseSubTypeDto> responseSubTypeList = null;
     List<LinkedHashMap<String, Object>> imageChoicesList = new ArrayList<>();
     try {
-      responseSubTypeList =
-          session
-              .createQuery(
-                  "from QuestionResponseSubTypeDto QRSTDTO"
-                      + " where QRSTDTO.responseTypeId=:respType")
-              .setString("respType", questionDto.getId())
-              .list();
+      responseSubTypeList = questionDetails.responseSubTypes(questionDto.getId());
       if ((responseSubTypeList != null) && !responseSubTypeList.isEmpty()) {
         for (QuestionResponseSubTypeDto subType : responseSubTypeList) {
           LinkedHashMap<String, Object> imageChoiceMap = new LinkedHashMap<>();
@@ -2663,20 +2276,16 @@ public class ActivityMetaDataDao {
 
   @SuppressWarnings("unchecked")
   public Map<String, Object> formatQuestionTextChoiceDetails(
-      QuestionsDto questionDto, QuestionReponseTypeDto reponseType, Session session)
+      QuestionsDto questionDto,
+      QuestionReponseTypeDto reponseType,
+      QuestionnaireQuestionDetails questionDetails)
       throws DAOException {
     LOGGER.entry("begin formatQuestionTextChoiceDetails()");
     Map<String, Object> questionFormat = new LinkedHashMap<>();
     List<QuestionResponseSubTypeDto> responseSubTypeList = null;
     List<LinkedHashMap<String, Object>> textChoiceMapList = new ArrayList<>();
     try {
-      responseSubTypeList =
-          session
-              .createQuery(
-                  "from QuestionResponseSubTypeDto QRSTDTO"
-                      + " where QRSTDTO.responseTypeId=:respType")
-              .setString("respType", questionDto.getId())
-              .list();
+      responseSubTypeList = questionDetails.responseSubTypes(questionDto.getId());
       if ((responseSubTypeList != null) && !responseSubTypeList.isEmpty()) {
         for (QuestionResponseSubTypeDto subType : responseSubTypeList) {
           LinkedHashMap<String, Object> textChoiceMap = new LinkedHashMap<>();
@@ -2698,15 +2307,7 @@ public class ActivityMetaDataDao {
       }
       /** other type add destination if there start */
       QuestionReponseTypeDto otherReponseSubType =
-          (QuestionReponseTypeDto)
-              session
-                  .createQuery(
-                      "from QuestionReponseTypeDto QRTDTO"
-                          + " where QRTDTO.questionsResponseTypeId=:quesRespId"
-                          + " ORDER BY QRTDTO.responseTypeId DESC")
-                  .setString("quesRespId", questionDto.getId())
-                  .setMaxResults(1)
-                  .uniqueResult();
+          questionDetails.responseType(questionDto.getId());
 
       if ((otherReponseSubType != null)
           && (otherReponseSubType.getOtherType() != null)
@@ -3384,28 +2985,6 @@ public class ActivityMetaDataDao {
     return destinationBean;
   }
 
-  public String getBase64Image(String imagePath) throws DAOException {
-    LOGGER.entry("begin getBase64Image()");
-    String base64Image = "";
-    byte[] imageBytes = null;
-    try {
-      URL url = new URL(imagePath);
-      if ("https".equalsIgnoreCase(url.getProtocol())) {
-        HttpsURLConnection con = (HttpsURLConnection) url.openConnection();
-        InputStream ins = con.getInputStream();
-        imageBytes = IOUtils.toByteArray(ins);
-      } else {
-        imageBytes = IOUtils.toByteArray(new URL(imagePath));
-      }
-
-      base64Image = Base64.getEncoder().encodeToString(imageBytes);
-    } catch (Exception e) {
-      LOGGER.error("ActivityMetaDataDao - getBase64Image() :: ERROR", e);
-    }
-    LOGGER.exit("getBase64Image() :: Ends");
-    return base64Image;
-  }
-
   public Integer getScaleStepCount(Integer step, Integer maxValue, Integer minValue)
       throws DAOException {
     LOGGER.entry("begin getScaleStepCount()");
@@ -4547,13 +4126,8 @@ public class ActivityMetaDataDao {
                     : customFrequencyDto.getTimePeriodFromDays());
           }
 
-          String frequencyStartTime = customFrequencyDto.getFrequencyStartTime();
-          if (null != frequencyStartTime
-              && !frequencyStartTime.matches(
-                  "^([0-9]|0[0-9]|1[0-9]|2[0-3]):[0-5][0-9]:[0-5][0-9]$")) {
-            frequencyStartTime = frequencyStartTime + ":00";
-          }
-          activityFrequencyAnchorRunsBean.setStartTime(frequencyStartTime);
+          activityFrequencyAnchorRunsBean.setStartTime(
+              ActivityScheduleEngine.normalizeTime(customFrequencyDto.getFrequencyStartTime()));
 
           if (null != customFrequencyDto.getTimePeriodToDays()) {
             activityFrequencyAnchorRunsBean.setEndDays(
@@ -4562,13 +4136,8 @@ public class ActivityMetaDataDao {
                     : customFrequencyDto.getTimePeriodToDays());
           }
 
-          String frequencyEndTime = customFrequencyDto.getFrequencyEndTime();
-          if (null != frequencyEndTime
-              && !frequencyEndTime.matches(
-                  "^([0-9]|0[0-9]|1[0-9]|2[0-3]):[0-5][0-9]:[0-5][0-9]$")) {
-            frequencyEndTime = frequencyEndTime + ":00";
-          }
-          activityFrequencyAnchorRunsBean.setEndTime(frequencyEndTime);
+          activityFrequencyAnchorRunsBean.setEndTime(
+              ActivityScheduleEngine.normalizeTime(customFrequencyDto.getFrequencyEndTime()));
           anchorRunDetailsBean.add(activityFrequencyAnchorRunsBean);
         }
       }
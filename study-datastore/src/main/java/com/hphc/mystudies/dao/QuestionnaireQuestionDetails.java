@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2017-2018 Harvard Pilgrim Health Care Institute (HPHCI) and its Contributors.
+ * Copyright 2020-2021 Google LLC
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ *
+ * Funding Source: Food and Drug Administration ("Funding Agency") effective 18 September 2014 as Contract no.
+ * HHSF22320140030I/HHSF22301006T (the "Prime Contract").
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hphc.mystudies.dao;
+
+import com.hphc.mystudies.dto.QuestionReponseTypeDto;
+import com.hphc.mystudies.dto.QuestionResponseSubTypeDto;
+import com.hphc.mystudies.dto.QuestionsDto;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.hibernate.Session;
+
+/**
+ * Rows of the questions of a questionnaire that are needed to build its steps: the questions of
+ * its forms, and the response type and response sub types of every question. They are loaded with
+ * one query per table for the whole questionnaire instead of queries per question.
+ */
+class QuestionnaireQuestionDetails {
+
+  private final Map<String, QuestionsDto> formQuestions = new HashMap<>();
+
+  private final Map<String, QuestionReponseTypeDto> responseTypes = new HashMap<>();
+
+  private final Map<String, List<QuestionResponseSubTypeDto>> responseSubTypes = new HashMap<>();
+
+  @SuppressWarnings("unchecked")
+  static QuestionnaireQuestionDetails load(
+      Session session, Collection<String> questionIds, Collection<String> formQuestionIds) {
+    QuestionnaireQuestionDetails details = new QuestionnaireQuestionDetails();
+    if (!formQuestionIds.isEmpty()) {
+      List<QuestionsDto> formQuestionsList =
+          session
+              .createQuery("from QuestionsDto QDTO where QDTO.id in (:formQuestionIdsList)")
+              .setParameterList("formQuestionIdsList", formQuestionIds)
+              .list();
+      for (QuestionsDto formQuestion : formQuestionsList) {
+        details.formQuestions.put(formQuestion.getId(), formQuestion);
+      }
+    }
+
+    List<String> allQuestionIds = new ArrayList<>(questionIds);
+    allQuestionIds.addAll(formQuestionIds);
+    if (allQuestionIds.isEmpty()) {
+      return details;
+    }
+
+    // the latest response type of a question is the one used
+    List<QuestionReponseTypeDto> responseTypeList =
+        session
+            .createQuery(
+                "from QuestionReponseTypeDto QRTDTO"
+                    + " where QRTDTO.questionsResponseTypeId in (:questionIdList)"
+                    + " ORDER BY QRTDTO.responseTypeId DESC")
+            .setParameterList("questionIdList", allQuestionIds)
+            .list();
+    for (QuestionReponseTypeDto responseType : responseTypeList) {
+      details.responseTypes.putIfAbsent(responseType.getQuestionsResponseTypeId(), responseType);
+    }
+
+    List<QuestionResponseSubTypeDto> responseSubTypeList =
+        session
+            .createQuery(
+                "from QuestionResponseSubTypeDto QRSTDTO"
+                    + " where QRSTDTO.responseTypeId in (:questionIdList)"
+                    + " ORDER BY QRSTDTO.responseSubTypeValueId")
+            .setParameterList("questionIdList", allQuestionIds)
+            .list();
+    for (QuestionResponseSubTypeDto responseSubType : responseSubTypeList) {
+      details
+          .responseSubTypes
+          .computeIfAbsent(responseSubType.getResponseTypeId(), id -> new ArrayList<>())
+          .add(responseSubType);
+    }
+    return details;
+  }
+
+  /** @return the question of a form, or null if there is no question with the id */
+  QuestionsDto formQuestion(String questionId) {
+    return formQuestions.get(questionId);
+  }
+
+  /** @return the latest response type of the question, or null if it has none */
+  QuestionReponseTypeDto responseType(String questionId) {
+    return responseTypes.get(questionId);
+  }
+
+  /** @return the response sub types of the question, e.g. its choices */
+  List<QuestionResponseSubTypeDto> responseSubTypes(String questionId) {
+    List<QuestionResponseSubTypeDto> subTypes = responseSubTypes.get(questionId);
+    return subTypes == null ? Collections.<QuestionResponseSubTypeDto>emptyList() : subTypes;
+  }
+}
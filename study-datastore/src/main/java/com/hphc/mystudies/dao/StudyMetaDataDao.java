@@ -326,6 +326,8 @@ public class StudyMetaDataDao {
               List<ReferenceTablesDto> referenceTablesList =
                   session
                       .createQuery("from ReferenceTablesDto RTDTO where RTDTO.id IN (:category)")
+                      .setCacheable(true)
+                      .setCacheRegion("referenceQueries")
                       .setString("category", studyDto.getCategory())
                       .list();
               if ((null != referenceTablesList) && !referenceTablesList.isEmpty()) {
@@ -1442,6 +1444,30 @@ public class StudyMetaDataDao {
     return isValidStudy;
   }
 
+  public StudyDto liveStudy(String studyId) throws DAOException {
+    LOGGER.entry("begin liveStudy()");
+    Session session = null;
+    StudyDto studyDto = null;
+    try {
+      session = sessionFactory.openSession();
+      studyDto =
+          (StudyDto)
+              session
+                  .getNamedQuery("getLiveStudyIdByCustomStudyId")
+                  .setString(StudyMetaDataEnum.QF_CUSTOM_STUDY_ID.value(), studyId)
+                  .setMaxResults(1)
+                  .uniqueResult();
+    } catch (Exception e) {
+      LOGGER.error("StudyMetaDataDao - liveStudy() :: ERROR", e);
+    } finally {
+      if (session != null) {
+        session.close();
+      }
+    }
+    LOGGER.exit("liveStudy() :: Ends");
+    return studyDto;
+  }
+
   public boolean isValidActivity(String activityId, String studyId, String activityVersion)
       throws DAOException {
     LOGGER.entry("begin isValidActivity()");
@@ -1690,6 +1716,8 @@ public class StudyMetaDataDao {
               List<ReferenceTablesDto> referenceTablesList =
                   session
                       .createQuery("from ReferenceTablesDto RTDTO where RTDTO.id IN (:category)")
+                      .setCacheable(true)
+                      .setCacheRegion("referenceQueries")
                       .setString("category", studyDto.getCategory())
                       .list();
               if ((null != referenceTablesList) && !referenceTablesList.isEmpty()) {
@@ -23,34 +23,53 @@
 package com.hphc.mystudies.dto;
 
 import java.io.Serializable;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.Table;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Immutable;
 import org.hibernate.annotations.NamedQueries;
 import org.hibernate.annotations.NamedQuery;
 import org.hibernate.annotations.Type;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY, region = "study")
+@Immutable
 @Table(name = "studies")
 @NamedQueries({
-  @NamedQuery(name = "studyDetailsByStudyId", query = "from StudyDto SDTO" + " where SDTO.id =:id"),
+  @NamedQuery(
+      name = "studyDetailsByStudyId",
+      cacheable = true,
+      cacheRegion = "studyQueries",
+      query = "from StudyDto SDTO" + " where SDTO.id =:id"),
   @NamedQuery(
       name = "getStudyIdByCustomStudyId",
+      cacheable = true,
+      cacheRegion = "studyQueries",
       query =
           "select SDTO.id" + " from StudyDto SDTO" + " where SDTO.customStudyId =:customStudyId"),
   @NamedQuery(
       name = "getLiveStudyIdByCustomStudyId",
+      cacheable = true,
+      cacheRegion = "studyQueries",
       query = "from StudyDto SDTO" + " where SDTO.customStudyId =:customStudyId and SDTO.live=1"),
   @NamedQuery(
       name = "getPublishedStudyByCustomId",
+      cacheable = true,
+      cacheRegion = "studyQueries",
       query =
           "from StudyDto SDTO"
               + " where SDTO.customStudyId =:customStudyId and SDTO.status='Pre-launch(Published)'"),
   @NamedQuery(
       name = "getActivityUpdatedOrNotByStudyIdAndVersion",
+      cacheable = true,
+      cacheRegion = "studyQueries",
       query =
           "from StudyDto SDTO"
               + " where SDTO.customStudyId =:customStudyId and ROUND(SDTO.version,1)=:version"),
@@ -24,35 +24,50 @@
 package com.hphc.mystudies.dto;
 
 import java.io.Serializable;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.Table;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Immutable;
 import org.hibernate.annotations.NamedQueries;
 import org.hibernate.annotations.NamedQuery;
 
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY, region = "studyVersion")
+@Immutable
 @Table(name = "study_version")
 @NamedQueries({
   @NamedQuery(
       name = "getStudyVersionDetailsByCustomStudyId",
+      cacheable = true,
+      cacheRegion = "studyQueries",
       query =
           "from StudyVersionDto SVDTO"
               + " where SVDTO.customStudyId =:customStudyId"
               + " ORDER BY SVDTO.versionId DESC"),
   @NamedQuery(
       name = "getStudyVersionsByCustomStudyId",
+      cacheable = true,
+      cacheRegion = "studyQueries",
       query = "from StudyVersionDto SVDTO" + " where SVDTO.customStudyId =:customStudyId"),
   @NamedQuery(
       name = "getLiveVersionDetailsByCustomStudyIdAndVersion",
+      cacheable = true,
+      cacheRegion = "studyQueries",
       query =
           "from StudyVersionDto SVDTO"
               + " where SVDTO.customStudyId =:customStudyId and ROUND(SVDTO.studyVersion, 1)=:studyVersion"
               + " ORDER BY SVDTO.versionId DESC"),
   @NamedQuery(
       name = "getStudyUpdatesDetailsByCurrentVersion",
+      cacheable = true,
+      cacheRegion = "studyQueries",
       query =
           "from StudyVersionDto SVDTO"
               + " where SVDTO.customStudyId =:customStudyId and ROUND(SVDTO.studyVersion, 1)>=:studyVersion ORDER BY SVDTO.studyVersion"),
@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2017-2018 Harvard Pilgrim Health Care Institute (HPHCI) and its Contributors.
+ * Copyright 2020-2021 Google LLC
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ *
+ * Funding Source: Food and Drug Administration ("Funding Agency") effective 18 September 2014 as Contract no.
+ * HHSF22320140030I/HHSF22301006T (the "Prime Contract").
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hphc.mystudies.integration;
+
+import com.hphc.mystudies.dao.StudyMetaDataDao;
+import com.hphc.mystudies.dto.StudyDto;
+import com.hphc.mystudies.util.StudyMetaDataConstants;
+import com.hphc.mystudies.util.StudyMetaDataUtil;
+import com.hphc.mystudies.util.StudyResourceCache;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+/**
+ * Rendered JSON of the study metadata responses. A response is rendered once per live version of
+ * the study, platform and request parameters, and served as stored bytes until the study builder
+ * publishes a new version of the study. The live version of a study is looked up again at most
+ * every {@code study.snapshot.version.check.seconds}, and the least recently used snapshots are
+ * dropped once they take more than {@code study.snapshot.max.bytes}. The questionnaire images of a
+ * newly seen live version are prefetched into the {@link StudyResourceCache}.
+ */
+public class StudyMetaDataSnapshots {
+
+  private static final XLogger LOGGER =
+      XLoggerFactory.getXLogger(StudyMetaDataSnapshots.class.getName());
+
+  private static final String KEY_SEPARATOR = "|";
+
+  private static final String NOT_LIVE = "";
+
+  private static final StudyMetaDataSnapshots INSTANCE = new StudyMetaDataSnapshots();
+
+  @SuppressWarnings("unchecked")
+  HashMap<String, String> propMap = StudyMetaDataUtil.getAppProperties();
+
+  StudyMetaDataDao studyMetaDataDao = new StudyMetaDataDao();
+
+  /** Same mapper as the Jackson provider registered with Jersey in web.xml. */
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final boolean enabled =
+      !"false".equalsIgnoreCase(propMap.get("study.snapshot.enabled"));
+
+  private final long maxBytes =
+      NumberUtils.toLong(propMap.get("study.snapshot.max.bytes"), 128L * 1024 * 1024);
+
+  private final long versionCheckMillis =
+      TimeUnit.SECONDS.toMillis(
+          NumberUtils.toLong(propMap.get("study.snapshot.version.check.seconds"), 30));
+
+  private final Map<String, LiveVersion> liveVersions = new ConcurrentHashMap<>();
+
+  private final LinkedHashMap<String, byte[]> snapshots = new LinkedHashMap<>(256, 0.75f, true);
+
+  private long snapshotBytes = 0;
+
+  private StudyMetaDataSnapshots() {}
+
+  public static StudyMetaDataSnapshots getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param endpoint the resource path of the response
+   * @param studyId custom study id
+   * @param parameters the other request parameters the response depends on
+   * @return key of the snapshot of the response for the live version of the study, or null if the
+   *     study has no live version and the response must not be stored
+   */
+  public String snapshotKey(String endpoint, String studyId, String... parameters) {
+    if (!enabled || StringUtils.isEmpty(studyId)) {
+      return null;
+    }
+    String liveVersion = liveVersion(studyId);
+    if (NOT_LIVE.equals(liveVersion)) {
+      return null;
+    }
+    StringBuilder key =
+        new StringBuilder(endpoint)
+            .append(KEY_SEPARATOR)
+            .append(studyId)
+            .append(KEY_SEPARATOR)
+            .append(liveVersion);
+    for (String parameter : parameters) {
+      key.append(KEY_SEPARATOR).append(StringUtils.defaultString(parameter));
+    }
+    return key.toString();
+  }
+
+  /** @return the rendered response, or null if it was not rendered for the key yet */
+  public synchronized byte[] get(String snapshotKey) {
+    return snapshotKey == null ? null : snapshots.get(snapshotKey);
+  }
+
+  /** Renders the response and keeps it as the snapshot of the key. */
+  public void put(String snapshotKey, Object response) {
+    if (snapshotKey == null) {
+      return;
+    }
+    byte[] json;
+    try {
+      json = objectMapper.writeValueAsBytes(response);
+    } catch (Exception e) {
+      LOGGER.error("StudyMetaDataSnapshots - put() :: ERROR", e);
+      return;
+    }
+    if (json.length > maxBytes) {
+      return;
+    }
+    synchronized (this) {
+      byte[] previous = snapshots.put(snapshotKey, json);
+      snapshotBytes += json.length - (previous == null ? 0 : previous.length);
+      Iterator<byte[]> eldest = snapshots.values().iterator();
+      while (snapshotBytes > maxBytes && eldest.hasNext()) {
+        snapshotBytes -= eldest.next().length;
+        eldest.remove();
+      }
+    }
+  }
+
+  private String liveVersion(String studyId) {
+    long now = System.currentTimeMillis();
+    LiveVersion liveVersion = liveVersions.get(studyId);
+    if (liveVersion == null || liveVersion.checkedAt + versionCheckMillis <= now) {
+      String version = NOT_LIVE;
+      try {
+        StudyDto studyDto = studyMetaDataDao.liveStudy(studyId);
+        if (studyDto != null) {
+          // a published update is a new live row of the study with a higher version
+          version =
+              studyDto.getId()
+                  + KEY_SEPARATOR
+                  + studyDto.getVersion()
+                  + KEY_SEPARATOR
+                  + studyDto.getModifiedOn();
+        }
+      } catch (Exception e) {
+        LOGGER.error("StudyMetaDataSnapshots - liveVersion() :: ERROR", e);
+      }
+      if (!NOT_LIVE.equals(version)
+          && (liveVersion == null || !version.equals(liveVersion.version))) {
+        StudyResourceCache.getInstance()
+            .prefetch(
+                propMap.get("cloud.bucket.name"),
+                StudyMetaDataConstants.STUDIES
+                    + "/"
+                    + studyId
+                    + "/"
+                    + propMap.get(StudyMetaDataConstants.FDA_SMD_QUESTIONNAIRE_IMAGE).trim());
+      }
+      liveVersion = new LiveVersion(version, now);
+      liveVersions.put(studyId, liveVersion);
+    }
+    return liveVersion.version;
+  }
+
+  private static class LiveVersion {
+    private final String version;
+    private final long checkedAt;
+
+    private LiveVersion(String version, long checkedAt) {
+      this.version = version;
+      this.checkedAt = checkedAt;
+    }
+  }
+}
@@ -48,6 +48,7 @@ import com.hphc.mystudies.integration.ActivityMetaDataOrchestration;
 import com.hphc.mystudies.integration.AppMetaDataOrchestration;
 import com.hphc.mystudies.integration.DashboardMetaDataOrchestration;
 import com.hphc.mystudies.integration.StudyMetaDataOrchestration;
+import com.hphc.mystudies.integration.StudyMetaDataSnapshots;
 import com.hphc.mystudies.util.StudyMetaDataConstants;
 import com.hphc.mystudies.util.StudyMetaDataEnum;
 import com.hphc.mystudies.util.StudyMetaDataUtil;
@@ -94,6 +95,7 @@ public class StudyMetaDataService {
   DashboardMetaDataOrchestration dashboardMetaDataOrchestration =
       new DashboardMetaDataOrchestration();
   AppMetaDataOrchestration appMetaDataOrchestration = new AppMetaDataOrchestration();
+  StudyMetaDataSnapshots studyMetaDataSnapshots = StudyMetaDataSnapshots.getInstance();
 
   @ApiOperation(
       value =
@@ -226,8 +228,15 @@ public class StudyMetaDataService {
     LOGGER.entry("begin eligibilityConsentMetadata()");
     EligibilityConsentResponse eligibilityConsentResponse = new EligibilityConsentResponse();
     Boolean isValidFlag = false;
+    String snapshotKey = null;
     try {
       if (StringUtils.isNotEmpty(studyId)) {
+        snapshotKey = studyMetaDataSnapshots.snapshotKey("eligibilityConsent", studyId);
+        byte[] snapshot = studyMetaDataSnapshots.get(snapshotKey);
+        if (snapshot != null) {
+          LOGGER.exit("eligibilityConsentMetadata() :: Ends");
+          return snapshotResponse(snapshot);
+        }
         isValidFlag = studyMetaDataOrchestration.isValidStudy(studyId);
         if (!isValidFlag) {
           StudyMetaDataUtil.getFailureResponse(
@@ -266,6 +275,7 @@ public class StudyMetaDataService {
           .entity(StudyMetaDataConstants.FAILURE)
           .build();
     }
+    studyMetaDataSnapshots.put(snapshotKey, eligibilityConsentResponse);
     LOGGER.exit("eligibilityConsentMetadata() :: Ends");
     return eligibilityConsentResponse;
   }
@@ -366,8 +376,15 @@ public class StudyMetaDataService {
     LOGGER.entry("begin resourcesForStudy()");
     ResourcesResponse resourcesResponse = new ResourcesResponse();
     Boolean isValidFlag = false;
+    String snapshotKey = null;
     try {
       if (StringUtils.isNotEmpty(studyId)) {
+        snapshotKey = studyMetaDataSnapshots.snapshotKey("resources", studyId);
+        byte[] snapshot = studyMetaDataSnapshots.get(snapshotKey);
+        if (snapshot != null) {
+          LOGGER.exit("resourcesForStudy() :: Ends");
+          return snapshotResponse(snapshot);
+        }
         isValidFlag = studyMetaDataOrchestration.isValidStudy(studyId);
         if (!isValidFlag) {
           StudyMetaDataUtil.getFailureResponse(
@@ -406,6 +423,7 @@ public class StudyMetaDataService {
           .entity(StudyMetaDataConstants.FAILURE)
           .build();
     }
+    studyMetaDataSnapshots.put(snapshotKey, resourcesResponse);
     LOGGER.exit("resourcesForStudy() :: Ends");
     return resourcesResponse;
   }
@@ -432,8 +450,15 @@ public class StudyMetaDataService {
     LOGGER.entry("begin studyInfo()");
     StudyInfoResponse studyInfoResponse = new StudyInfoResponse();
     Boolean isValidFlag = false;
+    String snapshotKey = null;
     try {
       if (StringUtils.isNotEmpty(studyId)) {
+        snapshotKey = studyMetaDataSnapshots.snapshotKey("studyInfo", studyId);
+        byte[] snapshot = studyMetaDataSnapshots.get(snapshotKey);
+        if (snapshot != null) {
+          LOGGER.exit("studyInfo() :: Ends");
+          return snapshotResponse(snapshot);
+        }
         isValidFlag = studyMetaDataOrchestration.isValidStudy(studyId);
         if (!isValidFlag) {
           StudyMetaDataUtil.getFailureResponse(
@@ -501,6 +526,7 @@ public class StudyMetaDataService {
           .entity(StudyMetaDataConstants.FAILURE)
           .build();
     }
+    studyMetaDataSnapshots.put(snapshotKey, studyInfoResponse);
     LOGGER.exit("studyInfo() :: Ends");
     return studyInfoResponse;
   }
@@ -529,8 +555,21 @@ public class StudyMetaDataService {
     LOGGER.entry("begin studyActivityList()");
     ActivityResponse activityResponse = new ActivityResponse();
     Boolean isValidFlag = false;
+    String snapshotKey = null;
     try {
       if (StringUtils.isNotEmpty(studyId)) {
+        snapshotKey =
+            studyMetaDataSnapshots.snapshotKey(
+                "activityList",
+                studyId,
+                StudyMetaDataUtil.platformType(
+                    authorization, StudyMetaDataConstants.STUDY_AUTH_TYPE_OS),
+                StudyMetaDataUtil.getCurrentDate());
+        byte[] snapshot = studyMetaDataSnapshots.get(snapshotKey);
+        if (snapshot != null) {
+          LOGGER.exit("studyActivityList() :: Ends");
+          return snapshotResponse(snapshot);
+        }
         isValidFlag = studyMetaDataOrchestration.isValidStudy(studyId);
         if (!isValidFlag) {
           StudyMetaDataUtil.getFailureResponse(
@@ -569,6 +608,7 @@ public class StudyMetaDataService {
           .entity(StudyMetaDataConstants.FAILURE)
           .build();
     }
+    studyMetaDataSnapshots.put(snapshotKey, activityResponse);
     LOGGER.exit("studyActivityList() :: Ends");
     return activityResponse;
   }
@@ -604,10 +644,18 @@ public class StudyMetaDataService {
         new ActiveTaskActivityMetaDataResponse();
     Boolean isValidFlag = false;
     Boolean isActivityTypeQuestionnaire = false;
+    String snapshotKey = null;
     try {
       if (StringUtils.isNotEmpty(studyId)
           && StringUtils.isNotEmpty(activityId)
           && StringUtils.isNotEmpty(activityVersion)) {
+        snapshotKey =
+            studyMetaDataSnapshots.snapshotKey("activity", studyId, activityId, activityVersion);
+        byte[] snapshot = studyMetaDataSnapshots.get(snapshotKey);
+        if (snapshot != null) {
+          LOGGER.exit("studyActivityMetadata() :: Ends");
+          return snapshotResponse(snapshot);
+        }
         isValidFlag = studyMetaDataOrchestration.isValidStudy(studyId);
         if (!isValidFlag) {
           StudyMetaDataUtil.getFailureResponse(
@@ -652,6 +700,7 @@ public class StudyMetaDataService {
                 .entity(StudyMetaDataConstants.NO_RECORD)
                 .build();
           }
+          studyMetaDataSnapshots.put(snapshotKey, activeTaskActivityMetaDataResponse);
           return activeTaskActivityMetaDataResponse;
         } else {
           questionnaireActivityMetaDataResponse =
@@ -669,6 +718,7 @@ public class StudyMetaDataService {
                 .entity(StudyMetaDataConstants.NO_RECORD)
                 .build();
           }
+          studyMetaDataSnapshots.put(snapshotKey, questionnaireActivityMetaDataResponse);
           return questionnaireActivityMetaDataResponse;
         }
       } else {
@@ -716,8 +766,15 @@ public class StudyMetaDataService {
     LOGGER.entry("begin studyDashboardInfo()");
     StudyDashboardResponse studyDashboardResponse = new StudyDashboardResponse();
     Boolean isValidFlag = false;
+    String snapshotKey = null;
     try {
       if (StringUtils.isNotEmpty(studyId)) {
+        snapshotKey = studyMetaDataSnapshots.snapshotKey("studyDashboard", studyId);
+        byte[] snapshot = studyMetaDataSnapshots.get(snapshotKey);
+        if (snapshot != null) {
+          LOGGER.exit("studyDashboardInfo() :: Ends");
+          return snapshotResponse(snapshot);
+        }
         isValidFlag = studyMetaDataOrchestration.isValidStudy(studyId);
         if (!isValidFlag) {
           StudyMetaDataUtil.getFailureResponse(
@@ -756,6 +813,7 @@ public class StudyMetaDataService {
           .entity(StudyMetaDataConstants.FAILURE)
           .build();
     }
+    studyMetaDataSnapshots.put(snapshotKey, studyDashboardResponse);
     LOGGER.exit("studyDashboardInfo() :: Ends");
     return studyDashboardResponse;
   }
@@ -1272,4 +1330,8 @@ public class StudyMetaDataService {
     LOGGER.exit("storeJsonResponseFile() :: ends");
     return errorResponse;
   }
+
+  private Response snapshotResponse(byte[] snapshot) {
+    return Response.ok(snapshot, MediaType.APPLICATION_JSON).build();
+  }
 }
@@ -0,0 +1,232 @@
+/*
+ * Copyright © 2017-2018 Harvard Pilgrim Health Care Institute (HPHCI) and its Contributors.
+ * Copyright 2020-2021 Google LLC
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ *
+ * Funding Source: Food and Drug Administration ("Funding Agency") effective 18 September 2014 as Contract no.
+ * HHSF22320140030I/HHSF22301006T (the "Prime Contract").
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hphc.mystudies.util;
+
+import com.hphc.mystudies.bean.ActivityFrequencyScheduleBean;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.TextStyle;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+/**
+ * Computes the runs of an activity from its frequency settings. Dates and times are handled with
+ * java.time, so the engine keeps no state and is safe to call from any request thread. The runs
+ * are the same as the ones of the former string-based date arithmetic: run times of daily
+ * activities are times of day, runs of weekly and monthly activities are dates, and runs of
+ * one-time and manually scheduled activities are timestamps with milliseconds and the offset of
+ * the server time zone, the standard time one for local times repeated when daylight saving time
+ * ends.
+ */
+public final class ActivityScheduleEngine {
+
+  private static final XLogger LOGGER =
+      XLoggerFactory.getXLogger(ActivityScheduleEngine.class.getName());
+
+  private static final ZoneId CURRENT_DATE_ZONE = ZoneId.of("America/New_York");
+
+  private static final DateTimeFormatter DATE =
+      DateTimeFormatter.ofPattern(StudyMetaDataConstants.SDF_DATE_PATTERN);
+
+  private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("H:mm:ss");
+
+  private static final DateTimeFormatter TIME_OUTPUT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+  private static final DateTimeFormatter DATE_TIME_TIMEZONE_MILLISECONDS =
+      DateTimeFormatter.ofPattern(
+          StudyMetaDataConstants.SDF_DATE_TIME_TIMEZONE_MILLISECONDS_PATTERN);
+
+  private static final String TIME_WITH_SECONDS =
+      "^([0-9]|0[0-9]|1[0-9]|2[0-3]):[0-5][0-9]:[0-5][0-9]$";
+
+  private ActivityScheduleEngine() {}
+
+  /** @return the current date of the study schedules, in America/New_York */
+  public static LocalDate today() {
+    return LocalDate.now(CURRENT_DATE_ZONE);
+  }
+
+  /** @return the single run from the start to the end of the activity lifetime */
+  public static List<ActivityFrequencyScheduleBean> oneTimeRuns(
+      String lifetimeStart, String lifetimeEnd) {
+    List<ActivityFrequencyScheduleBean> runs = new ArrayList<>();
+    runs.add(run(formatDate(lifetimeStart), formatDate(lifetimeEnd)));
+    return runs;
+  }
+
+  /**
+   * Each run of a daily activity starts at one of the frequency times and ends a second before the
+   * next one, the last run of the day ends at {@link StudyMetaDataConstants#DEFAULT_MAX_TIME}.
+   *
+   * @param frequencyTimes times of day in ascending order, as HH:mm:ss
+   */
+  public static List<ActivityFrequencyScheduleBean> dailyRuns(List<String> frequencyTimes) {
+    List<ActivityFrequencyScheduleBean> runs = new ArrayList<>(frequencyTimes.size());
+    for (int i = 0; i < frequencyTimes.size(); i++) {
+      String endTime =
+          (i == (frequencyTimes.size() - 1))
+              ? StudyMetaDataConstants.DEFAULT_MAX_TIME
+              : LocalTime.parse(frequencyTimes.get(i + 1), TIME)
+                  .minusSeconds(1)
+                  .format(TIME_OUTPUT);
+      runs.add(run(frequencyTimes.get(i), endTime));
+    }
+    return runs;
+  }
+
+  /**
+   * Runs of a weekly activity last a week each and start on the day of the week that follows the
+   * lifetime start. Runs that ended before today are left out, and the last run ends with the
+   * lifetime.
+   *
+   * @param dayOfTheWeek full name of the day in the default locale, e.g. Monday
+   */
+  public static List<ActivityFrequencyScheduleBean> weeklyRuns(
+      String lifetimeStart,
+      String lifetimeEnd,
+      String dayOfTheWeek,
+      int repeatCount,
+      LocalDate today) {
+    DayOfWeek day = dayOfWeek(dayOfTheWeek);
+    if (day == null) {
+      LOGGER.error("ActivityScheduleEngine - weeklyRuns() :: unknown day " + dayOfTheWeek);
+      return new ArrayList<>();
+    }
+    LocalDate start = LocalDate.parse(lifetimeStart, DATE).with(TemporalAdjusters.nextOrSame(day));
+    return periodicRuns(start, lifetimeEnd, repeatCount, today, false);
+  }
+
+  /**
+   * Runs of a monthly activity last a month each from the lifetime start, a run that starts on a
+   * day the next month does not have ends on the last day of that month. Runs that ended before
+   * today are left out, and the last run ends with the lifetime.
+   */
+  public static List<ActivityFrequencyScheduleBean> monthlyRuns(
+      String lifetimeStart, String lifetimeEnd, int repeatCount, LocalDate today) {
+    return periodicRuns(
+        LocalDate.parse(lifetimeStart, DATE), lifetimeEnd, repeatCount, today, true);
+  }
+
+  /**
+   * @param startDate may be blank, the run then starts when it ends
+   * @param endDate may be blank for a run without end
+   * @return run of a manually scheduled activity
+   */
+  public static ActivityFrequencyScheduleBean manualRun(
+      String startDate, String startTime, String endDate, String endTime) {
+    String startDateTime = "";
+    String endDateTime = "";
+    if (StringUtils.isNotBlank(endDate)) {
+      endDateTime = formatDateTime(endDate, normalizeTime(endTime));
+    }
+    if (StringUtils.isNotBlank(startDate)) {
+      startDateTime = formatDateTime(startDate, normalizeTime(startTime));
+    } else if (StringUtils.isNotBlank(endDate)) {
+      startDateTime = endDateTime;
+    }
+    return run(startDateTime, endDateTime);
+  }
+
+  /** @return the time as HH:mm:ss, adding the seconds to times entered as HH:mm */
+  public static String normalizeTime(String time) {
+    if ((time != null) && !time.matches(TIME_WITH_SECONDS)) {
+      return time + ":00";
+    }
+    return time;
+  }
+
+  /** @return the start of the day as a timestamp of the server time zone, or "" if unparseable */
+  public static String formatDate(String date) {
+    if (StringUtils.isEmpty(date)) {
+      return "";
+    }
+    try {
+      return LocalDate.parse(date, DATE)
+          .atStartOfDay(ZoneId.systemDefault())
+          .withLaterOffsetAtOverlap()
+          .format(DATE_TIME_TIMEZONE_MILLISECONDS);
+    } catch (Exception e) {
+      LOGGER.error("ActivityScheduleEngine - formatDate() :: ERROR", e);
+      return "";
+    }
+  }
+
+  /** @return the date and time as a timestamp of the server time zone, or "" if unparseable */
+  public static String formatDateTime(String date, String time) {
+    try {
+      return LocalDateTime.of(LocalDate.parse(date, DATE), LocalTime.parse(time, TIME))
+          .atZone(ZoneId.systemDefault())
+          .withLaterOffsetAtOverlap()
+          .format(DATE_TIME_TIMEZONE_MILLISECONDS);
+    } catch (Exception e) {
+      LOGGER.error("ActivityScheduleEngine - formatDateTime() :: ERROR", e);
+      return "";
+    }
+  }
+
+  private static List<ActivityFrequencyScheduleBean> periodicRuns(
+      LocalDate firstStart, String lifetimeEnd, int repeatCount, LocalDate today, boolean monthly) {
+    LocalDate end = LocalDate.parse(lifetimeEnd, DATE);
+    List<ActivityFrequencyScheduleBean> runs = new ArrayList<>();
+    LocalDate runStart = firstStart;
+    for (int i = 0; i < repeatCount; i++) {
+      LocalDate runEnd = monthly ? runStart.plusMonths(1) : runStart.plusWeeks(1);
+      if (!today.isAfter(runEnd)) {
+        if (!runEnd.isBefore(end)) {
+          runs.add(run(runStart.format(DATE), lifetimeEnd));
+          break;
+        }
+        runs.add(run(runStart.format(DATE), runEnd.format(DATE)));
+      }
+      runStart = runEnd;
+    }
+    return runs;
+  }
+
+  private static DayOfWeek dayOfWeek(String name) {
+    for (DayOfWeek day : DayOfWeek.values()) {
+      if (day.getDisplayName(TextStyle.FULL, Locale.getDefault()).equalsIgnoreCase(name)) {
+        return day;
+      }
+    }
+    return null;
+  }
+
+  private static ActivityFrequencyScheduleBean run(String startTime, String endTime) {
+    ActivityFrequencyScheduleBean run = new ActivityFrequencyScheduleBean();
+    run.setStartTime(startTime);
+    run.setEndTime(endTime);
+    return run;
+  }
+}
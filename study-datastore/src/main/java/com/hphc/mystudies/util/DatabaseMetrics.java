@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2017-2018 Harvard Pilgrim Health Care Institute (HPHCI) and its Contributors.
+ * Copyright 2020-2021 Google LLC
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ *
+ * Funding Source: Food and Drug Administration ("Funding Agency") effective 18 September 2014 as Contract no.
+ * HHSF22320140030I/HHSF22301006T (the "Prime Contract").
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hphc.mystudies.util;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+/**
+ * Logs the statistics of the connection pool and of the Hibernate second-level and query caches
+ * every {@code database.metrics.log.seconds}. Threads waiting for a connection show bursts that
+ * the pool is too small for. The same figures are available over JMX, where HikariCP registers the
+ * pool and Ehcache the cache regions.
+ */
+public class DatabaseMetrics {
+
+  private static final XLogger LOGGER = XLoggerFactory.getXLogger(DatabaseMetrics.class.getName());
+
+  private static ScheduledExecutorService executor = null;
+
+  private DatabaseMetrics() {
+    super();
+  }
+
+  public static synchronized void start(SessionFactory sessionFactory) {
+    @SuppressWarnings("unchecked")
+    HashMap<String, String> propMap = StudyMetaDataUtil.getAppProperties();
+    long intervalSeconds = NumberUtils.toLong(propMap.get("database.metrics.log.seconds"), 60);
+    if ((executor != null) || (intervalSeconds <= 0)) {
+      return;
+    }
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "database-metrics");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.scheduleAtFixedRate(
+        () -> log(sessionFactory), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  public static synchronized void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private static void log(SessionFactory sessionFactory) {
+    try {
+      StringBuilder metrics = new StringBuilder("DatabaseMetrics");
+      HikariPoolMXBean pool = pool(sessionFactory);
+      if (pool != null) {
+        metrics
+            .append(" pool.active=")
+            .append(pool.getActiveConnections())
+            .append(" pool.idle=")
+            .append(pool.getIdleConnections())
+            .append(" pool.total=")
+            .append(pool.getTotalConnections())
+            .append(" pool.waiting=")
+            .append(pool.getThreadsAwaitingConnection());
+      }
+      Statistics statistics = sessionFactory.getStatistics();
+      metrics
+          .append(" sessions.opened=")
+          .append(statistics.getSessionOpenCount())
+          .append(" cache.hits=")
+          .append(statistics.getSecondLevelCacheHitCount())
+          .append(" cache.misses=")
+          .append(statistics.getSecondLevelCacheMissCount())
+          .append(" cache.puts=")
+          .append(statistics.getSecondLevelCachePutCount())
+          .append(" queryCache.hits=")
+          .append(statistics.getQueryCacheHitCount())
+          .append(" queryCache.misses=")
+          .append(statistics.getQueryCacheMissCount())
+          .append(" queries.max.ms=")
+          .append(statistics.getQueryExecutionMaxTime());
+      LOGGER.info(metrics.toString());
+    } catch (Exception e) {
+      LOGGER.error("DatabaseMetrics - log() :: ERROR", e);
+    }
+  }
+
+  private static HikariPoolMXBean pool(SessionFactory sessionFactory) {
+    ConnectionProvider connectionProvider =
+        sessionFactory
+            .unwrap(SessionFactoryImplementor.class)
+            .getServiceRegistry()
+            .getService(ConnectionProvider.class);
+    if ((connectionProvider == null)
+        || !connectionProvider.isUnwrappableAs(HikariDataSource.class)) {
+      return null;
+    }
+    return connectionProvider.unwrap(HikariDataSource.class).getHikariPoolMXBean();
+  }
+}
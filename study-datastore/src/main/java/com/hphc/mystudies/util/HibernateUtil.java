@@ -23,8 +23,14 @@
  */
 package com.hphc.mystudies.util;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
 import org.hibernate.SessionFactory;
-import org.hibernate.cfg.AnnotationConfiguration;
+import org.hibernate.boot.MetadataSources;
+import org.hibernate.boot.registry.StandardServiceRegistry;
+import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
+import org.hibernate.cache.jcache.ConfigSettings;
 import org.slf4j.ext.XLogger;
 import org.slf4j.ext.XLoggerFactory;
 
@@ -32,7 +38,7 @@ public class HibernateUtil {
 
   private static final XLogger logger = XLoggerFactory.getXLogger(HibernateUtil.class.getName());
 
-  private static SessionFactory sessionFactory = null;
+  private static volatile SessionFactory sessionFactory = null;
 
   private HibernateUtil() {
     super();
@@ -40,23 +46,72 @@ public class HibernateUtil {
 
   public static SessionFactory getSessionFactory() {
     logger.entry("begin getSessionFactory() :: Starts");
-    try {
-      if (sessionFactory == null) {
-        sessionFactory =
-            new AnnotationConfiguration()
-                .addProperties(
-                    PropertiesUtil.makePropertiesWithEnvironmentVariables("application.properties"))
-                .configure("hibernate.cfg.xml")
-                .buildSessionFactory();
+    SessionFactory factory = sessionFactory;
+    if (factory == null) {
+      synchronized (HibernateUtil.class) {
+        factory = sessionFactory;
+        if (factory == null) {
+          factory = buildSessionFactory();
+          sessionFactory = factory;
+        }
       }
-    } catch (Exception e) {
-      logger.error("HibernateUtil - getSessionFactory() :: ERROR ", e);
     }
     logger.exit("getSessionFactory() :: Ends");
-    return sessionFactory;
+    return factory;
   }
 
   public static void setSessionFactory(SessionFactory sessionFactory) {
     HibernateUtil.sessionFactory = sessionFactory;
   }
+
+  /**
+   * Builds the session factory from hibernate.cfg.xml, with the settings of application.properties
+   * taking precedence.
+   *
+   * @return the session factory, or null if it could not be built
+   */
+  private static SessionFactory buildSessionFactory() {
+    StandardServiceRegistry registry = null;
+    try {
+      StandardServiceRegistryBuilder builder =
+          new StandardServiceRegistryBuilder()
+              .configure("hibernate.cfg.xml")
+              .applySettings(
+                  PropertiesUtil.makePropertiesWithEnvironmentVariables("application.properties"));
+      Object cacheConfigUri = builder.getSettings().get(ConfigSettings.CONFIG_URI);
+      if (cacheConfigUri != null) {
+        builder.applySetting(
+            ConfigSettings.CONFIG_URI, resolveCacheConfigUri(cacheConfigUri.toString()));
+      }
+      registry = builder.build();
+      SessionFactory factory = new MetadataSources(registry).buildMetadata().buildSessionFactory();
+      DatabaseMetrics.start(factory);
+      return factory;
+    } catch (Exception e) {
+      logger.error("HibernateUtil - getSessionFactory() :: ERROR ", e);
+      if (registry != null) {
+        StandardServiceRegistryBuilder.destroy(registry);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * The JCache provider loads its configuration from an absolute URI, so a relative {@code
+   * hibernate.javax.cache.uri} such as {@code ehcache.xml} is looked up on the classpath.
+   *
+   * @param cacheConfigUri the configured URI of the cache configuration
+   * @return the absolute URI of the cache configuration
+   * @throws URISyntaxException if the URI or the classpath resource is not a valid URI
+   */
+  static String resolveCacheConfigUri(String cacheConfigUri) throws URISyntaxException {
+    if (new URI(cacheConfigUri).isAbsolute()) {
+      return cacheConfigUri;
+    }
+    URL resource = HibernateUtil.class.getClassLoader().getResource(cacheConfigUri);
+    if (resource == null) {
+      throw new IllegalStateException(cacheConfigUri + " is not on the classpath");
+    }
+    return resource.toURI().toString();
+  }
 }
@@ -38,6 +38,7 @@ public class ServletContextHolder implements ServletContextListener {
 
   @Override
   public void contextDestroyed(ServletContextEvent sce) {
+    DatabaseMetrics.stop();
     HibernateUtil.getSessionFactory().close();
   }
 
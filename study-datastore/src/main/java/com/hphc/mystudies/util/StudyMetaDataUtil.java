@@ -23,14 +23,11 @@
  */
 package com.hphc.mystudies.util;
 
-import com.google.cloud.storage.Blob;
-import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
 import com.hphc.mystudies.bean.FailureResponse;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.security.MessageDigest;
@@ -531,74 +528,6 @@ public class StudyMetaDataUtil {
     return hashMap;
   }
 
-  public static String getDayByDate(String input) {
-    LOGGER.entry("StudyMetaDataUtil: getDayByDate() - Starts ");
-    String actualDay = "";
-    try {
-      if (StringUtils.isNotEmpty(input)) {
-        SimpleDateFormat newDateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        Date MyDate = newDateFormat.parse(input);
-        newDateFormat.applyPattern(StudyMetaDataConstants.SDF_DAY);
-        actualDay = newDateFormat.format(MyDate);
-      }
-    } catch (Exception e) {
-      LOGGER.error("StudyMetaDataUtil - getDayByDate() - ERROR ", e);
-    }
-    LOGGER.exit("StudyMetaDataUtil: getDayByDate() - Ends ");
-    return actualDay;
-  }
-
-  public static String addDaysToDate(String input, int days) {
-    LOGGER.entry("StudyMetaDataUtil: addDaysToDate() - Starts ");
-    String output = "";
-    try {
-      Date dt = StudyMetaDataConstants.SDF_DATE.parse(input);
-      Calendar cal = Calendar.getInstance();
-      cal.setTime(dt);
-      cal.add(Calendar.DATE, days);
-      Date newDate = cal.getTime();
-      output = StudyMetaDataConstants.SDF_DATE.format(newDate);
-    } catch (ParseException e) {
-      LOGGER.error("StudyMetaDataUtil - addDaysToDate() - ERROR ", e);
-    }
-    LOGGER.exit("StudyMetaDataUtil: addDaysToDate() - Ends ");
-    return output;
-  }
-
-  public static String addWeeksToDate(String input, int weeks) {
-    LOGGER.entry("StudyMetaDataUtil: addWeeksToDate() - Starts ");
-    String output = "";
-    try {
-      Date dt = StudyMetaDataConstants.SDF_DATE.parse(input);
-      Calendar cal = Calendar.getInstance();
-      cal.setTime(dt);
-      cal.add(Calendar.WEEK_OF_MONTH, weeks);
-      Date newDate = cal.getTime();
-      output = StudyMetaDataConstants.SDF_DATE.format(newDate);
-    } catch (ParseException e) {
-      LOGGER.error("StudyMetaDataUtil - addWeeksToDate() - ERROR ", e);
-    }
-    LOGGER.exit("StudyMetaDataUtil: addWeeksToDate() - Ends ");
-    return output;
-  }
-
-  public static String addMonthsToDate(String input, int months) {
-    LOGGER.entry("StudyMetaDataUtil: addMonthsToDate() - Starts ");
-    String output = "";
-    try {
-      Date dt = StudyMetaDataConstants.SDF_DATE.parse(input);
-      Calendar cal = Calendar.getInstance();
-      cal.setTime(dt);
-      cal.add(Calendar.MONTH, months);
-      Date newDate = cal.getTime();
-      output = StudyMetaDataConstants.SDF_DATE.format(newDate);
-    } catch (ParseException e) {
-      LOGGER.error("StudyMetaDataUtil - addMonthsToDate() - ERROR ", e);
-    }
-    LOGGER.exit("StudyMetaDataUtil: addMonthsToDate() - Ends ");
-    return output;
-  }
-
   public static String getFormattedDateTimeZone(
       String input, String inputFormat, String outputFormat) {
     LOGGER.entry("StudyMetaDataUtil: getFormattedDateTimeZone() - Starts ");
@@ -617,24 +546,6 @@ public class StudyMetaDataUtil {
     return output;
   }
 
-  public static String addSeconds(String dtStr, int seconds) {
-    LOGGER.entry("StudyMetaDataUtil: addSeconds() - Starts ");
-    String newdateStr = "";
-    try {
-      SimpleDateFormat date = new SimpleDateFormat(StudyMetaDataConstants.SDF_DATE_TIME_PATTERN);
-      Date dt = date.parse(dtStr);
-      Calendar cal = Calendar.getInstance();
-      cal.setTime(dt);
-      cal.add(Calendar.SECOND, seconds);
-      Date newDate = cal.getTime();
-      newdateStr = date.format(newDate);
-    } catch (ParseException e) {
-      LOGGER.error("AuthenticationService - addSeconds() :: ERROR", e);
-    }
-    LOGGER.exit("StudyMetaDataUtil: addSeconds() - Ends ");
-    return newdateStr;
-  }
-
   public static String getMilliSecondsForImagePath() {
     LOGGER.entry("StudyMetaDataUtil: getMilliSecondsForImagePath() - Starts ");
     String milliSeconds;
@@ -818,19 +729,6 @@ public class StudyMetaDataUtil {
   }
 
   public static String getResources(String bucketName, String filepath, String dataFormat) {
-    try {
-      if (StringUtils.isNotBlank(filepath)) {
-        Storage storage = StorageOptions.getDefaultInstance().getService();
-        Blob blob = storage.get(BlobId.of(bucketName, filepath));
-        if (blob != null) {
-          ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-          blob.downloadTo(outputStream);
-          return dataFormat + java.util.Base64.getEncoder().encodeToString(blob.getContent());
-        }
-      }
-    } catch (Exception e) {
-      LOGGER.error("Unable to getResources", e);
-    }
-    return null;
+    return StudyResourceCache.getInstance().getResource(bucketName, filepath, dataFormat);
   }
 }
@@ -0,0 +1,321 @@
+/*
+ * Copyright © 2017-2018 Harvard Pilgrim Health Care Institute (HPHCI) and its Contributors.
+ * Copyright 2020-2021 Google LLC
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ *
+ * Funding Source: Food and Drug Administration ("Funding Agency") effective 18 September 2014 as Contract no.
+ * HHSF22320140030I/HHSF22301006T (the "Prime Contract").
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hphc.mystudies.util;
+
+import com.google.cloud.http.HttpTransportOptions;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.ext.XLogger;
+import org.slf4j.ext.XLoggerFactory;
+
+/**
+ * Study resources of the Cloud Storage bucket, e.g. the images of image choice questions, that are
+ * inlined in the study metadata responses. Resources are kept base64 encoded in a size-bounded LRU
+ * in memory and as files in a size-bounded directory on local disk, both keyed by the path and
+ * ETag of the object. A cached resource is served without any request to Cloud Storage for {@code
+ * study.resource.revalidate.seconds}, after which its ETag is checked again. With {@code
+ * study.resource.inline.images=false} images are not inlined and their public URL is returned
+ * instead, which requires the objects to be publicly readable.
+ */
+public class StudyResourceCache {
+
+  private static final XLogger LOGGER =
+      XLoggerFactory.getXLogger(StudyResourceCache.class.getName());
+
+  private static final StudyResourceCache INSTANCE = new StudyResourceCache();
+
+  @SuppressWarnings("unchecked")
+  HashMap<String, String> propMap = StudyMetaDataUtil.getAppProperties();
+
+  private final boolean inlineImages =
+      !"false".equalsIgnoreCase(propMap.get("study.resource.inline.images"));
+
+  private final long revalidateMillis =
+      TimeUnit.SECONDS.toMillis(
+          NumberUtils.toLong(propMap.get("study.resource.revalidate.seconds"), 300));
+
+  private final long memoryMaxBytes =
+      NumberUtils.toLong(propMap.get("study.resource.memory.max.bytes"), 64L * 1024 * 1024);
+
+  private final long diskMaxBytes =
+      NumberUtils.toLong(propMap.get("study.resource.disk.max.bytes"), 512L * 1024 * 1024);
+
+  private final File diskDir =
+      new File(
+          StringUtils.defaultIfBlank(
+              propMap.get("study.resource.disk.dir"),
+              new File(System.getProperty("java.io.tmpdir"), "study-datastore-resources")
+                  .getPath()));
+
+  private final Storage storage =
+      StorageOptions.newBuilder()
+          .setTransportOptions(
+              HttpTransportOptions.newBuilder()
+                  .setConnectTimeout(
+                      NumberUtils.toInt(propMap.get("study.resource.connect.timeout.ms"), 5000))
+                  .setReadTimeout(
+                      NumberUtils.toInt(propMap.get("study.resource.read.timeout.ms"), 10000))
+                  .build())
+          .build()
+          .getService();
+
+  private final ExecutorService prefetchExecutor =
+      Executors.newFixedThreadPool(
+          NumberUtils.toInt(propMap.get("study.resource.prefetch.threads"), 4),
+          runnable -> {
+            Thread thread = new Thread(runnable, "study-resource-prefetch");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private final LinkedHashMap<String, CachedResource> resources =
+      new LinkedHashMap<>(256, 0.75f, true);
+
+  private long memoryBytes = 0;
+
+  private final Object diskLock = new Object();
+
+  private long diskBytes = -1;
+
+  private StudyResourceCache() {}
+
+  public static StudyResourceCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param bucketName bucket of the resource
+   * @param filepath path of the resource in the bucket
+   * @param dataFormat data URI prefix of the resource, e.g. {@link
+   *     StudyMetaDataConstants#DATA_IMAGE}
+   * @return the resource as a data URI, its URL if it is an image and images are not inlined, or
+   *     null if it does not exist or could not be read
+   */
+  public String getResource(String bucketName, String filepath, String dataFormat) {
+    if (StringUtils.isBlank(filepath)) {
+      return null;
+    }
+    if (!inlineImages && StudyMetaDataConstants.DATA_IMAGE.equals(dataFormat)) {
+      return propMap.get("fda.imgDisplaydPath") + bucketName + "/" + filepath;
+    }
+    String key = bucketName + "/" + filepath;
+    CachedResource cached = cached(key);
+    long now = System.currentTimeMillis();
+    if (cached != null && cached.checkedAt + revalidateMillis > now) {
+      return dataFormat + cached.base64;
+    }
+    try {
+      Blob blob = storage.get(BlobId.of(bucketName, filepath));
+      if (blob == null) {
+        remove(key);
+        return null;
+      }
+      if (cached != null && cached.etag.equals(blob.getEtag())) {
+        cached.checkedAt = now;
+        return dataFormat + cached.base64;
+      }
+      return dataFormat + load(key, blob).base64;
+    } catch (Exception e) {
+      LOGGER.error("StudyResourceCache - getResource() - ERROR " + key, e);
+      // a stale resource is better than none while Cloud Storage is slow or unavailable
+      return cached == null ? null : dataFormat + cached.base64;
+    }
+  }
+
+  /**
+   * Loads the resources under the prefix into the cache in the background, e.g. the questionnaire
+   * images of a study once a new version of the study is published.
+   */
+  public void prefetch(String bucketName, String prefix) {
+    if (!inlineImages || StringUtils.isAnyBlank(bucketName, prefix)) {
+      return;
+    }
+    prefetchExecutor.execute(
+        () -> {
+          try {
+            for (Blob blob :
+                storage.list(bucketName, Storage.BlobListOption.prefix(prefix)).iterateAll()) {
+              if (blob.isDirectory() || blob.getName().endsWith("/")) {
+                continue;
+              }
+              prefetchExecutor.execute(() -> prefetch(blob));
+            }
+          } catch (Exception e) {
+            LOGGER.error("StudyResourceCache - prefetch() - ERROR " + prefix, e);
+          }
+        });
+  }
+
+  private void prefetch(Blob blob) {
+    String key = blob.getBucket() + "/" + blob.getName();
+    try {
+      CachedResource cached = cached(key);
+      if (cached == null || !cached.etag.equals(blob.getEtag())) {
+        load(key, blob);
+      }
+    } catch (Exception e) {
+      LOGGER.error("StudyResourceCache - prefetch() - ERROR " + key, e);
+    }
+  }
+
+  private CachedResource load(String key, Blob blob) throws IOException {
+    String etag = StringUtils.defaultString(blob.getEtag());
+    File file = new File(diskDir, fileName(key, etag));
+    byte[] content = readFromDisk(file);
+    if (content == null) {
+      content = blob.getContent();
+      writeToDisk(file, content);
+    }
+    CachedResource resource =
+        new CachedResource(etag, Base64.getEncoder().encodeToString(content));
+    put(key, resource);
+    return resource;
+  }
+
+  private synchronized CachedResource cached(String key) {
+    return resources.get(key);
+  }
+
+  private synchronized void remove(String key) {
+    CachedResource previous = resources.remove(key);
+    if (previous != null) {
+      memoryBytes -= previous.size();
+    }
+  }
+
+  private synchronized void put(String key, CachedResource resource) {
+    if (resource.size() > memoryMaxBytes) {
+      return;
+    }
+    CachedResource previous = resources.put(key, resource);
+    memoryBytes += resource.size() - (previous == null ? 0 : previous.size());
+    Iterator<CachedResource> eldest = resources.values().iterator();
+    while (memoryBytes > memoryMaxBytes && eldest.hasNext()) {
+      memoryBytes -= eldest.next().size();
+      eldest.remove();
+    }
+  }
+
+  private byte[] readFromDisk(File file) {
+    if (diskMaxBytes <= 0 || !file.isFile()) {
+      return null;
+    }
+    try {
+      byte[] content = Files.readAllBytes(file.toPath());
+      file.setLastModified(System.currentTimeMillis());
+      return content;
+    } catch (IOException e) {
+      LOGGER.warn("StudyResourceCache - readFromDisk() - unreadable " + file, e);
+      return null;
+    }
+  }
+
+  private void writeToDisk(File file, byte[] content) {
+    if (diskMaxBytes <= 0 || content.length > diskMaxBytes) {
+      return;
+    }
+    synchronized (diskLock) {
+      try {
+        if (diskBytes < 0) {
+          diskDir.mkdirs();
+          diskBytes = 0;
+          for (File cachedFile : listDiskFiles()) {
+            diskBytes += cachedFile.length();
+          }
+        }
+        File tempFile = new File(diskDir, file.getName() + ".tmp");
+        Files.write(tempFile.toPath(), content);
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        diskBytes += content.length;
+        if (diskBytes > diskMaxBytes) {
+          File[] cachedFiles = listDiskFiles();
+          Arrays.sort(cachedFiles, Comparator.comparingLong(File::lastModified));
+          for (File cachedFile : cachedFiles) {
+            if (diskBytes <= diskMaxBytes) {
+              break;
+            }
+            long length = cachedFile.length();
+            if (!cachedFile.equals(file) && cachedFile.delete()) {
+              diskBytes -= length;
+            }
+          }
+        }
+      } catch (IOException e) {
+        LOGGER.warn("StudyResourceCache - writeToDisk() - not cached " + file, e);
+      }
+    }
+  }
+
+  private File[] listDiskFiles() {
+    File[] files = diskDir.listFiles((dir, name) -> !name.endsWith(".tmp"));
+    return files == null ? new File[0] : files;
+  }
+
+  private static String fileName(String key, String etag) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(key.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(etag.getBytes(StandardCharsets.UTF_8));
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest());
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class CachedResource {
+    private final String etag;
+    private final String base64;
+    private volatile long checkedAt = System.currentTimeMillis();
+
+    private CachedResource(String etag, String base64) {
+      this.etag = etag;
+      this.base64 = base64;
+    }
+
+    private long size() {
+      return base64.length();
+    }
+  }
+}
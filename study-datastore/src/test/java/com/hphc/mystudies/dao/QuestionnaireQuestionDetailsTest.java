@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2017-2018 Harvard Pilgrim Health Care Institute (HPHCI) and its Contributors.
+ * Copyright 2020-2021 Google LLC
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ *
+ * Funding Source: Food and Drug Administration ("Funding Agency") effective 18 September 2014 as Contract no.
+ * HHSF22320140030I/HHSF22301006T (the "Prime Contract").
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hphc.mystudies.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.hphc.mystudies.dto.QuestionReponseTypeDto;
+import com.hphc.mystudies.dto.QuestionResponseSubTypeDto;
+import com.hphc.mystudies.dto.QuestionsDto;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.Statistics;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QuestionnaireQuestionDetailsTest {
+
+  /** One query each for the form questions, the response types and the response sub types. */
+  private static final long QUERIES_PER_QUESTIONNAIRE = 3;
+
+  private static SessionFactory sessionFactory;
+
+  @BeforeClass
+  public static void buildSessionFactory() {
+    sessionFactory =
+        new Configuration()
+            .addAnnotatedClass(QuestionsDto.class)
+            .addAnnotatedClass(QuestionReponseTypeDto.class)
+            .addAnnotatedClass(QuestionResponseSubTypeDto.class)
+            .setProperty("hibernate.connection.driver_class", "org.h2.Driver")
+            .setProperty(
+                "hibernate.connection.url", "jdbc:h2:mem:questions;MODE=MySQL;DB_CLOSE_DELAY=-1")
+            .setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect")
+            .setProperty("hibernate.globally_quoted_identifiers", "true")
+            .setProperty("hibernate.hbm2ddl.auto", "create-drop")
+            .setProperty("hibernate.cache.use_second_level_cache", "false")
+            .setProperty("hibernate.generate_statistics", "true")
+            .buildSessionFactory();
+  }
+
+  @AfterClass
+  public static void closeSessionFactory() {
+    sessionFactory.close();
+  }
+
+  @Test
+  public void shouldLoadDetailsOfSmallQuestionnaireWithFixedQueries() {
+    assertQueriesAreFixed(5, 2);
+  }
+
+  @Test
+  public void shouldLoadDetailsOfLargeQuestionnaireWithFixedQueries() {
+    assertQueriesAreFixed(150, 40);
+  }
+
+  @Test
+  public void shouldReturnNoDetailsForUnknownQuestion() {
+    QuestionnaireQuestionDetails details = load(saveQuestions(1), saveQuestions(1));
+
+    assertNull(details.formQuestion("unknown"));
+    assertNull(details.responseType("unknown"));
+    assertTrue(details.responseSubTypes("unknown").isEmpty());
+  }
+
+  @Test
+  public void shouldNotQueryQuestionnaireWithoutQuestions() {
+    Statistics statistics = sessionFactory.getStatistics();
+    statistics.clear();
+
+    load(Collections.<String>emptyList(), Collections.<String>emptyList());
+
+    assertEquals(0, statistics.getPrepareStatementCount());
+  }
+
+  private void assertQueriesAreFixed(int questionCount, int formQuestionCount) {
+    List<String> questionIds = saveQuestions(questionCount);
+    List<String> formQuestionIds = saveQuestions(formQuestionCount);
+    Statistics statistics = sessionFactory.getStatistics();
+    statistics.clear();
+
+    QuestionnaireQuestionDetails details = load(questionIds, formQuestionIds);
+
+    assertEquals(QUERIES_PER_QUESTIONNAIRE, statistics.getPrepareStatementCount());
+    for (String questionId : questionIds) {
+      assertEquals(questionId, details.responseType(questionId).getQuestionsResponseTypeId());
+      assertEquals(2, details.responseSubTypes(questionId).size());
+    }
+    for (String formQuestionId : formQuestionIds) {
+      assertNotNull(details.formQuestion(formQuestionId));
+      assertEquals(
+          formQuestionId, details.responseType(formQuestionId).getQuestionsResponseTypeId());
+      assertEquals(2, details.responseSubTypes(formQuestionId).size());
+    }
+  }
+
+  private QuestionnaireQuestionDetails load(
+      List<String> questionIds, List<String> formQuestionIds) {
+    try (Session session = sessionFactory.openSession()) {
+      return QuestionnaireQuestionDetails.load(session, questionIds, formQuestionIds);
+    }
+  }
+
+  /** Saves questions, each with a response type and two response sub types. */
+  private List<String> saveQuestions(int count) {
+    List<String> questionIds = new ArrayList<>();
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      for (int i = 0; i < count; i++) {
+        QuestionsDto question = new QuestionsDto();
+        question.setQuestion("Question " + i);
+        String questionId = (String) session.save(question);
+        questionIds.add(questionId);
+
+        QuestionReponseTypeDto responseType = new QuestionReponseTypeDto();
+        responseType.setQuestionsResponseTypeId(questionId);
+        session.save(responseType);
+        for (int choice = 0; choice < 2; choice++) {
+          QuestionResponseSubTypeDto responseSubType = new QuestionResponseSubTypeDto();
+          responseSubType.setResponseTypeId(questionId);
+          responseSubType.setText("Choice " + choice);
+          responseSubType.setValue(String.valueOf(choice));
+          session.save(responseSubType);
+        }
+      }
+      transaction.commit();
+    }
+    return questionIds;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2017-2018 Harvard Pilgrim Health Care Institute (HPHCI) and its Contributors.
+ * Copyright 2020-2021 Google LLC
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ *
+ * Funding Source: Food and Drug Administration ("Funding Agency") effective 18 September 2014 as Contract no.
+ * HHSF22320140030I/HHSF22301006T (the "Prime Contract").
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hphc.mystudies.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.hphc.mystudies.bean.ActivityFrequencyScheduleBean;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Golden runs of the former string and Calendar based schedule computation. */
+public class ActivityScheduleEngineTest {
+
+  private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+  private static final LocalDate BEFORE_LIFETIME = LocalDate.of(2021, 1, 1);
+
+  private TimeZone defaultTimeZone;
+
+  private Locale defaultLocale;
+
+  @Before
+  public void setUp() {
+    defaultTimeZone = TimeZone.getDefault();
+    defaultLocale = Locale.getDefault();
+    TimeZone.setDefault(TimeZone.getTimeZone(NEW_YORK));
+    Locale.setDefault(Locale.US);
+  }
+
+  @After
+  public void tearDown() {
+    TimeZone.setDefault(defaultTimeZone);
+    Locale.setDefault(defaultLocale);
+  }
+
+  @Test
+  public void shouldClampMonthlyRunsToLastDayOfShorterMonths() {
+    assertEquals(
+        Arrays.asList(
+            "2021-01-31/2021-02-28",
+            "2021-02-28/2021-03-28",
+            "2021-03-28/2021-04-28",
+            "2021-04-28/2021-05-28"),
+        runs(ActivityScheduleEngine.monthlyRuns("2021-01-31", "2021-12-31", 4, BEFORE_LIFETIME)));
+    assertEquals(
+        Arrays.asList("2024-01-31/2024-02-29", "2024-02-29/2024-03-29"),
+        runs(ActivityScheduleEngine.monthlyRuns("2024-01-31", "2024-12-31", 2, BEFORE_LIFETIME)));
+  }
+
+  @Test
+  public void shouldEndLastMonthlyRunWithLifetime() {
+    assertEquals(
+        Arrays.asList("2021-01-31/2021-02-28", "2021-02-28/2021-03-15"),
+        runs(ActivityScheduleEngine.monthlyRuns("2021-01-31", "2021-03-15", 12, BEFORE_LIFETIME)));
+  }
+
+  @Test
+  public void shouldLeaveOutRunsThatEndedBeforeToday() {
+    assertEquals(
+        Arrays.asList(
+            "2021-02-28/2021-03-28", "2021-03-28/2021-04-28", "2021-04-28/2021-05-28"),
+        runs(
+            ActivityScheduleEngine.monthlyRuns(
+                "2021-01-31", "2021-12-31", 4, LocalDate.of(2021, 3, 28))));
+    assertEquals(
+        Arrays.asList("2021-03-22/2021-03-29"),
+        runs(
+            ActivityScheduleEngine.weeklyRuns(
+                "2021-03-03", "2021-12-31", "Monday", 3, LocalDate.of(2021, 3, 23))));
+  }
+
+  @Test
+  public void shouldStartWeeklyRunsOnTheirDay() {
+    assertEquals(
+        Arrays.asList("2021-03-08/2021-03-15", "2021-03-15/2021-03-22", "2021-03-22/2021-03-25"),
+        runs(
+            ActivityScheduleEngine.weeklyRuns(
+                "2021-03-03", "2021-03-25", "Monday", 5, BEFORE_LIFETIME)));
+    assertEquals(
+        Arrays.asList("2021-03-03/2021-03-10"),
+        runs(
+            ActivityScheduleEngine.weeklyRuns(
+                "2021-03-03", "2021-12-31", "wednesday", 1, BEFORE_LIFETIME)));
+  }
+
+  @Test
+  public void shouldHaveNoWeeklyRunsForUnknownDay() {
+    assertTrue(
+        ActivityScheduleEngine.weeklyRuns("2021-03-03", "2021-12-31", "Someday", 3, BEFORE_LIFETIME)
+            .isEmpty());
+  }
+
+  @Test
+  public void shouldEndDailyRunsASecondBeforeTheNextRun() {
+    assertEquals(
+        Arrays.asList("08:00:00/09:29:59", "9:30:00/19:59:59", "20:00:00/23:59:59"),
+        runs(ActivityScheduleEngine.dailyRuns(Arrays.asList("08:00:00", "9:30:00", "20:00:00"))));
+  }
+
+  @Test
+  public void shouldUseStandardTimeForTimesRepeatedWhenDaylightSavingTimeEnds() {
+    assertEquals(
+        "2021-11-07T01:30:00.000-0500",
+        ActivityScheduleEngine.formatDateTime("2021-11-07", "01:30:00"));
+    assertEquals(
+        "2021-11-07T00:59:59.000-0400",
+        ActivityScheduleEngine.formatDateTime("2021-11-07", "00:59:59"));
+    assertEquals(
+        "2021-11-07T02:00:00.000-0500",
+        ActivityScheduleEngine.formatDateTime("2021-11-07", "02:00:00"));
+  }
+
+  @Test
+  public void shouldMoveTimesSkippedWhenDaylightSavingTimeStartsForward() {
+    assertEquals(
+        "2021-03-14T03:30:00.000-0400",
+        ActivityScheduleEngine.formatDateTime("2021-03-14", "02:30:00"));
+  }
+
+  @Test
+  public void shouldFormatOneTimeAndManualRunsAsTimestamps() {
+    assertEquals(
+        Arrays.asList("2021-11-07T00:00:00.000-0400/2021-11-08T00:00:00.000-0500"),
+        runs(ActivityScheduleEngine.oneTimeRuns("2021-11-07", "2021-11-08")));
+    assertEquals(
+        "2021-11-07T10:15:00.000-0500/2021-11-09T18:00:00.000-0500",
+        run(ActivityScheduleEngine.manualRun("2021-11-07", "10:15", "2021-11-09", "18:00:00")));
+    assertEquals(
+        "2021-11-09T18:00:00.000-0500/2021-11-09T18:00:00.000-0500",
+        run(ActivityScheduleEngine.manualRun("", "", "2021-11-09", "18:00")));
+    assertEquals("/", run(ActivityScheduleEngine.manualRun("", "", "", "")));
+  }
+
+  @Test
+  public void shouldTakeTodayInNewYorkWhateverTheServerTimeZone() {
+    TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+
+    LocalDate before = LocalDate.now(NEW_YORK);
+    LocalDate today = ActivityScheduleEngine.today();
+    LocalDate after = LocalDate.now(NEW_YORK);
+
+    assertTrue(today.equals(before) || today.equals(after));
+  }
+
+  private static List<String> runs(List<ActivityFrequencyScheduleBean> runs) {
+    List<String> startsAndEnds = new ArrayList<>();
+    for (ActivityFrequencyScheduleBean run : runs) {
+      startsAndEnds.add(run(run));
+    }
+    return startsAndEnds;
+  }
+
+  private static String run(ActivityFrequencyScheduleBean run) {
+    return run.getStartTime() + "/" + run.getEndTime();
+  }
+}
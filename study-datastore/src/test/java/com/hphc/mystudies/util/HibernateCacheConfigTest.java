@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2017-2018 Harvard Pilgrim Health Care Institute (HPHCI) and its Contributors.
+ * Copyright 2020-2021 Google LLC
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do so, subject to the
+ * following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial
+ * portions of the Software.
+ *
+ * Funding Source: Food and Drug Administration ("Funding Agency") effective 18 September 2014 as Contract no.
+ * HHSF22320140030I/HHSF22301006T (the "Prime Contract").
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NON-INFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.hphc.mystudies.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.hphc.mystudies.dto.QuestionResponsetypeMasterInfoDto;
+import com.hphc.mystudies.dto.ReferenceTablesDto;
+import com.hphc.mystudies.dto.StudyDto;
+import com.hphc.mystudies.dto.StudyVersionDto;
+import java.util.Arrays;
+import java.util.List;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.Statistics;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class HibernateCacheConfigTest {
+
+  private static SessionFactory sessionFactory;
+
+  /** Uses the cache settings of hibernate.cfg.xml with an in-memory database. */
+  @BeforeClass
+  public static void buildSessionFactory() throws Exception {
+    sessionFactory =
+        new Configuration()
+            .addAnnotatedClass(StudyDto.class)
+            .addAnnotatedClass(StudyVersionDto.class)
+            .addAnnotatedClass(ReferenceTablesDto.class)
+            .addAnnotatedClass(QuestionResponsetypeMasterInfoDto.class)
+            .setProperty("hibernate.connection.driver_class", "org.h2.Driver")
+            .setProperty(
+                "hibernate.connection.url", "jdbc:h2:mem:cache;MODE=MySQL;DB_CLOSE_DELAY=-1")
+            .setProperty("hibernate.dialect", "org.hibernate.dialect.H2Dialect")
+            .setProperty("hibernate.globally_quoted_identifiers", "true")
+            .setProperty("hibernate.hbm2ddl.auto", "create-drop")
+            .setProperty("hibernate.cache.use_second_level_cache", "true")
+            .setProperty("hibernate.cache.use_query_cache", "true")
+            .setProperty(
+                "hibernate.cache.region.factory_class",
+                "org.hibernate.cache.jcache.internal.JCacheRegionFactory")
+            .setProperty(ConfigSettings.PROVIDER, "org.ehcache.jsr107.EhcacheCachingProvider")
+            .setProperty(
+                ConfigSettings.CONFIG_URI, HibernateUtil.resolveCacheConfigUri("ehcache.xml"))
+            .setProperty(ConfigSettings.MISSING_CACHE_STRATEGY, "fail")
+            .setProperty("hibernate.generate_statistics", "true")
+            .buildSessionFactory();
+  }
+
+  @AfterClass
+  public static void closeSessionFactory() {
+    sessionFactory.close();
+  }
+
+  @Test
+  public void shouldKeepAbsoluteCacheConfigUri() throws Exception {
+    assertEquals(
+        "file:/etc/ehcache.xml", HibernateUtil.resolveCacheConfigUri("file:/etc/ehcache.xml"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldRejectCacheConfigMissingFromClasspath() throws Exception {
+    HibernateUtil.resolveCacheConfigUri("missing-ehcache.xml");
+  }
+
+  @Test
+  public void shouldConfigureEveryCacheRegion() {
+    List<String> regionNames =
+        Arrays.asList(sessionFactory.getStatistics().getSecondLevelCacheRegionNames());
+
+    assertTrue(
+        regionNames.containsAll(
+            Arrays.asList(
+                "study", "studyVersion", "referenceTables", "questionResponseTypeMaster")));
+  }
+
+  @Test
+  public void shouldServeRepeatedStudyVersionQueryFromCache() {
+    try (Session session = sessionFactory.openSession()) {
+      Transaction transaction = session.beginTransaction();
+      StudyVersionDto studyVersion = new StudyVersionDto();
+      studyVersion.setCustomStudyId("CACHED001");
+      studyVersion.setStudyVersion(1.0f);
+      session.save(studyVersion);
+      transaction.commit();
+    }
+    Statistics statistics = sessionFactory.getStatistics();
+    statistics.clear();
+
+    assertEquals(1, findStudyVersions("CACHED001").size());
+    assertEquals(1, findStudyVersions("CACHED001").size());
+
+    assertEquals(1, statistics.getPrepareStatementCount());
+    assertEquals(1, statistics.getQueryCacheHitCount());
+  }
+
+  private List<?> findStudyVersions(String customStudyId) {
+    try (Session session = sessionFactory.openSession()) {
+      return session
+          .getNamedQuery("getStudyVersionsByCustomStudyId")
+          .setParameter("customStudyId", customStudyId)
+          .list();
+    }
+  }
+}